@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.client.cli;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.dockstore.common.Registry;
+import io.dockstore.webservice.DockstoreWebserviceApplication;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.ToolMode;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.core.WorkflowMode;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dockstore.webservice.jdbi.WorkflowDAO;
+import io.dropwizard.testing.ResourceHelpers;
+import io.dropwizard.testing.junit.DropwizardAppRule;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * Organizations are stored with the case they were registered with, they are listed in lower case and looked up ignoring case
+ *
+ * @author dyuen
+ */
+public class PublishedOrganizationsIT {
+
+    @ClassRule
+    public static final DropwizardAppRule<DockstoreWebserviceConfiguration> RULE = new DropwizardAppRule<>(
+            DockstoreWebserviceApplication.class, ResourceHelpers.resourceFilePath("advancedIndexingTest.yml"));
+
+    private SessionFactory sessionFactory;
+    private Session session;
+    private ToolDAO toolDAO;
+    private WorkflowDAO workflowDAO;
+
+    @Before
+    public void setUp() {
+        DockstoreWebserviceApplication application = RULE.getApplication();
+        sessionFactory = application.getHibernate().getSessionFactory();
+        session = sessionFactory.openSession();
+        ManagedSessionContext.bind(session);
+        toolDAO = new ToolDAO(sessionFactory);
+        workflowDAO = new WorkflowDAO(sessionFactory);
+
+        session.beginTransaction();
+        toolDAO.create(tool("GA4GH", "dockstore-tool-bamstats", true));
+        toolDAO.create(tool("ga4gh", "dockstore-tool-md5sum", true));
+        toolDAO.create(tool("Ga4gh", "dockstore-tool-fastqc", false));
+        toolDAO.create(tool("collaboratory", "dockstore-tool-linux-sort", true));
+        workflowDAO.create(workflow("DockStore", "hello-bamstats", true));
+        workflowDAO.create(workflow("dockstore", "hello-md5sum", false));
+        session.getTransaction().commit();
+        session.clear();
+    }
+
+    @After
+    public void tearDown() {
+        session.beginTransaction();
+        session.createQuery("DELETE FROM Tool").executeUpdate();
+        session.createQuery("DELETE FROM Workflow").executeUpdate();
+        session.getTransaction().commit();
+        ManagedSessionContext.unbind(sessionFactory);
+        session.close();
+    }
+
+    private static Tool tool(String namespace, String name, boolean published) {
+        Tool tool = new Tool();
+        tool.setMode(ToolMode.MANUAL_IMAGE_PATH);
+        tool.setRegistry(Registry.QUAY_IO);
+        tool.setNamespace(namespace);
+        tool.setName(name);
+        tool.setToolname("");
+        tool.setPath(Registry.QUAY_IO.toString() + '/' + namespace + '/' + name);
+        tool.setGitUrl("git@github.com:" + namespace + '/' + name + ".git");
+        tool.setIsPublished(published);
+        return tool;
+    }
+
+    private static Workflow workflow(String organization, String repository, boolean published) {
+        Workflow workflow = new Workflow();
+        workflow.setMode(WorkflowMode.FULL);
+        workflow.setOrganization(organization);
+        workflow.setRepository(repository);
+        workflow.setPath("github.com/" + organization + '/' + repository);
+        workflow.setGitUrl("git@github.com:" + organization + '/' + repository + ".git");
+        workflow.setDescriptorType("cwl");
+        workflow.setDefaultWorkflowPath("/Dockstore.cwl");
+        workflow.setIsPublished(published);
+        return workflow;
+    }
+
+    @Test
+    public void organizationsAreListedInLowerCase() {
+        List<String> namespaces = toolDAO.findPublishedNamespaces();
+        Collections.sort(namespaces);
+        Assert.assertEquals("distinct", Arrays.asList("collaboratory", "ga4gh"), namespaces);
+        Assert.assertEquals(Collections.singletonList("dockstore"), workflowDAO.findPublishedOrganizations());
+    }
+
+    @Test
+    public void organizationsAreLookedUpIgnoringCase() {
+        for (String namespace : Arrays.asList("ga4gh", "GA4GH", "gA4Gh")) {
+            Assert.assertEquals(namespace, 2, toolDAO.findPublishedKeysByNamespace(namespace).size());
+            List<Tool> tools = toolDAO.findPublishedByNamespace(namespace);
+            Assert.assertEquals(namespace, 2, tools.size());
+            Assert.assertTrue(tools.stream().allMatch(Tool::getIsPublished));
+        }
+        for (String organization : Arrays.asList("dockstore", "DOCKSTORE", "DockStore")) {
+            Assert.assertEquals(organization, 1, workflowDAO.findPublishedKeysByOrganization(organization).size());
+            Assert.assertEquals(organization, 1, workflowDAO.findPublishedByOrganization(organization).size());
+        }
+        Assert.assertTrue(toolDAO.findPublishedKeysByNamespace("ga4").isEmpty());
+        Assert.assertTrue(workflowDAO.findPublishedByOrganization("ga4gh").isEmpty());
+    }
+}
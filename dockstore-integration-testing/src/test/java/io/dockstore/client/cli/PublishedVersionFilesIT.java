@@ -0,0 +1,176 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.client.cli;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.dockstore.common.Registry;
+import io.dockstore.webservice.DockstoreWebserviceApplication;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration;
+import io.dockstore.webservice.core.SourceFile;
+import io.dockstore.webservice.core.Tag;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.ToolMode;
+import io.dockstore.webservice.jdbi.FileDAO;
+import io.dockstore.webservice.jdbi.TagDAO;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dropwizard.testing.ResourceHelpers;
+import io.dropwizard.testing.junit.DropwizardAppRule;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * The files of a single version are looked up without loading the entry, only published entries and visible versions are searched
+ *
+ * @author dyuen
+ */
+public class PublishedVersionFilesIT {
+
+    @ClassRule
+    public static final DropwizardAppRule<DockstoreWebserviceConfiguration> RULE = new DropwizardAppRule<>(
+            DockstoreWebserviceApplication.class, ResourceHelpers.resourceFilePath("advancedIndexingTest.yml"));
+
+    private static final String PUBLISHED = "quay.io/ga4gh/dockstore-tool-bamstats";
+    private static final String UNPUBLISHED = "quay.io/ga4gh/dockstore-tool-md5sum";
+
+    private SessionFactory sessionFactory;
+    private Session session;
+    private FileDAO fileDAO;
+
+    @Before
+    public void setUp() {
+        DockstoreWebserviceApplication application = RULE.getApplication();
+        sessionFactory = application.getHibernate().getSessionFactory();
+        session = sessionFactory.openSession();
+        ManagedSessionContext.bind(session);
+        fileDAO = new FileDAO(sessionFactory);
+
+        session.beginTransaction();
+        ToolDAO toolDAO = new ToolDAO(sessionFactory);
+        TagDAO tagDAO = new TagDAO(sessionFactory);
+        for (Tool tool : Arrays.asList(tool(PUBLISHED, true), tool(UNPUBLISHED, false))) {
+            Tag tag = new Tag();
+            tag.setName("1.0");
+            tag.setReference("1.0");
+            tag.setImageId("b9cd4a9e4e8f");
+            tag.setCwlPath("/Dockstore.cwl");
+            tag.setDockerfilePath("/Dockerfile");
+            tag.addSourceFile(file("/Dockstore.cwl", SourceFile.FileType.DOCKSTORE_CWL, "cwlVersion: v1.0"));
+            tag.addSourceFile(file("tools/bamstats.cwl", SourceFile.FileType.DOCKSTORE_CWL, "class: CommandLineTool"));
+            tag.addSourceFile(file("/Dockerfile", SourceFile.FileType.DOCKERFILE, "FROM ubuntu:16.04"));
+            tagDAO.create(tag);
+            tool.addTag(tag);
+            toolDAO.create(tool);
+        }
+        session.getTransaction().commit();
+        session.clear();
+    }
+
+    @After
+    public void tearDown() {
+        session.beginTransaction();
+        // the tags and their files go with the tools
+        session.createQuery("FROM Tool", Tool.class).getResultList().forEach(session::delete);
+        session.getTransaction().commit();
+        ManagedSessionContext.unbind(sessionFactory);
+        session.close();
+    }
+
+    private static Tool tool(String path, boolean published) {
+        List<String> segments = Arrays.asList(path.split("/"));
+        Tool tool = new Tool();
+        tool.setMode(ToolMode.MANUAL_IMAGE_PATH);
+        tool.setRegistry(Registry.QUAY_IO);
+        tool.setNamespace(segments.get(1));
+        tool.setName(segments.get(2));
+        tool.setToolname("");
+        tool.setPath(path);
+        tool.setGitUrl("git@github.com:" + segments.get(1) + '/' + segments.get(2) + ".git");
+        tool.setIsPublished(published);
+        return tool;
+    }
+
+    private static SourceFile file(String path, SourceFile.FileType type, String content) {
+        SourceFile file = new SourceFile();
+        file.setPath(path);
+        file.setType(type);
+        file.setContent(content);
+        return file;
+    }
+
+    private List<FileDAO.VersionFile> files(String path, String filePath) {
+        return fileDAO.findPublishedVersionFiles(true, path, "", "1.0", null, filePath, false);
+    }
+
+    private List<FileDAO.FileStamp> stamps(String path, String filePath) {
+        return fileDAO.findPublishedVersionFileStamps(true, path, "", "1.0", null, filePath, false);
+    }
+
+    @Test
+    public void primaryFilesAreFound() {
+        List<FileDAO.VersionFile> descriptors = fileDAO.findPublishedVersionFiles(true, PUBLISHED, "", "1.0",
+                SourceFile.FileType.DOCKSTORE_CWL, null, true);
+        Assert.assertEquals(1, descriptors.size());
+        Assert.assertEquals("cwlVersion: v1.0", descriptors.get(0).getSourceFile().getContent());
+        Assert.assertEquals("/Dockstore.cwl", descriptors.get(0).getPrimaryPath());
+
+        List<FileDAO.FileStamp> stamps = fileDAO.findPublishedVersionFileStamps(true, PUBLISHED, "", "1.0",
+                SourceFile.FileType.DOCKSTORE_CWL, null, true);
+        Assert.assertEquals(1, stamps.size());
+        Assert.assertEquals(descriptors.get(0).getSourceFile().getContentDigest(), stamps.get(0).getContentDigest());
+        Assert.assertNotNull("the update of the entry", stamps.get(0).getUpdated());
+    }
+
+    @Test
+    public void pathsAreMatchedWithOrWithoutALeadingSlash() {
+        for (String filePath : Arrays.asList("/Dockstore.cwl", "Dockstore.cwl", "/DOCKSTORE.CWL")) {
+            Assert.assertEquals(filePath, "cwlVersion: v1.0", files(PUBLISHED, filePath).get(0).getSourceFile().getContent());
+            Assert.assertEquals(filePath, "/Dockstore.cwl", stamps(PUBLISHED, filePath).get(0).getPath());
+        }
+        for (String filePath : Arrays.asList("tools/bamstats.cwl", "/tools/bamstats.cwl")) {
+            Assert.assertEquals(filePath, "class: CommandLineTool", files(PUBLISHED, filePath).get(0).getSourceFile().getContent());
+            Assert.assertEquals(filePath, "tools/bamstats.cwl", stamps(PUBLISHED, filePath).get(0).getPath());
+        }
+        Assert.assertTrue("only a leading slash is ignored", files(PUBLISHED, "bamstats.cwl").isEmpty());
+    }
+
+    @Test
+    public void missingFilesAreNotFound() {
+        Assert.assertTrue(files(PUBLISHED, "/Dockstore.wdl").isEmpty());
+        Assert.assertTrue(stamps(PUBLISHED, "/Dockstore.wdl").isEmpty());
+        Assert.assertTrue("the version exists", fileDAO.publishedVersionExists(true, PUBLISHED, "", "1.0"));
+        Assert.assertFalse(fileDAO.publishedVersionExists(true, PUBLISHED, "", "2.0"));
+        Assert.assertFalse("so it is not found rather than refused", fileDAO.unpublishedEntryExists(true, PUBLISHED, ""));
+        Assert.assertFalse(fileDAO.unpublishedEntryExists(true, "quay.io/ga4gh/dockstore-tool-missing", ""));
+    }
+
+    @Test
+    public void filesOfUnpublishedEntriesAreNotFound() {
+        Assert.assertTrue(files(UNPUBLISHED, "/Dockstore.cwl").isEmpty());
+        Assert.assertTrue(stamps(UNPUBLISHED, "/Dockstore.cwl").isEmpty());
+        Assert.assertTrue(fileDAO.findPublishedVersionFiles(true, UNPUBLISHED, "", "1.0", SourceFile.FileType.DOCKERFILE, null, true)
+                .isEmpty());
+        Assert.assertFalse(fileDAO.publishedVersionExists(true, UNPUBLISHED, "", "1.0"));
+        Assert.assertTrue("so they are refused", fileDAO.unpublishedEntryExists(true, UNPUBLISHED, ""));
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.dockstore.client.cli;
+
+import java.io.InputStream;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import io.dockstore.common.BenchmarkTest;
+import io.dockstore.common.Registry;
+import io.dockstore.webservice.DockstoreWebserviceApplication;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration;
+import io.dockstore.webservice.core.Label;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.ToolMode;
+import io.dockstore.webservice.jdbi.LabelDAO;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dropwizard.testing.ResourceHelpers;
+import io.dropwizard.testing.junit.DropwizardAppRule;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.SystemErrRule;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Compares the full text search of searchPattern with the LIKE scan it replaced, on a large amount of published tools
+ *
+ * @author dyuen
+ */
+@Category(BenchmarkTest.class)
+public class SearchPatternBenchmarkIT {
+
+    @Rule
+    public final SystemOutRule systemOutRule = new SystemOutRule().enableLog().muteForSuccessfulTests();
+
+    @Rule
+    public final SystemErrRule systemErrRule = new SystemErrRule().enableLog().muteForSuccessfulTests();
+
+    private static final int TOOL_COUNT = 50000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int QUERY_COUNT = 50;
+    private static final int MAX_LABELS_PER_TOOL = 5;
+    private static final int PAGE_SIZE = 100;
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchPatternBenchmarkIT.class);
+    private static final String CONFIG_PATH = ResourceHelpers.resourceFilePath("advancedIndexingTest.yml");
+    @ClassRule
+    public static final DropwizardAppRule<DockstoreWebserviceConfiguration> RULE = new DropwizardAppRule<>(
+            DockstoreWebserviceApplication.class, CONFIG_PATH);
+    private static final String LEXICON = "abcdefghijklmnopqrstuvwxyz12345674890";
+    private static final Random RAND = new Random();
+    private final Set<String> identifiers = new HashSet<>();
+    private final List<String> names = new ArrayList<>();
+    private List<Label> labels;
+    private SessionFactory sessionFactory;
+    private Session session;
+
+    private String randomIdentifier() {
+        String identifier;
+        do {
+            StringBuilder builder = new StringBuilder();
+            int length = RAND.nextInt(5) + 5;
+            for (int i = 0; i < length; i++) {
+                builder.append(LEXICON.charAt(RAND.nextInt(LEXICON.length())));
+            }
+            identifier = builder.toString();
+        } while (!identifiers.add(identifier));
+        return identifier;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        DockstoreWebserviceApplication application = RULE.getApplication();
+        sessionFactory = application.getHibernate().getSessionFactory();
+        session = sessionFactory.openSession();
+        ManagedSessionContext.bind(session);
+        createSearchIndexes();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ManagedSessionContext.unbind(sessionFactory);
+        session.close();
+    }
+
+    @Test
+    public void testSearchPatternAgainstLike() throws Exception {
+        createTools();
+        ToolDAO toolDAO = new ToolDAO(sessionFactory);
+
+        long likeTime = 0;
+        long searchTime = 0;
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            String name = names.get(RAND.nextInt(names.size()));
+            // users type the start of a word
+            String word = name.substring(0, 3 + RAND.nextInt(name.length() - 2));
+
+            long start = System.nanoTime();
+            List<Tool> likeResults = session.getNamedQuery("io.dockstore.webservice.core.Tool.searchPattern")
+                    .setParameter("pattern", '%' + word + '%').setMaxResults(PAGE_SIZE).list();
+            likeTime += System.nanoTime() - start;
+            session.clear();
+
+            start = System.nanoTime();
+            List<Tool> searchResults = toolDAO.searchPattern(word, 0, PAGE_SIZE);
+            searchTime += System.nanoTime() - start;
+            session.clear();
+
+            assertTrue("LIKE found nothing for " + word, !likeResults.isEmpty());
+            assertTrue("full text search found nothing for " + word, !searchResults.isEmpty());
+        }
+        LOGGER.error("Average LIKE search over " + TOOL_COUNT + " tools: " + TimeUnit.NANOSECONDS.toMicros(likeTime / QUERY_COUNT) + " us");
+        LOGGER.error("Average full text search over " + TOOL_COUNT + " tools: " + TimeUnit.NANOSECONDS.toMicros(searchTime / QUERY_COUNT)
+                + " us");
+    }
+
+    /**
+     * The test database is created by hibernate, add the indexes that migrations.xml adds to a real database
+     */
+    private void createSearchIndexes() throws Exception {
+        String sql = null;
+        try (InputStream migrations = DockstoreWebserviceApplication.class.getClassLoader().getResourceAsStream("migrations.xml")) {
+            NodeList changeSets = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(migrations)
+                    .getElementsByTagName("changeSet");
+            for (int i = 0; i < changeSets.getLength(); i++) {
+                Element changeSet = (Element)changeSets.item(i);
+                if ("searchvectors".equals(changeSet.getAttribute("id"))) {
+                    sql = changeSet.getElementsByTagName("sql").item(0).getTextContent();
+                }
+            }
+        }
+        assertTrue("migrations.xml should create the search indexes", sql != null);
+        String[] statements = sql.split(";");
+        session.beginTransaction();
+        session.doWork(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String indexStatement : statements) {
+                    if (!indexStatement.trim().isEmpty()) {
+                        statement.execute(indexStatement);
+                    }
+                }
+            }
+        });
+        session.getTransaction().commit();
+    }
+
+    // Directly injecting into database, going through the webservice would only time the webservice
+    private void createTools() {
+        LabelDAO labelDAO = new LabelDAO(sessionFactory);
+        ToolDAO toolDAO = new ToolDAO(sessionFactory);
+        session.beginTransaction();
+        labels = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Label label = new Label();
+            label.setValue(randomIdentifier());
+            labelDAO.create(label);
+            labels.add(label);
+        }
+        for (int i = 0; i < TOOL_COUNT; i++) {
+            toolDAO.create(randomlyGenerateTool());
+            if (i % BATCH_SIZE == 0) {
+                session.flush();
+                session.clear();
+            }
+        }
+        session.flush();
+        session.clear();
+        session.doWork(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ANALYZE");
+            }
+        });
+        session.getTransaction().commit();
+    }
+
+    private Tool randomlyGenerateTool() {
+        Tool tool = new Tool();
+        tool.setAuthor(randomIdentifier());
+        tool.setDescription(randomIdentifier() + ' ' + randomIdentifier() + ' ' + randomIdentifier());
+        tool.setLastUpdated(new Date());
+        tool.setGitUrl("https://github.com/" + randomIdentifier() + "/" + randomIdentifier());
+        tool.setMode(ToolMode.MANUAL_IMAGE_PATH);
+        tool.setName(randomIdentifier());
+        tool.setNamespace(randomIdentifier());
+        tool.setRegistry(Registry.DOCKER_HUB);
+        tool.setIsPublished(true);
+        tool.setDefaultDockerfilePath("/Dockerfile");
+        tool.setDefaultCwlPath("/Dockstore.cwl");
+        tool.setDefaultWdlPath("/Dockstore.wdl");
+        tool.setPath(Registry.DOCKER_HUB.toString() + '/' + tool.getNamespace() + '/' + tool.getName());
+        tool.setToolname("");
+        SortedSet<Label> toolLabels = new TreeSet<>();
+        for (int i = 0; i < RAND.nextInt(MAX_LABELS_PER_TOOL); i++) {
+            toolLabels.add(labels.get(RAND.nextInt(labels.size())));
+        }
+        tool.setLabels(toolLabels);
+        names.add(tool.getName());
+        return tool;
+    }
+}
@@ -17,16 +17,18 @@
 package io.dockstore.webservice;
 
 import java.io.File;
-import java.io.IOException;
-import java.net.URL;
-import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.EnumSet;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dockstore.webservice.core.FileContent;
 import io.dockstore.webservice.core.Group;
+import io.dockstore.webservice.core.IndexWatermark;
 import io.dockstore.webservice.core.Label;
+import io.dockstore.webservice.core.RefreshJob;
 import io.dockstore.webservice.core.SourceFile;
 import io.dockstore.webservice.core.Tag;
 import io.dockstore.webservice.core.Token;
@@ -34,7 +36,26 @@ import io.dockstore.webservice.core.Tool;
 import io.dockstore.webservice.core.User;
 import io.dockstore.webservice.core.Workflow;
 import io.dockstore.webservice.core.WorkflowVersion;
+import io.dockstore.webservice.helpers.CaffeineRegionFactory;
+import io.dockstore.webservice.helpers.ElasticIndexer;
 import io.dockstore.webservice.helpers.ElasticManager;
+import io.dockstore.webservice.helpers.EmbeddedSearchIndex;
+import io.dockstore.webservice.helpers.EntryReindexer;
+import io.dockstore.webservice.helpers.EntryUpdateStamper;
+import io.dockstore.webservice.helpers.FacetIndex;
+import io.dockstore.webservice.helpers.FileContentSweeper;
+import io.dockstore.webservice.helpers.FileContentWriter;
+import io.dockstore.webservice.helpers.GitMirrors;
+import io.dockstore.webservice.helpers.HttpResponseCache;
+import io.dockstore.webservice.helpers.IndexReconciler;
+import io.dockstore.webservice.helpers.IndexUpdateBuffer;
+import io.dockstore.webservice.helpers.JsonStreamer;
+import io.dockstore.webservice.helpers.RefreshJobs;
+import io.dockstore.webservice.helpers.RefreshPipeline;
+import io.dockstore.webservice.helpers.SearchDocumentWriter;
+import io.dockstore.webservice.helpers.SearchResultCache;
+import io.dockstore.webservice.helpers.SourceCodeRepoFactory;
+import io.dockstore.webservice.helpers.SuggestIndex;
 import io.dockstore.webservice.jdbi.FileDAO;
 import io.dockstore.webservice.jdbi.GroupDAO;
 import io.dockstore.webservice.jdbi.LabelDAO;
@@ -52,10 +73,12 @@ import io.dockstore.webservice.resources.GitHubRepoResource;
 import io.dockstore.webservice.resources.GitLabComAuthenticationResource;
 import io.dockstore.webservice.resources.MetadataResource;
 import io.dockstore.webservice.resources.QuayIOAuthenticationResource;
+import io.dockstore.webservice.resources.RefreshJobResource;
 import io.dockstore.webservice.resources.TemplateHealthCheck;
 import io.dockstore.webservice.resources.TokenResource;
 import io.dockstore.webservice.resources.UserResource;
 import io.dockstore.webservice.resources.WorkflowResource;
+import io.dockstore.webservice.resources.proposedGA4GH.PublishedOrganizations;
 import io.dockstore.webservice.resources.proposedGA4GH.ToolsApiExtendedServiceImpl;
 import io.dockstore.webservice.resources.proposedGA4GH.ToolsExtendedApi;
 import io.dropwizard.Application;
@@ -76,12 +99,10 @@ import io.swagger.api.MetadataApi;
 import io.swagger.api.ToolClassesApi;
 import io.swagger.api.ToolsApi;
 import io.swagger.api.impl.ToolsApiServiceImpl;
+import io.swagger.api.impl.ToolsCatalog;
 import io.swagger.jaxrs.config.BeanConfig;
 import io.swagger.jaxrs.listing.ApiListingResource;
 import io.swagger.jaxrs.listing.SwaggerSerializers;
-import okhttp3.Cache;
-import okhttp3.OkHttpClient;
-import okhttp3.OkUrlFactory;
 import org.apache.http.client.HttpClient;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlets.CrossOriginFilter;
@@ -89,6 +110,8 @@ import org.glassfish.jersey.CommonProperties;
 import org.glassfish.jersey.server.filter.RolesAllowedDynamicFeature;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -104,17 +127,15 @@ import static org.eclipse.jetty.servlets.CrossOriginFilter.ALLOWED_ORIGINS_PARAM
 public class DockstoreWebserviceApplication extends Application<DockstoreWebserviceConfiguration> {
     public static final String GA4GH_API_PATH = "/api/ga4gh/v1";
     private static final Logger LOG = LoggerFactory.getLogger(DockstoreWebserviceApplication.class);
-    private static final int BYTES_IN_KILOBYTE = 1024;
-    private static final int KILOBYTES_IN_MEGABYTE = 1024;
-    private static final int CACHE_IN_MB = 100;
-    private static Cache cache = null;
 
     private final HibernateBundle<DockstoreWebserviceConfiguration> hibernate = new HibernateBundle<DockstoreWebserviceConfiguration>(
-            Token.class, Tool.class, User.class, Group.class, Tag.class, Label.class, SourceFile.class, Workflow.class,
-            WorkflowVersion.class) {
+            Token.class, Tool.class, User.class, Group.class, Tag.class, Label.class, SourceFile.class, FileContent.class, Workflow.class,
+            WorkflowVersion.class, IndexWatermark.class, RefreshJob.class) {
         @Override
         public DataSourceFactory getDataSourceFactory(DockstoreWebserviceConfiguration configuration) {
-            return configuration.getDataSourceFactory();
+            DataSourceFactory database = configuration.getDataSourceFactory();
+            database.getProperties().putAll(CaffeineRegionFactory.toHibernateProperties(configuration.getHibernateCache()));
+            return database;
         }
     };
 
@@ -145,32 +166,6 @@ public class DockstoreWebserviceApplication extends Application<DockstoreWebserv
                 return configuration.getDataSourceFactory();
             }
         });
-
-        if (cache == null) {
-            int cacheSize = CACHE_IN_MB * BYTES_IN_KILOBYTE * KILOBYTES_IN_MEGABYTE; // 100 MiB
-            final File tempDir;
-            try {
-                tempDir = Files.createTempDirectory("dockstore-web-cache-").toFile();
-            } catch (IOException e) {
-                LOG.error("Could no create web cache");
-                throw new RuntimeException(e);
-            }
-            cache = new Cache(tempDir, cacheSize);
-        }
-        // match HttpURLConnection which does not have a timeout by default
-        OkHttpClient okHttpClient = new OkHttpClient().newBuilder().cache(cache).connectTimeout(0, TimeUnit.SECONDS)
-                .readTimeout(0, TimeUnit.SECONDS).writeTimeout(0, TimeUnit.SECONDS).build();
-        try {
-            // this can only be called once per JVM, a factory exception is thrown in our tests
-            URL.setURLStreamHandlerFactory(new OkUrlFactory(okHttpClient));
-        } catch (Error factoryException) {
-            if (factoryException.getMessage().contains("factory already defined")) {
-                LOG.info("OkHttpClient already registered, skipping");
-            } else {
-                LOG.error("Could no create web cache, factory exception");
-                throw new RuntimeException(factoryException);
-            }
-        }
     }
 
     @Override
@@ -182,6 +177,15 @@ public class DockstoreWebserviceApplication extends Application<DockstoreWebserv
         beanConfig.setResourcePackage("io.dockstore.webservice.resources,io.swagger.api");
         beanConfig.setScan(true);
         ElasticManager.setConfig(configuration);
+        ElasticManager.setSessionFactory(hibernate.getSessionFactory());
+        final ElasticIndexer elasticIndexer = new ElasticIndexer(configuration.getEsConfiguration(), environment.metrics());
+        environment.lifecycle().manage(elasticIndexer);
+        ElasticManager.setIndexer(elasticIndexer);
+        // managed after the indexer so that it is stopped first and can hand over what is left
+        final IndexUpdateBuffer indexUpdateBuffer = new IndexUpdateBuffer(configuration.getEsConfiguration(), elasticIndexer,
+                environment.metrics());
+        environment.lifecycle().manage(indexUpdateBuffer);
+        ElasticManager.setIndexBuffer(indexUpdateBuffer);
         final QuayIOAuthenticationResource resource2 = new QuayIOAuthenticationResource(configuration.getQuayClientID(),
                 configuration.getQuayRedirectURI());
         environment.jersey().register(resource2);
@@ -189,6 +193,14 @@ public class DockstoreWebserviceApplication extends Application<DockstoreWebserv
         final TemplateHealthCheck healthCheck = new TemplateHealthCheck(configuration.getTemplate());
         environment.healthChecks().register("template", healthCheck);
 
+        FileContentWriter.register(hibernate.getSessionFactory(), configuration.getFileContent(), environment.metrics());
+        environment.lifecycle().manage(new FileContentSweeper(configuration.getFileContent(), hibernate.getSessionFactory(),
+                environment.metrics()));
+        final RegionFactory regionFactory = ((SessionFactoryImplementor)hibernate.getSessionFactory()).getCache().getRegionFactory();
+        if (regionFactory instanceof CaffeineRegionFactory) {
+            ((CaffeineRegionFactory)regionFactory).registerMetrics(environment.metrics());
+        }
+
         final UserDAO userDAO = new UserDAO(hibernate.getSessionFactory());
         final TokenDAO tokenDAO = new TokenDAO(hibernate.getSessionFactory());
         final ToolDAO toolDAO = new ToolDAO(hibernate.getSessionFactory());
@@ -200,7 +212,6 @@ public class DockstoreWebserviceApplication extends Application<DockstoreWebserv
         final LabelDAO labelDAO = new LabelDAO(hibernate.getSessionFactory());
         final FileDAO fileDAO = new FileDAO(hibernate.getSessionFactory());
 
-        LOG.info("Cache directory for OkHttp is: " + cache.directory().getAbsolutePath());
         LOG.info("This is our custom logger saying that we're about to load authenticators");
         // setup authentication to allow session access in authenticators, see https://github.com/dropwizard/dropwizard/pull/1361
         SimpleAuthenticator authenticator = new UnitOfWorkAwareProxyFactory(getHibernate())
@@ -216,9 +227,34 @@ public class DockstoreWebserviceApplication extends Application<DockstoreWebserv
         final ObjectMapper mapper = environment.getObjectMapper();
         mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
-        final HttpClient httpClient = new HttpClientBuilder(environment).using(configuration.getHttpClientConfiguration()).build(getName());
+        final JsonStreamer jsonStreamer = new JsonStreamer(hibernate.getSessionFactory(), mapper);
+        final SearchDocumentWriter searchDocumentWriter = new SearchDocumentWriter(toolDAO);
+        ElasticManager.setDocumentWriter(searchDocumentWriter);
+        final EmbeddedSearchIndex searchIndex = new EmbeddedSearchIndex(configuration.getEsConfiguration(), hibernate.getSessionFactory(),
+                searchDocumentWriter, toolDAO, workflowDAO);
+        environment.lifecycle().manage(searchIndex);
+        ElasticManager.addListener(searchIndex);
+
+        // shared by every outbound client, the ones built on URL as well as this one
+        final HttpResponseCache httpResponseCache = new HttpResponseCache(configuration.getHttpCache(), environment.metrics());
+        environment.lifecycle().manage(httpResponseCache);
+        final HttpClient httpClient = httpResponseCache.wrap(
+                new HttpClientBuilder(environment).using(configuration.getHttpClientConfiguration()).build(getName()),
+                configuration.getHttpClientConfiguration(), getName());
+        final int jobThreads = configuration.getRefresh().getJobThreads();
+        final ExecutorService jobExecutor = environment.lifecycle().executorService("refresh-job-%d").minThreads(jobThreads)
+                .maxThreads(jobThreads).workQueue(new ArrayBlockingQueue<>(configuration.getRefresh().getJobQueueCapacity())).build();
+        final RefreshJobs refreshJobs = new RefreshJobs(hibernate.getSessionFactory(), jobExecutor,
+                configuration.getRefresh().getWaitTimeout());
+        environment.lifecycle().manage(refreshJobs);
+        if (configuration.getRefresh().getMirrorDirectory() != null) {
+            final GitMirrors gitMirrors = new GitMirrors(new File(configuration.getRefresh().getMirrorDirectory()));
+            environment.lifecycle().manage(gitMirrors);
+            SourceCodeRepoFactory.setGitMirrors(gitMirrors);
+        }
         final DockerRepoResource dockerRepoResource = new DockerRepoResource(mapper, httpClient, userDAO, tokenDAO, toolDAO, tagDAO,
-                labelDAO, fileDAO, configuration.getBitbucketClientID(), configuration.getBitbucketClientSecret());
+                labelDAO, fileDAO, jsonStreamer, searchIndex, refreshJobs, configuration.getBitbucketClientID(),
+                configuration.getBitbucketClientSecret());
         environment.jersey().register(dockerRepoResource);
         environment.jersey().register(new GitHubRepoResource(tokenDAO));
         environment.jersey().register(new DockerRepoTagResource(toolDAO, tagDAO));
@@ -239,21 +275,59 @@ public class DockstoreWebserviceApplication extends Application<DockstoreWebserv
                         configuration.getBitbucketClientID(), configuration.getBitbucketClientSecret(), configuration.getGitlabClientID(),
                         configuration.getGitlabClientSecret(), configuration.getGitlabRedirectURI(), httpClient, cachingAuthenticator));
 
+        final int refreshThreads = configuration.getRefresh().getThreads();
+        final ExecutorService refreshExecutor = environment.lifecycle().executorService("workflow-refresh-%d").minThreads(refreshThreads)
+                .maxThreads(refreshThreads).build();
+        final RefreshPipeline refreshPipeline = new RefreshPipeline(refreshExecutor, configuration.getRefresh(),
+                hibernate.getSessionFactory());
         final WorkflowResource workflowResource = new WorkflowResource(httpClient, userDAO, tokenDAO, toolDAO, workflowDAO,
-                workflowVersionDAO, labelDAO, fileDAO, configuration.getBitbucketClientID(), configuration.getBitbucketClientSecret());
+                workflowVersionDAO, labelDAO, fileDAO, jsonStreamer, searchIndex, refreshPipeline, refreshJobs,
+                configuration.getBitbucketClientID(), configuration.getBitbucketClientSecret());
         environment.jersey().register(workflowResource);
 
-        environment.jersey().register(new UserResource(httpClient, tokenDAO, userDAO, groupDAO, workflowResource, dockerRepoResource));
+        final UserResource userResource = new UserResource(httpClient, tokenDAO, userDAO, groupDAO, workflowResource, dockerRepoResource,
+                refreshJobs);
+        environment.jersey().register(userResource);
+        refreshJobs.register(RefreshJob.Kind.WORKFLOWS, userResource::refreshWorkflowsJob);
+        refreshJobs.register(RefreshJob.Kind.TOOLS, userResource::refreshToolsJob);
+        environment.jersey().register(new RefreshJobResource(refreshJobs));
         environment.jersey().register(new MetadataResource(toolDAO, workflowDAO, configuration));
 
         // attach the container dao statically to avoid too much modification of generated code
         ToolsApiServiceImpl.setToolDAO(toolDAO);
         ToolsApiServiceImpl.setWorkflowDAO(workflowDAO);
         ToolsApiServiceImpl.setConfig(configuration);
+        ToolsApiServiceImpl.setFileDAO(fileDAO);
+        ToolsApiServiceImpl.setJsonStreamer(jsonStreamer);
+        final ToolsCatalog toolsCatalog = new ToolsCatalog(toolDAO, workflowDAO, configuration);
+        ToolsApiServiceImpl.setToolsCatalog(toolsCatalog);
+        ElasticManager.addListener(toolsCatalog);
 
         ToolsApiExtendedServiceImpl.setToolDAO(toolDAO);
         ToolsApiExtendedServiceImpl.setWorkflowDAO(workflowDAO);
         ToolsApiExtendedServiceImpl.setConfig(configuration);
+        ToolsApiExtendedServiceImpl.setJsonStreamer(jsonStreamer);
+        ToolsApiExtendedServiceImpl.setElasticIndexer(elasticIndexer);
+        final EntryReindexer entryReindexer = new EntryReindexer(configuration.getEsConfiguration(), elasticIndexer, indexUpdateBuffer,
+                hibernate.getSessionFactory(), Arrays.asList(toolDAO, workflowDAO));
+        ToolsApiExtendedServiceImpl.setEntryReindexer(entryReindexer);
+        environment.lifecycle().manage(entryReindexer);
+        environment.lifecycle().manage(new IndexReconciler(configuration.getEsConfiguration(), elasticIndexer, entryReindexer,
+                hibernate.getSessionFactory(), searchDocumentWriter, toolDAO, workflowDAO, environment.metrics()));
+        ToolsApiExtendedServiceImpl.setEmbeddedSearchIndex(searchIndex);
+        ToolsApiExtendedServiceImpl.setSearchResultCache(new SearchResultCache(configuration.getEsConfiguration(), environment.metrics()));
+        final PublishedOrganizations publishedOrganizations = new PublishedOrganizations(toolDAO, workflowDAO);
+        ToolsApiExtendedServiceImpl.setPublishedOrganizations(publishedOrganizations);
+        ElasticManager.addListener(publishedOrganizations);
+        final SuggestIndex suggestIndex = new SuggestIndex(hibernate.getSessionFactory(), toolDAO, workflowDAO);
+        environment.lifecycle().manage(suggestIndex);
+        ToolsApiExtendedServiceImpl.setSuggestIndex(suggestIndex);
+        ElasticManager.addListener(suggestIndex);
+        final FacetIndex facetIndex = new FacetIndex(hibernate.getSessionFactory(), toolDAO, workflowDAO);
+        environment.lifecycle().manage(facetIndex);
+        ToolsApiExtendedServiceImpl.setFacetIndex(facetIndex);
+        ElasticManager.addListener(facetIndex);
+        ElasticManager.addListener(new EntryUpdateStamper(hibernate.getSessionFactory()));
 
         environment.jersey().register(new ToolsApi());
         environment.jersey().register(new ToolsExtendedApi());
@@ -309,6 +383,9 @@ public class DockstoreWebserviceApplication extends Application<DockstoreWebserv
                 .executeUpdate();
         session.createSQLQuery("CREATE UNIQUE INDEX IF NOT EXISTS partial_tool_name ON tool (registry, namespace, name) WHERE toolname IS NULL;")
                 .executeUpdate();
+        // the sort key of the published listings, also created by migrations.xml for its indexes
+        session.createSQLQuery("CREATE OR REPLACE FUNCTION utf8_sort_key(text) RETURNS bytea LANGUAGE sql IMMUTABLE STRICT "
+                + "AS 'SELECT convert_to($1, ''UTF8'')'").executeUpdate();
         try {
             session.getTransaction().commit();
         } finally {
@@ -16,7 +16,9 @@
 
 package io.dockstore.webservice;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
@@ -27,6 +29,8 @@ import com.google.common.cache.CacheBuilderSpec;
 import io.dropwizard.Configuration;
 import io.dropwizard.client.HttpClientConfiguration;
 import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
 import org.hibernate.validator.constraints.NotEmpty;
 
 public class DockstoreWebserviceConfiguration extends Configuration {
@@ -42,6 +46,22 @@ public class DockstoreWebserviceConfiguration extends Configuration {
     @Valid
     private ElasticSearchConfig esConfiguration = new ElasticSearchConfig();
 
+    @Valid
+    @NotNull
+    private HibernateCacheConfig hibernateCache = new HibernateCacheConfig();
+
+    @Valid
+    @NotNull
+    private FileContentConfig fileContent = new FileContentConfig();
+
+    @Valid
+    @NotNull
+    private RefreshConfig refresh = new RefreshConfig();
+
+    @Valid
+    @NotNull
+    private HttpCacheConfig httpCache = new HttpCacheConfig();
+
     @NotEmpty
     private String template;
 
@@ -304,6 +324,42 @@ public class DockstoreWebserviceConfiguration extends Configuration {
         this.esConfiguration = esConfiguration;
     }
 
+    @JsonProperty("hibernateCache")
+    public HibernateCacheConfig getHibernateCache() {
+        return hibernateCache;
+    }
+
+    public void setHibernateCache(HibernateCacheConfig hibernateCache) {
+        this.hibernateCache = hibernateCache;
+    }
+
+    @JsonProperty("fileContent")
+    public FileContentConfig getFileContent() {
+        return fileContent;
+    }
+
+    public void setFileContent(FileContentConfig fileContent) {
+        this.fileContent = fileContent;
+    }
+
+    @JsonProperty("httpCache")
+    public HttpCacheConfig getHttpCache() {
+        return httpCache;
+    }
+
+    public void setHttpCache(HttpCacheConfig httpCache) {
+        this.httpCache = httpCache;
+    }
+
+    @JsonProperty("refresh")
+    public RefreshConfig getRefresh() {
+        return refresh;
+    }
+
+    public void setRefresh(RefreshConfig refresh) {
+        this.refresh = refresh;
+    }
+
     public String getUiPort() {
         return uiPort;
     }
@@ -315,6 +371,17 @@ public class DockstoreWebserviceConfiguration extends Configuration {
     public class ElasticSearchConfig {
         private String hostname;
         private int port;
+        private int indexThreads = 2;
+        private int indexQueueCapacity = 1000;
+        private int indexRetries = 5;
+        private Duration indexRetryBackoff = Duration.seconds(1);
+        private Duration bulkFlushInterval = Duration.seconds(1);
+        private int bulkSize = 500;
+        private String embeddedIndexDirectory;
+        private Duration embeddedIndexCheckInterval = Duration.minutes(1);
+        private Size searchCacheSize = Size.megabytes(32);
+        private Duration reconcileInterval = Duration.minutes(1);
+        private Duration reconcileOverlap = Duration.minutes(1);
 
         public String getHostname() {
             return hostname;
@@ -331,5 +398,400 @@ public class DockstoreWebserviceConfiguration extends Configuration {
         public void setPort(int port) {
             this.port = port;
         }
+
+        /**
+         * @return how many index updates are sent to elastic search at the same time
+         */
+        public int getIndexThreads() {
+            return indexThreads;
+        }
+
+        public void setIndexThreads(int indexThreads) {
+            this.indexThreads = indexThreads;
+        }
+
+        /**
+         * @return how many index updates may wait to be sent, further updates are dropped until the queue drains
+         */
+        public int getIndexQueueCapacity() {
+            return indexQueueCapacity;
+        }
+
+        public void setIndexQueueCapacity(int indexQueueCapacity) {
+            this.indexQueueCapacity = indexQueueCapacity;
+        }
+
+        /**
+         * @return how many times a failed index update is tried again
+         */
+        public int getIndexRetries() {
+            return indexRetries;
+        }
+
+        public void setIndexRetries(int indexRetries) {
+            this.indexRetries = indexRetries;
+        }
+
+        /**
+         * @return the wait before the first retry, doubled for each following one
+         */
+        public Duration getIndexRetryBackoff() {
+            return indexRetryBackoff;
+        }
+
+        public void setIndexRetryBackoff(Duration indexRetryBackoff) {
+            this.indexRetryBackoff = indexRetryBackoff;
+        }
+
+        /**
+         * @return how long index updates are collected before they are sent together
+         */
+        public Duration getBulkFlushInterval() {
+            return bulkFlushInterval;
+        }
+
+        public void setBulkFlushInterval(Duration bulkFlushInterval) {
+            this.bulkFlushInterval = bulkFlushInterval;
+        }
+
+        /**
+         * @return the most index updates sent in one bulk request, reaching it sends them right away
+         */
+        public int getBulkSize() {
+            return bulkSize;
+        }
+
+        public void setBulkSize(int bulkSize) {
+            this.bulkSize = bulkSize;
+        }
+
+        /**
+         * @return where the embedded search index is kept when there is no elastic search host, a temporary directory if null
+         */
+        public String getEmbeddedIndexDirectory() {
+            return embeddedIndexDirectory;
+        }
+
+        public void setEmbeddedIndexDirectory(String embeddedIndexDirectory) {
+            this.embeddedIndexDirectory = embeddedIndexDirectory;
+        }
+
+        /**
+         * @return how often the embedded search index checks for published entries that changed outside of the webservice, zero
+         * turns the check off
+         */
+        public Duration getEmbeddedIndexCheckInterval() {
+            return embeddedIndexCheckInterval;
+        }
+
+        public void setEmbeddedIndexCheckInterval(Duration embeddedIndexCheckInterval) {
+            this.embeddedIndexCheckInterval = embeddedIndexCheckInterval;
+        }
+
+        /**
+         * @return how much room the responses to searches may take in the search cache, zero turns it off
+         */
+        public Size getSearchCacheSize() {
+            return searchCacheSize;
+        }
+
+        public void setSearchCacheSize(Size searchCacheSize) {
+            this.searchCacheSize = searchCacheSize;
+        }
+
+        /**
+         * @return how often entries that changed in the database are sent to elastic search again, zero turns it off
+         */
+        public Duration getReconcileInterval() {
+            return reconcileInterval;
+        }
+
+        public void setReconcileInterval(Duration reconcileInterval) {
+            this.reconcileInterval = reconcileInterval;
+        }
+
+        /**
+         * @return how far before the watermark changes are looked for, to catch transactions that committed late
+         */
+        public Duration getReconcileOverlap() {
+            return reconcileOverlap;
+        }
+
+        public void setReconcileOverlap(Duration reconcileOverlap) {
+            this.reconcileOverlap = reconcileOverlap;
+        }
+    }
+
+    /**
+     * Settings for the Hibernate second-level and query caches.
+     * The cache is local to each webservice instance, so it is off unless enabled.
+     */
+    public static class HibernateCacheConfig {
+        private boolean enabled = false;
+        private boolean queryCache = true;
+        private long maximumSize = 10000;
+        private Duration expireAfterWrite = Duration.minutes(10);
+        private Map<String, CacheRegionConfig> regions = new HashMap<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isQueryCache() {
+            return queryCache;
+        }
+
+        public void setQueryCache(boolean queryCache) {
+            this.queryCache = queryCache;
+        }
+
+        /**
+         * @return the default number of entries kept in each region
+         */
+        public long getMaximumSize() {
+            return maximumSize;
+        }
+
+        public void setMaximumSize(long maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        /**
+         * @return the default time an entry stays in each region
+         */
+        public Duration getExpireAfterWrite() {
+            return expireAfterWrite;
+        }
+
+        public void setExpireAfterWrite(Duration expireAfterWrite) {
+            this.expireAfterWrite = expireAfterWrite;
+        }
+
+        /**
+         * @return overrides keyed by region name, i.e. io.dockstore.webservice.core.Entry or io.dockstore.webservice.core.Version.sourceFiles
+         */
+        public Map<String, CacheRegionConfig> getRegions() {
+            return regions;
+        }
+
+        public void setRegions(Map<String, CacheRegionConfig> regions) {
+            this.regions = regions;
+        }
+    }
+
+    /**
+     * Overrides for a single cache region, unset values fall back to the defaults of the cache
+     */
+    public static class CacheRegionConfig {
+        private Long maximumSize;
+        private Duration expireAfterWrite;
+
+        public Long getMaximumSize() {
+            return maximumSize;
+        }
+
+        public void setMaximumSize(Long maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        public Duration getExpireAfterWrite() {
+            return expireAfterWrite;
+        }
+
+        public void setExpireAfterWrite(Duration expireAfterWrite) {
+            this.expireAfterWrite = expireAfterWrite;
+        }
+    }
+
+    /**
+     * How the content of source files is stored
+     */
+    public static class FileContentConfig {
+        private boolean compress = false;
+        private int compressionThreshold = 4096;
+        private Duration sweepInterval = Duration.hours(1);
+        private Duration sweepGracePeriod = Duration.hours(1);
+        private int sweepBatchSize = 1000;
+
+        /**
+         * @return true to store new content gzip compressed, content that is already stored is left as is
+         */
+        public boolean isCompress() {
+            return compress;
+        }
+
+        public void setCompress(boolean compress) {
+            this.compress = compress;
+        }
+
+        /**
+         * @return content smaller than this many bytes is always stored as text
+         */
+        public int getCompressionThreshold() {
+            return compressionThreshold;
+        }
+
+        public void setCompressionThreshold(int compressionThreshold) {
+            this.compressionThreshold = compressionThreshold;
+        }
+
+        /**
+         * @return how often content that no file refers to anymore is deleted, zero to never delete it
+         */
+        public Duration getSweepInterval() {
+            return sweepInterval;
+        }
+
+        public void setSweepInterval(Duration sweepInterval) {
+            this.sweepInterval = sweepInterval;
+        }
+
+        /**
+         * @return content that was written for a file more recently than this is never deleted, this must be longer than the
+         *     transactions that write files
+         */
+        public Duration getSweepGracePeriod() {
+            return sweepGracePeriod;
+        }
+
+        public void setSweepGracePeriod(Duration sweepGracePeriod) {
+            this.sweepGracePeriod = sweepGracePeriod;
+        }
+
+        /**
+         * @return how many content rows are deleted in one transaction
+         */
+        public int getSweepBatchSize() {
+            return sweepBatchSize;
+        }
+
+        public void setSweepBatchSize(int sweepBatchSize) {
+            this.sweepBatchSize = sweepBatchSize;
+        }
+    }
+
+    /**
+     * Where the responses of git hosts and registries are cached to be revalidated rather than fetched again
+     */
+    public static class HttpCacheConfig {
+        private String directory;
+        private int sizeInMB = 100;
+
+        /**
+         * @return the directory of the cache, which outlives restarts, a new temporary directory every start if not set
+         */
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * @return the most the cache takes on disk, the least recently used responses are evicted past it
+         */
+        public int getSizeInMB() {
+            return sizeInMB;
+        }
+
+        public void setSizeInMB(int sizeInMB) {
+            this.sizeInMB = sizeInMB;
+        }
+    }
+
+    /**
+     * How many repositories are asked about at the same time when workflows are refreshed, and how many refreshes run at once
+     */
+    public static class RefreshConfig {
+        private int threads = 16;
+        private int concurrencyPerHost = 4;
+        private Map<String, Integer> hosts = new HashMap<>();
+        private int jobThreads = 2;
+        private int jobQueueCapacity = 100;
+        private Duration waitTimeout = Duration.minutes(2);
+        private String mirrorDirectory;
+
+        /**
+         * @return the threads asking source control about repositories, shared by every refresh
+         */
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        /**
+         * @return the default number of repositories of a git host asked about at the same time, over all refreshes
+         */
+        public int getConcurrencyPerHost() {
+            return concurrencyPerHost;
+        }
+
+        public void setConcurrencyPerHost(int concurrencyPerHost) {
+            this.concurrencyPerHost = concurrencyPerHost;
+        }
+
+        /**
+         * @return overrides of the concurrency keyed by git host, i.e. github.com
+         */
+        public Map<String, Integer> getHosts() {
+            return hosts;
+        }
+
+        public void setHosts(Map<String, Integer> hosts) {
+            this.hosts = hosts;
+        }
+
+        /**
+         * @return the refresh jobs that run at the same time
+         */
+        public int getJobThreads() {
+            return jobThreads;
+        }
+
+        public void setJobThreads(int jobThreads) {
+            this.jobThreads = jobThreads;
+        }
+
+        /**
+         * @return the refresh jobs that can wait for a thread, more are turned down
+         */
+        public int getJobQueueCapacity() {
+            return jobQueueCapacity;
+        }
+
+        public void setJobQueueCapacity(int jobQueueCapacity) {
+            this.jobQueueCapacity = jobQueueCapacity;
+        }
+
+        /**
+         * @return how long the refresh endpoints that answer the refreshed entries wait for their job, holding a request thread and
+         *     a database connection, before they answer with the job to poll instead
+         */
+        public Duration getWaitTimeout() {
+            return waitTimeout;
+        }
+
+        public void setWaitTimeout(Duration waitTimeout) {
+            this.waitTimeout = waitTimeout;
+        }
+
+        /**
+         * @return where git repositories are mirrored to read their files locally, files are asked of the git hosts if not set
+         */
+        public String getMirrorDirectory() {
+            return mirrorDirectory;
+        }
+
+        public void setMirrorDirectory(String mirrorDirectory) {
+            this.mirrorDirectory = mirrorDirectory;
+        }
     }
 }
@@ -0,0 +1,38 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.core;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Maps compressed text to a bytea column without decompressing it
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+@Converter
+public class CompressedTextConverter implements AttributeConverter<CompressedText, byte[]> {
+    @Override
+    public byte[] convertToDatabaseColumn(CompressedText attribute) {
+        return attribute == null ? null : attribute.getBytes();
+    }
+
+    @Override
+    public CompressedText convertToEntityAttribute(byte[] dbData) {
+        return dbData == null ? null : new CompressedText(dbData);
+    }
+}
@@ -42,6 +42,10 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import io.dockstore.webservice.helpers.EntryStarredSerializer;
 import io.swagger.annotations.ApiModelProperty;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.UpdateTimestamp;
 
 /**
  * Base class for all entries in the dockstore
@@ -50,8 +54,14 @@ import io.swagger.annotations.ApiModelProperty;
  */
 @Entity
 @Inheritance(strategy = InheritanceType.TABLE_PER_CLASS)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public abstract class Entry<S extends Entry, T extends Version> {
 
+    /**
+     * Lazy collections of entries and versions are loaded for this many owners at a time
+     */
+    public static final int BATCH_SIZE = 25;
+
     /**
      * re-use existing generator for backwards compatibility
      */
@@ -68,7 +78,9 @@ public abstract class Entry<S extends Entry, T extends Version> {
     @ApiModelProperty("This is a human-readable description of this container and what it is trying to accomplish, required GA4GH")
     private String description;
 
-    @ManyToMany(fetch = FetchType.EAGER)
+    @ManyToMany(fetch = FetchType.LAZY)
+    @BatchSize(size = BATCH_SIZE)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JoinTable(name = "entry_label", joinColumns = @JoinColumn(name = "entryid", referencedColumnName = "id"), inverseJoinColumns = @JoinColumn(name = "labelid", referencedColumnName = "id"))
     @ApiModelProperty("Labels (i.e. meta tags) for describing the purpose and contents of containers")
     @OrderBy("id")
@@ -79,7 +91,8 @@ public abstract class Entry<S extends Entry, T extends Version> {
     @ApiModelProperty(value = "This indicates the users that have control over this entry, dockstore specific", required = false)
     private Set<User> users;
 
-    @ManyToMany(fetch = FetchType.EAGER)
+    @ManyToMany(fetch = FetchType.LAZY)
+    @BatchSize(size = BATCH_SIZE)
     @JoinTable(name = "starred", inverseJoinColumns = @JoinColumn(name = "userid", nullable = false, updatable = false, referencedColumnName = "id"), joinColumns = @JoinColumn(name = "entryid", nullable = false, updatable = false, referencedColumnName = "id"))
     @ApiModelProperty(value = "This indicates the users that have starred this entry, dockstore specific", required = false)
     @JsonSerialize(using = EntryStarredSerializer.class)
@@ -101,6 +114,10 @@ public abstract class Entry<S extends Entry, T extends Version> {
     @Column
     @ApiModelProperty("Implementation specific timestamp for last updated on webservice")
     private Date lastUpdated;
+    @Column(name = "dbupdatedate")
+    @UpdateTimestamp
+    @JsonIgnore
+    private Date dbUpdateDate;
     @Column
     @ApiModelProperty(value = "This is a link to the associated repo with a descriptor, required GA4GH", required = true)
     private String gitUrl;
@@ -234,6 +251,18 @@ public abstract class Entry<S extends Entry, T extends Version> {
         this.lastUpdated = lastUpdated;
     }
 
+    /**
+     * @return when anything shown for this entry last changed in the database, used to answer conditional requests
+     */
+    @JsonIgnore
+    public Date getDbUpdateDate() {
+        return dbUpdateDate;
+    }
+
+    public void setDbUpdateDate(Date dbUpdateDate) {
+        this.dbUpdateDate = dbUpdateDate;
+    }
+
     public Set<User> getStarredUsers() {
         return starredUsers;
     }
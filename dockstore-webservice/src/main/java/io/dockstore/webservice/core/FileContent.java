@@ -0,0 +1,98 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import com.google.common.hash.Hashing;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Immutable;
+
+/**
+ * The contents of source files, stored once for all the files (across versions and entries) that have the same bytes.
+ * Rows are keyed by the SHA-256 of the content and their content never changes. Large content may be stored gzip compressed
+ * instead of as text.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+@Entity
+@Immutable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
+@Table(name = "filecontent")
+public class FileContent {
+
+    /**
+     * Length of a hex encoded SHA-256 digest
+     */
+    public static final int DIGEST_LENGTH = 64;
+
+    @Id
+    @Column(length = DIGEST_LENGTH)
+    private String digest;
+
+    @Column(columnDefinition = "TEXT")
+    private String content;
+
+    @Convert(converter = CompressedTextConverter.class)
+    @Column(name = "compressedcontent", columnDefinition = "bytea")
+    private CompressedText compressedContent;
+
+    /**
+     * When the row was last written for a file, it is only set by the database
+     */
+    @Column(name = "dbupdatedate", columnDefinition = "timestamp default now()", insertable = false, updatable = false)
+    private Date dbUpdateDate;
+
+    public FileContent() {
+    }
+
+    public FileContent(String content) {
+        this.digest = digest(content);
+        this.content = content;
+    }
+
+    /**
+     * @param content the content of a file
+     * @return the hex encoded SHA-256 of the UTF-8 encoding of the content
+     */
+    public static String digest(String content) {
+        return Hashing.sha256().hashString(content, StandardCharsets.UTF_8).toString();
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public String getContent() {
+        return compressedContent == null ? content : compressedContent.decompress();
+    }
+
+    /**
+     * @return the content as stored if it is compressed, null if it is stored as text
+     */
+    public CompressedText getCompressedContent() {
+        return compressedContent;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.core;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * How far a search index has been brought up to date: every entry whose database update date is older than the watermark was
+ * sent to the index.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+@Entity
+@Table(name = "indexwatermark")
+public class IndexWatermark {
+
+    @Id
+    @Column(length = 64)
+    private String name;
+
+    @Column(nullable = false)
+    private Date watermark;
+
+    public IndexWatermark() {
+    }
+
+    public IndexWatermark(String name, Date watermark) {
+        this.name = name;
+        this.watermark = watermark;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Date getWatermark() {
+        return watermark;
+    }
+
+    public void setWatermark(Date watermark) {
+        this.watermark = watermark;
+    }
+}
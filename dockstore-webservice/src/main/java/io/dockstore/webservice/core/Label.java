@@ -28,6 +28,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Objects;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 /**
  * This describes a descriptive label that can be placed on an entry in the dockstore, implementation specific.
@@ -36,6 +38,7 @@ import io.swagger.annotations.ApiModelProperty;
  */
 @ApiModel(value = "Label", description = "This describes a descriptive label that can be placed on an entry in the dockstore")
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "label")
 @NamedQuery(name = "io.dockstore.webservice.core.Label.findByLabelValue", query = "SELECT l FROM Label l WHERE l.value = :labelValue")
 public class Label implements Comparable<Label> {
@@ -0,0 +1,235 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.core;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.OrderColumn;
+import javax.persistence.Table;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+/**
+ * A refresh of the tools or workflows of a user, or of every user, that runs in the background.
+ * Progress is counted in repositories for workflows and in users for tools, which are refreshed a user at a time.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+@ApiModel(value = "RefreshJob", description = "A refresh running in the background, with its progress")
+@Entity
+@Table(name = "refreshjob")
+@NamedQueries({
+        @NamedQuery(name = "io.dockstore.webservice.core.RefreshJob.failUnfinished", query = "UPDATE RefreshJob j SET j.status = :failed, j.finished = :finished, j.failure = :failure, j.failureStatus = :failureStatus WHERE j.status IN :unfinished") })
+public class RefreshJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @ApiModelProperty("Implementation specific ID for the job in this web service")
+    private long id;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    @ApiModelProperty(value = "What is refreshed", required = true)
+    private Kind kind;
+
+    @ApiModelProperty("The user whose entries are refreshed, every user if not set")
+    private Long userId;
+
+    @ApiModelProperty("Only entries of this organization are refreshed")
+    private String organization;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    @ApiModelProperty(value = "Where the job is at", required = true)
+    private Status status = Status.QUEUED;
+
+    @Column(nullable = false)
+    private Date submitted = new Date();
+
+    private Date started;
+
+    private Date finished;
+
+    @Column(nullable = false)
+    @ApiModelProperty("The repositories (users for tools) found so far")
+    private int found;
+
+    @Column(nullable = false)
+    @ApiModelProperty("The repositories (users for tools) refreshed so far, the ones that failed are in the errors")
+    private int refreshed;
+
+    @Column(columnDefinition = "TEXT")
+    @ApiModelProperty("Why the job failed")
+    private String failure;
+
+    @ApiModelProperty("The http status of the failure")
+    private Integer failureStatus;
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "refreshjob_error", joinColumns = @JoinColumn(name = "jobid"))
+    @OrderColumn(name = "position")
+    @ApiModelProperty("The repositories that could not be refreshed, the job goes on without them")
+    private List<RepositoryError> errors = new ArrayList<>();
+
+    public RefreshJob() {
+    }
+
+    public RefreshJob(Kind kind, Long userId, String organization) {
+        this.kind = kind;
+        this.userId = userId;
+        this.organization = organization;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getOrganization() {
+        return organization;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public Date getSubmitted() {
+        return submitted;
+    }
+
+    public Date getStarted() {
+        return started;
+    }
+
+    public void setStarted(Date started) {
+        this.started = started;
+    }
+
+    public Date getFinished() {
+        return finished;
+    }
+
+    public void setFinished(Date finished) {
+        this.finished = finished;
+    }
+
+    public int getFound() {
+        return found;
+    }
+
+    public void setFound(int found) {
+        this.found = found;
+    }
+
+    public int getRefreshed() {
+        return refreshed;
+    }
+
+    public void setRefreshed(int refreshed) {
+        this.refreshed = refreshed;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    public void setFailure(String failure) {
+        this.failure = failure;
+    }
+
+    public Integer getFailureStatus() {
+        return failureStatus;
+    }
+
+    public void setFailureStatus(Integer failureStatus) {
+        this.failureStatus = failureStatus;
+    }
+
+    public List<RepositoryError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * What a job refreshes
+     */
+    public enum Kind {
+        WORKFLOWS, TOOLS
+    }
+
+    /**
+     * Where a job is at
+     */
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    /**
+     * A repository that could not be refreshed
+     */
+    @Embeddable
+    public static class RepositoryError {
+        @Column(nullable = false)
+        private String repository;
+
+        @Column(columnDefinition = "TEXT")
+        private String message;
+
+        public RepositoryError() {
+        }
+
+        public RepositoryError(String repository, String message) {
+            this.repository = repository;
+            this.message = message;
+        }
+
+        public String getRepository() {
+            return repository;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -24,11 +24,19 @@ import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
+import javax.persistence.FetchType;
 import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 /**
  * This describes a cached copy of a remotely accessible file. Implementation specific.
@@ -37,6 +45,7 @@ import io.swagger.annotations.ApiModelProperty;
  */
 @ApiModel("SourceFile")
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "sourcefile")
 public class SourceFile {
     public enum FileType {
@@ -53,16 +62,28 @@ public class SourceFile {
     @ApiModelProperty(value = "Enumerates the type of file", required = true)
     private FileType type;
 
-    @Column(columnDefinition = "TEXT")
-    @ApiModelProperty("Cache for the contents of the target file")
-    private String content;
+    /**
+     * Files refer to their content by digest so that identical files share one copy of it
+     */
+    @Column(name = "contentdigest", length = FileContent.DIGEST_LENGTH)
+    private String contentDigest;
+
+    @ManyToOne(fetch = FetchType.EAGER)
+    @JoinColumn(name = "contentdigest", insertable = false, updatable = false)
+    private FileContent fileContent;
+
+    /**
+     * Content set since this file was loaded, written to the content table when this file is flushed
+     */
+    @Transient
+    private FileContent unsavedContent;
 
     @Column(nullable = false)
     @ApiModelProperty(value = "Path to source file in git repo", required = true)
     private String path;
 
     public void update(SourceFile file) {
-        content = file.content;
+        setContent(file.getContent());
     }
 
     public long getId() {
@@ -81,12 +102,44 @@ public class SourceFile {
         this.type = type;
     }
 
+    @JsonProperty
+    @ApiModelProperty("Cache for the contents of the target file")
     public String getContent() {
-        return content;
+        if (contentDigest == null) {
+            return null;
+        }
+        FileContent current = unsavedContent != null ? unsavedContent : fileContent;
+        return current == null ? null : current.getContent();
     }
 
+    @JsonProperty
     public void setContent(String content) {
-        this.content = content;
+        this.unsavedContent = content == null ? null : new FileContent(content);
+        this.contentDigest = unsavedContent == null ? null : unsavedContent.getDigest();
+    }
+
+    /**
+     * @return the SHA-256 of the content of this file, null if there is no content
+     */
+    @JsonIgnore
+    public String getContentDigest() {
+        return contentDigest;
+    }
+
+    /**
+     * @return the stored content of this file if it is compressed, null if it is stored as text or was changed since being loaded
+     */
+    @JsonIgnore
+    public CompressedText getCompressedContent() {
+        return contentDigest == null || unsavedContent != null || fileContent == null ? null : fileContent.getCompressedContent();
+    }
+
+    /**
+     * @return content that was set on this file and may not be stored yet, null if the content was not changed
+     */
+    @JsonIgnore
+    public FileContent getUnsavedContent() {
+        return unsavedContent;
     }
 
     public String getPath() {
@@ -99,7 +152,7 @@ public class SourceFile {
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, type, content);
+        return Objects.hash(id, type, contentDigest);
     }
 
     @Override
@@ -111,6 +164,6 @@ public class SourceFile {
             return false;
         }
         final SourceFile other = (SourceFile)obj;
-        return Objects.equals(this.id, other.id) && Objects.equals(this.type, other.type) && Objects.equals(this.content, other.content);
+        return Objects.equals(this.id, other.id) && Objects.equals(this.type, other.type) && Objects.equals(this.contentDigest, other.contentDigest);
     }
 }
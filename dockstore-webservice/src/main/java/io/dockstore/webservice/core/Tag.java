@@ -89,9 +89,9 @@ public class Tag extends Version<Tag> {
         imageId = tag.imageId;
 
         // Add for new descriptor types
-        cwlPath = tag.cwlPath;
-        wdlPath = tag.wdlPath;
-        dockerfilePath = tag.dockerfilePath;
+        setCwlPath(tag.cwlPath);
+        setWdlPath(tag.wdlPath);
+        setDockerfilePath(tag.dockerfilePath);
     }
 
     public void update(Tag tag) {
@@ -148,6 +148,7 @@ public class Tag extends Version<Tag> {
     }
 
     public void setDockerfilePath(String dockerfilePath) {
+        pathChanged(this.dockerfilePath, dockerfilePath);
         this.dockerfilePath = dockerfilePath;
     }
 
@@ -158,6 +159,7 @@ public class Tag extends Version<Tag> {
     }
 
     public void setCwlPath(String cwlPath) {
+        pathChanged(this.cwlPath, cwlPath);
         this.cwlPath = cwlPath;
     }
 
@@ -167,9 +169,19 @@ public class Tag extends Version<Tag> {
     }
 
     public void setWdlPath(String wdlPath) {
+        pathChanged(this.wdlPath, wdlPath);
         this.wdlPath = wdlPath;
     }
 
+    /**
+     * Files are fetched again once a path changed, even if the reference still points at the same commit
+     */
+    private void pathChanged(String oldPath, String newPath) {
+        if (!Objects.equals(oldPath, newPath)) {
+            setCommitID(null);
+        }
+    }
+
     @JsonProperty
     public boolean isAutomated() {
         return automated;
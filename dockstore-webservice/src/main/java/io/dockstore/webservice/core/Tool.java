@@ -20,6 +20,10 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dockstore.common.Registry;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.jpa.QueryHints;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -28,10 +32,15 @@ import javax.persistence.Enumerated;
 import javax.persistence.FetchType;
 import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.NamedEntityGraphs;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.NamedSubgraph;
 import javax.persistence.OneToMany;
 import javax.persistence.OrderBy;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 import java.util.Date;
@@ -53,9 +62,13 @@ import java.util.TreeSet;
                 + " * associated with CWL and Dockerfile documents")
 @Entity
 @Table(uniqueConstraints = @UniqueConstraint(columnNames = { "registry", "namespace", "name", "toolname" }))
+@NamedEntityGraphs({
+        @NamedEntityGraph(name = "Tool.summary"),
+        @NamedEntityGraph(name = "Tool.with-versions", attributeNodes = @NamedAttributeNode("tags")),
+        @NamedEntityGraph(name = "Tool.with-files", attributeNodes = @NamedAttributeNode(value = "tags", subgraph = "files"), subgraphs = @NamedSubgraph(name = "files", attributeNodes = @NamedAttributeNode("sourceFiles"))) })
 @NamedQueries({
         @NamedQuery(name = "io.dockstore.webservice.core.Tool.findByNameAndNamespaceAndRegistry", query = "SELECT c FROM Tool c WHERE c.name = :name AND c.namespace = :namespace AND c.registry = :registry"),
-        @NamedQuery(name = "io.dockstore.webservice.core.Tool.findPublishedById", query = "SELECT c FROM Tool c WHERE c.id = :id AND c.isPublished = true"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Tool.findPublishedById", query = "SELECT c FROM Tool c WHERE c.id = :id AND c.isPublished = true", hints = @QueryHint(name = QueryHints.HINT_CACHEABLE, value = "true")),
         @NamedQuery(name = "io.dockstore.webservice.core.Tool.findAllPublished", query = "SELECT c FROM Tool c WHERE c.isPublished = true ORDER BY size(c.starredUsers) DESC"),
         @NamedQuery(name = "io.dockstore.webservice.core.Tool.findAll", query = "SELECT c FROM Tool c"),
         @NamedQuery(name = "io.dockstore.webservice.core.Tool.findByPath", query = "SELECT c FROM Tool c WHERE c.path = :path"),
@@ -64,6 +77,9 @@ import java.util.TreeSet;
         @NamedQuery(name = "io.dockstore.webservice.core.Tool.findByMode", query = "SELECT c FROM Tool c WHERE c.mode = :mode"),
         @NamedQuery(name = "io.dockstore.webservice.core.Tool.findPublishedByPath", query = "SELECT c FROM Tool c WHERE c.path = :path AND c.isPublished = true"),
         @NamedQuery(name = "io.dockstore.webservice.core.Tool.findPublishedByNamespace", query = "SELECT c FROM Tool c WHERE lower(c.namespace) = lower(:namespace) AND c.isPublished = true ORDER BY gitUrl"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Tool.findPublishedKeysByNamespace", query = "SELECT c.gitUrl, c.id FROM Tool c WHERE lower(c.namespace) = lower(:namespace) AND c.isPublished = true"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Tool.findPublishedNamespaces", query = "SELECT DISTINCT lower(c.namespace) FROM Tool c WHERE c.isPublished = true AND c.namespace IS NOT NULL"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Tool.findDescriptorTypes", query = "SELECT DISTINCT c.id, f.type FROM Tool c JOIN c.tags t JOIN t.sourceFiles f WHERE c.id IN (:ids) AND t.hidden = false AND f.type IN (:types)"),
         @NamedQuery(name = "io.dockstore.webservice.core.Tool.searchPattern", query = "SELECT c FROM Tool c WHERE ((c.path LIKE :pattern) OR (c.registry LIKE :pattern) OR (c.description LIKE :pattern)) AND c.isPublished = true") })
 public class Tool extends Entry<Tool, Tag> {
 
@@ -125,7 +141,9 @@ public class Tool extends Entry<Tool, Tag> {
     @ApiModelProperty("Implementation specific timestamp for last built")
     private Date lastBuild;
 
-    @OneToMany(fetch = FetchType.EAGER, orphanRemoval = true)
+    @OneToMany(fetch = FetchType.LAZY, orphanRemoval = true)
+    @BatchSize(size = BATCH_SIZE)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JoinTable(name = "tool_tag", joinColumns = @JoinColumn(name = "toolid", referencedColumnName = "id"), inverseJoinColumns = @JoinColumn(name = "tagid", referencedColumnName = "id"))
     @ApiModelProperty("Implementation specific tracking of valid build tags for the docker container")
     @OrderBy("id")
@@ -35,11 +35,17 @@ import javax.persistence.JoinTable;
 import javax.persistence.OneToMany;
 import javax.persistence.SequenceGenerator;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Ordering;
+import io.dockstore.webservice.helpers.SourceFilesSerializer;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 /**
  * This describes one version of either a workflow or a tool.
@@ -49,6 +55,7 @@ import io.swagger.annotations.ApiModelProperty;
 @Entity
 @ApiModel(value = "Base class for versions of entries in the Dockstore")
 @Inheritance(strategy = InheritanceType.TABLE_PER_CLASS)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public abstract class Version<T extends Version> implements Comparable<T> {
     /**
      * re-use existing generator for backwards compatibility
@@ -68,9 +75,14 @@ public abstract class Version<T extends Version> implements Comparable<T> {
     @ApiModelProperty(value = "git commit/tag/branch", required = true)
     private String reference;
 
-    @OneToMany(fetch = FetchType.EAGER, orphanRemoval = true, cascade = CascadeType.ALL)
+    @OneToMany(fetch = FetchType.LAZY, orphanRemoval = true, cascade = CascadeType.ALL)
+    @BatchSize(size = Entry.BATCH_SIZE)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JoinTable(name = "version_sourcefile", joinColumns = @JoinColumn(name = "versionid", referencedColumnName = "id"), inverseJoinColumns = @JoinColumn(name = "sourcefileid", referencedColumnName = "id"))
-    @ApiModelProperty("Cached files for each version. Includes Dockerfile and Descriptor files")
+    @ApiModelProperty("Cached files for each version. Includes Dockerfile and Descriptor files. Left out when entries are listed, "
+            + "the endpoints for a single entry include them")
+    @JsonSerialize(using = SourceFilesSerializer.class)
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
     private final Set<SourceFile> sourceFiles;
 
     @Column
@@ -96,6 +108,10 @@ public abstract class Version<T extends Version> implements Comparable<T> {
     @ApiModelProperty("Verified source for the version")
     private String verifiedSource;
 
+    @Column
+    @ApiModelProperty("The commit the reference pointed at when the files of this version were last fetched")
+    private String commitID;
+
     public Version() {
         sourceFiles = new HashSet<>(0);
     }
@@ -116,6 +132,14 @@ public abstract class Version<T extends Version> implements Comparable<T> {
         this.verifiedSource = verifiedSource;
     }
 
+    public String getCommitID() {
+        return commitID;
+    }
+
+    public void setCommitID(String commitID) {
+        this.commitID = commitID;
+    }
+
     public boolean isDirtyBit() {
         return dirtyBit;
     }
@@ -62,9 +62,18 @@ public class WorkflowVersion extends Version<WorkflowVersion> implements Compara
     public void update(WorkflowVersion workflowVersion) {
         super.update(workflowVersion);
         super.setReference(workflowVersion.getReference());
+        super.setCommitID(workflowVersion.getCommitID());
         workflowPath = workflowVersion.getWorkflowPath();
     }
 
+    /**
+     * @param other a version refreshed before
+     * @return true if both come from the same commit and path, so their files are the same
+     */
+    public boolean isUnchangedFrom(WorkflowVersion other) {
+        return getCommitID() != null && getCommitID().equals(other.getCommitID()) && Objects.equals(workflowPath, other.workflowPath);
+    }
+
     public void clone(WorkflowVersion tag) {
         super.clone(tag);
         super.setReference(tag.getReference());
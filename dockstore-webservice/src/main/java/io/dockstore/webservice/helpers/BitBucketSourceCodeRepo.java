@@ -241,6 +241,11 @@ public class BitBucketSourceCodeRepo extends SourceCodeRepoInterface {
                     String branchName = branch.getAsJsonObject().get("name").getAsString();
 
                     WorkflowVersion version = initializeWorkflowVersion(branchName, existingWorkflow, existingDefaults);
+                    String commitID = getCommitID(branch.getAsJsonObject());
+                    if (keepUnchangedVersion(version, commitID, existingDefaults)) {
+                        workflow.addWorkflowVersion(version);
+                        continue;
+                    }
                     String calculatedPath = version.getWorkflowPath();
 
                     // Now grab source files
@@ -250,8 +255,10 @@ public class BitBucketSourceCodeRepo extends SourceCodeRepoInterface {
                     // TODO: No exceptions are caught here in the event of a failed call
                     sourceFile = getSourceFile(calculatedPath, repositoryId, branchName, identifiedType);
 
-                    workflow.addWorkflowVersion(
-                            combineVersionAndSourcefile(sourceFile, workflow, identifiedType, version, existingDefaults));
+                    version = combineVersionAndSourcefile(sourceFile, workflow, identifiedType, version, existingDefaults);
+                    // a descriptor that did not come back is asked for again next time
+                    version.setCommitID(sourceFile.getContent() == null ? null : commitID);
+                    workflow.addWorkflowVersion(version);
                 }
             }
 
@@ -263,6 +270,35 @@ public class BitBucketSourceCodeRepo extends SourceCodeRepoInterface {
         return workflow;
     }
 
+    @Override
+    public Map<String, String> getReferenceCommitIDs(String repositoryId) {
+        Map<String, String> commitIDs = new HashMap<>();
+        // branches and tags come in one call
+        String url = BITBUCKET_API_URL + "repositories/" + repositoryId + "/branches-tags";
+        Optional<String> asString = ResourceUtilities.asString(url, bitbucketTokenContent, client);
+        if (asString.isPresent()) {
+            JsonObject jsonObject = new JsonParser().parse(asString.get()).getAsJsonObject();
+            for (Map.Entry<String, JsonElement> objectEntry : jsonObject.entrySet()) {
+                for (JsonElement reference : objectEntry.getValue().getAsJsonArray()) {
+                    String commitID = getCommitID(reference.getAsJsonObject());
+                    if (commitID != null) {
+                        commitIDs.put(reference.getAsJsonObject().get("name").getAsString(), commitID);
+                    }
+                }
+            }
+        }
+        return commitIDs;
+    }
+
+    /**
+     * @param referenceObject a branch or tag as listed by Bitbucket
+     * @return the changeset it points at, null if not given
+     */
+    private static String getCommitID(JsonObject referenceObject) {
+        JsonElement changeset = referenceObject.get("changeset");
+        return changeset == null || changeset.isJsonNull() ? null : changeset.getAsString();
+    }
+
     @Override
     public String getRepositoryId(Entry entry) {
         String repositoryId;
@@ -0,0 +1,146 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Properties;
+import java.util.function.ToLongFunction;
+
+import javax.cache.Cache;
+import javax.cache.management.CacheStatisticsMXBean;
+import javax.management.JMX;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.CacheRegionConfig;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.HibernateCacheConfig;
+import org.hibernate.cache.jcache.JCacheRegionFactory;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.cfg.AvailableSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Backs the Hibernate second-level and query caches with bounded Caffeine caches.
+ * Each region is sized from the hibernate properties built by {@link #toHibernateProperties(HibernateCacheConfig)} so that the
+ * factory does not need to know about the webservice configuration.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class CaffeineRegionFactory extends JCacheRegionFactory {
+
+    private static final String PREFIX = "dockstore.cache.";
+    private static final String MAXIMUM_SIZE = "maximum_size";
+    private static final String EXPIRE_AFTER_WRITE = "expire_after_write_ms";
+    private static final Logger LOG = LoggerFactory.getLogger(CaffeineRegionFactory.class);
+
+    /**
+     * Translate the cache configuration to the hibernate properties that turn the caches on and size their regions
+     *
+     * @param cacheConfig the cache section of the webservice configuration
+     * @return properties to add to the database properties
+     */
+    public static Map<String, String> toHibernateProperties(HibernateCacheConfig cacheConfig) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, String.valueOf(cacheConfig.isEnabled()));
+        properties.put(AvailableSettings.USE_QUERY_CACHE, String.valueOf(cacheConfig.isEnabled() && cacheConfig.isQueryCache()));
+        if (!cacheConfig.isEnabled()) {
+            return properties;
+        }
+        properties.put(AvailableSettings.CACHE_REGION_FACTORY, CaffeineRegionFactory.class.getName());
+        properties.put(JCacheRegionFactory.PROVIDER, CaffeineCachingProvider.class.getName());
+        properties.put(PREFIX + MAXIMUM_SIZE, String.valueOf(cacheConfig.getMaximumSize()));
+        properties.put(PREFIX + EXPIRE_AFTER_WRITE, String.valueOf(cacheConfig.getExpireAfterWrite().toMilliseconds()));
+        for (Map.Entry<String, CacheRegionConfig> region : cacheConfig.getRegions().entrySet()) {
+            CacheRegionConfig regionConfig = region.getValue();
+            if (regionConfig.getMaximumSize() != null) {
+                properties.put(PREFIX + "region." + region.getKey() + "." + MAXIMUM_SIZE, String.valueOf(regionConfig.getMaximumSize()));
+            }
+            if (regionConfig.getExpireAfterWrite() != null) {
+                properties.put(PREFIX + "region." + region.getKey() + "." + EXPIRE_AFTER_WRITE,
+                        String.valueOf(regionConfig.getExpireAfterWrite().toMilliseconds()));
+            }
+        }
+        return properties;
+    }
+
+    @Override
+    protected Cache<Object, Object> createCache(String regionName, Properties properties, CacheDataDescription metadata) {
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        // hibernate already stores disassembled state, there is no need to copy it again
+        configuration.setStoreByValue(false);
+        configuration.setStatisticsEnabled(true);
+        // the timestamps region decides whether cached query results are stale, it must not lose entries before they do
+        if (!UpdateTimestampsCache.REGION_NAME.equals(regionName)) {
+            long maximumSize = regionSetting(properties, regionName, MAXIMUM_SIZE);
+            long expireAfterWrite = regionSetting(properties, regionName, EXPIRE_AFTER_WRITE);
+            configuration.setMaximumSize(OptionalLong.of(maximumSize));
+            configuration.setExpireAfterWrite(OptionalLong.of(expireAfterWrite * 1000L * 1000L));
+            LOG.info("Creating cache region {} with {} entries expiring after {} ms", regionName, maximumSize, expireAfterWrite);
+        }
+        return getCacheManager().createCache(regionName, configuration);
+    }
+
+    private static long regionSetting(Properties properties, String regionName, String setting) {
+        String value = properties.getProperty(PREFIX + "region." + regionName + "." + setting, properties.getProperty(PREFIX + setting));
+        return Long.parseLong(value);
+    }
+
+    /**
+     * Publish hits, misses, puts and evictions of every region as gauges named hibernate.cache.[region].[statistic]
+     *
+     * @param registry where to publish
+     */
+    public void registerMetrics(MetricRegistry registry) {
+        for (String regionName : getCacheManager().getCacheNames()) {
+            final ObjectName objectName;
+            try {
+                // the name under which caffeine registers the standard JCache statistics bean
+                objectName = new ObjectName(String.format("javax.cache:type=CacheStatistics,CacheManager=%s,Cache=%s",
+                        sanitize(getCacheManager().getURI().toString()), sanitize(regionName)));
+            } catch (MalformedObjectNameException e) {
+                LOG.warn("Could not register metrics for cache region " + regionName, e);
+                continue;
+            }
+            CacheStatisticsMXBean statistics = JMX
+                    .newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(), objectName, CacheStatisticsMXBean.class);
+            register(registry, regionName, "hits", statistics, CacheStatisticsMXBean::getCacheHits);
+            register(registry, regionName, "misses", statistics, CacheStatisticsMXBean::getCacheMisses);
+            register(registry, regionName, "puts", statistics, CacheStatisticsMXBean::getCachePuts);
+            register(registry, regionName, "evictions", statistics, CacheStatisticsMXBean::getCacheEvictions);
+        }
+    }
+
+    private static void register(MetricRegistry registry, String regionName, String statistic, CacheStatisticsMXBean statistics,
+            ToLongFunction<CacheStatisticsMXBean> getter) {
+        String name = MetricRegistry.name("hibernate.cache", regionName, statistic);
+        registry.remove(name);
+        registry.register(name, (Gauge<Long>)() -> getter.applyAsLong(statistics));
+    }
+
+    private static String sanitize(String name) {
+        return name == null ? "" : name.replaceAll(",|:|=|\n", ".");
+    }
+}
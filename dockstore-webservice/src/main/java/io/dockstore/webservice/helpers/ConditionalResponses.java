@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Validators for published reads that clients poll, so that a client with a current copy gets a 304 without the entry being loaded
+ * and converted. The validators are looked up with cheap queries (the update date of an entry, the digests of files) and compared
+ * with the request before the response is built.
+ * <p>
+ * Caches may keep the responses but must check with the webservice before reusing them, so publishing changes shows up right away.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public final class ConditionalResponses {
+
+    private static final CacheControl CACHE_CONTROL = new CacheControl();
+
+    static {
+        CACHE_CONTROL.setMaxAge(0);
+        CACHE_CONTROL.setMustRevalidate(true);
+        CACHE_CONTROL.setNoTransform(false);
+    }
+
+    private ConditionalResponses() {
+        // hide the constructor for utility classes
+    }
+
+    /**
+     * @param parts what the representation depends on
+     * @return a strong tag that changes when any of the parts does
+     */
+    public static EntityTag tag(Object... parts) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (Object part : parts) {
+            // separate the parts so that moving characters between them changes the tag
+            hasher.putString(String.valueOf(part), StandardCharsets.UTF_8).putChar('\0');
+        }
+        return new EntityTag(hasher.hash().toString());
+    }
+
+    /**
+     * @param request      the request, with its conditional headers
+     * @param tag          the tag of the current representation
+     * @param lastModified when the representation last changed, may be null
+     * @return a 304 (or 412) response if the client does not need the representation, null if it should be sent
+     */
+    public static Response evaluate(Request request, EntityTag tag, Date lastModified) {
+        Response.ResponseBuilder builder = lastModified == null ? request.evaluatePreconditions(tag)
+                : request.evaluatePreconditions(lastModified, tag);
+        return builder == null ? null : validators(builder, tag, lastModified).build();
+    }
+
+    /**
+     * Add the validators and caching directives to a response. Responses are compressed for the clients that accept it, so caches
+     * are told that the tag is only valid for the same Accept-Encoding.
+     */
+    public static Response.ResponseBuilder validators(Response.ResponseBuilder builder, EntityTag tag, Date lastModified) {
+        if (lastModified != null) {
+            builder.lastModified(lastModified);
+        }
+        // a null value drops the header the response may already have, so that it is not listed twice
+        return builder.tag(tag).cacheControl(CACHE_CONTROL).header(HttpHeaders.VARY, null)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.ElasticSearchConfig;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Owns the one elastic search client of the webservice and sends index updates in the background.
+ * The client keeps its connections open for the life of the webservice. Updates wait in a bounded queue for a small pool of
+ * workers, so a slow or unavailable elastic search does not slow down the requests that change entries. Updates that fail are
+ * tried again with an exponential backoff.
+ * <p>
+ * Publishes elastic.index.queueDepth, the elastic.index.latency timer (from submission until elastic search accepted the update)
+ * and meters for retries, failures (given up on) and dropped updates (the queue was full).
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class ElasticIndexer implements Managed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ElasticIndexer.class);
+    private static final long SHUTDOWN_SECONDS = 30;
+
+    private final ElasticSearchConfig config;
+    private final BlockingQueue<Runnable> queue;
+    private final Timer latency;
+    private final Meter retried;
+    private final Meter failed;
+    private final Meter dropped;
+    private RestClient client;
+    private ThreadPoolExecutor workers;
+    private ScheduledExecutorService retries;
+
+    public ElasticIndexer(ElasticSearchConfig config, MetricRegistry metrics) {
+        this.config = config;
+        this.queue = new ArrayBlockingQueue<>(config.getIndexQueueCapacity());
+        this.latency = metrics.timer("elastic.index.latency");
+        this.retried = metrics.meter("elastic.index.retries");
+        this.failed = metrics.meter("elastic.index.failures");
+        this.dropped = metrics.meter("elastic.index.dropped");
+        metrics.register("elastic.index.queueDepth", (Gauge<Integer>)queue::size);
+    }
+
+    /**
+     * @return true if an elastic search host is configured
+     */
+    public boolean isEnabled() {
+        return config.getHostname() != null && !config.getHostname().isEmpty();
+    }
+
+    /**
+     * @return the shared client for requests that need an answer (searches, index administration), null if there is no host
+     */
+    public RestClient getClient() {
+        return client;
+    }
+
+    @Override
+    public void start() {
+        if (!isEnabled()) {
+            LOG.info("No elastic search host configured, index updates will not be sent");
+            return;
+        }
+        client = RestClient.builder(new HttpHost(config.getHostname(), config.getPort(), "http")).build();
+        workers = new ThreadPoolExecutor(config.getIndexThreads(), config.getIndexThreads(), 0L, TimeUnit.MILLISECONDS, queue,
+                new ThreadFactoryBuilder().setNameFormat("elastic-index-%d").setDaemon(true).build());
+        retries = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("elastic-retry-%d").setDaemon(true).build());
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (client == null) {
+            return;
+        }
+        int waiting = retries.shutdownNow().size();
+        if (waiting > 0) {
+            LOG.warn("Dropping {} index updates waiting to be retried", waiting);
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+            LOG.warn("Dropping {} index updates that were not sent in time", workers.shutdownNow().size());
+        }
+        client.close();
+    }
+
+    /**
+     * Queue a request to elastic search
+     *
+     * @param method   the http method
+     * @param endpoint the path of the request
+     * @param body     the json body, may be null
+     * @return false if the request could not be queued
+     */
+    public boolean submit(String method, String endpoint, String body) {
+        return submit(method, endpoint, body, null);
+    }
+
+    /**
+     * Queue a request to elastic search
+     *
+     * @param method   the http method
+     * @param endpoint the path of the request
+     * @param body     the json body, may be null
+     * @param handler  called with the response once elastic search accepted the request, may be null
+     * @return false if the request could not be queued
+     */
+    public boolean submit(String method, String endpoint, String body, ResponseHandler handler) {
+        if (client == null) {
+            LOG.error("No elastic search host found.");
+            return false;
+        }
+        return execute(new IndexRequest(method, endpoint, body, handler, latency.time()));
+    }
+
+    private boolean execute(IndexRequest request) {
+        try {
+            workers.execute(() -> send(request));
+            return true;
+        } catch (RejectedExecutionException e) {
+            dropped.mark();
+            LOG.error("Could not queue index update {} {}, the queue is full or shut down", request.method, request.endpoint);
+            return false;
+        }
+    }
+
+    private void send(IndexRequest request) {
+        try {
+            Response response;
+            if (request.body == null) {
+                response = client.performRequest(request.method, request.endpoint);
+            } else {
+                response = client.performRequest(request.method, request.endpoint, Collections.emptyMap(),
+                        new NStringEntity(request.body, ContentType.APPLICATION_JSON));
+            }
+            request.timer.stop();
+            handle(request, response);
+        } catch (ResponseException e) {
+            int status = e.getResponse().getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_NOT_FOUND && "DELETE".equals(request.method)) {
+                // nothing to delete
+                request.timer.stop();
+            } else if (status == 429 || status >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                retry(request, e);
+            } else {
+                fail(request, e);
+            }
+        } catch (IOException e) {
+            retry(request, e);
+        }
+    }
+
+    private void handle(IndexRequest request, Response response) {
+        if (request.handler == null) {
+            return;
+        }
+        try {
+            request.handler.handle(response);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Could not handle the response to " + request.method + " " + request.endpoint, e);
+        }
+    }
+
+    private void retry(IndexRequest request, Exception cause) {
+        if (request.attempt >= config.getIndexRetries()) {
+            fail(request, cause);
+            return;
+        }
+        retried.mark();
+        long backoff = config.getIndexRetryBackoff().toMilliseconds() << request.attempt;
+        LOG.info("Retrying index update {} {} in {} ms: {}", request.method, request.endpoint, backoff, cause.getMessage());
+        try {
+            retries.schedule(() -> execute(request.next()), backoff, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            fail(request, cause);
+        }
+    }
+
+    private void fail(IndexRequest request, Exception cause) {
+        failed.mark();
+        LOG.error("Could not submit index to elastic search. " + request.method + " " + request.endpoint + ": " + cause.getMessage());
+    }
+
+    /**
+     * Looks at the response to a request that elastic search accepted, for example for items of a bulk request that failed
+     */
+    @FunctionalInterface
+    public interface ResponseHandler {
+        void handle(Response response) throws IOException;
+    }
+
+    /**
+     * A request along with how many times it has been tried
+     */
+    private static final class IndexRequest {
+        private final String method;
+        private final String endpoint;
+        private final String body;
+        private final ResponseHandler handler;
+        private final Timer.Context timer;
+        private final int attempt;
+
+        IndexRequest(String method, String endpoint, String body, ResponseHandler handler, Timer.Context timer) {
+            this(method, endpoint, body, handler, timer, 0);
+        }
+
+        private IndexRequest(String method, String endpoint, String body, ResponseHandler handler, Timer.Context timer, int attempt) {
+            this.method = method;
+            this.endpoint = endpoint;
+            this.body = body;
+            this.handler = handler;
+            this.timer = timer;
+            this.attempt = attempt;
+        }
+
+        IndexRequest next() {
+            return new IndexRequest(method, endpoint, body, handler, timer, attempt + 1);
+        }
+    }
+}
@@ -15,31 +15,29 @@
  */
 package io.dockstore.webservice.helpers;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import io.dockstore.webservice.CustomWebApplicationException;
 import io.dockstore.webservice.DockstoreWebserviceConfiguration;
 import io.dockstore.webservice.core.Entry;
 import io.dockstore.webservice.core.Tool;
 import io.dockstore.webservice.jdbi.ToolDAO;
 import io.dockstore.webservice.jdbi.WorkflowDAO;
-import io.dropwizard.jackson.Jackson;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
-import org.apache.http.HttpStatus;
-import org.apache.http.entity.ContentType;
-import org.apache.http.nio.entity.NStringEntity;
-import org.elasticsearch.client.RestClient;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ManagedSessionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,8 +50,15 @@ public class ElasticManager {
     public static String hostname;
     public static int port;
     private static final Logger LOGGER = LoggerFactory.getLogger(ElasticManager.class);
+    private static final Gson GSON = new GsonBuilder().create();
     private static ToolDAO toolDAO = null;
     private static WorkflowDAO workflowDAO = null;
+    private static ElasticIndexer indexer = null;
+    private static IndexUpdateBuffer indexBuffer = null;
+    private static SearchDocumentWriter documentWriter = null;
+    private static SessionFactory sessionFactory = null;
+    private static final List<StateListenerInterface> LISTENERS = new CopyOnWriteArrayList<>();
+    private static final AtomicLong GENERATION = new AtomicLong();
     private List<Long> toolIds;
     private List<Long> workflowIds;
 
@@ -65,12 +70,102 @@ public class ElasticManager {
         return config;
     }
 
+    /**
+     * @param indexer sends the index updates
+     */
+    public static void setIndexer(ElasticIndexer indexer) {
+        ElasticManager.indexer = indexer;
+    }
+
+    /**
+     * @param indexBuffer collects the index updates into bulk requests
+     */
+    public static void setIndexBuffer(IndexUpdateBuffer indexBuffer) {
+        ElasticManager.indexBuffer = indexBuffer;
+    }
+
+    /**
+     * @param documentWriter converts entries into search documents
+     */
+    public static void setDocumentWriter(SearchDocumentWriter documentWriter) {
+        ElasticManager.documentWriter = documentWriter;
+    }
+
+    /**
+     * @param sessionFactory the factory of the sessions whose commits the listeners wait for
+     */
+    public static void setSessionFactory(SessionFactory sessionFactory) {
+        ElasticManager.sessionFactory = sessionFactory;
+    }
+
     public static void setConfig(DockstoreWebserviceConfiguration config) {
         ElasticManager.config = config;
         ElasticManager.hostname = config.getEsConfiguration().getHostname();
         ElasticManager.port = config.getEsConfiguration().getPort();
     }
 
+    /**
+     * Register an in-memory view that should see the same updates as the elastic search index
+     *
+     * @param listener the listener to notify
+     */
+    public static void addListener(StateListenerInterface listener) {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * Run a change to an in-memory view once the transaction of the current unit of work has committed, so that a change that is
+     * rolled back is never seen. Changes run in the order they were registered in. Without a unit of work there is nothing to wait
+     * for and the change is run right away.
+     * The change runs after the session let go of the transaction, it must not load anything lazily.
+     *
+     * @param change the change to make
+     */
+    public static void afterCommit(Runnable change) {
+        if (sessionFactory == null || !ManagedSessionContext.hasBind(sessionFactory)) {
+            change.run();
+            return;
+        }
+        Transaction transaction = sessionFactory.getCurrentSession().getTransaction();
+        if (!transaction.isActive()) {
+            change.run();
+            return;
+        }
+        transaction.registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // nothing is written with the transaction
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != Status.STATUS_COMMITTED) {
+                    return;
+                }
+                try {
+                    change.run();
+                } catch (RuntimeException e) {
+                    // the transaction is already committed, failing here would only fail the response
+                    LOGGER.error("Could not apply a committed change", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a number that changes whenever the index is written to, searches answered under another generation may be stale
+     */
+    public static long getGeneration() {
+        return GENERATION.get();
+    }
+
+    /**
+     * Note that the index changed
+     */
+    static void nextGeneration() {
+        GENERATION.incrementAndGet();
+    }
+
     public List<Long> getToolIds() {
         return toolIds;
     }
@@ -87,7 +182,7 @@ public class ElasticManager {
         this.workflowIds = workflowIds;
     }
 
-    private String getNDJSONFromIDs() {
+    private String getNDJSONFromIDs() throws JsonProcessingException {
         List<Entry> entries = new ArrayList<>();
         toolIds.forEach(id -> entries.add(toolDAO.findPublishedById(id)));
         workflowIds.forEach(id -> entries.add(workflowDAO.findPublishedById(id)));
@@ -98,20 +193,15 @@ public class ElasticManager {
      * This converts the entry into a document for elastic search to use
      *
      * @param entry The entry that needs updating
-     * @return The entry converted into a json string
+     * @return The entry converted into a json string, null if it could not be converted
      */
     private String getDocumentValueFromEntry(Entry entry) {
-        ObjectMapper mapper = Jackson.newObjectMapper();
-        StringBuilder builder = new StringBuilder();
-        Map<String, Object> doc = new HashMap<>();
-        doc.put("doc", entry);
-        doc.put("doc_as_upsert", true);
         try {
-            builder.append(mapper.writeValueAsString(doc));
+            return documentWriter.toJson(entry);
         } catch (JsonProcessingException e) {
-            e.printStackTrace();
+            LOGGER.error("Could not convert entry " + entry.getId() + " into a document", e);
+            return null;
         }
-        return builder.toString();
     }
 
     /**
@@ -122,7 +212,10 @@ public class ElasticManager {
      */
     public void handleIndexUpdate(Entry entry, ElasticMode command) {
         LOGGER.info("Performing index update with " + command + ".");
-        if (ElasticManager.hostname == null || ElasticManager.hostname.isEmpty()) {
+        LISTENERS.forEach(listener -> listener.handleIndexUpdate(entry, command));
+        // after the listeners applied the change, so that a search answered under the next generation sees it
+        afterCommit(ElasticManager::nextGeneration);
+        if (indexBuffer == null || !indexBuffer.isEnabled()) {
             LOGGER.error("No elastic search host found.");
             return;
         }
@@ -130,30 +223,21 @@ public class ElasticManager {
             LOGGER.error("Could not perform the elastic search index update.");
             return;
         }
-        String json = getDocumentValueFromEntry(entry);
-        try (RestClient restClient = RestClient.builder(new HttpHost(ElasticManager.hostname, ElasticManager.port, "http")).build()) {
-            String entryType = entry instanceof Tool ? "tool" : "workflow";
-            HttpEntity entity = new NStringEntity(json, ContentType.APPLICATION_JSON);
-            org.elasticsearch.client.Response post;
-            switch (command) {
-            case UPDATE:
-                post = restClient
-                        .performRequest("POST", "/entry/" + entryType + "/" + entry.getId() + "/_update", Collections.emptyMap(), entity);
-                break;
-            case DELETE:
-                post = restClient.performRequest("DELETE", "/entry/" + entryType + "/" + entry.getId(), Collections.emptyMap(), entity);
-                break;
-            default:
-                throw new RuntimeException("Unknown index command: " + command);
-            }
-            int statusCode = post.getStatusLine().getStatusCode();
-            if (statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_CREATED) {
-                LOGGER.info("Successful " + command + ".");
-            } else {
-                LOGGER.info("Could not submit index to elastic search. " + post.getStatusLine().getReasonPhrase());
+        // the entry is serialized now, while its session is still open, and sent with the first bulk request after the commit
+        String entryType = entry instanceof Tool ? "tool" : "workflow";
+        long id = entry.getId();
+        switch (command) {
+        case UPDATE:
+            String document = getDocumentValueFromEntry(entry);
+            if (document != null) {
+                afterCommit(() -> indexBuffer.upsert(entryType, id, document));
             }
-        } catch (IOException e) {
-            LOGGER.error("Could not submit index to elastic search. " + e.getMessage());
+            break;
+        case DELETE:
+            afterCommit(() -> indexBuffer.delete(entryType, id));
+            break;
+        default:
+            throw new RuntimeException("Unknown index command: " + command);
         }
     }
 
@@ -189,26 +273,33 @@ public class ElasticManager {
      * @return The json used to update labels
      */
     public String updateDocumentValueFromLabels(Entry entry) {
-        Gson gson = new GsonBuilder().create();
         StringBuilder builder = new StringBuilder();
         Map<String, Set> labelsMap = new HashMap<>();
         labelsMap.put("labels", entry.getLabels());
         Map<String, Object> doc = new HashMap<>();
         doc.put("doc", labelsMap);
-        builder.append(gson.toJson(doc, Map.class));
+        builder.append(GSON.toJson(doc, Map.class));
         return builder.toString();
     }
 
     public void bulkUpsert(List<Entry> entries) {
-        try (RestClient restClient = RestClient.builder(new HttpHost(ElasticManager.hostname, ElasticManager.port, "http")).build()) {
-            String newlineDJSON = getNDJSON(entries);
-            HttpEntity bulkEntity = new NStringEntity(newlineDJSON, ContentType.APPLICATION_JSON);
-            org.elasticsearch.client.Response post = restClient.performRequest("POST", "/entry/_bulk", Collections.emptyMap(), bulkEntity);
-            if (post.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-                throw new CustomWebApplicationException("Could not submit index to elastic search", HttpStatus.SC_INTERNAL_SERVER_ERROR);
-            }
-        } catch (IOException e) {
-            LOGGER.error("Could not submit index to elastic search. " + e.getMessage());
+        LISTENERS.forEach(listener -> listener.bulkUpsert(entries));
+        afterCommit(ElasticManager::nextGeneration);
+        if (indexBuffer == null || !indexBuffer.isEnabled()) {
+            LOGGER.error("No elastic search host found.");
+            return;
+        }
+        try {
+            List<String> documents = documentWriter.toJson(entries);
+            List<String> types = entries.stream().map(entry -> entry instanceof Tool ? "tool" : "workflow").collect(Collectors.toList());
+            List<Long> ids = entries.stream().map(Entry::getId).collect(Collectors.toList());
+            afterCommit(() -> {
+                for (int i = 0; i < ids.size(); i++) {
+                    indexBuffer.upsert(types.get(i), ids.get(i), documents.get(i));
+                }
+            });
+        } catch (JsonProcessingException e) {
+            LOGGER.error("Could not convert entries into documents", e);
         }
     }
 
@@ -217,26 +308,17 @@ public class ElasticManager {
      *
      * @param publishedEntries A list of published entries
      * @return The json used for bulk insert
+     * @throws JsonProcessingException if an entry could not be converted
      */
-    public String getNDJSON(List<Entry> publishedEntries) {
-        ObjectMapper mapper = Jackson.newObjectMapper();
-        Gson gson = new GsonBuilder().create();
+    public String getNDJSON(List<Entry> publishedEntries) throws JsonProcessingException {
+        List<String> documents = documentWriter.toJson(publishedEntries);
         StringBuilder builder = new StringBuilder();
-        publishedEntries.forEach(entry -> {
-            Map<String, Map<String, String>> index = new HashMap<>();
-            Map<String, String> internal = new HashMap<>();
-            internal.put("_id", String.valueOf(entry.getId()));
-            internal.put("_type", entry instanceof Tool ? "tool" : "workflow");
-            index.put("index", internal);
-            builder.append(gson.toJson(index));
-            builder.append('\n');
-            try {
-                builder.append(mapper.writeValueAsString(entry));
-            } catch (JsonProcessingException e) {
-                e.printStackTrace();
-            }
-            builder.append('\n');
-        });
+        for (int i = 0; i < publishedEntries.size(); i++) {
+            Entry entry = publishedEntries.get(i);
+            builder.append("{\"index\":{\"_type\":\"").append(entry instanceof Tool ? "tool" : "workflow").append("\",\"_id\":\"")
+                    .append(entry.getId()).append("\"}}\n");
+            builder.append(documents.get(i)).append('\n');
+        }
         return builder.toString();
     }
 }
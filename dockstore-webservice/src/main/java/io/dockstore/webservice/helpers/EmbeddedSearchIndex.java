@@ -0,0 +1,684 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dockstore.webservice.CustomWebApplicationException;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.ElasticSearchConfig;
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.jdbi.EntryDAO;
+import io.dockstore.webservice.jdbi.FetchPlan;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dockstore.webservice.jdbi.WorkflowDAO;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.http.HttpStatus;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.queryparser.simple.SimpleQueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.QueryBuilder;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A search index kept inside the webservice for deployments without elastic search.
+ * It holds the same documents as elastic search (see {@link SearchDocumentWriter}) in a memory mapped Lucene index, built when the
+ * webservice starts and kept current through the same notifications that update elastic search, applied once their change commits.
+ * In the background, it is rebuilt when published entries changed without a notification.
+ * <p>
+ * Searches posted to the elastic search endpoint are answered in the same format for the common parts of the query language: match_all,
+ * match, multi_match, query_string, simple_query_string, term, terms, prefix and bool queries, from and size, and terms aggregations.
+ * The /containers/search and /workflows/search endpoints use it to rank their results instead of scanning the tables.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class EmbeddedSearchIndex implements Managed, StateListenerInterface {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedSearchIndex.class);
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    private static final String KEY = "_key";
+    private static final String TYPE = "_type";
+    private static final String ID = "_id";
+    private static final String SOURCE = "_source";
+    private static final String GENERATION = "_generation";
+    private static final String ALL = "_all";
+    private static final String STARS = "stars";
+    /**
+     * Fields that elastic search keeps as keywords, they are matched whole and can be aggregated
+     */
+    private static final Set<String> KEYWORD_FIELDS = new HashSet<>(Arrays
+            .asList(TYPE, "author", "registry", "namespace", "organization", "repository", "workflowName", "descriptorType",
+                    "defaultVersion", "labels"));
+    /**
+     * Fields that are analyzed, everything else is only found through {@link #ALL}
+     */
+    private static final Set<String> TEXT_FIELDS = new HashSet<>(
+            Arrays.asList("path", "tool_path", "workflow_path", "name", "toolname", "description", "gitUrl", "email"));
+    private static final Sort RANKING = new Sort(SortField.FIELD_SCORE, new SortField(STARS, SortField.Type.LONG, true));
+    private static final int DEFAULT_SIZE = 10;
+
+    private final ElasticSearchConfig config;
+    private final SessionFactory sessionFactory;
+    private final SearchDocumentWriter documentWriter;
+    private final Map<String, EntryDAO<? extends Entry>> daos = new LinkedHashMap<>();
+    private final Map<String, List<Object>> stamps = new ConcurrentHashMap<>();
+    private final Set<String> notified = ConcurrentHashMap.newKeySet();
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final AtomicLong generation = new AtomicLong();
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+    private ScheduledExecutorService builder;
+    private volatile boolean ready;
+
+    public EmbeddedSearchIndex(ElasticSearchConfig config, SessionFactory sessionFactory, SearchDocumentWriter documentWriter,
+            ToolDAO toolDAO, WorkflowDAO workflowDAO) {
+        this.config = config;
+        this.sessionFactory = sessionFactory;
+        this.documentWriter = documentWriter;
+        this.daos.put("tool", toolDAO);
+        this.daos.put("workflow", workflowDAO);
+    }
+
+    /**
+     * @return true if there is no elastic search host, so searches should be answered here
+     */
+    public boolean isEnabled() {
+        return config.getHostname() == null || config.getHostname().isEmpty();
+    }
+
+    /**
+     * @return true once the index has been built
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void start() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        Path directory = config.getEmbeddedIndexDirectory() == null ? Files.createTempDirectory("dockstore-search")
+                : Paths.get(config.getEmbeddedIndexDirectory());
+        LOG.info("No elastic search host configured, keeping a search index in {}", directory);
+        open(new MMapDirectory(directory));
+        builder = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("search-index-%d").setDaemon(true).build());
+        builder.execute(() -> {
+            try {
+                rebuild();
+            } catch (RuntimeException e) {
+                LOG.error("Could not build the search index", e);
+            }
+        });
+        long interval = config.getEmbeddedIndexCheckInterval().toMilliseconds();
+        if (interval > 0) {
+            builder.scheduleWithFixedDelay(() -> {
+                try {
+                    checkCurrent();
+                } catch (RuntimeException e) {
+                    LOG.error("Could not check whether the search index is current", e);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Start with an empty index in a directory, searches find nothing until it is rebuilt
+     */
+    void open(Directory directory) throws IOException {
+        // the index is rebuilt from the database every time, nothing is kept from the last run
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer).setOpenMode(IndexWriterConfig.OpenMode.CREATE));
+        searcherManager = new SearcherManager(writer, null);
+    }
+
+    @Override
+    public void stop() throws IOException {
+        if (writer == null) {
+            return;
+        }
+        if (builder != null) {
+            builder.shutdownNow();
+        }
+        searcherManager.close();
+        writer.close();
+    }
+
+    /**
+     * Index every published entry again, searches keep seeing the previous documents until the new ones are in
+     *
+     * @return the number of entries indexed
+     */
+    public synchronized long rebuild() {
+        long current = generation.incrementAndGet();
+        long count = 0;
+        Session session = sessionFactory.openSession();
+        session.setDefaultReadOnly(true);
+        Session previous = ManagedSessionContext.bind(session);
+        Transaction transaction = session.beginTransaction();
+        try {
+            for (Map.Entry<String, EntryDAO<? extends Entry>> type : daos.entrySet()) {
+                EntryDAO<? extends Entry> dao = type.getValue();
+                // taken first, changes made during the build show up as a different stamp
+                stamps.put(type.getKey(), dao.findPublishedStamp());
+                notified.remove(type.getKey());
+                for (List<Long> chunk : Lists.partition(dao.findAllPublishedIds(), config.getBulkSize())) {
+                    List<Entry> entries = new ArrayList<>(dao.findPublishedByIds(chunk, FetchPlan.WITH_VERSIONS));
+                    index(entries, current);
+                    count += entries.size();
+                    session.clear();
+                }
+            }
+            // documents of an earlier build that were not replaced belong to entries that are no longer published
+            writer.deleteDocuments(LongPoint.newRangeQuery(GENERATION, Long.MIN_VALUE, current - 1));
+            writer.commit();
+            searcherManager.maybeRefresh();
+            ready = true;
+            LOG.info("Indexed {} entries in the search index", count);
+            return count;
+        } catch (IOException e) {
+            throw new CustomWebApplicationException("Could not build the search index: " + e.getMessage(),
+                    HttpStatus.SC_INTERNAL_SERVER_ERROR);
+        } finally {
+            // nothing is written through this session
+            transaction.rollback();
+            ManagedSessionContext.unbind(sessionFactory);
+            if (previous != null) {
+                ManagedSessionContext.bind(previous);
+            }
+            session.close();
+        }
+    }
+
+    @Override
+    public void handleIndexUpdate(Entry entry, ElasticMode command) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            // the document is made now, while the session of the entry is open, and only added once the change is committed
+            boolean indexed = command == ElasticMode.UPDATE && entry.getIsPublished();
+            List<Document> documents = indexed ? toDocuments(Collections.singletonList(entry)) : Collections.emptyList();
+            List<String> deleted = indexed ? Collections.emptyList() : Collections.singletonList(key(entry));
+            String type = type(entry);
+            ElasticManager.afterCommit(() -> apply(Collections.singleton(type), documents, deleted));
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Could not update the search index for entry " + entry.getId(), e);
+        }
+    }
+
+    @Override
+    public void bulkUpsert(List<Entry> entries) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            Set<String> types = entries.stream().map(EmbeddedSearchIndex::type).collect(Collectors.toSet());
+            List<Document> documents = toDocuments(entries.stream().filter(Entry::getIsPublished).collect(Collectors.toList()));
+            ElasticManager.afterCommit(() -> apply(types, documents, Collections.emptyList()));
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Could not update the search index", e);
+        }
+    }
+
+    /**
+     * Add committed changes to the index
+     *
+     * @param types     the types of the entries that changed, their next stamp is expected to differ
+     * @param documents the documents to add or replace
+     * @param deleted   the keys of the documents to remove
+     */
+    private void apply(Collection<String> types, List<Document> documents, List<String> deleted) {
+        notified.addAll(types);
+        try {
+            long current = generation.get();
+            for (Document document : documents) {
+                document.add(new LongPoint(GENERATION, current));
+                writer.updateDocument(new Term(KEY, document.get(KEY)), document);
+            }
+            for (String key : deleted) {
+                writer.deleteDocuments(new Term(KEY, key));
+            }
+            searcherManager.maybeRefresh();
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Could not update the search index", e);
+        }
+    }
+
+    private void index(List<Entry> entries, long currentGeneration) throws IOException {
+        for (Document document : toDocuments(entries)) {
+            document.add(new LongPoint(GENERATION, currentGeneration));
+            writer.updateDocument(new Term(KEY, document.get(KEY)), document);
+        }
+    }
+
+    private List<Document> toDocuments(List<Entry> entries) throws IOException {
+        List<String> json = documentWriter.toJson(entries);
+        List<Document> documents = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            documents.add(toDocument(entries.get(i), json.get(i)));
+        }
+        return documents;
+    }
+
+    private static String key(Entry entry) {
+        return type(entry) + "/" + entry.getId();
+    }
+
+    private static String type(Entry entry) {
+        return entry instanceof Tool ? "tool" : "workflow";
+    }
+
+    /**
+     * @return the document of an entry, without its generation
+     */
+    private static Document toDocument(Entry entry, String json) throws IOException {
+        Document document = new Document();
+        document.add(new StringField(KEY, key(entry), Field.Store.YES));
+        document.add(new StoredField(ID, entry.getId()));
+        document.add(new StoredField(SOURCE, json));
+        document.add(new StoredField(TYPE, type(entry)));
+        addKeyword(document, TYPE, type(entry));
+        StringBuilder all = new StringBuilder();
+        Iterator<Map.Entry<String, JsonNode>> fields = MAPPER.readTree(json).fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String name = field.getKey();
+            JsonNode value = field.getValue();
+            if (STARS.equals(name)) {
+                document.add(new NumericDocValuesField(STARS, value.asLong()));
+            } else if (KEYWORD_FIELDS.contains(name)) {
+                for (String text : values(name, value)) {
+                    addKeyword(document, name, text);
+                    all.append(text).append('\n');
+                }
+            } else if (TEXT_FIELDS.contains(name) && value.isTextual()) {
+                document.add(new TextField(name, value.asText(), Field.Store.NO));
+                all.append(value.asText()).append('\n');
+            } else if (value.isArray()) {
+                // versions can be found by name
+                value.forEach(version -> all.append(version.path("name").asText()).append('\n'));
+            }
+        }
+        document.add(new TextField(ALL, all.toString(), Field.Store.NO));
+        return document;
+    }
+
+    private static List<String> values(String name, JsonNode value) {
+        List<String> values = new ArrayList<>();
+        if (value.isArray()) {
+            // labels are objects, the other keywords are plain values
+            value.forEach(item -> values.add("labels".equals(name) ? item.path("value").asText() : item.asText()));
+        } else if (!value.isNull()) {
+            values.add(value.asText());
+        }
+        return values;
+    }
+
+    private static void addKeyword(Document document, String name, String value) {
+        document.add(new StringField(name, value, Field.Store.NO));
+        document.add(new SortedSetDocValuesField(name, new BytesRef(value)));
+    }
+
+    /**
+     * Find published entries for a search box, every word must match the start of a word of the entry
+     *
+     * @param type    tool or workflow
+     * @param pattern what the user typed
+     * @param offset  the number of entries to skip
+     * @param limit   the maximum number of entries to return
+     * @return the ids of the matching entries, best first
+     */
+    public List<Long> searchIds(String type, String pattern, int offset, int limit) throws IOException {
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        query.add(new TermQuery(new Term(TYPE, type)), BooleanClause.Occur.FILTER);
+        Query words = new QueryBuilder(analyzer).createBooleanQuery(ALL, pattern == null ? "" : pattern, BooleanClause.Occur.MUST);
+        if (words != null) {
+            for (BooleanClause clause : ((words instanceof BooleanQuery) ? ((BooleanQuery)words).clauses()
+                    : Collections.singletonList(new BooleanClause(words, BooleanClause.Occur.MUST)))) {
+                if (!(clause.getQuery() instanceof TermQuery)) {
+                    continue;
+                }
+                Term term = ((TermQuery)clause.getQuery()).getTerm();
+                // whole words rank above words that only start with what was typed
+                query.add(new BooleanQuery.Builder().add(new BoostQuery(new TermQuery(term), 2), BooleanClause.Occur.SHOULD)
+                        .add(new PrefixQuery(term), BooleanClause.Occur.SHOULD).build(), BooleanClause.Occur.MUST);
+            }
+        }
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            BooleanQuery built = query.build();
+            int hits = (int)Math.min(searcher.count(built), (long)offset + limit);
+            if (hits <= offset) {
+                return new ArrayList<>();
+            }
+            TopFieldDocs top = searcher.search(built, hits, RANKING);
+            List<Long> ids = new ArrayList<>(top.scoreDocs.length - offset);
+            for (int i = offset; i < top.scoreDocs.length; i++) {
+                ids.add(searcher.doc(top.scoreDocs[i].doc).getField(ID).numericValue().longValue());
+            }
+            return ids;
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Rebuild the index if published entries changed without a notification, for example when the database was restored.
+     * Changes that were notified are already in the index, they only move the stamp along.
+     */
+    synchronized void checkCurrent() {
+        boolean stale = false;
+        Session session = sessionFactory.openSession();
+        session.setDefaultReadOnly(true);
+        Session previous = ManagedSessionContext.bind(session);
+        Transaction transaction = session.beginTransaction();
+        try {
+            for (Map.Entry<String, EntryDAO<? extends Entry>> type : daos.entrySet()) {
+                List<Object> stamp = type.getValue().findPublishedStamp();
+                List<Object> known = stamps.put(type.getKey(), stamp);
+                if (!notified.remove(type.getKey())) {
+                    stale |= !stamp.equals(known);
+                }
+            }
+        } finally {
+            transaction.rollback();
+            ManagedSessionContext.unbind(sessionFactory);
+            if (previous != null) {
+                ManagedSessionContext.bind(previous);
+            }
+            session.close();
+        }
+        if (stale) {
+            LOG.info("Published entries changed outside of the webservice, rebuilding the search index");
+            rebuild();
+        }
+    }
+
+    /**
+     * Answer a search posted to the elastic search endpoint
+     *
+     * @param body       the elastic search request, may be null
+     * @param parameters the parameters of the request, from and size are used
+     * @return the response, as elastic search would have sent it
+     */
+    public String search(String body, Map<String, String> parameters) throws IOException {
+        long start = System.currentTimeMillis();
+        JsonNode request = body == null || body.trim().isEmpty() ? MAPPER.createObjectNode() : MAPPER.readTree(body);
+        Query query = toQuery(request.get("query"));
+        int from = parameters.containsKey("from") ? Integer.parseInt(parameters.get("from")) : request.path("from").asInt(0);
+        int size = parameters.containsKey("size") ? Integer.parseInt(parameters.get("size")) : request.path("size").asInt(DEFAULT_SIZE);
+
+        ObjectNode response = MAPPER.createObjectNode();
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            TopFieldDocs top = searcher.search(query, Math.max(1, from + size), RANKING, true, true);
+            response.put("timed_out", false);
+            ObjectNode hits = response.putObject("hits");
+            hits.put("total", top.totalHits);
+            hits.put("max_score", Float.isNaN(top.getMaxScore()) ? 0 : top.getMaxScore());
+            ArrayNode hitList = hits.putArray("hits");
+            // at least one document is collected, a size of 0 only asks for the total and the aggregations
+            for (int i = from; i < Math.min(top.scoreDocs.length, from + size); i++) {
+                Document document = searcher.doc(top.scoreDocs[i].doc);
+                JsonNode source = MAPPER.readTree(document.get(SOURCE));
+                ObjectNode hit = hitList.addObject();
+                hit.put("_index", EntryReindexer.ALIAS);
+                hit.put(TYPE, document.get(TYPE));
+                hit.put(ID, String.valueOf(document.getField(ID).numericValue().longValue()));
+                hit.put("_score", top.scoreDocs[i].score);
+                hit.set(SOURCE, source);
+            }
+            JsonNode aggregations = request.has("aggs") ? request.get("aggs") : request.get("aggregations");
+            if (aggregations != null) {
+                response.set("aggregations", aggregate(searcher, query, aggregations));
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+        response.put("took", System.currentTimeMillis() - start);
+        return MAPPER.writeValueAsString(response);
+    }
+
+    /**
+     * Count the values of keyword fields in the matching documents, only terms aggregations are supported
+     */
+    private ObjectNode aggregate(IndexSearcher searcher, Query query, JsonNode aggregations) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        Map<String, Integer> sizes = new HashMap<>();
+        aggregations.fields().forEachRemaining(aggregation -> {
+            JsonNode terms = aggregation.getValue().get("terms");
+            if (terms == null || !terms.has("field")) {
+                throw new CustomWebApplicationException("Only terms aggregations are supported without elastic search",
+                        HttpStatus.SC_BAD_REQUEST);
+            }
+            fields.put(aggregation.getKey(), terms.get("field").asText().replaceAll("\\.keyword$", ""));
+            sizes.put(aggregation.getKey(), terms.path("size").asInt(DEFAULT_SIZE));
+        });
+        Map<String, Map<String, Integer>> counts = new HashMap<>();
+        new HashSet<>(fields.values()).forEach(field -> counts.put(field, new HashMap<>()));
+        searcher.search(query, new SimpleCollector() {
+            private final Map<String, SortedSetDocValues> values = new HashMap<>();
+
+            @Override
+            protected void doSetNextReader(LeafReaderContext context) throws IOException {
+                for (String field : counts.keySet()) {
+                    values.put(field, DocValues.getSortedSet(context.reader(), field));
+                }
+            }
+
+            @Override
+            public void collect(int doc) {
+                values.forEach((field, docValues) -> {
+                    docValues.setDocument(doc);
+                    for (long ord = docValues.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = docValues.nextOrd()) {
+                        counts.get(field).merge(docValues.lookupOrd(ord).utf8ToString(), 1, Integer::sum);
+                    }
+                });
+            }
+
+            @Override
+            public boolean needsScores() {
+                return false;
+            }
+        });
+        ObjectNode result = MAPPER.createObjectNode();
+        fields.forEach((name, field) -> {
+            ArrayNode buckets = result.putObject(name).putArray("buckets");
+            counts.get(field).entrySet().stream()
+                    .sorted(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                    .limit(sizes.get(name))
+                    .forEach(bucket -> buckets.addObject().put("key", bucket.getKey()).put("doc_count", bucket.getValue()));
+        });
+        return result;
+    }
+
+    /**
+     * Translate the part of the elastic search query language that the catalog uses
+     */
+    private Query toQuery(JsonNode node) {
+        if (node == null || node.size() == 0) {
+            return new MatchAllDocsQuery();
+        }
+        Map.Entry<String, JsonNode> clause = node.fields().next();
+        JsonNode body = clause.getValue();
+        switch (clause.getKey()) {
+        case "match_all":
+            return new MatchAllDocsQuery();
+        case "bool":
+            return toBooleanQuery(body);
+        case "match": {
+            Map.Entry<String, JsonNode> field = body.fields().next();
+            return match(field.getKey(), field.getValue().isObject() ? field.getValue().path("query").asText() : field.getValue().asText());
+        }
+        case "multi_match": {
+            BooleanQuery.Builder query = new BooleanQuery.Builder();
+            JsonNode fields = body.has("fields") ? body.get("fields") : MAPPER.createArrayNode().add(ALL);
+            fields.forEach(field -> query.add(match(field.asText().replaceAll("\\^.*$", ""), body.path("query").asText()),
+                    BooleanClause.Occur.SHOULD));
+            return query.build();
+        }
+        case "query_string":
+            try {
+                QueryParser parser = new QueryParser(body.path("default_field").asText(ALL), analyzer);
+                parser.setAllowLeadingWildcard(true);
+                return parser.parse(body.path("query").asText());
+            } catch (ParseException e) {
+                throw new CustomWebApplicationException("Could not parse query: " + e.getMessage(), HttpStatus.SC_BAD_REQUEST);
+            }
+        case "simple_query_string": {
+            Map<String, Float> weights = new HashMap<>();
+            if (body.has("fields")) {
+                body.get("fields").forEach(field -> weights.put(field.asText().replaceAll("\\^.*$", ""), 1f));
+            } else {
+                weights.put(ALL, 1f);
+            }
+            return new SimpleQueryParser(analyzer, weights).parse(body.path("query").asText());
+        }
+        case "term": {
+            Map.Entry<String, JsonNode> field = body.fields().next();
+            JsonNode value = field.getValue().isObject() ? field.getValue().path("value") : field.getValue();
+            return new TermQuery(new Term(field.getKey(), value.asText()));
+        }
+        case "terms": {
+            Map.Entry<String, JsonNode> field = body.fields().next();
+            BooleanQuery.Builder query = new BooleanQuery.Builder();
+            field.getValue().forEach(value -> query.add(new TermQuery(new Term(field.getKey(), value.asText())), BooleanClause.Occur.SHOULD));
+            return query.build();
+        }
+        case "prefix": {
+            Map.Entry<String, JsonNode> field = body.fields().next();
+            JsonNode value = field.getValue().isObject() ? field.getValue().path("value") : field.getValue();
+            return new PrefixQuery(new Term(field.getKey(), value.asText()));
+        }
+        default:
+            throw new CustomWebApplicationException("Unsupported query without elastic search: " + clause.getKey(),
+                    HttpStatus.SC_BAD_REQUEST);
+        }
+    }
+
+    private Query toBooleanQuery(JsonNode body) {
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        boolean positive = false;
+        for (String occur : Arrays.asList("must", "filter", "should", "must_not")) {
+            JsonNode clauses = body.get(occur);
+            if (clauses == null) {
+                continue;
+            }
+            for (JsonNode clause : clauses.isArray() ? clauses : Collections.singletonList(clauses)) {
+                switch (occur) {
+                case "must":
+                    query.add(toQuery(clause), BooleanClause.Occur.MUST);
+                    break;
+                case "filter":
+                    query.add(toQuery(clause), BooleanClause.Occur.FILTER);
+                    break;
+                case "should":
+                    query.add(toQuery(clause), BooleanClause.Occur.SHOULD);
+                    break;
+                default:
+                    query.add(toQuery(clause), BooleanClause.Occur.MUST_NOT);
+                    break;
+                }
+                positive |= !"must_not".equals(occur);
+            }
+        }
+        if (!positive) {
+            // like elastic search, a query with only exclusions excludes from everything
+            query.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+        }
+        if (body.has("minimum_should_match")) {
+            query.setMinimumNumberShouldMatch(body.get("minimum_should_match").asInt());
+        }
+        return query.build();
+    }
+
+    private Query match(String field, String text) {
+        if (KEYWORD_FIELDS.contains(field)) {
+            return new TermQuery(new Term(field, text));
+        }
+        Query query = new QueryBuilder(analyzer).createBooleanQuery(TEXT_FIELDS.contains(field) ? field : ALL, text);
+        return query == null ? new MatchNoDocsQuery() : query;
+    }
+}
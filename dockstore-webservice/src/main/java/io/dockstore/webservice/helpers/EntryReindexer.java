@@ -0,0 +1,411 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dockstore.webservice.CustomWebApplicationException;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.ElasticSearchConfig;
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.jdbi.EntryDAO;
+import io.dockstore.webservice.jdbi.FetchPlan;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rebuilds the elastic search index without taking search down.
+ * A new index named after the time of the reindex is filled while searches keep using the old one through the {@link #ALIAS}
+ * alias. Published entries are loaded from the database in chunks of the bulk size, each chunk goes out as one bulk request and a
+ * few of them are in flight at a time. Once every entry is indexed, the alias is moved to the new index in one request and the old
+ * index is deleted. If anything fails, the new index is deleted and the alias is left alone.
+ * <p>
+ * Index updates made while the reindex runs are recorded by the {@link IndexUpdateBuffer} and sent to the new index once every
+ * chunk is indexed, right before the alias moves, so the new index is not behind and no update is overwritten by an older chunk.
+ * <p>
+ * A reindex runs in the background, one at a time, its progress is polled with {@link #getProgress()}.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class EntryReindexer implements Managed {
+
+    /**
+     * The name searches and index updates use, it points at the current index
+     */
+    public static final String ALIAS = "entry";
+
+    private static final Logger LOG = LoggerFactory.getLogger(EntryReindexer.class);
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+    private static final long BULK_TIMEOUT_MINUTES = 10;
+
+    private final ElasticSearchConfig config;
+    private final ElasticIndexer indexer;
+    private final IndexUpdateBuffer buffer;
+    private final SessionFactory sessionFactory;
+    private final List<EntryDAO<? extends Entry>> daos;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final ExecutorService executor = Executors
+            .newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("elastic-reindex-%d").setDaemon(true).build());
+    private volatile Progress progress;
+
+    public EntryReindexer(ElasticSearchConfig config, ElasticIndexer indexer, IndexUpdateBuffer buffer, SessionFactory sessionFactory,
+            List<EntryDAO<? extends Entry>> daos) {
+        this.config = config;
+        this.indexer = indexer;
+        this.buffer = buffer;
+        this.sessionFactory = sessionFactory;
+        this.daos = daos;
+    }
+
+    /**
+     * @return the progress of the running reindex, or of the last one, null if there was none
+     */
+    public Progress getProgress() {
+        return progress;
+    }
+
+    /**
+     * @return true while a reindex is building a new index
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    @Override
+    public void start() {
+        // nothing to start, reindexes are started on request
+    }
+
+    @Override
+    public void stop() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Start building a new index of all published entries, searches are switched over to it once it is complete
+     *
+     * @return the progress of the reindex that was started
+     */
+    public Progress reindex() {
+        if (!running.compareAndSet(false, true)) {
+            throw new CustomWebApplicationException("A reindex is already running", HttpStatus.SC_CONFLICT);
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Progress current = new Progress(ALIAS + "_" + format.format(new Date()));
+        progress = current;
+        try {
+            executor.execute(() -> run(current));
+        } catch (RejectedExecutionException e) {
+            current.fail("the webservice is stopping");
+            running.set(false);
+            throw new CustomWebApplicationException("Could not start a reindex, the webservice is stopping",
+                    HttpStatus.SC_SERVICE_UNAVAILABLE);
+        }
+        return current;
+    }
+
+    private void run(Progress current) {
+        try {
+            createIndex(current.getIndex());
+            buffer.setShadowIndex(current.getIndex());
+            load(current);
+            RestClient client = indexer.getClient();
+            buffer.closeShadow(body -> replay(current, body), () -> {
+                if (current.getFailed() > 0) {
+                    throw new IOException(current.getFailed() + " entries could not be indexed");
+                }
+                // the index was built without refreshes, turn them back on and make everything searchable before the swap
+                client.performRequest("PUT", "/" + current.getIndex() + "/_settings", Collections.emptyMap(),
+                        new NStringEntity("{\"index\":{\"refresh_interval\":null}}", ContentType.APPLICATION_JSON));
+                client.performRequest("POST", "/" + current.getIndex() + "/_refresh");
+                swapAlias(current.getIndex());
+            });
+            current.finish(State.DONE);
+            LOG.info("Reindexed {} entries into {}", current.getIndexed(), current.getIndex());
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            current.fail(e.getMessage());
+            LOG.error("Could not reindex into " + current.getIndex(), e);
+            deleteQuietly(current.getIndex());
+        } finally {
+            buffer.setShadowIndex(null);
+            running.set(false);
+        }
+    }
+
+    private void createIndex(String index) throws IOException {
+        URL url = Resources.getResource("queries/mapping.json");
+        ObjectNode mapping = (ObjectNode)MAPPER.readTree(Resources.toString(url, StandardCharsets.UTF_8));
+        // nobody searches the new index until it is complete, so it does not need refreshing while it is filled
+        mapping.with("settings").with("index").put("refresh_interval", "-1");
+        indexer.getClient().performRequest("PUT", "/" + index, Collections.emptyMap(),
+                new NStringEntity(MAPPER.writeValueAsString(mapping), ContentType.APPLICATION_JSON));
+    }
+
+    /**
+     * Send every published entry to the index, chunk by chunk
+     */
+    private void load(Progress current) throws IOException, InterruptedException {
+        Session session = sessionFactory.openSession();
+        session.setDefaultReadOnly(true);
+        Session previous = ManagedSessionContext.bind(session);
+        Transaction transaction = session.beginTransaction();
+        int permits = config.getIndexThreads();
+        Semaphore inFlight = new Semaphore(permits);
+        try {
+            List<List<Long>> ids = new ArrayList<>();
+            for (EntryDAO<? extends Entry> dao : daos) {
+                List<Long> published = dao.findAllPublishedIds();
+                current.total.addAndGet(published.size());
+                ids.add(published);
+            }
+            for (int i = 0; i < daos.size(); i++) {
+                for (List<Long> chunk : Lists.partition(ids.get(i), config.getBulkSize())) {
+                    List<Entry> entries = new ArrayList<>(daos.get(i).findPublishedByIds(chunk, FetchPlan.WITH_VERSIONS));
+                    // unpublished since the ids were found
+                    current.total.addAndGet(entries.size() - chunk.size());
+                    send(current, new ElasticManager().getNDJSON(entries), entries.size(), inFlight);
+                    session.clear();
+                }
+            }
+            // wait for the requests still in flight
+            if (!inFlight.tryAcquire(permits, BULK_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                throw new InterruptedException("Timed out waiting for bulk requests");
+            }
+        } finally {
+            // nothing is written through this session
+            transaction.rollback();
+            ManagedSessionContext.unbind(sessionFactory);
+            if (previous != null) {
+                ManagedSessionContext.bind(previous);
+            }
+            session.close();
+        }
+    }
+
+    /**
+     * Send updates made while the chunks were loaded
+     */
+    private void replay(Progress current, String body) throws IOException {
+        Response response = indexer.getClient().performRequest("POST", "/" + current.getIndex() + "/_bulk", Collections.emptyMap(),
+                new NStringEntity(body, ContentType.APPLICATION_JSON));
+        int failed = countFailures(response);
+        if (failed > 0) {
+            current.add(0, failed);
+        }
+    }
+
+    private void send(Progress current, String body, int count, Semaphore inFlight) throws InterruptedException {
+        if (count == 0) {
+            return;
+        }
+        inFlight.acquire();
+        indexer.getClient().performRequestAsync("POST", "/" + current.getIndex() + "/_bulk", Collections.emptyMap(),
+                new NStringEntity(body, ContentType.APPLICATION_JSON), new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        try {
+                            int failed = countFailures(response);
+                            current.add(count - failed, failed);
+                        } catch (IOException e) {
+                            LOG.error("Could not read the response of a bulk request", e);
+                            current.add(0, count);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Exception exception) {
+                        LOG.error("Could not send a bulk request to " + current.getIndex(), exception);
+                        current.add(0, count);
+                        inFlight.release();
+                    }
+                });
+    }
+
+    private static int countFailures(Response response) throws IOException {
+        JsonNode result;
+        try (InputStream content = response.getEntity().getContent()) {
+            result = MAPPER.readTree(content);
+        }
+        if (!result.path("errors").asBoolean(false)) {
+            return 0;
+        }
+        int failed = 0;
+        for (JsonNode item : result.path("items")) {
+            JsonNode outcome = item.elements().hasNext() ? item.elements().next() : null;
+            int status = outcome == null ? HttpStatus.SC_OK : outcome.path("status").asInt();
+            // nothing to delete
+            boolean absent = status == HttpStatus.SC_NOT_FOUND && item.has("delete");
+            if (status >= HttpStatus.SC_MULTIPLE_CHOICES && !absent) {
+                LOG.error("Could not index " + outcome.path("_type").asText() + "/" + outcome.path("_id").asText() + ": " + outcome
+                        .path("error"));
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Point the alias at the new index and delete the indices it pointed at before
+     */
+    private void swapAlias(String index) throws IOException {
+        RestClient client = indexer.getClient();
+        List<String> old = new ArrayList<>();
+        try (InputStream content = client.performRequest("GET", "/_alias/" + ALIAS).getEntity().getContent()) {
+            MAPPER.readTree(content).fieldNames().forEachRemaining(old::add);
+        } catch (ResponseException e) {
+            if (e.getResponse().getStatusLine().getStatusCode() != HttpStatus.SC_NOT_FOUND) {
+                throw e;
+            }
+            // indices built before the alias was used are named like it, that index has to go before the alias can be added
+            deleteQuietly(ALIAS);
+        }
+        ObjectNode request = MAPPER.createObjectNode();
+        ArrayNode actions = request.putArray("actions");
+        old.forEach(name -> actions.addObject().putObject("remove").put("index", name).put("alias", ALIAS));
+        actions.addObject().putObject("add").put("index", index).put("alias", ALIAS);
+        client.performRequest("POST", "/_aliases", Collections.emptyMap(),
+                new NStringEntity(MAPPER.writeValueAsString(request), ContentType.APPLICATION_JSON));
+        ElasticManager.nextGeneration();
+        old.stream().filter(name -> !name.equals(index)).forEach(this::deleteQuietly);
+    }
+
+    private void deleteQuietly(String index) {
+        try {
+            indexer.getClient().performRequest("DELETE", "/" + index);
+        } catch (ResponseException e) {
+            if (e.getResponse().getStatusLine().getStatusCode() != HttpStatus.SC_NOT_FOUND) {
+                LOG.error("Could not delete index " + index, e);
+            }
+        } catch (IOException e) {
+            LOG.error("Could not delete index " + index, e);
+        }
+    }
+
+    public enum State {
+        RUNNING, DONE, FAILED
+    }
+
+    /**
+     * How far along a reindex is
+     */
+    public static final class Progress {
+        private final String index;
+        private final Date started = new Date();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong indexed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile State state = State.RUNNING;
+        private volatile Date finished;
+        private volatile String error;
+
+        Progress(String index) {
+            this.index = index;
+        }
+
+        void add(long newlyIndexed, long newlyFailed) {
+            long done = indexed.addAndGet(newlyIndexed) + failed.addAndGet(newlyFailed);
+            LOG.info("Reindexed {} of {} entries into {}", done, total.get(), index);
+        }
+
+        void finish(State finalState) {
+            this.finished = new Date();
+            this.state = finalState;
+        }
+
+        void fail(String reason) {
+            this.error = reason;
+            finish(State.FAILED);
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public long getTotal() {
+            return total.get();
+        }
+
+        public long getIndexed() {
+            return indexed.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public Date getStarted() {
+            return started;
+        }
+
+        public Date getFinished() {
+            return finished;
+        }
+
+        /**
+         * @return why the reindex failed, null unless it did
+         */
+        public String getError() {
+            return error;
+        }
+    }
+}
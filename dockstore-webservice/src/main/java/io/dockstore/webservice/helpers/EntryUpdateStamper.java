@@ -0,0 +1,72 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import io.dockstore.webservice.core.Entry;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.context.internal.ManagedSessionContext;
+
+/**
+ * Keeps {@link Entry#getDbUpdateDate()} current for changes that do not update the row of the entry itself, such as hiding a
+ * version, editing labels, starring or a refresh that only changed versions and files. Changes to the entry row are already
+ * stamped by hibernate.
+ * The new date is written with the rest of the unit of work that sent the notification.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class EntryUpdateStamper implements StateListenerInterface {
+
+    private final SessionFactory sessionFactory;
+
+    public EntryUpdateStamper(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    public void handleIndexUpdate(Entry entry, ElasticMode command) {
+        stamp(Collections.singletonList(entry));
+    }
+
+    /**
+     * Refreshes send every published entry they went through, which of their versions changed is not known by then
+     */
+    @Override
+    public void bulkUpsert(List<Entry> entries) {
+        stamp(entries);
+    }
+
+    private void stamp(List<Entry> entries) {
+        if (!ManagedSessionContext.hasBind(sessionFactory)) {
+            return;
+        }
+        Session session = sessionFactory.getCurrentSession();
+        Date now = new Date();
+        for (Entry entry : entries) {
+            // the notified entry may have been evicted to be serialized, stamp the copy in the session instead
+            Entry managed = session.contains(entry) ? entry : (Entry)session.get(Hibernate.getClass(entry), entry.getId());
+            if (managed != null) {
+                managed.setDbUpdateDate(now);
+            }
+        }
+    }
+}
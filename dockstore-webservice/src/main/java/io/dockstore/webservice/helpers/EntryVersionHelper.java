@@ -30,8 +30,10 @@ import io.dockstore.webservice.core.Tool;
 import io.dockstore.webservice.core.Version;
 import io.dockstore.webservice.core.WorkflowVersion;
 import io.dockstore.webservice.jdbi.EntryDAO;
+import io.dockstore.webservice.jdbi.FetchPlan;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.http.HttpStatus;
+import org.hibernate.Hibernate;
 
 /**
  * This class contains code for interacting with versions for all types of entries.
@@ -52,6 +54,10 @@ public class EntryVersionHelper<T extends Entry> {
 
     public List<T> filterContainersForHiddenTags(List<T> entries) {
         for (T entry : entries) {
+            // the detached entry is serialized as is, so load what it shows now. Files are only there if the fetch plan loaded them
+            Hibernate.initialize(entry.getLabels());
+            Hibernate.initialize(entry.getStarredUsers());
+            Hibernate.initialize(entry.getVersions());
             dao.evict(entry);
             // clear users which are also lazy loaded
             entry.setUsers(null);
@@ -123,7 +129,7 @@ public class EntryVersionHelper<T extends Entry> {
 
     private Map<String, ImmutablePair<SourceFile, FileDescription>> getSourceFiles(long workflowId, String tag,
             SourceFile.FileType fileType) {
-        T entry = (T)dao.findById(workflowId);
+        T entry = (T)dao.findById(workflowId, FetchPlan.WITH_FILES);
         Helper.checkEntry(entry);
         this.filterContainersForHiddenTags(entry);
         Version tagInstance = null;
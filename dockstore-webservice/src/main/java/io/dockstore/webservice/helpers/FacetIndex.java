@@ -0,0 +1,503 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.Label;
+import io.dockstore.webservice.core.SourceFile;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.Version;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.jdbi.EntryDAO;
+import io.dockstore.webservice.jdbi.FetchPlan;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dockstore.webservice.jdbi.WorkflowDAO;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.commons.lang3.tuple.Pair;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Filters the published entries by facets (type, registry, organization, descriptor type, verified and label) in memory.
+ * Every published entry gets an ordinal, and every facet value keeps a bitmap of the ordinals of the entries that have it.
+ * Filtering is a union of the bitmaps of the values asked for within a facet and an intersection across facets, and the count
+ * of a value is the cardinality of its bitmap intersected with the entries matched by the filters of the other facets.
+ * Ordinals of unpublished entries are handed out again, so the bitmaps stay dense. The ordinals sorted by path are kept and only
+ * sorted again after a change, so a page is a walk along them that stops once the page is full.
+ * <p>
+ * The index follows publish, label, refresh and other changes through the notifications of {@link ElasticManager}, applied once
+ * their transaction commits. It is loaded from the database in the background on start, and again at a fixed interval to pick up
+ * changes made outside of the webservice.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class FacetIndex implements Managed, StateListenerInterface {
+
+    public static final String TYPE = "type";
+    public static final String REGISTRY = "registry";
+    public static final String ORGANIZATION = "organization";
+    public static final String DESCRIPTOR_TYPE = "descriptorType";
+    public static final String VERIFIED = "verified";
+    public static final String LABEL = "label";
+    public static final List<String> FACETS = Collections
+            .unmodifiableList(Arrays.asList(TYPE, REGISTRY, ORGANIZATION, DESCRIPTOR_TYPE, VERIFIED, LABEL));
+
+    private static final Logger LOG = LoggerFactory.getLogger(FacetIndex.class);
+    private static final String TOOL = "tool";
+    private static final String WORKFLOW = "workflow";
+    private static final int CHUNK_SIZE = 1000;
+    private static final long RELOAD_INTERVAL_MINUTES = 60;
+
+    private final SessionFactory sessionFactory;
+    private final ToolDAO toolDAO;
+    private final Map<String, EntryDAO<? extends Entry>> daos = new LinkedHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Everything below is guarded by lock
+     */
+    private State state = new State();
+    /**
+     * Facet values of the entries notified while a load runs, null for an entry that is gone, null when no load runs
+     */
+    private Map<String, FacetedEntry> notifiedDuringLoad;
+    private ScheduledExecutorService loader;
+
+    public FacetIndex(SessionFactory sessionFactory, ToolDAO toolDAO, WorkflowDAO workflowDAO) {
+        this.sessionFactory = sessionFactory;
+        this.toolDAO = toolDAO;
+        this.daos.put(TOOL, toolDAO);
+        this.daos.put(WORKFLOW, workflowDAO);
+    }
+
+    @Override
+    public void start() {
+        loader = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("facet-index-%d").setDaemon(true).build());
+        loader.scheduleWithFixedDelay(() -> {
+            try {
+                load();
+            } catch (RuntimeException e) {
+                LOG.error("Could not load the facets", e);
+            }
+        }, 0, RELOAD_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (loader == null) {
+            return;
+        }
+        loader.shutdownNow();
+        loader.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Load the facets of every published entry, filters keep seeing the previous facets until all of them are loaded
+     *
+     * @return the number of entries loaded
+     */
+    public long load() {
+        State loaded = new State();
+        lock.writeLock().lock();
+        try {
+            notifiedDuringLoad = new HashMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Session session = sessionFactory.openSession();
+        session.setDefaultReadOnly(true);
+        Session previous = ManagedSessionContext.bind(session);
+        Transaction transaction = session.beginTransaction();
+        try {
+            for (EntryDAO<? extends Entry> dao : daos.values()) {
+                for (List<Long> chunk : Lists.partition(dao.findAllPublishedIds(), CHUNK_SIZE)) {
+                    List<Entry> entries = new ArrayList<>(dao.findPublishedByIds(chunk, FetchPlan.WITH_VERSIONS));
+                    facetedEntries(entries).values().forEach(loaded::put);
+                    session.clear();
+                }
+            }
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                notifiedDuringLoad = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        } finally {
+            // nothing is written through this session
+            transaction.rollback();
+            ManagedSessionContext.unbind(sessionFactory);
+            if (previous != null) {
+                ManagedSessionContext.bind(previous);
+            }
+            session.close();
+        }
+        lock.writeLock().lock();
+        try {
+            // what was read may be older than the notifications
+            notifiedDuringLoad.forEach((key, entry) -> {
+                loaded.remove(key);
+                if (entry != null) {
+                    loaded.put(entry);
+                }
+            });
+            notifiedDuringLoad = null;
+            state = loaded;
+            LOG.info("Loaded the facets of {} entries", loaded.ordinals.size());
+            return loaded.ordinals.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param filters the values asked for by facet, an entry matches if it has one of the values of every facet
+     * @param offset  the number of matching entries to skip
+     * @param limit   the maximum number of entries
+     * @return the page of matching entries, ordered by path, with the counts of every facet value
+     */
+    public Page filter(Map<String, ? extends Collection<String>> filters, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            Map<String, BitSet> matchedByFacet = new HashMap<>();
+            filters.forEach((facet, values) -> {
+                if (!values.isEmpty()) {
+                    matchedByFacet.put(facet, state.union(facet, values));
+                }
+            });
+            BitSet matched = state.matching(matchedByFacet, null);
+
+            // a value counts the entries it would match together with the filters of the other facets
+            Map<String, Map<String, Integer>> counts = new LinkedHashMap<>();
+            BitSet scratch = new BitSet();
+            for (String facet : FACETS) {
+                BitSet base = matchedByFacet.containsKey(facet) ? state.matching(matchedByFacet, facet) : matched;
+                Map<String, Integer> facetCounts = new TreeMap<>();
+                state.facets.getOrDefault(facet, Collections.emptyMap()).forEach((value, ordinals) -> {
+                    scratch.clear();
+                    scratch.or(ordinals);
+                    scratch.and(base);
+                    int count = scratch.cardinality();
+                    if (count > 0) {
+                        facetCounts.put(value, count);
+                    }
+                });
+                counts.put(facet, facetCounts);
+            }
+
+            List<Pair<Boolean, Long>> page = new ArrayList<>(Math.min(limit, matched.cardinality()));
+            int skipped = 0;
+            for (int ordinal : state.order()) {
+                if (page.size() >= limit) {
+                    break;
+                }
+                if (!matched.get(ordinal)) {
+                    continue;
+                }
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    FacetedEntry entry = state.byOrdinal.get(ordinal);
+                    page.add(Pair.of(entry.workflow, entry.id));
+                }
+            }
+            return new Page(matched.cardinality(), counts, page);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void handleIndexUpdate(Entry entry, ElasticMode command) {
+        if (command == ElasticMode.UPDATE && entry.getIsPublished()) {
+            update(Collections.singletonList(entry));
+        } else {
+            String key = key(entry);
+            ElasticManager.afterCommit(() -> apply(Collections.singletonMap(key, null)));
+        }
+    }
+
+    @Override
+    public void bulkUpsert(List<Entry> updated) {
+        update(updated);
+    }
+
+    private void update(List<Entry> entries) {
+        Map<String, FacetedEntry> faceted;
+        try {
+            // read now, while the session of the entries is open
+            faceted = facetedEntries(entries);
+        } catch (RuntimeException e) {
+            // e.g. versions that can no longer be loaded, the next load picks the entries up
+            LOG.warn("Could not read the facets of " + entries.size() + " entries", e);
+            return;
+        }
+        Map<String, FacetedEntry> updated = new HashMap<>();
+        entries.forEach(entry -> updated.put(key(entry), entry.getIsPublished() ? faceted.get(key(entry)) : null));
+        ElasticManager.afterCommit(() -> apply(updated));
+    }
+
+    /**
+     * Replace the facet values of entries with those of a committed change
+     *
+     * @param updated the new facet values by key, null for an entry that is gone
+     */
+    private void apply(Map<String, FacetedEntry> updated) {
+        lock.writeLock().lock();
+        try {
+            updated.forEach((key, faceted) -> {
+                state.remove(key);
+                if (faceted != null) {
+                    state.put(faceted);
+                }
+                if (notifiedDuringLoad != null) {
+                    notifiedDuringLoad.put(key, faceted);
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static String key(Entry entry) {
+        return (entry instanceof Workflow ? WORKFLOW : TOOL) + '/' + entry.getId();
+    }
+
+    /**
+     * @return the facet values of the entries by key, the descriptor types of tools are found with one query
+     */
+    private Map<String, FacetedEntry> facetedEntries(List<Entry> entries) {
+        List<Long> toolIds = entries.stream().filter(entry -> entry instanceof Tool).map(Entry::getId).collect(Collectors.toList());
+        Map<Long, Set<SourceFile.FileType>> descriptorTypes = toolDAO.findDescriptorTypes(toolIds);
+        Map<String, FacetedEntry> faceted = new HashMap<>();
+        for (Entry<?, ?> entry : entries) {
+            List<Pair<String, String>> values = new ArrayList<>();
+            String path;
+            Set<? extends Version> versions;
+            if (entry instanceof Workflow) {
+                Workflow workflow = (Workflow)entry;
+                path = workflow.getPath();
+                versions = workflow.getWorkflowVersions();
+                values.add(Pair.of(TYPE, WORKFLOW));
+                addValue(values, REGISTRY, path == null || path.indexOf('/') < 0 ? null : path.substring(0, path.indexOf('/')));
+                addValue(values, ORGANIZATION, workflow.getOrganization());
+                addValue(values, DESCRIPTOR_TYPE, workflow.getDescriptorType());
+            } else {
+                Tool tool = (Tool)entry;
+                path = tool.getToolPath();
+                versions = tool.getTags();
+                values.add(Pair.of(TYPE, TOOL));
+                addValue(values, REGISTRY, tool.getRegistry() == null ? null : tool.getRegistry().toString());
+                addValue(values, ORGANIZATION, tool.getNamespace());
+                descriptorTypes.getOrDefault(tool.getId(), Collections.emptySet())
+                        .forEach(type -> addValue(values, DESCRIPTOR_TYPE, type == SourceFile.FileType.DOCKSTORE_CWL ? "cwl" : "wdl"));
+            }
+            boolean verified = versions.stream().anyMatch(version -> !version.isHidden() && version.isVerified());
+            values.add(Pair.of(VERIFIED, Boolean.toString(verified)));
+            for (Label label : entry.getLabels()) {
+                addValue(values, LABEL, label.getValue());
+            }
+            String key = key(entry);
+            faceted.put(key, new FacetedEntry(key, entry.getId(), entry instanceof Workflow, path == null ? "" : path, values));
+        }
+        return faceted;
+    }
+
+    private static void addValue(List<Pair<String, String>> values, String facet, String value) {
+        if (value != null && !value.isEmpty()) {
+            values.add(Pair.of(facet, value.toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    /**
+     * A page of entries matching a filter
+     */
+    public static final class Page {
+        private final int count;
+        private final Map<String, Map<String, Integer>> facets;
+        private final List<Pair<Boolean, Long>> keys;
+        private List<Entry> entries = Collections.emptyList();
+
+        Page(int count, Map<String, Map<String, Integer>> facets, List<Pair<Boolean, Long>> keys) {
+            this.count = count;
+            this.facets = facets;
+            this.keys = keys;
+        }
+
+        /**
+         * @return the number of matching entries, on every page
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the number of entries each facet value would match, by facet
+         */
+        public Map<String, Map<String, Integer>> getFacets() {
+            return facets;
+        }
+
+        /**
+         * @return whether the entries of the page are workflows and their ids, in order
+         */
+        @JsonIgnore
+        public List<Pair<Boolean, Long>> getKeys() {
+            return keys;
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        public void setEntries(List<Entry> entries) {
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * The facet values of a published entry
+     */
+    private static final class FacetedEntry {
+        private final String key;
+        private final long id;
+        private final boolean workflow;
+        private final String path;
+        private final List<Pair<String, String>> values;
+
+        FacetedEntry(String key, long id, boolean workflow, String path, List<Pair<String, String>> values) {
+            this.key = key;
+            this.id = id;
+            this.workflow = workflow;
+            this.path = path;
+            this.values = values;
+        }
+    }
+
+    /**
+     * The ordinals of the published entries and the bitmaps of the facet values
+     */
+    private static final class State {
+        private final Map<String, Integer> ordinals = new HashMap<>();
+        private final List<FacetedEntry> byOrdinal = new ArrayList<>();
+        private final BitSet live = new BitSet();
+        private final Map<String, Map<String, BitSet>> facets = new HashMap<>();
+        /**
+         * The live ordinals sorted by path, null once a change made it stale. Filters that find it stale sort them again, they may
+         * do so at the same time under the read lock since nothing changes meanwhile
+         */
+        private volatile int[] order;
+
+        void put(FacetedEntry entry) {
+            order = null;
+            int ordinal = live.nextClearBit(0);
+            live.set(ordinal);
+            if (ordinal == byOrdinal.size()) {
+                byOrdinal.add(entry);
+            } else {
+                byOrdinal.set(ordinal, entry);
+            }
+            ordinals.put(entry.key, ordinal);
+            entry.values.forEach(value -> facets.computeIfAbsent(value.getLeft(), facet -> new HashMap<>())
+                    .computeIfAbsent(value.getRight(), v -> new BitSet()).set(ordinal));
+        }
+
+        void remove(String key) {
+            Integer ordinal = ordinals.remove(key);
+            if (ordinal == null) {
+                return;
+            }
+            order = null;
+            FacetedEntry entry = byOrdinal.set(ordinal, null);
+            live.clear(ordinal);
+            for (Pair<String, String> value : entry.values) {
+                Map<String, BitSet> facet = facets.get(value.getLeft());
+                BitSet bitmap = facet.get(value.getRight());
+                bitmap.clear(ordinal);
+                if (bitmap.isEmpty()) {
+                    facet.remove(value.getRight());
+                }
+            }
+        }
+
+        /**
+         * @return the live ordinals, ordered by the path and then the key of their entries
+         */
+        int[] order() {
+            int[] current = order;
+            if (current == null) {
+                current = live.stream().boxed().sorted(Comparator.comparing((Integer ordinal) -> byOrdinal.get(ordinal).path)
+                        .thenComparing(ordinal -> byOrdinal.get(ordinal).key)).mapToInt(Integer::intValue).toArray();
+                order = current;
+            }
+            return current;
+        }
+
+        BitSet union(String facet, Collection<String> values) {
+            BitSet union = new BitSet();
+            Map<String, BitSet> bitmaps = facets.getOrDefault(facet, Collections.emptyMap());
+            values.forEach(value -> {
+                BitSet bitmap = bitmaps.get(value.toLowerCase(Locale.ROOT));
+                if (bitmap != null) {
+                    union.or(bitmap);
+                }
+            });
+            return union;
+        }
+
+        /**
+         * @return the live entries matched by the filters of every facet but the one left out
+         */
+        BitSet matching(Map<String, BitSet> matchedByFacet, String leftOut) {
+            BitSet matching = (BitSet)live.clone();
+            matchedByFacet.forEach((facet, matched) -> {
+                if (!facet.equals(leftOut)) {
+                    matching.and(matched);
+                }
+            });
+            return matching;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import io.dockstore.webservice.core.FileContent;
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * Copies the content of the existing source files to the content table, keyed by the digest of {@link FileContent#digest}.
+ * The digest is computed here rather than by the database so that the migration needs no extension, which only a superuser can
+ * create. Files are read in batches by id.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class FileContentBackfill implements CustomTaskChange {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final String SELECT = "SELECT id, content FROM sourcefile WHERE content IS NOT NULL AND contentdigest IS NULL "
+            + "AND id > ? ORDER BY id LIMIT " + BATCH_SIZE;
+    private static final String INSERT = "INSERT INTO filecontent (digest, content) VALUES (?, ?) ON CONFLICT (digest) DO NOTHING";
+    private static final String UPDATE = "UPDATE sourcefile SET contentdigest = ? WHERE id = ?";
+
+    private int copied;
+
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+        try {
+            Connection connection = ((JdbcConnection)database.getConnection()).getUnderlyingConnection();
+            try (PreparedStatement select = connection.prepareStatement(SELECT);
+                    PreparedStatement insert = connection.prepareStatement(INSERT);
+                    PreparedStatement update = connection.prepareStatement(UPDATE)) {
+                long lastId = 0;
+                int batch;
+                do {
+                    batch = 0;
+                    select.setLong(1, lastId);
+                    try (ResultSet files = select.executeQuery()) {
+                        while (files.next()) {
+                            lastId = files.getLong(1);
+                            String content = files.getString(2);
+                            String digest = FileContent.digest(content);
+                            insert.setString(1, digest);
+                            insert.setString(2, content);
+                            insert.addBatch();
+                            update.setString(1, digest);
+                            update.setLong(2, lastId);
+                            update.addBatch();
+                            batch++;
+                        }
+                    }
+                    if (batch > 0) {
+                        insert.executeBatch();
+                        update.executeBatch();
+                        copied += batch;
+                    }
+                } while (batch == BATCH_SIZE);
+            }
+        } catch (SQLException e) {
+            throw new CustomChangeException("Could not copy source file content to filecontent", e);
+        }
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "Copied the content of " + copied + " source files to filecontent";
+    }
+
+    @Override
+    public void setUp() {
+    }
+
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        return new ValidationErrors();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.FileContentConfig;
+import io.dockstore.webservice.jdbi.FileDAO;
+import io.dropwizard.lifecycle.Managed;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes the stored content that no source file refers to anymore, left behind when files are changed or deleted.
+ * At a fixed interval, unreferenced rows are deleted in batches, one transaction per batch, until a batch comes up short.
+ * <p>
+ * Rows written for a file during the grace period are kept, the {@link FileContentWriter} writes the row of every file it stores so
+ * content a transaction is about to refer to is never old enough. The row lock it takes keeps the row while the delete waits on it.
+ * <p>
+ * Publishes fileContent.swept (rows deleted) and fileContent.sweepFailures (batches that could not be deleted).
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class FileContentSweeper implements Managed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileContentSweeper.class);
+
+    private final FileContentConfig config;
+    private final SessionFactory sessionFactory;
+    private final Meter swept;
+    private final Meter failures;
+    private ScheduledExecutorService scheduler;
+
+    public FileContentSweeper(FileContentConfig config, SessionFactory sessionFactory, MetricRegistry metrics) {
+        this.config = config;
+        this.sessionFactory = sessionFactory;
+        this.swept = metrics.meter("fileContent.swept");
+        this.failures = metrics.meter("fileContent.sweepFailures");
+    }
+
+    @Override
+    public void start() {
+        long interval = config.getSweepInterval().toMilliseconds();
+        if (interval <= 0) {
+            return;
+        }
+        scheduler = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("file-content-sweep-%d").setDaemon(true).build());
+        scheduler.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Delete the content that is not referred to, batch by batch
+     *
+     * @return the number of rows deleted, the batches deleted before a failure included
+     */
+    public synchronized long sweep() {
+        int size = config.getSweepBatchSize();
+        long deleted = 0;
+        try {
+            int batch;
+            do {
+                batch = sweepBatch(size);
+                swept.mark(batch);
+                deleted += batch;
+            } while (batch >= size && !Thread.currentThread().isInterrupted());
+        } catch (RuntimeException e) {
+            failures.mark();
+            LOG.error("Could not delete unreferenced file content, it is tried again by the next sweep", e);
+        }
+        return deleted;
+    }
+
+    /**
+     * Delete one batch in its own transaction
+     *
+     * @param size the most rows to delete
+     * @return the number of rows deleted
+     */
+    int sweepBatch(int size) {
+        Session session = sessionFactory.openSession();
+        Session previous = ManagedSessionContext.bind(session);
+        Transaction transaction = session.beginTransaction();
+        try {
+            int deleted = new FileDAO(sessionFactory).deleteUnreferencedContent(size, config.getSweepGracePeriod().toSeconds());
+            transaction.commit();
+            return deleted;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            ManagedSessionContext.unbind(sessionFactory);
+            if (previous != null) {
+                ManagedSessionContext.bind(previous);
+            }
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.FileContentConfig;
+import io.dockstore.webservice.core.CompressedText;
+import io.dockstore.webservice.core.FileContent;
+import io.dockstore.webservice.core.SourceFile;
+import org.hibernate.SessionFactory;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PreInsertEvent;
+import org.hibernate.event.spi.PreInsertEventListener;
+import org.hibernate.event.spi.PreUpdateEvent;
+import org.hibernate.event.spi.PreUpdateEventListener;
+
+/**
+ * Stores the content of source files in the content table right before the files that refer to it are written.
+ * Content is stored once for all files (in any version) that have the same digest. When it is already stored, its row is updated
+ * instead, which locks it until the transaction ends and restarts the grace period of the {@link FileContentSweeper}, so that it is
+ * not deleted while the files that are about to refer to it are written. No cache is trusted to know whether a row still exists.
+ * When compression is turned on, large content is stored gzip compressed and the ratio of text to stored bytes is published as the
+ * fileContent.compressionRatio gauge.
+ * This runs from inside the flush, so it talks to the connection of the session directly rather than through queries that could
+ * trigger another flush. The queries cached on the content table are invalidated the way hibernate does for native statements.
+ * Rows that are no longer referenced are deleted by the {@link FileContentSweeper}.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class FileContentWriter implements PreInsertEventListener, PreUpdateEventListener {
+
+    /**
+     * Answers whether the row was inserted, the system column xmax is only set on a row that already existed and was updated
+     */
+    private static final String INSERT = "INSERT INTO filecontent (digest, content, compressedcontent) VALUES (?, ?, ?) "
+            + "ON CONFLICT (digest) DO UPDATE SET dbupdatedate = now() RETURNING (xmax = 0)";
+    private static final String[] SPACES = {"filecontent"};
+
+    private final FileContentConfig config;
+    private final Counter textBytes;
+    private final Counter storedBytes;
+
+    public FileContentWriter(FileContentConfig config, MetricRegistry metrics) {
+        this.config = config;
+        this.textBytes = metrics.counter("fileContent.textBytes");
+        this.storedBytes = metrics.counter("fileContent.storedBytes");
+        metrics.register("fileContent.compressionRatio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(textBytes.getCount(), storedBytes.getCount());
+            }
+        });
+    }
+
+    /**
+     * Register a writer with the event listeners of a session factory
+     *
+     * @param sessionFactory the session factory of the webservice
+     * @param config         how content is stored
+     * @param metrics        where to publish how much space compression saves
+     */
+    public static void register(SessionFactory sessionFactory, FileContentConfig config, MetricRegistry metrics) {
+        EventListenerRegistry registry = ((SessionFactoryImplementor)sessionFactory).getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        FileContentWriter writer = new FileContentWriter(config, metrics);
+        registry.appendListeners(EventType.PRE_INSERT, writer);
+        registry.appendListeners(EventType.PRE_UPDATE, writer);
+    }
+
+    @Override
+    public boolean onPreInsert(PreInsertEvent event) {
+        write(event.getEntity(), event.getSession());
+        return false;
+    }
+
+    @Override
+    public boolean onPreUpdate(PreUpdateEvent event) {
+        write(event.getEntity(), event.getSession());
+        return false;
+    }
+
+    private void write(Object entity, EventSource session) {
+        if (!(entity instanceof SourceFile)) {
+            return;
+        }
+        FileContent content = ((SourceFile)entity).getUnsavedContent();
+        if (content == null) {
+            return;
+        }
+        JdbcCoordinator jdbc = session.getJdbcCoordinator();
+        try {
+            byte[] text = content.getContent().getBytes(StandardCharsets.UTF_8);
+            CompressedText compressed = compress(content.getContent(), text.length);
+            PreparedStatement insert = jdbc.getStatementPreparer().prepareStatement(INSERT);
+            try {
+                insert.setString(1, content.getDigest());
+                if (compressed == null) {
+                    insert.setString(2, content.getContent());
+                    insert.setNull(3, Types.BINARY);
+                } else {
+                    insert.setNull(2, Types.VARCHAR);
+                    insert.setBytes(3, compressed.getBytes());
+                }
+                ResultSet inserted = jdbc.getResultSetReturn().extract(insert);
+                if (inserted.next() && inserted.getBoolean(1)) {
+                    textBytes.inc(text.length);
+                    storedBytes.inc(compressed == null ? text.length : compressed.getBytes().length);
+                    invalidateQueries(session);
+                }
+            } finally {
+                jdbc.getResourceRegistry().release(insert);
+            }
+        } catch (SQLException e) {
+            throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "could not store file content", INSERT);
+        } finally {
+            jdbc.afterStatementExecution();
+        }
+    }
+
+    private static void invalidateQueries(EventSource session) {
+        UpdateTimestampsCache timestamps = session.getFactory().getCache().getUpdateTimestampsCache();
+        if (timestamps == null) {
+            // the query cache is turned off
+            return;
+        }
+        timestamps.preInvalidate(SPACES, session);
+        session.getActionQueue().registerProcess((success, completed) -> timestamps.invalidate(SPACES, completed));
+    }
+
+    /**
+     * @return the compressed content, null if it should be stored as text
+     */
+    CompressedText compress(String content, int length) {
+        if (!config.isCompress() || length < config.getCompressionThreshold()) {
+            return null;
+        }
+        CompressedText compressed = CompressedText.compress(content);
+        return compressed.getBytes().length < length ? compressed : null;
+    }
+}
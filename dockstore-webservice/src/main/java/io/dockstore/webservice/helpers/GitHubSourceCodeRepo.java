@@ -18,10 +18,10 @@ package io.dockstore.webservice.helpers;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -37,8 +37,11 @@ import io.dockstore.webservice.core.WorkflowVersion;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.http.HttpStatus;
 import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.RepositoryBranch;
 import org.eclipse.egit.github.core.RepositoryContents;
 import org.eclipse.egit.github.core.RepositoryId;
+import org.eclipse.egit.github.core.RepositoryTag;
+import org.eclipse.egit.github.core.TypedResource;
 import org.eclipse.egit.github.core.User;
 import org.eclipse.egit.github.core.client.GitHubClient;
 import org.eclipse.egit.github.core.client.RequestException;
@@ -176,21 +179,25 @@ public class GitHubSourceCodeRepo extends SourceCodeRepoInterface {
         RepositoryId id = RepositoryId.createFromId(repositoryId);
 
         // when getting a full workflow, look for versions and check each version for valid workflows
-        List<String> references = new ArrayList<>();
+        Map<String, String> references;
         try {
-            service.getBranches(id).forEach(branch -> references.add(branch.getName()));
-            service.getTags(id).forEach(tag -> references.add(tag.getName()));
+            references = listReferences(id);
         } catch (IOException e) {
             LOG.info(gitUsername + ": Cannot get branches or tags for workflow {}");
             throw new CustomWebApplicationException("Could not reach GitHub, please try again later", HttpStatus.SC_SERVICE_UNAVAILABLE);
         }
 
         // For each branch (reference) found, create a workflow version and find the associated descriptor files
-        for (String ref : references) {
+        for (Map.Entry<String, String> reference : references.entrySet()) {
+            String ref = reference.getKey();
             LOG.info(gitUsername + ": Looking at reference: " + ref);
 
             // Initialize the workflow version
             WorkflowVersion version = initializeWorkflowVersion(ref, existingWorkflow, existingDefaults);
+            if (keepUnchangedVersion(version, reference.getValue(), existingDefaults)) {
+                workflow.addWorkflowVersion(version);
+                continue;
+            }
             String calculatedPath = version.getWorkflowPath();
 
             //TODO: is there a case-insensitive endsWith?
@@ -226,6 +233,8 @@ public class GitHubSourceCodeRepo extends SourceCodeRepoInterface {
                         version.setValid(true);
                         version = combineVersionAndSourcefile(file, workflow, identifiedType, version, existingDefaults);
                     }
+                    // only a descriptor that came back is not asked for again
+                    version.setCommitID(reference.getValue());
                 }
 
             } catch (IOException ex) {
@@ -239,6 +248,41 @@ public class GitHubSourceCodeRepo extends SourceCodeRepoInterface {
         return workflow;
     }
 
+    @Override
+    public Map<String, String> getReferenceCommitIDs(String repositoryId) {
+        // tools only know the name of their repository, which belongs to the git username
+        RepositoryId id = repositoryId.contains("/") ? RepositoryId.createFromId(repositoryId)
+                : RepositoryId.create(gitUsername, repositoryId);
+        try {
+            Map<String, String> commitIDs = listReferences(id);
+            commitIDs.values().removeIf(commitID -> commitID == null);
+            return commitIDs;
+        } catch (IOException e) {
+            LOG.info(gitUsername + ": Cannot get branches or tags for {}", repositoryId);
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Lists branches then tags, a page of each covers most repositories
+     *
+     * @return reference -> the commit it points at, null if not given
+     */
+    private Map<String, String> listReferences(RepositoryId id) throws IOException {
+        Map<String, String> references = new LinkedHashMap<>();
+        for (RepositoryBranch branch : service.getBranches(id)) {
+            references.put(branch.getName(), getSha(branch.getCommit()));
+        }
+        for (RepositoryTag tag : service.getTags(id)) {
+            references.put(tag.getName(), getSha(tag.getCommit()));
+        }
+        return references;
+    }
+
+    private static String getSha(TypedResource commit) {
+        return commit == null ? null : commit.getSha();
+    }
+
     @Override
     public String getRepositoryId(Entry entry) {
         String repositoryId;
@@ -184,6 +184,11 @@ public class GitLabSourceCodeRepo extends SourceCodeRepoInterface {
 
                     // Initialize workflow version
                     WorkflowVersion version = initializeWorkflowVersion(branchName, existingWorkflow, existingDefaults);
+                    String commitID = getCommitID(branchObject);
+                    if (keepUnchangedVersion(version, commitID, existingDefaults)) {
+                        workflow.addWorkflowVersion(version);
+                        continue;
+                    }
                     String calculatedPath = version.getWorkflowPath();
 
                     // Now grab source files
@@ -193,8 +198,10 @@ public class GitLabSourceCodeRepo extends SourceCodeRepoInterface {
                     // TODO: No exceptions are caught here in the event of a failed call
                     sourceFile = getSourceFile(calculatedPath, id, branchName, identifiedType);
 
-                    workflow.addWorkflowVersion(
-                            combineVersionAndSourcefile(sourceFile, workflow, identifiedType, version, existingDefaults));
+                    version = combineVersionAndSourcefile(sourceFile, workflow, identifiedType, version, existingDefaults);
+                    // a descriptor that did not come back is asked for again next time
+                    version.setCommitID(sourceFile.getContent() == null ? null : commitID);
+                    workflow.addWorkflowVersion(version);
                 }
             }
         }
@@ -202,6 +209,44 @@ public class GitLabSourceCodeRepo extends SourceCodeRepoInterface {
         return workflow;
     }
 
+    @Override
+    public Map<String, String> getReferenceCommitIDs(String repositoryId) {
+        Map<String, String> commitIDs = new HashMap<>();
+        String id = getProjectId(repositoryId);
+        if (id == null) {
+            return commitIDs;
+        }
+        for (String kind : new String[] { "branches", "tags" }) {
+            String url = GITLAB_API_URL + "projects/" + id + "/repository/" + kind;
+            Optional<String> asString = ResourceUtilities.asString(url, gitlabTokenContent, client);
+            if (asString.isPresent()) {
+                JsonElement jsonElement = new JsonParser().parse(asString.get());
+                if (jsonElement instanceof JsonArray) {
+                    for (JsonElement reference : jsonElement.getAsJsonArray()) {
+                        JsonObject referenceObject = reference.getAsJsonObject();
+                        String commitID = getCommitID(referenceObject);
+                        if (commitID != null) {
+                            commitIDs.put(referenceObject.get("name").getAsString(), commitID);
+                        }
+                    }
+                }
+            }
+        }
+        return commitIDs;
+    }
+
+    /**
+     * @param referenceObject a branch or tag as listed by Gitlab
+     * @return the commit it points at, null if not given
+     */
+    private static String getCommitID(JsonObject referenceObject) {
+        JsonElement commit = referenceObject.get("commit");
+        if (commit == null || !commit.isJsonObject() || !commit.getAsJsonObject().has("id")) {
+            return null;
+        }
+        return commit.getAsJsonObject().get("id").getAsString();
+    }
+
     @Override
     public String getRepositoryId(Entry entry) {
         String repositoryId;
@@ -0,0 +1,197 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.dockstore.webservice.helpers;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import com.google.common.base.Optional;
+import io.dockstore.client.cli.nested.AbstractEntryClient;
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.SourceFile;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.core.WorkflowVersion;
+import org.eclipse.jgit.transport.CredentialsProvider;
+
+/**
+ * Reads files from a local mirror of the repository instead of asking the git host for each of them. The repository is fetched
+ * once, the first time a file of it is needed. What only the git host knows, like the repositories of a user or the main branch,
+ * is still asked of the source code repo of the host.
+ * <p>
+ * One that is not pointed at a repository, as used to refresh the workflows of a user, reads from the mirror of the git url of the
+ * workflow or tool at hand. Each repository is still only fetched once.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class GitMirrorSourceCodeRepo extends SourceCodeRepoInterface {
+
+    private final SourceCodeRepoInterface hostRepo;
+    private final GitMirrors mirrors;
+    private final CredentialsProvider credentials;
+    private final Function<String, String> cloneUrls;
+    /**
+     * The clone url of the repository, null if not pointed at one
+     */
+    private final String url;
+    private final Set<String> fetched;
+
+    /**
+     * @param hostRepo    asked what the mirror cannot answer
+     * @param mirrors     where the mirrors are kept
+     * @param credentials for private repositories, may be null
+     * @param cloneUrls   the clone url of a git url
+     * @param url         the clone url of the repository, null if not pointed at one
+     */
+    public GitMirrorSourceCodeRepo(SourceCodeRepoInterface hostRepo, GitMirrors mirrors, CredentialsProvider credentials,
+            Function<String, String> cloneUrls, String url) {
+        this(hostRepo, mirrors, credentials, cloneUrls, url, ConcurrentHashMap.newKeySet());
+    }
+
+    private GitMirrorSourceCodeRepo(SourceCodeRepoInterface hostRepo, GitMirrors mirrors, CredentialsProvider credentials,
+            Function<String, String> cloneUrls, String url, Set<String> fetched) {
+        this.hostRepo = hostRepo;
+        this.mirrors = mirrors;
+        this.credentials = credentials;
+        this.cloneUrls = cloneUrls;
+        this.url = url;
+        this.fetched = fetched;
+    }
+
+    /**
+     * @return one pointed at the repository of a git url, sharing what was fetched already, the source code repo of the host if
+     * the git url has no clone url
+     */
+    private SourceCodeRepoInterface forGitUrl(String gitUrl) {
+        String cloneUrl = gitUrl == null ? null : cloneUrls.apply(gitUrl);
+        if (cloneUrl == null) {
+            return hostRepo;
+        }
+        return new GitMirrorSourceCodeRepo(hostRepo, mirrors, credentials, cloneUrls, cloneUrl, fetched);
+    }
+
+    /**
+     * @return the clone url of the repository, fetched if it was not yet
+     */
+    private String mirror() {
+        if (fetched.add(url)) {
+            try {
+                mirrors.fetch(url, credentials);
+            } catch (RuntimeException e) {
+                fetched.remove(url);
+                throw e;
+            }
+        }
+        return url;
+    }
+
+    @Override
+    public String readFile(String fileName, String reference) {
+        if (url == null) {
+            return hostRepo.readFile(fileName, reference);
+        }
+        String content = mirrors.readFile(mirror(), reference, fileName);
+        // like the git hosts, try the lower case name as well
+        if (content == null && !fileName.equals(fileName.toLowerCase())) {
+            content = mirrors.readFile(mirror(), reference, fileName.toLowerCase());
+        }
+        return content;
+    }
+
+    @Override
+    public String getOrganizationEmail() {
+        return hostRepo.getOrganizationEmail();
+    }
+
+    @Override
+    public Map<String, String> getWorkflowGitUrl2RepositoryId() {
+        return hostRepo.getWorkflowGitUrl2RepositoryId();
+    }
+
+    @Override
+    public Map<String, String> getReferenceCommitIDs(String repositoryId) {
+        if (url == null) {
+            return hostRepo.getReferenceCommitIDs(repositoryId);
+        }
+        return mirrors.getReferenceCommitIDs(mirror());
+    }
+
+    @Override
+    public Workflow initializeWorkflow(String repositoryId) {
+        return hostRepo.initializeWorkflow(repositoryId);
+    }
+
+    @Override
+    public Workflow setupWorkflowVersions(String repositoryId, Workflow workflow, Optional<Workflow> existingWorkflow,
+            Map<String, WorkflowVersion> existingDefaults) {
+        if (url == null) {
+            return forGitUrl(workflow.getGitUrl()).setupWorkflowVersions(repositoryId, workflow, existingWorkflow, existingDefaults);
+        }
+        // Look at each branch and tag, check for valid workflows
+        for (Map.Entry<String, String> reference : mirrors.getReferenceCommitIDs(mirror()).entrySet()) {
+            WorkflowVersion version = initializeWorkflowVersion(reference.getKey(), existingWorkflow, existingDefaults);
+            if (keepUnchangedVersion(version, reference.getValue(), existingDefaults)) {
+                workflow.addWorkflowVersion(version);
+                continue;
+            }
+            String calculatedPath = version.getWorkflowPath();
+            SourceFile.FileType identifiedType = getFileType(calculatedPath);
+            String content = readFile(calculatedPath, reference.getKey());
+            boolean validWorkflow = content != null && (identifiedType == SourceFile.FileType.DOCKSTORE_CWL
+                    ? checkValidCWLWorkflow(content) : checkValidWDLWorkflow(content));
+            if (validWorkflow) {
+                SourceFile file = new SourceFile();
+                file.setContent(content);
+                file.setPath(calculatedPath);
+                file.setType(identifiedType);
+                version = combineVersionAndSourcefile(file, workflow, identifiedType, version, existingDefaults);
+            }
+            // a descriptor that could not be read is read again next time
+            version.setCommitID(content == null ? null : reference.getValue());
+            workflow.addWorkflowVersion(version);
+        }
+        return workflow;
+    }
+
+    @Override
+    public Entry updateEntryMetadata(Entry entry, AbstractEntryClient.Type type) {
+        if (url == null) {
+            return forGitUrl(entry.getGitUrl()).updateEntryMetadata(entry, type);
+        }
+        return super.updateEntryMetadata(entry, type);
+    }
+
+    @Override
+    public String getRepositoryId(Entry entry) {
+        return hostRepo.getRepositoryId(entry);
+    }
+
+    @Override
+    public String getMainBranch(Entry entry, String repositoryId) {
+        return hostRepo.getMainBranch(entry, repositoryId);
+    }
+
+    @Override
+    public String getFileContents(String filePath, String branch, String repositoryId) {
+        if (url == null) {
+            return hostRepo.getFileContents(filePath, branch, repositoryId);
+        }
+        return mirrors.readFile(mirror(), branch, filePath);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.dockstore.webservice.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.hash.Hashing;
+import io.dockstore.webservice.CustomWebApplicationException;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpStatus;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bare mirrors of git repositories kept on local disk. A refresh fetches a repository once, which only transfers what changed
+ * since the last fetch, and then reads every file of every branch and tag from the object database instead of asking the git
+ * host for each file.
+ * <p>
+ * Mirrors are keyed by clone url, anything git can fetch from works, including file urls. Fetches of the same repository are
+ * serialized, reads need no lock.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class GitMirrors implements Managed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GitMirrors.class);
+    private static final String REMOTE = "origin";
+    private static final String HEADS = Constants.R_HEADS;
+    private static final String TAGS = Constants.R_TAGS;
+    /**
+     * Keeps directory names well within what file systems allow
+     */
+    private static final int MAX_READABLE_LENGTH = 100;
+
+    private final File directory;
+    private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Repository> repositories = new ConcurrentHashMap<>();
+
+    public GitMirrors(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void start() throws IOException {
+        FileUtils.forceMkdir(directory);
+    }
+
+    @Override
+    public void stop() {
+        repositories.values().forEach(Repository::close);
+        repositories.clear();
+    }
+
+    /**
+     * Brings the mirror of a repository up to date, creating it the first time. Branches and tags deleted upstream are deleted.
+     *
+     * @param url         where to fetch from
+     * @param credentials for private repositories, may be null
+     */
+    public void fetch(String url, CredentialsProvider credentials) {
+        synchronized (locks.computeIfAbsent(url, key -> new Object())) {
+            try (Git git = new Git(open(url))) {
+                git.fetch().setRemote(REMOTE).setRemoveDeletedRefs(true).setCredentialsProvider(credentials).call();
+            } catch (IOException | GitAPIException e) {
+                LOG.warn("Could not fetch " + url, e);
+                throw new CustomWebApplicationException("Could not fetch " + url + ", please try again later",
+                        HttpStatus.SC_SERVICE_UNAVAILABLE);
+            }
+        }
+    }
+
+    /**
+     * @param url a repository fetched before
+     * @return branch and tag names -> the commit they point at, branches first
+     */
+    public Map<String, String> getReferenceCommitIDs(String url) {
+        Map<String, String> commitIDs = new LinkedHashMap<>();
+        try {
+            Repository repository = open(url);
+            try (RevWalk walk = new RevWalk(repository)) {
+                for (String prefix : Arrays.asList(HEADS, TAGS)) {
+                    for (Ref ref : repository.getRefDatabase().getRefsByPrefix(prefix)) {
+                        // tags may point at annotated tag objects rather than commits
+                        RevCommit commit = walk.parseCommit(ref.getObjectId());
+                        commitIDs.put(ref.getName().substring(prefix.length()), commit.getName());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not list the references of " + url, e);
+        }
+        return commitIDs;
+    }
+
+    /**
+     * @param url       a repository fetched before
+     * @param reference a branch, tag or commit
+     * @param path      the path of the file in the repository, from its root
+     * @return the content of the file, null if the reference or the file does not exist
+     */
+    public String readFile(String url, String reference, String path) {
+        try {
+            Repository repository = open(url);
+            ObjectId commitID = resolve(repository, reference);
+            if (commitID == null) {
+                return null;
+            }
+            try (RevWalk walk = new RevWalk(repository)) {
+                RevCommit commit = walk.parseCommit(commitID);
+                String relativePath = path.startsWith("/") ? path.substring(1) : path;
+                try (TreeWalk treeWalk = TreeWalk.forPath(repository, relativePath, commit.getTree())) {
+                    if (treeWalk == null || treeWalk.getFileMode(0).getObjectType() != Constants.OBJ_BLOB) {
+                        return null;
+                    }
+                    byte[] content = repository.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB).getBytes();
+                    return new String(content, StandardCharsets.UTF_8);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not read " + path + " on " + reference + " of " + url, e);
+            return null;
+        }
+    }
+
+    private static ObjectId resolve(Repository repository, String reference) throws IOException {
+        for (String prefix : Arrays.asList(HEADS, TAGS)) {
+            Ref ref = repository.exactRef(prefix + reference);
+            if (ref != null) {
+                return ref.getObjectId();
+            }
+        }
+        return ObjectId.isId(reference) ? ObjectId.fromString(reference) : null;
+    }
+
+    /**
+     * @return the mirror of a repository, created empty if there is none yet
+     */
+    private Repository open(String url) throws IOException {
+        try {
+            return repositories.computeIfAbsent(url, key -> {
+                File mirror = new File(directory, directoryName(key));
+                try {
+                    if (mirror.exists()) {
+                        return Git.open(mirror).getRepository();
+                    }
+                    return create(mirror, key);
+                } catch (IOException | GitAPIException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (IllegalStateException e) {
+            throw new IOException("Could not open the mirror of " + url, e.getCause());
+        }
+    }
+
+    private static Repository create(File mirror, String url) throws IOException, GitAPIException {
+        try {
+            Repository repository = Git.init().setBare(true).setDirectory(mirror).call().getRepository();
+            StoredConfig config = repository.getConfig();
+            config.setString("remote", REMOTE, "url", url);
+            // a mirror of the branches and tags, fetched as they are
+            config.setStringList("remote", REMOTE, "fetch",
+                    Arrays.asList("+" + HEADS + "*:" + HEADS + "*", "+" + TAGS + "*:" + TAGS + "*"));
+            config.save();
+            return repository;
+        } catch (IOException | GitAPIException e) {
+            // a half created mirror is created again next time
+            FileUtils.deleteQuietly(mirror);
+            throw e;
+        }
+    }
+
+    /**
+     * The readable part alone could be the same for two urls, e.g. a_b/c and a/b_c, the digest tells them apart.
+     *
+     * @return a directory name for a clone url without credentials, a readable prefix and the digest of the url
+     */
+    static String directoryName(String url) {
+        String name = url.replaceFirst("^[a-zA-Z][a-zA-Z0-9+.-]*://", "").replaceFirst("^[^@/]*@", "");
+        String readable = name.replaceAll("[^A-Za-z0-9._-]+", "_");
+        if (readable.length() > MAX_READABLE_LENGTH) {
+            readable = readable.substring(0, MAX_READABLE_LENGTH);
+        }
+        return readable + '-' + Hashing.sha256().hashString(name, StandardCharsets.UTF_8);
+    }
+}
@@ -67,14 +67,26 @@ public final class Helper {
             final Token bitbucketToken, final Token gitlabToken) {
         Set<Tag> tags = tool.getTags();
 
+        final SourceCodeRepoInterface sourceCodeRepo = createSourceCodeRepo(client, bitbucketToken, githubToken, gitlabToken, tool);
+        // Resolve the commit of every reference at once, tags still at the commit their files came from are not fetched again
+        final String repositoryId = sourceCodeRepo == null ? null : sourceCodeRepo.getRepositoryId(tool);
+        final Map<String, String> commitIDs = repositoryId == null ? new HashMap<>() : sourceCodeRepo.getReferenceCommitIDs(repositoryId);
+
         // For each tag, will download files to db and determine if the tag is valid
         for (Tag tag : tags) {
+            final String commitID = tag.getReference() == null ? null : commitIDs.get(tag.getReference());
+            if (commitID != null && commitID.equals(tag.getCommitID())) {
+                LOG.info(githubToken.getUsername() + " : Files for tag {} are still at {}", tag.getName(), commitID);
+                continue;
+            }
             LOG.info(githubToken.getUsername() + " : Updating files for tag {}", tag.getName());
 
             // Get all of the required sourcefiles for the given tag
-            List<SourceFile> newFiles = loadFiles(client, bitbucketToken, githubToken, gitlabToken, tool, tag);
+            List<SourceFile> newFiles = loadFiles(sourceCodeRepo, tool, tag);
 
-            // Remove all existing sourcefiles
+            // Remove all existing sourcefiles, keeping the ones that did not change so that they are not written again
+            Map<String, SourceFile> unchangedFiles = new HashMap<>();
+            tag.getSourceFiles().forEach(file -> unchangedFiles.put(file.getType() + file.getPath() + file.getContentDigest(), file));
             tag.getSourceFiles().clear();
 
             // Add for new descriptor types
@@ -83,8 +95,11 @@ public final class Helper {
             boolean hasDockerfile = false;
 
             for (SourceFile newFile : newFiles) {
-                long id = fileDAO.create(newFile);
-                SourceFile file = fileDAO.findById(id);
+                SourceFile file = unchangedFiles.get(newFile.getType() + newFile.getPath() + newFile.getContentDigest());
+                if (file == null) {
+                    long id = fileDAO.create(newFile);
+                    file = fileDAO.findById(id);
+                }
                 tag.addSourceFile(file);
 
                 if (file.getType() == FileType.DOCKERFILE) {
@@ -108,6 +123,8 @@ public final class Helper {
             } else {
                 tag.setValid((hasCwl || hasWdl) && hasDockerfile);
             }
+            // a tag missing files may have failed to fetch them, it is fetched again next time
+            tag.setCommitID(tag.isValid() ? commitID : null);
         }
     }
 
@@ -164,15 +181,18 @@ public final class Helper {
      * @param tag
      * @return list of SourceFiles containing cwl and dockerfile.
      */
-    private static List<SourceFile> loadFiles(HttpClient client, Token bitbucketToken, Token githubToken, Token gitlabToken, Tool c,
-            Tag tag) {
-        List<SourceFile> files = new ArrayList<>();
-
+    private static SourceCodeRepoInterface createSourceCodeRepo(HttpClient client, Token bitbucketToken, Token githubToken,
+            Token gitlabToken, Tool c) {
         final String bitbucketTokenContent = bitbucketToken == null ? null : bitbucketToken.getContent();
         final String gitlabTokenContent = gitlabToken == null ? null : gitlabToken.getContent();
         final String githubTokenContent = githubToken == null ? null : githubToken.getContent();
-        final SourceCodeRepoInterface sourceCodeRepo = SourceCodeRepoFactory
+        return SourceCodeRepoFactory
                 .createSourceCodeRepo(c.getGitUrl(), client, bitbucketTokenContent, gitlabTokenContent, githubTokenContent);
+    }
+
+    private static List<SourceFile> loadFiles(SourceCodeRepoInterface sourceCodeRepo, Tool c, Tag tag) {
+        List<SourceFile> files = new ArrayList<>();
+
         FileImporter importer = new FileImporter(sourceCodeRepo);
 
         // Add for new descriptor types
@@ -0,0 +1,294 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration;
+import io.dropwizard.client.HttpClientConfiguration;
+import io.dropwizard.lifecycle.Managed;
+import okhttp3.Cache;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.OkUrlFactory;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One cache on disk for the responses of every outbound call, to git hosts and registries alike. Stale responses are revalidated
+ * with their ETag or Last-Modified, so that an unchanged resource costs a 304 rather than the whole body, and on GitHub no rate
+ * limit. When a directory is configured the cache outlives restarts.
+ * <p>
+ * The clients built on {@link URL}, like the GitHub client, use it through the stream handler factory of the JVM. The Apache
+ * clients, used for GitLab, Bitbucket and Quay.io, use it by being wrapped, their GET requests are then sent through the cache.
+ * A response to a request with credentials is only answered to requests with the same credentials, GitHub says so itself with
+ * Vary: Authorization.
+ * <p>
+ * Hits, misses and revalidations are metered by host, as http.cache.&lt;host&gt;.hits and so on. OkHttp does not run interceptors
+ * for the clients built on URL, so those are only counted in http.cache.requests, http.cache.network and http.cache.hits, which
+ * cover every client and count a revalidation as both a network request and a hit.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class HttpResponseCache implements Managed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpResponseCache.class);
+    private static final long BYTES_IN_MEGABYTE = 1024L * 1024L;
+    /**
+     * Stands for the credentials of a request in the cache, which only stores this digest rather than the credentials. It is not sent.
+     */
+    static final String CREDENTIALS_DIGEST = "X-Dockstore-Credentials-Digest";
+    /**
+     * The stream handler factory can only be set once per JVM, later caches swap the client it uses
+     */
+    private static OkUrlFactory urlFactory;
+
+    private final Cache cache;
+    private final OkHttpClient client;
+    private final MetricRegistry metrics;
+
+    public HttpResponseCache(DockstoreWebserviceConfiguration.HttpCacheConfig config, MetricRegistry metrics) {
+        this.metrics = metrics;
+        this.cache = new Cache(directory(config), config.getSizeInMB() * BYTES_IN_MEGABYTE);
+        // match HttpURLConnection which does not have a timeout by default
+        this.client = new OkHttpClient().newBuilder().cache(cache).addInterceptor(chain -> {
+            Response response = chain.proceed(chain.request());
+            count(chain.request().url().host(), response);
+            return response;
+        }).connectTimeout(0, TimeUnit.SECONDS).readTimeout(0, TimeUnit.SECONDS).writeTimeout(0, TimeUnit.SECONDS).build();
+        metrics.register("http.cache.requests", (Gauge<Integer>)cache::requestCount);
+        metrics.register("http.cache.network", (Gauge<Integer>)cache::networkCount);
+        metrics.register("http.cache.hits", (Gauge<Integer>)cache::hitCount);
+        metrics.register("http.cache.bytes", (Gauge<Long>)() -> {
+            try {
+                return cache.size();
+            } catch (IOException e) {
+                return -1L;
+            }
+        });
+    }
+
+    private static File directory(DockstoreWebserviceConfiguration.HttpCacheConfig config) {
+        try {
+            if (config.getDirectory() == null) {
+                return Files.createTempDirectory("dockstore-web-cache-").toFile();
+            }
+            return Files.createDirectories(new File(config.getDirectory()).toPath()).toFile();
+        } catch (IOException e) {
+            LOG.error("Could not create web cache");
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Count where a response came from: the cache alone, the cache after a 304, or the network in full
+     */
+    private void count(String host, Response response) {
+        final String outcome;
+        if (response.networkResponse() == null && response.cacheResponse() != null) {
+            outcome = "hits";
+        } else if (response.cacheResponse() != null && response.networkResponse().code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            outcome = "revalidations";
+        } else {
+            outcome = "misses";
+        }
+        metrics.meter(MetricRegistry.name("http.cache", host, outcome)).mark();
+    }
+
+    @Override
+    public void start() {
+        synchronized (HttpResponseCache.class) {
+            if (urlFactory != null) {
+                urlFactory.setClient(client);
+                return;
+            }
+            OkUrlFactory factory = new OkUrlFactory(client);
+            try {
+                URL.setURLStreamHandlerFactory(factory);
+                urlFactory = factory;
+            } catch (Error factoryException) {
+                if (factoryException.getMessage().contains("factory already defined")) {
+                    LOG.info("A stream handler factory is already registered, skipping");
+                } else {
+                    LOG.error("Could not create web cache, factory exception");
+                    throw new RuntimeException(factoryException);
+                }
+            }
+        }
+        LOG.info("Cache directory for OkHttp is: " + cache.directory().getAbsolutePath());
+    }
+
+    @Override
+    public void stop() throws IOException {
+        cache.close();
+    }
+
+    /**
+     * GET requests sent through the cache keep their headers, and the timeouts, retries and user agent of the configuration. They
+     * do not use the context of the request, i.e. its cookies and authentication state, nor the connection pool of the client.
+     * Clients that go through a proxy are left as they are, so that its settings apply to every request.
+     *
+     * @param httpClient    an Apache client
+     * @param configuration the configuration it was built with
+     * @param name          the name it was built with, the user agent if the configuration has none
+     * @return the client, sending its GET requests through the cache
+     */
+    public CloseableHttpClient wrap(CloseableHttpClient httpClient, HttpClientConfiguration configuration, String name) {
+        if (configuration.getProxyConfiguration() != null) {
+            LOG.info("Requests of " + name + " go through a proxy, they are not cached");
+            return httpClient;
+        }
+        OkHttpClient timed = client.newBuilder()
+                .connectTimeout(configuration.getConnectionTimeout().toMilliseconds(), TimeUnit.MILLISECONDS)
+                .readTimeout(configuration.getTimeout().toMilliseconds(), TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(configuration.getRetries() > 0).addNetworkInterceptor(HttpResponseCache::varyByCredentials)
+                .build();
+        return new CachingHttpClient(httpClient, timed, configuration.getUserAgent().orElse(name));
+    }
+
+    /**
+     * Keep the digest of the credentials out of the request sent, and key the response stored by it. Responses to requests
+     * without credentials are keyed by its absence, they are not answered to requests with credentials either.
+     */
+    private static Response varyByCredentials(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        Response response = chain.proceed(request.newBuilder().removeHeader(CREDENTIALS_DIGEST).build());
+        String vary = response.header(HttpHeaders.VARY);
+        // the cache reads the headers to vary by from the request of the response
+        return response.newBuilder().request(request)
+                .header(HttpHeaders.VARY, vary == null ? CREDENTIALS_DIGEST : vary + ", " + CREDENTIALS_DIGEST).build();
+    }
+
+    /**
+     * An Apache client that sends GET requests through the cache and the rest as it would
+     */
+    private static final class CachingHttpClient extends CloseableHttpClient {
+        private final CloseableHttpClient delegate;
+        private final OkHttpClient client;
+        private final String userAgent;
+
+        CachingHttpClient(CloseableHttpClient delegate, OkHttpClient client, String userAgent) {
+            this.delegate = delegate;
+            this.client = client;
+            this.userAgent = userAgent;
+        }
+
+        @Override
+        protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context) throws IOException {
+            if (!"GET".equals(request.getRequestLine().getMethod())) {
+                return delegate.execute(target, request, context);
+            }
+            Request.Builder builder = new Request.Builder().url(url(target, request)).get();
+            for (Header header : request.getAllHeaders()) {
+                if (!HttpHeaders.HOST.equalsIgnoreCase(header.getName())) {
+                    builder.addHeader(header.getName(), header.getValue());
+                }
+            }
+            Header[] authorization = request.getHeaders(HttpHeaders.AUTHORIZATION);
+            if (authorization.length > 0) {
+                Hasher hasher = Hashing.sha256().newHasher();
+                for (Header header : authorization) {
+                    hasher.putString(header.getValue(), StandardCharsets.UTF_8).putChar('\n');
+                }
+                builder.header(CREDENTIALS_DIGEST, hasher.hash().toString());
+            }
+            if (userAgent != null && !request.containsHeader(HttpHeaders.USER_AGENT)) {
+                builder.header(HttpHeaders.USER_AGENT, userAgent);
+            }
+            Response response = client.newCall(builder.build()).execute();
+            CachedResponse cached = new CachedResponse(response.code(), response.message());
+            Headers headers = response.headers();
+            for (int i = 0; i < headers.size(); i++) {
+                cached.addHeader(headers.name(i), headers.value(i));
+            }
+            // the responses read are small, they are read as a whole anyway
+            ByteArrayEntity entity = new ByteArrayEntity(response.body().bytes());
+            entity.setContentType(response.header(HttpHeaders.CONTENT_TYPE));
+            cached.setEntity(entity);
+            return cached;
+        }
+
+        private static String url(HttpHost target, HttpRequest request) {
+            if (request instanceof HttpUriRequest) {
+                URI uri = ((HttpUriRequest)request).getURI();
+                if (uri.isAbsolute()) {
+                    return uri.toString();
+                }
+            }
+            return target.toURI() + request.getRequestLine().getUri();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        @Deprecated
+        public HttpParams getParams() {
+            return delegate.getParams();
+        }
+
+        @Override
+        @Deprecated
+        public ClientConnectionManager getConnectionManager() {
+            return delegate.getConnectionManager();
+        }
+    }
+
+    /**
+     * A response read as a whole, nothing to release
+     */
+    private static final class CachedResponse extends BasicHttpResponse implements CloseableHttpResponse {
+        CachedResponse(int code, String reason) {
+            super(new BasicStatusLine(HttpVersion.HTTP_1_1, code, reason));
+        }
+
+        @Override
+        public void close() {
+            // the body was read as a whole
+        }
+    }
+}
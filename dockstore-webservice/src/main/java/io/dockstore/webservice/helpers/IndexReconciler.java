@@ -0,0 +1,240 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.ElasticSearchConfig;
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.jdbi.EntryDAO;
+import io.dockstore.webservice.jdbi.FetchPlan;
+import io.dockstore.webservice.jdbi.IndexWatermarkDAO;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dockstore.webservice.jdbi.WorkflowDAO;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.Response;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Brings the elastic search index up to date with the database in the background, so that an index update that was dropped or
+ * failed does not leave the index wrong until the next full reindex.
+ * The watermark of the index is the latest database update date of the entries already sent to it, it is kept in the database.
+ * At a fixed interval, the entries that changed since the watermark are sent again in bulk requests: published entries are
+ * upserted, entries that are no longer published are deleted. The watermark only moves once elastic search accepted every
+ * change, so changes that could not be sent are tried again by the next run.
+ * <p>
+ * Changes are looked for from a little before the watermark, as the update date of a change is taken before its transaction
+ * commits. Runs are skipped while a reindex builds a new index.
+ * <p>
+ * Publishes elastic.reconcile.time, elastic.reconcile.upserts, elastic.reconcile.deletes and elastic.reconcile.failures (runs that
+ * did not move the watermark).
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class IndexReconciler implements Managed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexReconciler.class);
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    private final ElasticSearchConfig config;
+    private final ElasticIndexer indexer;
+    private final EntryReindexer reindexer;
+    private final SessionFactory sessionFactory;
+    private final SearchDocumentWriter documentWriter;
+    private final IndexWatermarkDAO watermarkDAO;
+    private final Map<String, EntryDAO<? extends Entry>> daos = new LinkedHashMap<>();
+    private final Timer time;
+    private final Meter upserts;
+    private final Meter deletes;
+    private final Meter failures;
+    private ScheduledExecutorService scheduler;
+
+    public IndexReconciler(ElasticSearchConfig config, ElasticIndexer indexer, EntryReindexer reindexer, SessionFactory sessionFactory,
+            SearchDocumentWriter documentWriter, ToolDAO toolDAO, WorkflowDAO workflowDAO, MetricRegistry metrics) {
+        this(config, indexer, reindexer, sessionFactory, documentWriter, new IndexWatermarkDAO(sessionFactory), toolDAO, workflowDAO,
+                metrics);
+    }
+
+    IndexReconciler(ElasticSearchConfig config, ElasticIndexer indexer, EntryReindexer reindexer, SessionFactory sessionFactory,
+            SearchDocumentWriter documentWriter, IndexWatermarkDAO watermarkDAO, ToolDAO toolDAO, WorkflowDAO workflowDAO,
+            MetricRegistry metrics) {
+        this.config = config;
+        this.indexer = indexer;
+        this.reindexer = reindexer;
+        this.sessionFactory = sessionFactory;
+        this.documentWriter = documentWriter;
+        this.watermarkDAO = watermarkDAO;
+        this.daos.put("tool", toolDAO);
+        this.daos.put("workflow", workflowDAO);
+        this.time = metrics.timer("elastic.reconcile.time");
+        this.upserts = metrics.meter("elastic.reconcile.upserts");
+        this.deletes = metrics.meter("elastic.reconcile.deletes");
+        this.failures = metrics.meter("elastic.reconcile.failures");
+    }
+
+    @Override
+    public void start() {
+        long interval = config.getReconcileInterval().toMilliseconds();
+        if (!indexer.isEnabled() || interval <= 0) {
+            return;
+        }
+        scheduler = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("elastic-reconcile-%d").setDaemon(true).build());
+        scheduler.scheduleWithFixedDelay(this::reconcile, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Send the entries that changed since the watermark to the index and move the watermark
+     *
+     * @return the number of entries sent, -1 if the watermark did not move
+     */
+    public synchronized long reconcile() {
+        if (reindexer.isRunning()) {
+            // the watermark stays, what changed meanwhile is picked up once the new index is in place
+            return -1;
+        }
+        Timer.Context timer = time.time();
+        Session session = sessionFactory.openSession();
+        Session previous = ManagedSessionContext.bind(session);
+        Transaction transaction = session.beginTransaction();
+        try {
+            Date watermark = watermarkDAO.findWatermark(EntryReindexer.ALIAS);
+            if (watermark == null) {
+                // the index was built before changes were tracked, it is only known to be current from now on
+                watermarkDAO.saveWatermark(EntryReindexer.ALIAS, new Date());
+                transaction.commit();
+                return 0;
+            }
+            Date since = new Date(watermark.getTime() - config.getReconcileOverlap().toMilliseconds());
+            Date next = watermark;
+            long sent = 0;
+            for (Map.Entry<String, EntryDAO<? extends Entry>> type : daos.entrySet()) {
+                EntryDAO.EntryChange last = null;
+                List<EntryDAO.EntryChange> changes;
+                do {
+                    changes = type.getValue().findChangedSince(since, last, config.getBulkSize());
+                    if (changes.isEmpty()) {
+                        break;
+                    }
+                    send(type.getKey(), type.getValue(), changes);
+                    sent += changes.size();
+                    last = changes.get(changes.size() - 1);
+                    next = last.getUpdated().after(next) ? last.getUpdated() : next;
+                    session.clear();
+                } while (changes.size() == config.getBulkSize());
+            }
+            watermarkDAO.saveWatermark(EntryReindexer.ALIAS, next);
+            transaction.commit();
+            return sent;
+        } catch (IOException | RuntimeException e) {
+            failures.mark();
+            LOG.error("Could not bring the search index up to date, the watermark did not move", e);
+            return -1;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            ManagedSessionContext.unbind(sessionFactory);
+            if (previous != null) {
+                ManagedSessionContext.bind(previous);
+            }
+            session.close();
+            timer.stop();
+        }
+    }
+
+    /**
+     * Send a chunk of changes in one bulk request
+     *
+     * @throws IOException if elastic search did not accept every change
+     */
+    private void send(String type, EntryDAO<? extends Entry> dao, List<EntryDAO.EntryChange> changes) throws IOException {
+        List<Long> publishedIds = changes.stream().filter(EntryDAO.EntryChange::isPublished).map(EntryDAO.EntryChange::getId)
+                .collect(Collectors.toList());
+        List<Entry> published = dao.findPublishedByIds(publishedIds, FetchPlan.WITH_VERSIONS).stream().map(entry -> (Entry)entry)
+                .collect(Collectors.toList());
+        List<String> documents = documentWriter.toJson(published);
+        StringBuilder body = new StringBuilder();
+        Set<Long> upserted = new HashSet<>();
+        for (int i = 0; i < published.size(); i++) {
+            IndexUpdateBuffer.appendAction(body, type, published.get(i).getId(), documents.get(i));
+            upserted.add(published.get(i).getId());
+        }
+        // entries that are not published (anymore) must not be in the index
+        changes.stream().filter(change -> !upserted.contains(change.getId()))
+                .forEach(change -> IndexUpdateBuffer.appendAction(body, type, change.getId(), null));
+
+        Response response = indexer.getClient().performRequest("POST", "/" + EntryReindexer.ALIAS + "/_bulk",
+                Collections.singletonMap("refresh", "wait_for"), new NStringEntity(body.toString(), ContentType.APPLICATION_JSON));
+        ElasticManager.nextGeneration();
+        JsonNode result;
+        try (InputStream content = response.getEntity().getContent()) {
+            result = MAPPER.readTree(content);
+        }
+        if (result.path("errors").asBoolean(false)) {
+            for (JsonNode item : result.path("items")) {
+                // each item has a single field named after its action
+                String action = item.fieldNames().hasNext() ? item.fieldNames().next() : "";
+                JsonNode outcome = item.path(action);
+                int status = outcome.path("status").asInt();
+                // deleting what is not in the index is fine
+                if (status >= HttpStatus.SC_MULTIPLE_CHOICES && !("delete".equals(action) && status == HttpStatus.SC_NOT_FOUND)) {
+                    throw new IOException(
+                            "Elastic search rejected " + type + " " + outcome.path("_id").asText() + ": " + outcome.path("error"));
+                }
+            }
+        }
+        upserts.mark(upserted.size());
+        deletes.mark(changes.size() - upserted.size());
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.ElasticSearchConfig;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.http.HttpStatus;
+import org.elasticsearch.client.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects index updates and sends them to elastic search in bulk requests, updates are only added once their change is committed.
+ * Only the latest update of each document is kept, so an entry that changes several times in quick succession (as during a refresh)
+ * is only sent once. The buffer is flushed at a fixed interval, or as soon as a full bulk request is waiting.
+ * Items of a bulk request that elastic search rejects are put back in the buffer, unless a newer update of the same document arrived
+ * in the meantime.
+ * <p>
+ * While an index is being built, the updates sent are also recorded for it, the latest one of each document. They are only sent to
+ * it once it is filled, just before searches switch over to it, so that no update is overwritten by an older copy of its document.
+ * <p>
+ * Publishes elastic.index.pending (updates waiting in the buffer), elastic.index.coalesced (updates replaced by a newer one before
+ * they were sent) and elastic.index.itemFailures (bulk items that were rejected).
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class IndexUpdateBuffer implements Managed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexUpdateBuffer.class);
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    private final ElasticSearchConfig config;
+    private final ElasticIndexer indexer;
+    private final ConcurrentMap<String, Operation> pending = new ConcurrentHashMap<>();
+    private final Map<String, Operation> shadowed = new HashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Meter coalesced;
+    private final Meter itemFailures;
+    private ScheduledExecutorService flusher;
+    private volatile String shadowIndex;
+
+    public IndexUpdateBuffer(ElasticSearchConfig config, ElasticIndexer indexer, MetricRegistry metrics) {
+        this.config = config;
+        this.indexer = indexer;
+        this.coalesced = metrics.meter("elastic.index.coalesced");
+        this.itemFailures = metrics.meter("elastic.index.itemFailures");
+        metrics.register("elastic.index.pending", (Gauge<Integer>)pending::size);
+    }
+
+    /**
+     * @return true if an elastic search host is configured
+     */
+    public boolean isEnabled() {
+        return indexer.isEnabled();
+    }
+
+    @Override
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        flusher = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("elastic-bulk-%d").setDaemon(true).build());
+        long interval = config.getBulkFlushInterval().toMilliseconds();
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        flusher.awaitTermination(config.getBulkFlushInterval().toMilliseconds(), TimeUnit.MILLISECONDS);
+        // hand what is left to the indexer, which is stopped after this buffer
+        flush();
+    }
+
+    /**
+     * Index (or replace) a document
+     *
+     * @param type     tool or workflow
+     * @param id       the id of the entry
+     * @param document the json of the entry
+     */
+    public void upsert(String type, long id, String document) {
+        add(new Operation(type, id, document, 0));
+    }
+
+    /**
+     * Remove a document from the index
+     *
+     * @param type tool or workflow
+     * @param id   the id of the entry
+     */
+    public void delete(String type, long id) {
+        add(new Operation(type, id, null, 0));
+    }
+
+    /**
+     * Record the updates for an index that is being built, see {@link EntryReindexer}
+     *
+     * @param index the name of the index, null to stop
+     */
+    public synchronized void setShadowIndex(String index) {
+        this.shadowIndex = index;
+        shadowed.clear();
+    }
+
+    /**
+     * Send the updates recorded for the index that is being built to it and stop recording. Nothing is flushed until the switch over
+     * is done, so that every update is either recorded and sent here, or sent to the index the alias points at afterwards.
+     *
+     * @param sender     sends a bulk request to the index that is being built and waits for its response
+     * @param switchOver run once the last recorded update is sent, moves the alias to the new index
+     * @throws IOException if a request could not be sent or the switch over failed
+     */
+    synchronized void closeShadow(BulkSender sender, SwitchOver switchOver) throws IOException {
+        try {
+            List<Operation> recorded = new ArrayList<>(shadowed.values());
+            for (int start = 0; start < recorded.size(); start += config.getBulkSize()) {
+                sender.send(toNDJSON(recorded.subList(start, Math.min(recorded.size(), start + config.getBulkSize()))));
+            }
+            switchOver.run();
+        } finally {
+            setShadowIndex(null);
+        }
+    }
+
+    private void add(Operation operation) {
+        if (flusher == null) {
+            LOG.error("No elastic search host found.");
+            return;
+        }
+        if (pending.put(operation.key(), operation) != null) {
+            coalesced.mark();
+        }
+        if (pending.size() >= config.getBulkSize() && flushScheduled.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Send everything that is waiting, in bulk requests of at most the configured size
+     */
+    synchronized void flush() {
+        flushScheduled.set(false);
+        while (!pending.isEmpty()) {
+            Map<String, Operation> batch = new HashMap<>();
+            Iterator<String> keys = pending.keySet().iterator();
+            while (keys.hasNext() && batch.size() < config.getBulkSize()) {
+                String key = keys.next();
+                Operation operation = pending.remove(key);
+                if (operation != null) {
+                    batch.put(key, operation);
+                }
+            }
+            String body = toNDJSON(batch.values());
+            // the response only comes once the updates are searchable, so that cached searches can be dropped at the right time
+            if (!indexer.submit("POST", "/" + EntryReindexer.ALIAS + "/_bulk?refresh=wait_for", body,
+                    response -> handleItems(batch, response))) {
+                // the indexer queue is full, keep the updates for the next flush unless newer ones arrived
+                batch.values().forEach(operation -> pending.putIfAbsent(operation.key(), operation));
+                return;
+            }
+            if (shadowIndex != null) {
+                shadowed.putAll(batch);
+            }
+        }
+    }
+
+    private static String toNDJSON(Iterable<Operation> operations) {
+        StringBuilder builder = new StringBuilder();
+        for (Operation operation : operations) {
+            appendAction(builder, operation.type, operation.id, operation.document);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Add an upsert or a delete of a document to the body of a bulk request. Upserts replace the whole document, so that fields
+     * left out of the new document (null values are not written) do not keep the values of an older one.
+     *
+     * @param builder  the body
+     * @param type     tool or workflow
+     * @param id       the id of the entry
+     * @param document the json of the entry, null to delete it
+     */
+    static void appendAction(StringBuilder builder, String type, long id, String document) {
+        builder.append("{\"").append(document == null ? "delete" : "index").append("\":{\"_type\":\"").append(type).append("\",\"_id\":\"")
+                .append(id).append("\"}}\n");
+        if (document != null) {
+            builder.append(document).append('\n');
+        }
+    }
+
+    /**
+     * Note the change to the index and put the items that elastic search rejected back in the buffer
+     */
+    private void handleItems(Map<String, Operation> batch, Response response) throws IOException {
+        ElasticManager.nextGeneration();
+        JsonNode result;
+        try (InputStream content = response.getEntity().getContent()) {
+            result = MAPPER.readTree(content);
+        }
+        if (!result.path("errors").asBoolean(false)) {
+            return;
+        }
+        List<Operation> retries = new ArrayList<>();
+        for (JsonNode item : result.path("items")) {
+            // each item has a single field named after its action
+            JsonNode outcome = item.elements().hasNext() ? item.elements().next() : null;
+            if (outcome == null || outcome.path("status").asInt() < HttpStatus.SC_MULTIPLE_CHOICES) {
+                continue;
+            }
+            Operation operation = batch.get(outcome.path("_type").asText() + "/" + outcome.path("_id").asText());
+            if (operation == null || (operation.document == null && outcome.path("status").asInt() == HttpStatus.SC_NOT_FOUND)) {
+                // nothing to delete
+                continue;
+            }
+            itemFailures.mark();
+            if (operation.attempt < config.getIndexRetries()) {
+                retries.add(operation.next());
+            } else {
+                LOG.error("Could not submit index to elastic search. " + operation.key() + ": " + outcome.path("error"));
+            }
+        }
+        retries.forEach(operation -> pending.putIfAbsent(operation.key(), operation));
+    }
+
+    /**
+     * Sends a bulk request
+     */
+    @FunctionalInterface
+    interface BulkSender {
+        void send(String body) throws IOException;
+    }
+
+    /**
+     * Moves searches over to a new index
+     */
+    @FunctionalInterface
+    interface SwitchOver {
+        void run() throws IOException;
+    }
+
+    /**
+     * An update of one document, a null document means a delete
+     */
+    private static final class Operation {
+        private final String type;
+        private final long id;
+        private final String document;
+        private final int attempt;
+
+        Operation(String type, long id, String document, int attempt) {
+            this.type = type;
+            this.id = id;
+            this.document = document;
+            this.attempt = attempt;
+        }
+
+        String key() {
+            return type + "/" + id;
+        }
+
+        Operation next() {
+            return new Operation(type, id, document, attempt + 1);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ManagedSessionContext;
+
+/**
+ * Writes large listings as a JSON array while they are loaded, rather than building the whole list before serializing it.
+ * The resource method only finds the keys of what to list. The entities are loaded batch by batch while the response is written,
+ * and the session is cleared after each batch, so the heap needed does not grow with the size of the catalog and the first bytes go
+ * out as soon as the first batch is loaded.
+ * <p>
+ * The response is written after the unit of work of the resource method has ended, so each stream opens its own read-only session
+ * and binds it as the current session for the DAOs used by the loader, the session bound before is bound again afterwards.
+ * <p>
+ * The first batch is loaded before anything is written, so that a failure there is still answered with an error status. A later
+ * failure is thrown to the container once the status has been sent: the array is left open rather than closed, so that what the
+ * client got cannot pass for the complete listing, and the container aborts the response.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class JsonStreamer {
+
+    /**
+     * How many entities are loaded (and kept in the session) at a time
+     */
+    public static final int BATCH_SIZE = 50;
+
+    private final SessionFactory sessionFactory;
+    private final ObjectMapper mapper;
+
+    public JsonStreamer(SessionFactory sessionFactory, ObjectMapper mapper) {
+        this.sessionFactory = sessionFactory;
+        this.mapper = mapper;
+    }
+
+    /**
+     * @param keys   what to list, in order
+     * @param loader loads the values for a batch of keys, in the order of the keys
+     * @param <K>    the type of the keys
+     * @return the output writing the values as a JSON array
+     */
+    public <K> StreamingOutput stream(List<K> keys, Function<List<K>, List<?>> loader) {
+        return output -> {
+            Session session = sessionFactory.openSession();
+            session.setDefaultReadOnly(true);
+            Session previous = ManagedSessionContext.bind(session);
+            Transaction transaction = session.beginTransaction();
+            try {
+                List<List<K>> batches = Lists.partition(keys, BATCH_SIZE);
+                List<?> values = batches.isEmpty() ? Collections.emptyList() : loader.apply(batches.get(0));
+                JsonGenerator generator = mapper.getFactory().createGenerator(output);
+                // jersey closes the entity stream itself, and a failed listing must not be closed as if it were complete
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+                generator.writeStartArray();
+                for (int i = 0; i < batches.size(); i++) {
+                    if (i > 0) {
+                        values = loader.apply(batches.get(i));
+                    }
+                    for (Object value : values) {
+                        generator.writeObject(value);
+                    }
+                    generator.flush();
+                    session.clear();
+                }
+                generator.writeEndArray();
+                generator.close();
+            } finally {
+                // nothing is written through this session
+                transaction.rollback();
+                ManagedSessionContext.unbind(sessionFactory);
+                if (previous != null) {
+                    ManagedSessionContext.bind(previous);
+                }
+                session.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import io.dockstore.webservice.CustomWebApplicationException;
+import io.dockstore.webservice.core.RefreshJob;
+import io.dockstore.webservice.jdbi.RefreshJobDAO;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import org.apache.http.HttpStatus;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs refreshes in the background on a bounded pool, so that a refresh neither ties up a request thread nor holds a database
+ * connection while it waits on source control. Jobs are kept in the database with their progress, which is written in its own
+ * short transaction as every repository is done, so it can be polled while the job runs.
+ * <p>
+ * What a job does is registered by kind, jobs run in their own session the way a unit of work would. Jobs queued or running when
+ * the webservice stopped cannot be resumed, they are marked as failed on start.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class RefreshJobs implements Managed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshJobs.class);
+
+    private final SessionFactory sessionFactory;
+    private final RefreshJobDAO refreshJobDAO;
+    private final ExecutorService executor;
+    private final Duration waitTimeout;
+    private final Map<RefreshJob.Kind, Worker> workers = new EnumMap<>(RefreshJob.Kind.class);
+    private final ConcurrentMap<Long, Future<?>> running = new ConcurrentHashMap<>();
+
+    /**
+     * @param waitTimeout how long {@link #runAndWait} waits for a job before answering it is still running
+     */
+    public RefreshJobs(SessionFactory sessionFactory, ExecutorService executor, Duration waitTimeout) {
+        this(sessionFactory, executor, waitTimeout, new RefreshJobDAO(sessionFactory));
+    }
+
+    RefreshJobs(SessionFactory sessionFactory, ExecutorService executor, Duration waitTimeout, RefreshJobDAO refreshJobDAO) {
+        this.sessionFactory = sessionFactory;
+        this.refreshJobDAO = refreshJobDAO;
+        this.executor = executor;
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * @param kind   what the worker refreshes
+     * @param worker refreshes what a job of that kind asks for
+     */
+    public void register(RefreshJob.Kind kind, Worker worker) {
+        workers.put(kind, worker);
+    }
+
+    @Override
+    public void start() {
+        int failed = inSession(session -> refreshJobDAO
+                .failUnfinished("The webservice stopped before the job finished", HttpStatus.SC_SERVICE_UNAVAILABLE));
+        if (failed > 0) {
+            LOG.info("Marked {} refresh jobs left over from the last run as failed", failed);
+        }
+    }
+
+    @Override
+    public void stop() {
+        // the pool is managed by the lifecycle of the environment
+    }
+
+    /**
+     * @return the job, queued
+     */
+    public RefreshJob submit(RefreshJob.Kind kind, Long userId, String organization) {
+        RefreshJob job = inSession(session -> {
+            RefreshJob created = new RefreshJob(kind, userId, organization);
+            refreshJobDAO.create(created);
+            return created;
+        });
+        try {
+            Future<?> future = executor.submit(() -> run(job.getId()));
+            running.put(job.getId(), future);
+            // a job that finished before it was put would stay
+            if (future.isDone()) {
+                running.remove(job.getId(), future);
+            }
+        } catch (RejectedExecutionException e) {
+            update(job.getId(), rejected -> fail(rejected, "Too many refreshes are waiting, try again later",
+                    HttpStatus.SC_SERVICE_UNAVAILABLE));
+            throw new CustomWebApplicationException("Too many refreshes are waiting, try again later", HttpStatus.SC_SERVICE_UNAVAILABLE);
+        }
+        return job;
+    }
+
+    /**
+     * Run a job and wait for it, for the endpoints that refresh synchronously.
+     * <p>
+     * Must be called inside a unit of work before it changed anything. Its transaction is left to the unit of work and stays open
+     * while the job runs in sessions of its own, which is why the wait is bounded. A job still running when the wait ends goes on in
+     * the background and is answered with a 202 holding the job, to be polled like one that was submitted. Once the job is done the
+     * session is cleared so that what the job changed is read fresh, entities loaded before are detached and must be loaded again.
+     *
+     * @return the job, once it succeeded
+     * @throws CustomWebApplicationException with the failure and status stored with the job if it failed
+     * @throws WebApplicationException       with a 202 response holding the job if it did not finish in time
+     * @throws IllegalStateException         if the unit of work has changes that clearing the session would lose
+     */
+    public RefreshJob runAndWait(RefreshJob.Kind kind, Long userId, String organization) {
+        Session session = sessionFactory.getCurrentSession();
+        if (session.isDirty()) {
+            throw new IllegalStateException("A refresh must be waited for before the unit of work changes anything");
+        }
+        RefreshJob job = submit(kind, userId, organization);
+        Future<?> future = running.get(job.getId());
+        if (future != null) {
+            try {
+                future.get(waitTimeout.toMilliseconds(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                throw new WebApplicationException(Response.status(HttpStatus.SC_ACCEPTED).entity(find(job.getId()))
+                        .type(MediaType.APPLICATION_JSON_TYPE).build());
+            } catch (ExecutionException e) {
+                // errors are not stored with the job
+                LOG.error("Refresh job " + job.getId() + " did not finish", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CustomWebApplicationException("Interrupted while waiting for the refresh", HttpStatus.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+        RefreshJob done = find(job.getId());
+        if (done.getStatus() == RefreshJob.Status.FAILED) {
+            throw new CustomWebApplicationException(done.getFailure(),
+                    done.getFailureStatus() == null ? HttpStatus.SC_INTERNAL_SERVER_ERROR : done.getFailureStatus());
+        }
+        if (done.getStatus() != RefreshJob.Status.SUCCEEDED) {
+            throw new CustomWebApplicationException("Refresh job " + job.getId() + " did not finish", HttpStatus.SC_INTERNAL_SERVER_ERROR);
+        }
+        // what the job changed is read fresh from here on
+        session.clear();
+        return done;
+    }
+
+    /**
+     * @return the job, null if there is none with that id
+     */
+    public RefreshJob find(long id) {
+        return inSession(session -> {
+            RefreshJob job = refreshJobDAO.findById(id);
+            if (job != null) {
+                Hibernate.initialize(job.getErrors());
+            }
+            return job;
+        });
+    }
+
+    private void run(long id) {
+        try {
+            RefreshJob job = update(id, started -> {
+                started.setStatus(RefreshJob.Status.RUNNING);
+                started.setStarted(new Date());
+            });
+            Worker worker = workers.get(job.getKind());
+            if (worker == null) {
+                throw new CustomWebApplicationException("Nothing refreshes " + job.getKind(), HttpStatus.SC_INTERNAL_SERVER_ERROR);
+            }
+            inSession(session -> {
+                worker.refresh(job, new JobProgress(id));
+                return null;
+            });
+            update(id, succeeded -> {
+                succeeded.setStatus(RefreshJob.Status.SUCCEEDED);
+                succeeded.setFinished(new Date());
+            });
+        } catch (RuntimeException e) {
+            LOG.error("Refresh job " + id + " failed", e);
+            int status = e instanceof CustomWebApplicationException ? ((CustomWebApplicationException)e).getResponse().getStatus()
+                    : HttpStatus.SC_INTERNAL_SERVER_ERROR;
+            update(id, failed -> fail(failed, RefreshPipeline.failureMessage(e), status));
+        } finally {
+            running.remove(id);
+        }
+    }
+
+    private static void fail(RefreshJob job, String failure, int status) {
+        job.setStatus(RefreshJob.Status.FAILED);
+        job.setFinished(new Date());
+        job.setFailure(failure);
+        job.setFailureStatus(status);
+    }
+
+    /**
+     * Change a job in its own transaction, so that the change is seen at once whatever the refresh does with its own
+     *
+     * @return the changed job
+     */
+    private RefreshJob update(long id, Consumer<RefreshJob> change) {
+        Session session = sessionFactory.openSession();
+        Transaction transaction = session.beginTransaction();
+        try {
+            RefreshJob job = session.get(RefreshJob.class, id);
+            change.accept(job);
+            transaction.commit();
+            return job;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            session.close();
+        }
+    }
+
+    /**
+     * Run in a session of its own that the DAOs see as the current one, committed if nothing was thrown
+     */
+    private <T> T inSession(Function<Session, T> work) {
+        Session session = sessionFactory.openSession();
+        Session previous = ManagedSessionContext.bind(session);
+        session.beginTransaction();
+        try {
+            T result = work.apply(session);
+            // a refresh may have moved on to a transaction of its own
+            if (session.getTransaction().isActive()) {
+                session.getTransaction().commit();
+            }
+            return result;
+        } finally {
+            if (session.getTransaction().isActive()) {
+                session.getTransaction().rollback();
+            }
+            ManagedSessionContext.unbind(sessionFactory);
+            if (previous != null) {
+                ManagedSessionContext.bind(previous);
+            }
+            session.close();
+        }
+    }
+
+    /**
+     * Refreshes what a job asks for
+     */
+    @FunctionalInterface
+    public interface Worker {
+        /**
+         * Runs as if inside a unit of work
+         *
+         * @param job      what to refresh
+         * @param progress told about every repository
+         */
+        void refresh(RefreshJob job, RefreshProgress progress);
+    }
+
+    /**
+     * Writes the progress of a job as it comes
+     */
+    private final class JobProgress implements RefreshProgress {
+        private final long id;
+
+        JobProgress(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public void found(int repositories) {
+            update(id, job -> job.setFound(job.getFound() + repositories));
+        }
+
+        @Override
+        public void refreshed(String repository) {
+            update(id, job -> job.setRefreshed(job.getRefreshed() + 1));
+        }
+
+        @Override
+        public void failed(String repository, String message) {
+            update(id, job -> job.getErrors().add(new RefreshJob.RepositoryError(repository, message)));
+        }
+    }
+}
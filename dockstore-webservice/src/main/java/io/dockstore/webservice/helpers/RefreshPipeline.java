@@ -0,0 +1,198 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.ws.rs.WebApplicationException;
+
+import io.dockstore.webservice.CustomWebApplicationException;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.RefreshConfig;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.http.HttpStatus;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refreshes many repositories in two stages: source control is asked about the repositories on a shared pool of threads, while
+ * the thread of the request writes what came back, one repository at a time and each in its own short transaction.
+ * Repositories are written in the order their answers arrive, so a slow repository does not hold up the others.
+ * <p>
+ * The number of repositories of a git host asked about at the same time is bounded over all refreshes, so that a refresh of a
+ * user with hundreds of repositories stays within what the host lets through. The writing thread never waits for a permit
+ * while an answer is ready to be written.
+ * <p>
+ * The fetch stage must not touch the session, whatever it needs from the database is loaded before the pipeline runs. A repository
+ * that cannot be fetched does not stop the others.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class RefreshPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshPipeline.class);
+    /**
+     * The host of git urls like git@github.com:org/repo.git
+     */
+    private static final Pattern GIT_HOST = Pattern.compile("@([^:/]+)[:/]");
+
+    private final ExecutorService executor;
+    private final RefreshConfig config;
+    private final SessionFactory sessionFactory;
+    private final ConcurrentMap<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    public RefreshPipeline(ExecutorService executor, RefreshConfig config, SessionFactory sessionFactory) {
+        this.executor = executor;
+        this.config = config;
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * @param gitUrl a git url
+     * @return its lower case host, the whole url if it has none
+     */
+    public static String host(String gitUrl) {
+        Matcher matcher = GIT_HOST.matcher(gitUrl);
+        return (matcher.find() ? matcher.group(1) : gitUrl).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Must be called inside a unit of work. What the unit of work did so far is committed first, and a new transaction is open
+     * again once every item is written. An item that source control could not be asked about is reported to the progress and
+     * skipped. If a write fails, nothing more is fetched and the failure is thrown once the fetches already running are done,
+     * the items written before stay written. The session is cleared after a failed write, entities loaded before are detached.
+     *
+     * @param host     the git host of the items
+     * @param items    what to refresh
+     * @param name     the name of an item for the progress
+     * @param fetch    asks source control about an item, runs on the pool
+     * @param write    persists what came back for an item, runs on the calling thread inside its own transaction
+     * @param progress told about every item
+     */
+    @SuppressWarnings("unchecked")
+    public <T, R> void run(String host, List<T> items, Function<T, String> name, Function<T, R> fetch, BiConsumer<T, R> write,
+            RefreshProgress progress) {
+        Semaphore hostPermits = permits.computeIfAbsent(host,
+                key -> new Semaphore(Math.max(1, config.getHosts().getOrDefault(key, config.getConcurrencyPerHost()))));
+        // a fetch answers either what it got or how it failed
+        CompletionService<Pair<T, Object>> completion = new ExecutorCompletionService<>(executor);
+        Session session = sessionFactory.getCurrentSession();
+        Transaction current = session.getTransaction();
+        if (current.isActive()) {
+            current.commit();
+        }
+        progress.found(items.size());
+        Iterator<T> pending = items.iterator();
+        int running = 0;
+        try {
+            while (pending.hasNext() || running > 0) {
+                while (pending.hasNext()) {
+                    // only wait for a permit when there is nothing to write meanwhile
+                    if (running == 0) {
+                        hostPermits.acquire();
+                    } else if (!hostPermits.tryAcquire()) {
+                        break;
+                    }
+                    T item = pending.next();
+                    completion.submit(() -> {
+                        try {
+                            return Pair.of(item, fetch.apply(item));
+                        } catch (RuntimeException e) {
+                            return Pair.of(item, e);
+                        } finally {
+                            hostPermits.release();
+                        }
+                    });
+                    running++;
+                }
+                Pair<T, Object> fetched;
+                try {
+                    fetched = completion.take().get();
+                } finally {
+                    running--;
+                }
+                if (fetched.getRight() instanceof RuntimeException) {
+                    RuntimeException failure = (RuntimeException)fetched.getRight();
+                    LOG.warn("Could not refresh " + name.apply(fetched.getLeft()), failure);
+                    progress.failed(name.apply(fetched.getLeft()), failureMessage(failure));
+                    continue;
+                }
+                Transaction transaction = session.beginTransaction();
+                boolean written = false;
+                try {
+                    write.accept(fetched.getLeft(), (R)fetched.getRight());
+                    transaction.commit();
+                    written = true;
+                } finally {
+                    if (!written) {
+                        if (transaction.isActive()) {
+                            transaction.rollback();
+                        }
+                        // what the write changed in memory is not in the database, nothing may flush it later
+                        session.clear();
+                    }
+                }
+                progress.refreshed(name.apply(fetched.getLeft()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CustomWebApplicationException("The refresh was interrupted", HttpStatus.SC_INTERNAL_SERVER_ERROR);
+        } catch (ExecutionException e) {
+            // errors, runtime exceptions are answered
+            throw new CustomWebApplicationException("Could not refresh: " + e.getCause(), HttpStatus.SC_INTERNAL_SERVER_ERROR);
+        } finally {
+            // fetches are not cancelled, a fetch that never started would keep its permit
+            drain(completion, running);
+            session.beginTransaction();
+        }
+    }
+
+    /**
+     * @return the message of a failure, the entity of the response for web application exceptions
+     */
+    public static String failureMessage(RuntimeException failure) {
+        if (failure instanceof WebApplicationException && ((WebApplicationException)failure).getResponse().getEntity() instanceof String) {
+            return (String)((WebApplicationException)failure).getResponse().getEntity();
+        }
+        return failure.getMessage() == null ? failure.toString() : failure.getMessage();
+    }
+
+    private static void drain(CompletionService<?> completion, int running) {
+        try {
+            for (int i = 0; i < running; i++) {
+                completion.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+/**
+ * Told about the repositories a refresh goes through
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public interface RefreshProgress {
+
+    /**
+     * For refreshes nobody follows
+     */
+    RefreshProgress NONE = new RefreshProgress() {
+        @Override
+        public void found(int repositories) {
+        }
+
+        @Override
+        public void refreshed(String repository) {
+        }
+
+        @Override
+        public void failed(String repository, String message) {
+        }
+    };
+
+    /**
+     * @param repositories the number of repositories found that will be refreshed
+     */
+    void found(int repositories);
+
+    /**
+     * @param repository a repository that was refreshed
+     */
+    void refreshed(String repository);
+
+    /**
+     * @param repository a repository that could not be refreshed, the refresh goes on without it
+     * @param message    why
+     */
+    void failed(String repository, String message);
+}
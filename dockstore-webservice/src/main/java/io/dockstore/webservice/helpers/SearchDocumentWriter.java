@@ -0,0 +1,220 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.Label;
+import io.dockstore.webservice.core.SourceFile;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.Version;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dropwizard.jackson.Jackson;
+
+/**
+ * Converts entries into the documents stored in elastic search.
+ * A document only has what the search mapping indexes (paths, description, author, labels, registry, descriptor types, stars and
+ * the names of the visible versions) rather than the full json of the entry, which holds every version and every file. The
+ * descriptor types of tools are found with one query for a whole batch, so the files of the versions are never loaded.
+ * <p>
+ * Field names are the ones of the json of the entries, so existing queries keep working. Null fields are left out, which is only
+ * safe because documents are always replaced whole (see {@link IndexUpdateBuffer#appendAction}); an index filled with the full json
+ * of the entries has to be rebuilt once (POST /api/ga4gh/v1/extended/tools/index) to drop the fields a document no longer has.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class SearchDocumentWriter {
+
+    private static final ObjectWriter WRITER = Jackson.newObjectMapper().writerFor(SearchDocument.class);
+
+    private final ToolDAO toolDAO;
+
+    public SearchDocumentWriter(ToolDAO toolDAO) {
+        this.toolDAO = toolDAO;
+    }
+
+    /**
+     * @param entry a published entry
+     * @return the json of its search document
+     */
+    public String toJson(Entry entry) throws JsonProcessingException {
+        return toJson(Collections.singletonList(entry)).get(0);
+    }
+
+    /**
+     * @param entries published entries
+     * @return the json of their search documents, in the same order
+     */
+    public List<String> toJson(List<Entry> entries) throws JsonProcessingException {
+        List<Long> toolIds = entries.stream().filter(entry -> entry instanceof Tool).map(Entry::getId).collect(Collectors.toList());
+        Map<Long, Set<SourceFile.FileType>> descriptorTypes = toolDAO.findDescriptorTypes(toolIds);
+        List<String> documents = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            SearchDocument document = entry instanceof Tool ? new SearchDocument((Tool)entry,
+                    descriptorTypes.getOrDefault(entry.getId(), Collections.emptySet())) : new SearchDocument((Workflow)entry);
+            documents.add(WRITER.writeValueAsString(document));
+        }
+        return documents;
+    }
+
+    /**
+     * What elastic search stores for an entry, a field that became null is dropped by replacing the document
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY, getterVisibility = JsonAutoDetect.Visibility.NONE)
+    private static final class SearchDocument {
+        private final long id;
+        private final String path;
+        private final String description;
+        private final String author;
+        private final String email;
+        private final String gitUrl;
+        @JsonProperty("is_published")
+        private final boolean published;
+        private final Date lastUpdated;
+        private final Set<Label> labels;
+        private final List<Star> starredUsers;
+        private final int stars;
+        private final String defaultVersion;
+        private final Object mode;
+        private final Object descriptorType;
+
+        // tools
+        private String name;
+        private String namespace;
+        private Object registry;
+        private String toolname;
+        @JsonProperty("tool_path")
+        private String toolPath;
+        @JsonProperty("private_access")
+        private Boolean privateAccess;
+        @JsonProperty("default_dockerfile_path")
+        private String defaultDockerfilePath;
+        @JsonProperty("default_cwl_path")
+        private String defaultCwlPath;
+        @JsonProperty("default_wdl_path")
+        private String defaultWdlPath;
+        @JsonProperty("tool_maintainer_email")
+        private String toolMaintainerEmail;
+        private Date lastBuild;
+        private List<VersionDocument> tags;
+
+        // workflows
+        private String workflowName;
+        private String organization;
+        private String repository;
+        @JsonProperty("workflow_path")
+        private String workflowPath;
+        private List<VersionDocument> workflowVersions;
+
+        private SearchDocument(Entry<?, ?> entry, Object mode, Object descriptorType) {
+            this.id = entry.getId();
+            this.description = entry.getDescription();
+            this.author = entry.getAuthor();
+            this.email = entry.getEmail();
+            this.gitUrl = entry.getGitUrl();
+            this.published = entry.getIsPublished();
+            this.lastUpdated = entry.getLastUpdated();
+            this.labels = entry.getLabels();
+            this.starredUsers = entry.getStarredUsers().stream().map(user -> new Star(user.getId())).collect(Collectors.toList());
+            this.stars = starredUsers.size();
+            this.defaultVersion = entry.getDefaultVersion();
+            this.mode = mode;
+            this.descriptorType = descriptorType;
+            this.path = entry instanceof Tool ? ((Tool)entry).getPath() : ((Workflow)entry).getPath();
+        }
+
+        SearchDocument(Tool tool, Set<SourceFile.FileType> fileTypes) {
+            this(tool, tool.getMode(), fileTypes.stream().map(type -> type == SourceFile.FileType.DOCKSTORE_CWL ? "cwl" : "wdl")
+                    .sorted().collect(Collectors.toList()));
+            this.name = tool.getName();
+            this.namespace = tool.getNamespace();
+            this.registry = tool.getRegistry();
+            this.toolname = tool.getToolname();
+            this.toolPath = tool.getToolPath();
+            this.privateAccess = tool.isPrivateAccess();
+            this.defaultDockerfilePath = tool.getDefaultDockerfilePath();
+            this.defaultCwlPath = tool.getDefaultCwlPath();
+            this.defaultWdlPath = tool.getDefaultWdlPath();
+            this.toolMaintainerEmail = tool.getToolMaintainerEmail();
+            this.lastBuild = tool.getLastBuild();
+            this.tags = versions(tool.getTags());
+        }
+
+        SearchDocument(Workflow workflow) {
+            this(workflow, workflow.getMode(), workflow.getDescriptorType());
+            this.workflowName = workflow.getWorkflowName();
+            this.organization = workflow.getOrganization();
+            this.repository = workflow.getRepository();
+            this.workflowPath = workflow.getDefaultWorkflowPath();
+            this.workflowVersions = versions(workflow.getWorkflowVersions());
+        }
+
+        private static List<VersionDocument> versions(Set<? extends Version> versions) {
+            return versions.stream().filter(version -> !version.isHidden()).map(VersionDocument::new).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * A visible version, without its files
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY, getterVisibility = JsonAutoDetect.Visibility.NONE)
+    private static final class VersionDocument {
+        private final String name;
+        private final String reference;
+        private final boolean valid;
+        private final boolean verified;
+        private final String verifiedSource;
+        @JsonProperty("last_modified")
+        private final Date lastModified;
+
+        VersionDocument(Version version) {
+            this.name = version.getName();
+            this.reference = version.getReference();
+            this.valid = version.isValid();
+            this.verified = version.isVerified();
+            this.verifiedSource = version.getVerifiedSource();
+            this.lastModified = version.getLastModified();
+        }
+    }
+
+    /**
+     * Only the id of a user who starred the entry, so that stars can be counted without exposing the user
+     */
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY, getterVisibility = JsonAutoDetect.Visibility.NONE)
+    private static final class Star {
+        private final long id;
+
+        Star(long id) {
+            this.id = id;
+        }
+    }
+}
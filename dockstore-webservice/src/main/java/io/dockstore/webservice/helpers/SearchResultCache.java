@@ -0,0 +1,163 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.ElasticSearchConfig;
+import io.dropwizard.jackson.Jackson;
+
+/**
+ * Keeps the responses of elastic search to the searches of the UI, which sends the same few queries (facets, browsing with an
+ * empty query) over and over.
+ * Searches are keyed by a hash of their body and parameters, after the body is normalized (keys sorted, whitespace dropped) so
+ * that equivalent queries share a response. Responses are stored outside of the heap and the cache is bounded by their total size.
+ * <p>
+ * Every response remembers the index generation of {@link ElasticManager} from before it was asked for. A response of an older
+ * generation may be missing a change to the index, so it is dropped instead of being returned.
+ * <p>
+ * Publishes elastic.search.cache.hits, elastic.search.cache.misses, elastic.search.cache.entries and elastic.search.cache.bytes.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class SearchResultCache {
+
+    /**
+     * Larger responses would take too much of the cache, they are not kept
+     */
+    private static final int MAX_ENTRY_FRACTION = 16;
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private final Cache<String, CachedResponse> cache;
+    private final long maxEntryBytes;
+    private final AtomicLong bytes = new AtomicLong();
+    private final Meter hits;
+    private final Meter misses;
+
+    public SearchResultCache(ElasticSearchConfig config, MetricRegistry metrics) {
+        long size = config.getSearchCacheSize().toBytes();
+        this.maxEntryBytes = size / MAX_ENTRY_FRACTION;
+        this.cache = CacheBuilder.newBuilder().maximumWeight(size).weigher((String key, CachedResponse value) -> value.size())
+                .removalListener(removal -> bytes.addAndGet(-removal.getValue().size())).build();
+        this.hits = metrics.meter("elastic.search.cache.hits");
+        this.misses = metrics.meter("elastic.search.cache.misses");
+        metrics.register("elastic.search.cache.entries", (Gauge<Long>)cache::size);
+        metrics.register("elastic.search.cache.bytes", (Gauge<Long>)bytes::get);
+    }
+
+    /**
+     * @return false if the cache was given no room
+     */
+    public boolean isEnabled() {
+        return maxEntryBytes > 0;
+    }
+
+    /**
+     * @param body       the json of the search, may be null
+     * @param parameters the parameters of the search
+     * @return the key of the search, the same for searches that only differ in json formatting or in the order of keys
+     */
+    public String key(String body, Map<String, List<String>> parameters) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(normalize(body), StandardCharsets.UTF_8).putChar('\0');
+        new TreeMap<>(parameters).forEach((name, values) -> {
+            hasher.putString(name, StandardCharsets.UTF_8).putChar('=');
+            values.forEach(value -> hasher.putString(value, StandardCharsets.UTF_8).putChar('\0'));
+        });
+        return hasher.hash().toString();
+    }
+
+    private static String normalize(String body) {
+        if (body == null || body.trim().isEmpty()) {
+            return "";
+        }
+        try {
+            return MAPPER.writeValueAsString(MAPPER.readValue(body, Object.class));
+        } catch (IOException e) {
+            // elastic search will reject it, the response is not kept anyway
+            return body;
+        }
+    }
+
+    /**
+     * @param key        the key of the search
+     * @param generation the current index generation
+     * @return the response to the search, null if there is none for the current generation
+     */
+    public byte[] get(String key, long generation) {
+        CachedResponse response = cache.getIfPresent(key);
+        if (response != null && response.generation != generation) {
+            cache.invalidate(key);
+            response = null;
+        }
+        if (response == null) {
+            misses.mark();
+            return null;
+        }
+        hits.mark();
+        byte[] content = new byte[response.size()];
+        response.content.duplicate().get(content);
+        return content;
+    }
+
+    /**
+     * @param key        the key of the search
+     * @param generation the index generation read before the search was sent
+     * @param content    the response of elastic search
+     */
+    public void put(String key, long generation, byte[] content) {
+        if (content.length > maxEntryBytes) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+        buffer.put(content).flip();
+        bytes.addAndGet(content.length);
+        cache.put(key, new CachedResponse(generation, buffer));
+    }
+
+    /**
+     * A response, with the generation of the index it came from
+     */
+    private static final class CachedResponse {
+        private final long generation;
+        private final ByteBuffer content;
+
+        CachedResponse(long generation, ByteBuffer content) {
+            this.generation = generation;
+            this.content = content;
+        }
+
+        int size() {
+            return content.capacity();
+        }
+    }
+}
@@ -24,6 +24,8 @@ import java.util.regex.Pattern;
 import io.dockstore.webservice.CustomWebApplicationException;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,10 +36,19 @@ public final class SourceCodeRepoFactory {
 
     private static final Logger LOG = LoggerFactory.getLogger(SourceCodeRepoFactory.class);
 
+    /**
+     * Where files are read from when set, rather than from the git hosts one at a time
+     */
+    private static GitMirrors gitMirrors;
+
     private SourceCodeRepoFactory() {
         // hide the constructor for utility classes
     }
 
+    public static void setGitMirrors(GitMirrors gitMirrors) {
+        SourceCodeRepoFactory.gitMirrors = gitMirrors;
+    }
+
     public static SourceCodeRepoInterface createSourceCodeRepo(String gitUrl, HttpClient client, String bitbucketTokenContent,
             String gitlabTokenContent, String githubTokenContent) {
 
@@ -72,7 +83,53 @@ public final class SourceCodeRepoFactory {
             LOG.info("Do not support: " + source);
             throw new CustomWebApplicationException("Sorry, we do not support " + source + ".", HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE);
         }
-        return repo;
+        String token = "github.com".equals(source) ? githubTokenContent
+                : "bitbucket.org".equals(source) ? bitbucketTokenContent : gitlabTokenContent;
+        return mirrored(repo, source, token, cloneUrl(gitUrl));
+    }
+
+    /**
+     * Reads the files of a source code repo from local mirrors, if mirrors are set.
+     *
+     * @param repo         the source code repo of the git host
+     * @param source       the git host, like github.com
+     * @param tokenContent the token for the git host, may be null
+     * @param cloneUrl     the repository the source code repo is for, null if it is for every repository of a user
+     * @return the source code repo to use
+     */
+    public static SourceCodeRepoInterface mirrored(SourceCodeRepoInterface repo, String source, String tokenContent, String cloneUrl) {
+        if (gitMirrors == null) {
+            return repo;
+        }
+        return new GitMirrorSourceCodeRepo(repo, gitMirrors, credentials(source, tokenContent), SourceCodeRepoFactory::cloneUrl,
+                cloneUrl);
+    }
+
+    /**
+     * @return the https url to fetch a git url from, null if it cannot be parsed
+     */
+    static String cloneUrl(String gitUrl) {
+        Map<String, String> repoUrlMap = parseGitUrl(gitUrl);
+        if (repoUrlMap == null) {
+            return null;
+        }
+        return "https://" + repoUrlMap.get("Source") + "/" + repoUrlMap.get("Username") + "/" + repoUrlMap.get("Repository") + ".git";
+    }
+
+    /**
+     * @return what to fetch with, as each git host takes its tokens over https
+     */
+    private static CredentialsProvider credentials(String source, String tokenContent) {
+        if (tokenContent == null) {
+            return null;
+        }
+        if ("github.com".equals(source)) {
+            return new UsernamePasswordCredentialsProvider(tokenContent, "x-oauth-basic");
+        } else if ("bitbucket.org".equals(source)) {
+            return new UsernamePasswordCredentialsProvider("x-token-auth", tokenContent);
+        } else {
+            return new UsernamePasswordCredentialsProvider("oauth2", tokenContent);
+        }
     }
 
     /**
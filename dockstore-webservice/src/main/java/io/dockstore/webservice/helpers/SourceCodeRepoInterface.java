@@ -214,6 +214,14 @@ public abstract class SourceCodeRepoInterface {
         return false;
     }
 
+    /**
+     * Resolves every branch and tag of a repository to the commit it points at, with as few calls as the git host allows
+     *
+     * @param repositoryId the repository as given by {@link #getRepositoryId(Entry)}
+     * @return reference -> commit id, without the references that could not be resolved, which are always fetched again
+     */
+    public abstract Map<String, String> getReferenceCommitIDs(String repositoryId);
+
     /**
      * Set up workflow with basic attributes from git repository
      *
@@ -434,6 +442,29 @@ public abstract class SourceCodeRepoInterface {
         return version;
     }
 
+    /**
+     * A version whose reference still points at the commit and path its files were fetched from keeps them, the version is then
+     * not fetched again and its files are left as they are in the database. Any other version is left without a commit, it only
+     * gets one once its descriptor was fetched so that a failed fetch is tried again on the next refresh.
+     *
+     * @param version          a version set up by {@link #initializeWorkflowVersion(String, Optional, Map)}
+     * @param commitID         the commit its reference points at now, null if not known
+     * @param existingDefaults the versions refreshed before
+     * @return true if the version was unchanged and needs no files
+     */
+    boolean keepUnchangedVersion(WorkflowVersion version, String commitID, Map<String, WorkflowVersion> existingDefaults) {
+        version.setCommitID(commitID);
+        WorkflowVersion existingVersion = existingDefaults.get(version.getName());
+        if (existingVersion == null || !version.isUnchangedFrom(existingVersion)) {
+            version.setCommitID(null);
+            return false;
+        }
+        LOG.info(version.getName() + " is still at " + commitID + ", not fetched again");
+        version.setValid(existingVersion.isValid());
+        version.setLastModified(existingVersion.getLastModified());
+        return true;
+    }
+
     /**
      * Determine descriptor type from file path
      *
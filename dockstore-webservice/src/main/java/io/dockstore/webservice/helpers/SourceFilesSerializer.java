@@ -0,0 +1,59 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import io.dockstore.webservice.core.SourceFile;
+import org.hibernate.Hibernate;
+
+/**
+ * Serializes the files of a version. Files that were not loaded by the fetch plan of the endpoint count as empty, so that with
+ * {@link com.fasterxml.jackson.annotation.JsonInclude.Include#NON_EMPTY} they are left out rather than loaded one version at a
+ * time. Files that were loaded are written even if there are none.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class SourceFilesSerializer extends StdSerializer<Set<SourceFile>> {
+
+    public SourceFilesSerializer() {
+        this(null);
+    }
+
+    public SourceFilesSerializer(Class<Set<SourceFile>> t) {
+        super(t);
+    }
+
+    @Override
+    public boolean isEmpty(SerializerProvider provider, Set<SourceFile> value) {
+        return value == null || !Hibernate.isInitialized(value);
+    }
+
+    @Override
+    public void serialize(Set<SourceFile> value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+        jgen.writeStartArray();
+        for (SourceFile file : value) {
+            provider.defaultSerializeValue(file, jgen);
+        }
+        jgen.writeEndArray();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.List;
+
+import io.dockstore.webservice.core.Entry;
+
+/**
+ * Receives the same publish, unpublish and refresh notifications that are sent to elastic search.
+ * Used to keep in-memory views of the published entries up to date.
+ * <p>
+ * Notifications arrive inside the transaction that made the change, while the entry can still be read. Views should read what they
+ * need from the entry then and make their change with {@link ElasticManager#afterCommit(Runnable)}, so that a change that is rolled
+ * back never shows.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public interface StateListenerInterface {
+
+    /**
+     * Called whenever an entry is modified, published or unpublished
+     *
+     * @param entry   the entry that changed
+     * @param command UPDATE if the entry changed, DELETE if the entry should no longer be visible
+     */
+    void handleIndexUpdate(Entry entry, ElasticMode command);
+
+    /**
+     * Called when a batch of entries is refreshed at once
+     *
+     * @param entries the entries that changed
+     */
+    void bulkUpsert(List<Entry> entries);
+}
@@ -0,0 +1,381 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.Label;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.jdbi.EntryDAO;
+import io.dockstore.webservice.jdbi.FetchPlan;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dockstore.webservice.jdbi.WorkflowDAO;
+import io.dropwizard.lifecycle.Managed;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Completions for what users start typing in the search box: tool paths, organizations, workflow paths and labels of the
+ * published entries. Everything is kept in memory, suggestions never touch the database.
+ * <p>
+ * The terms of every published entry are kept by entry, so that publishing and unpublishing only add or remove the terms of that
+ * entry. A term is weighted by the entries it belongs to and the stars of those entries. Lookups go through a snapshot: a sorted
+ * array of lower case keys, where each term is found under its whole text and under what follows each '/' in it, so that
+ * "test6" completes to quay.io/test_org/test6. A prefix is a binary search and a scan of the keys that start with it.
+ * The snapshot is only rebuilt on the first lookup after a change.
+ * <p>
+ * Notified changes are applied once their transaction commits, so the terms of a change that is rolled back are never suggested.
+ * The terms are loaded from the database in the background on start, and again at a fixed interval to pick up changes made outside
+ * of the webservice.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class SuggestIndex implements Managed, StateListenerInterface {
+
+    public static final String TOOL = "tool";
+    public static final String WORKFLOW = "workflow";
+    public static final String ORGANIZATION = "organization";
+    public static final String LABEL = "label";
+
+    private static final Logger LOG = LoggerFactory.getLogger(SuggestIndex.class);
+    private static final int CHUNK_SIZE = 1000;
+    private static final long RELOAD_INTERVAL_MINUTES = 60;
+
+    private final SessionFactory sessionFactory;
+    private final Map<String, EntryDAO<? extends Entry>> daos = new LinkedHashMap<>();
+    /**
+     * Terms by entry key, guarded by this
+     */
+    private Map<String, List<Suggestion>> termsByEntry = new HashMap<>();
+    /**
+     * Weight of every term, guarded by this
+     */
+    private Map<Suggestion, Long> weights = new HashMap<>();
+    /**
+     * Terms of the entries notified while a load runs, an empty list for an entry that is gone, null when no load runs.
+     * Guarded by this
+     */
+    private Map<String, List<Suggestion>> notifiedDuringLoad;
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap());
+    private volatile boolean changed;
+    private ScheduledExecutorService loader;
+
+    public SuggestIndex(SessionFactory sessionFactory, ToolDAO toolDAO, WorkflowDAO workflowDAO) {
+        this.sessionFactory = sessionFactory;
+        this.daos.put(TOOL, toolDAO);
+        this.daos.put(WORKFLOW, workflowDAO);
+    }
+
+    @Override
+    public void start() {
+        loader = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("suggest-index-%d").setDaemon(true).build());
+        loader.scheduleWithFixedDelay(() -> {
+            try {
+                load();
+            } catch (RuntimeException e) {
+                LOG.error("Could not load the suggestions", e);
+            }
+        }, 0, RELOAD_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (loader == null) {
+            return;
+        }
+        loader.shutdownNow();
+        loader.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Load the terms of every published entry, lookups keep seeing the previous terms until all of them are loaded
+     *
+     * @return the number of entries loaded
+     */
+    public long load() {
+        Map<String, List<Suggestion>> loaded = new HashMap<>();
+        synchronized (this) {
+            notifiedDuringLoad = new HashMap<>();
+        }
+        Session session = sessionFactory.openSession();
+        session.setDefaultReadOnly(true);
+        Session previous = ManagedSessionContext.bind(session);
+        Transaction transaction = session.beginTransaction();
+        try {
+            for (EntryDAO<? extends Entry> dao : daos.values()) {
+                for (List<Long> chunk : Lists.partition(dao.findAllPublishedIds(), CHUNK_SIZE)) {
+                    dao.findPublishedByIds(chunk, FetchPlan.SUMMARY).forEach(entry -> loaded.put(key(entry), terms(entry)));
+                    session.clear();
+                }
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                notifiedDuringLoad = null;
+            }
+            throw e;
+        } finally {
+            // nothing is written through this session
+            transaction.rollback();
+            ManagedSessionContext.unbind(sessionFactory);
+            if (previous != null) {
+                ManagedSessionContext.bind(previous);
+            }
+            session.close();
+        }
+        synchronized (this) {
+            // what was read may be older than the notifications
+            notifiedDuringLoad.forEach((key, terms) -> {
+                if (terms.isEmpty()) {
+                    loaded.remove(key);
+                } else {
+                    loaded.put(key, terms);
+                }
+            });
+            notifiedDuringLoad = null;
+            Map<Suggestion, Long> loadedWeights = new HashMap<>();
+            loaded.values().forEach(terms -> terms.forEach(term -> loadedWeights.merge(term, term.weight, Long::sum)));
+            termsByEntry = loaded;
+            weights = loadedWeights;
+            changed = true;
+        }
+        LOG.info("Loaded the suggestions of {} entries", loaded.size());
+        return loaded.size();
+    }
+
+    /**
+     * @param prefix the start of what is typed, case does not matter
+     * @param type   only suggest terms of this type, all types if null
+     * @param limit  the maximum number of suggestions
+     * @return the suggestions, heaviest first
+     */
+    public List<Suggestion> suggest(String prefix, String type, int limit) {
+        Snapshot current = snapshot;
+        if (changed) {
+            synchronized (this) {
+                if (changed) {
+                    changed = false;
+                    snapshot = new Snapshot(weights);
+                }
+                current = snapshot;
+            }
+        }
+        return current.suggest(prefix.toLowerCase(Locale.ROOT), type, limit);
+    }
+
+    @Override
+    public void handleIndexUpdate(Entry entry, ElasticMode command) {
+        String key = key(entry);
+        List<Suggestion> terms = Collections.emptyList();
+        if (command == ElasticMode.UPDATE && entry.getIsPublished()) {
+            try {
+                terms = terms(entry);
+            } catch (RuntimeException e) {
+                // e.g. labels that can no longer be loaded, the next load picks the entry up
+                LOG.warn("Could not read the suggestions of " + key, e);
+                return;
+            }
+        }
+        // read now, while the session of the entry is open
+        List<Suggestion> committed = terms;
+        ElasticManager.afterCommit(() -> apply(key, committed));
+    }
+
+    /**
+     * Replace the terms of an entry with those of a committed change
+     *
+     * @param key   the key of the entry
+     * @param terms its new terms, empty if it is gone
+     */
+    private synchronized void apply(String key, List<Suggestion> terms) {
+        if (notifiedDuringLoad != null) {
+            notifiedDuringLoad.put(key, terms);
+        }
+        List<Suggestion> old = termsByEntry.remove(key);
+        if (old != null) {
+            old.forEach(term -> weights.computeIfPresent(term, (t, weight) -> weight == term.weight ? null : weight - term.weight));
+        }
+        if (!terms.isEmpty()) {
+            termsByEntry.put(key, terms);
+            terms.forEach(term -> weights.merge(term, term.weight, Long::sum));
+        }
+        changed = true;
+    }
+
+    @Override
+    public void bulkUpsert(List<Entry> updated) {
+        updated.forEach(entry -> handleIndexUpdate(entry, ElasticMode.UPDATE));
+    }
+
+    private static String key(Entry entry) {
+        return (entry instanceof Workflow ? WORKFLOW : TOOL) + '/' + entry.getId();
+    }
+
+    /**
+     * @return the terms of a published entry, each weighted by the entry
+     */
+    private static List<Suggestion> terms(Entry entry) {
+        long weight = 1L + entry.getStarredUsers().size();
+        List<Suggestion> terms = new ArrayList<>();
+        if (entry instanceof Workflow) {
+            Workflow workflow = (Workflow)entry;
+            addTerm(terms, WORKFLOW, workflow.getPath(), weight);
+            addTerm(terms, ORGANIZATION, workflow.getOrganization(), weight);
+        } else {
+            Tool tool = (Tool)entry;
+            addTerm(terms, TOOL, tool.getToolPath(), weight);
+            addTerm(terms, ORGANIZATION, tool.getNamespace(), weight);
+        }
+        for (Object label : entry.getLabels()) {
+            addTerm(terms, LABEL, ((Label)label).getValue(), weight);
+        }
+        return terms;
+    }
+
+    private static void addTerm(List<Suggestion> terms, String type, String text, long weight) {
+        if (text != null && !text.isEmpty()) {
+            Suggestion term = new Suggestion(type, ORGANIZATION.equals(type) ? text.toLowerCase(Locale.ROOT) : text, weight);
+            if (!terms.contains(term)) {
+                terms.add(term);
+            }
+        }
+    }
+
+    /**
+     * A term that can be suggested. Equal terms of different entries are one suggestion, the weight is not part of equality.
+     */
+    public static final class Suggestion {
+        private final String type;
+        private final String text;
+        private final long weight;
+
+        Suggestion(String type, String text, long weight) {
+            this.type = type;
+            this.text = text;
+            this.weight = weight;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Suggestion)) {
+                return false;
+            }
+            Suggestion that = (Suggestion)o;
+            return type.equals(that.type) && text.equals(that.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, text);
+        }
+    }
+
+    /**
+     * The sorted keys of a set of terms, never changed once built
+     */
+    private static final class Snapshot {
+        private final String[] keys;
+        private final int[] termOfKey;
+        private final Suggestion[] terms;
+
+        Snapshot(Map<Suggestion, Long> weights) {
+            terms = new Suggestion[weights.size()];
+            List<Map.Entry<String, Integer>> entries = new ArrayList<>();
+            int i = 0;
+            for (Map.Entry<Suggestion, Long> weight : weights.entrySet()) {
+                Suggestion term = weight.getKey();
+                terms[i] = new Suggestion(term.type, term.text, weight.getValue());
+                String lower = term.text.toLowerCase(Locale.ROOT);
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(lower, i));
+                for (int slash = lower.indexOf('/'); slash >= 0 && slash < lower.length() - 1; slash = lower.indexOf('/', slash + 1)) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(lower.substring(slash + 1), i));
+                }
+                i++;
+            }
+            entries.sort(Map.Entry.comparingByKey());
+            keys = new String[entries.size()];
+            termOfKey = new int[entries.size()];
+            for (int k = 0; k < keys.length; k++) {
+                keys[k] = entries.get(k).getKey();
+                termOfKey[k] = entries.get(k).getValue();
+            }
+        }
+
+        List<Suggestion> suggest(String prefix, String type, int limit) {
+            if (limit <= 0) {
+                return Collections.emptyList();
+            }
+            int first = Arrays.binarySearch(keys, prefix);
+            if (first < 0) {
+                first = -first - 1;
+            }
+            Comparator<Suggestion> order = Comparator.comparingLong(Suggestion::getWeight).thenComparing(Suggestion::getText,
+                    Comparator.reverseOrder());
+            // the lightest of the best so far is on top, a term can be reached through several of its keys
+            PriorityQueue<Suggestion> best = new PriorityQueue<>(limit + 1, order);
+            for (int k = first; k < keys.length && keys[k].startsWith(prefix); k++) {
+                Suggestion term = terms[termOfKey[k]];
+                if ((type == null || type.equals(term.type)) && !best.contains(term)) {
+                    best.add(term);
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                }
+            }
+            List<Suggestion> suggestions = new ArrayList<>(best);
+            suggestions.sort(order.reversed());
+            return suggestions;
+        }
+    }
+}
@@ -16,35 +16,74 @@
 
 package io.dockstore.webservice.jdbi;
 
-import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import com.google.common.reflect.TypeToken;
 import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.Version;
 import io.dropwizard.hibernate.AbstractDAO;
+import org.hibernate.Hibernate;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.jpa.QueryHints;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.query.Query;
 
 /**
  * @author dyuen
  */
-public class EntryDAO<T extends Entry> extends AbstractDAO<T> {
+public abstract class EntryDAO<T extends Entry> extends AbstractDAO<T> {
 
     protected static final String SCHEMA = "http://schema.org/";
+    /**
+     * Indexed text is split into words on anything that is not a letter or a digit, so that paths are searchable by their parts
+     */
+    protected static final String TEXT_SEPARATORS = "'[^[:alnum:]]+'";
+
+    /**
+     * The text search vector of a label, as indexed by migrations.xml
+     */
+    private static final String LABEL_SEARCH_VECTOR = "to_tsvector('simple', regexp_replace(coalesce(l.value, ''), "
+            + TEXT_SEPARATORS + ", ' ', 'g'))";
+    /**
+     * What a matching label adds to the rank of an entry, the weight ts_rank gives to B by default
+     */
+    private static final String LABEL_RANK = "0.4";
 
     private Class<T> typeOfT;
 
     public EntryDAO(SessionFactory factory) {
         super(factory);
-        /**
-         * ewwww, don't try this at home from https://stackoverflow.com/questions/4837190/java-generics-get-class
-         */
-        this.typeOfT = (Class<T>)((ParameterizedType)getClass().getGenericSuperclass()).getActualTypeArguments()[0];
+        // resolved against the runtime class, so that subclasses of the DAOs of each entry type work too
+        this.typeOfT = (Class<T>)new TypeToken<T>(getClass()) { }.getRawType();
     }
 
     public T findById(Long id) {
         return get(id);
     }
 
+    public T findById(Long id, FetchPlan plan) {
+        return fetch(get(id), plan);
+    }
+
     public long create(T entry) {
         return persist(entry).getId();
     }
@@ -58,6 +97,10 @@ public class EntryDAO<T extends Entry> extends AbstractDAO<T> {
     public void evict(T entry) {
         Session session = currentSession();
         session.evict(entry);
+        // versions are not cascaded, detach them too so that their files are not lazily loaded when the entry is serialized
+        if (Hibernate.isInitialized(entry.getVersions())) {
+            entry.getVersions().forEach(session::evict);
+        }
     }
 
     public T findPublishedById(long id) {
@@ -65,6 +108,27 @@ public class EntryDAO<T extends Entry> extends AbstractDAO<T> {
                 namedQuery("io.dockstore.webservice.core." + typeOfT.getSimpleName() + ".findPublishedById").setParameter("id", id));
     }
 
+    public T findPublishedById(long id, FetchPlan plan) {
+        List<T> entries = list(namedQuery("io.dockstore.webservice.core." + typeOfT.getSimpleName() + ".findPublishedById").setParameter("id", id),
+                plan);
+        return fetch(entries.isEmpty() ? null : entries.get(0), plan);
+    }
+
+    /**
+     * A cheap validator for conditional reads of a published entry
+     *
+     * @param id the id of the entry
+     * @return when the entry last changed, null if it is not published
+     */
+    public Date findPublishedUpdateDate(long id) {
+        CriteriaBuilder cb = currentSession().getCriteriaBuilder();
+        CriteriaQuery<Date> query = cb.createQuery(Date.class);
+        Root<T> root = query.from(typeOfT);
+        query.select(root.get("dbUpdateDate")).where(cb.equal(root.get("id"), id), cb.isTrue(root.get("isPublished")));
+        List<Date> dates = currentSession().createQuery(query).getResultList();
+        return dates.isEmpty() ? null : dates.get(0);
+    }
+
     public List<T> findAll() {
         return list(namedQuery("io.dockstore.webservice.core." + typeOfT.getSimpleName() + ".findAll"));
     }
@@ -73,9 +137,367 @@ public class EntryDAO<T extends Entry> extends AbstractDAO<T> {
         return list(namedQuery("io.dockstore.webservice.core." + typeOfT.getSimpleName() + ".findAllPublished"));
     }
 
+    public List<T> findAllPublished(FetchPlan plan) {
+        return list(namedQuery("io.dockstore.webservice.core." + typeOfT.getSimpleName() + ".findAllPublished"), plan);
+    }
+
+    /**
+     * @return how many entries are published and when the last of them changed in the database, changes to either mean that
+     * published entries changed (possibly without the webservice knowing about it)
+     */
+    public List<Object> findPublishedStamp() {
+        CriteriaBuilder cb = currentSession().getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<T> root = query.from(typeOfT);
+        query.multiselect(cb.count(root), cb.greatest(root.<Date>get("dbUpdateDate"))).where(cb.isTrue(root.get("isPublished")));
+        Tuple stamp = currentSession().createQuery(query).getSingleResult();
+        return Arrays.asList(stamp.get(0), stamp.get(1));
+    }
+
+    /**
+     * @return the ids of all published entries, in the order of {@link #findAllPublished()}
+     */
+    public List<Long> findAllPublishedIds() {
+        CriteriaBuilder cb = currentSession().getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<T> root = query.from(typeOfT);
+        query.select(root.get("id")).where(cb.isTrue(root.get("isPublished")));
+        query.orderBy(cb.desc(cb.size(root.get("starredUsers"))), cb.asc(root.get("id")));
+        return currentSession().createQuery(query).getResultList();
+    }
+
+    /**
+     * Find the entries that changed in the database since a point in time, published or not, ordered by when they changed and id
+     *
+     * @param since the update date to start from (included)
+     * @param after the last change already seen, null to start at the beginning
+     * @param limit the maximum number of changes to return
+     * @return the changes
+     */
+    public List<EntryChange> findChangedSince(Date since, EntryChange after, int limit) {
+        CriteriaBuilder cb = currentSession().getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<T> root = query.from(typeOfT);
+        Path<Date> updated = root.get("dbUpdateDate");
+        Path<Long> id = root.get("id");
+        Predicate position;
+        if (after == null) {
+            position = cb.greaterThanOrEqualTo(updated, since);
+        } else {
+            position = cb.or(cb.greaterThan(updated, after.getUpdated()),
+                    cb.and(cb.equal(updated, after.getUpdated()), cb.greaterThan(id, after.getId())));
+        }
+        query.multiselect(id, root.get("isPublished"), updated).where(position).orderBy(cb.asc(updated), cb.asc(id));
+        return currentSession().createQuery(query).setMaxResults(limit).getResultList().stream()
+                .map(tuple -> new EntryChange(tuple.get(0, Long.class), tuple.get(1, Boolean.class), tuple.get(2, Date.class)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Load a batch of published entries, typically a slice of the ids of a listing that is streamed
+     *
+     * @param ids  the ids of the entries
+     * @param plan the associations to load
+     * @return the published entries in the order of the ids
+     */
+    public List<T> findPublishedByIds(List<Long> ids, FetchPlan plan) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        CriteriaBuilder cb = currentSession().getCriteriaBuilder();
+        CriteriaQuery<T> query = cb.createQuery(typeOfT);
+        Root<T> root = query.from(typeOfT);
+        query.select(root).where(root.get("id").in(ids), cb.isTrue(root.get("isPublished")));
+        Map<Long, T> entries = list(currentSession().createQuery(query), plan).stream()
+                .collect(Collectors.toMap(Entry::getId, Function.identity()));
+        return ids.stream().map(entries::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /**
+     * Run a query loading the associations named by a fetch plan in the same round trip.
+     * Fetching collections repeats the entry on each row, so the result is de-duplicated while keeping its order.
+     *
+     * @param query the query selecting entries
+     * @param plan  the associations to load
+     * @return the distinct entries in query order
+     */
+    protected List<T> list(Query<T> query, FetchPlan plan) {
+        query.setHint(FetchPlan.LOAD_GRAPH_HINT, currentSession().getEntityGraph(plan.getGraphName(typeOfT)));
+        List<T> entries = new ArrayList<>(new LinkedHashSet<>(list(query)));
+        if (plan != FetchPlan.SUMMARY) {
+            entries.forEach(EntryDAO::initializeShown);
+        }
+        return entries;
+    }
+
+    /**
+     * Load the labels and stars that are shown with an entry, so that they are not left out or loaded one entry at a time while
+     * the entry is serialized. Both are batch fetched, loading them for one entry loads them for the entries after it.
+     */
+    private static void initializeShown(Entry<?, ?> entry) {
+        Hibernate.initialize(entry.getLabels());
+        Hibernate.initialize(entry.getStarredUsers());
+    }
+
+    /**
+     * Make sure that the associations named by a fetch plan are loaded for an entry that may already have been in the session
+     * (in which case the entity graph of the query that found it does not apply).
+     * Associations outside of the plan are left as they are.
+     *
+     * @param entry the entry, may be null
+     * @param plan  the associations to load
+     * @return the entry
+     */
+    public T fetch(T entry, FetchPlan plan) {
+        if (entry == null || plan == FetchPlan.SUMMARY) {
+            return entry;
+        }
+        Hibernate.initialize(entry.getVersions());
+        initializeShown(entry);
+        if (plan == FetchPlan.WITH_FILES) {
+            for (Object version : entry.getVersions()) {
+                Hibernate.initialize(((Version)version).getSourceFiles());
+            }
+        }
+        return entry;
+    }
+
     public List<T> searchPattern(String pattern) {
-        pattern = '%' + pattern + '%';
-        return list(
-                namedQuery("io.dockstore.webservice.core." + typeOfT.getSimpleName() + ".searchPattern").setParameter("pattern", pattern));
+        return searchPattern(pattern, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Find a page of published entries for a search box, ranked by postgres full text search.
+     * Every word must be the start of a word of the entry (its paths, author or description) or of one of its labels, matches in
+     * paths rank above matches in the author or labels, which rank above matches in the description.
+     * The words are matched against the same expressions as the search indexes of migrations.xml, so that the indexes are used.
+     *
+     * @param pattern what the user typed, entries are listed by id if it has no words
+     * @param offset  the number of entries to skip
+     * @param limit   the maximum number of entries to return
+     * @return the matching entries, best first
+     */
+    public List<T> searchPattern(String pattern, int offset, int limit) {
+        String table = typeOfT.getSimpleName().toLowerCase();
+        String query = toPrefixQuery(pattern);
+        NativeQuery<?> search;
+        if (query == null) {
+            search = currentSession()
+                    .createNativeQuery("SELECT id FROM " + table + " WHERE ispublished ORDER BY id LIMIT :limit OFFSET :offset");
+        } else {
+            String vector = searchVector();
+            // an entry is found through its own text and through each of its labels, the ranks of both add up
+            search = currentSession().createNativeQuery("SELECT m.id FROM ("
+                    + "SELECT id, ts_rank(" + vector + ", to_tsquery('simple', :query)) AS rank FROM " + table
+                    + " WHERE ispublished AND " + vector + " @@ to_tsquery('simple', :query)"
+                    + " UNION ALL SELECT el.entryid, " + LABEL_RANK + " FROM entry_label el JOIN label l ON l.id = el.labelid"
+                    + " WHERE " + LABEL_SEARCH_VECTOR + " @@ to_tsquery('simple', :query)"
+                    + ") m JOIN " + table + " e ON e.id = m.id WHERE e.ispublished"
+                    + " GROUP BY m.id ORDER BY sum(m.rank) DESC, m.id LIMIT :limit OFFSET :offset").setParameter("query", query);
+        }
+        List<Long> ids = search.setParameter("limit", limit).setParameter("offset", offset).list().stream()
+                .map(id -> ((Number)id).longValue()).collect(Collectors.toList());
+        // the same plan as the embedded search index results, so a search shows the same whichever answers it
+        return findPublishedByIds(ids, FetchPlan.WITH_VERSIONS);
+    }
+
+    /**
+     * @return the sql expression of the weighted text search vector of an entry, as indexed by migrations.xml
+     */
+    protected abstract String searchVector();
+
+    /**
+     * @param weight  the weight of the text, A (highest) to D
+     * @param columns the columns holding the text
+     * @return the sql expression of the text search vector of the columns
+     */
+    protected static String weightedVector(char weight, String... columns) {
+        String text = Arrays.stream(columns).map(column -> "coalesce(" + column + ", '')").collect(Collectors.joining(" || ' ' || "));
+        return "setweight(to_tsvector('simple', regexp_replace(" + text + ", " + TEXT_SEPARATORS + ", ' ', 'g')), '" + weight + "')";
+    }
+
+    /**
+     * Turn what the user typed into a text search query where every word must match the start of a word.
+     * Words are split on anything that is not a letter or a digit, like the indexed text, so that the query needs no escaping.
+     *
+     * @param pattern what the user typed
+     * @return the query, null if there are no words
+     */
+    static String toPrefixQuery(String pattern) {
+        if (pattern == null) {
+            return null;
+        }
+        String query = Arrays.stream(pattern.toLowerCase().split("(?U)[^\\p{Alnum}]+")).filter(word -> !word.isEmpty())
+                .map(word -> word + ":*").collect(Collectors.joining(" & "));
+        return query.isEmpty() ? null : query;
+    }
+
+    /**
+     * Find a page of published entries in the order of {@link Keyset#ORDER}, starting after a keyset position.
+     * Only the keys are loaded so that a page costs as many rows as its size.
+     *
+     * @param filter  filters to apply to the published entries
+     * @param after   the position of the last entry already seen, null to start from the beginning (or end)
+     * @param limit   the maximum number of keys to return
+     * @param reverse walk backwards from the end of the list
+     * @return the keys of the page in walking order
+     */
+    public List<Keyset> findPublishedKeys(PublishedEntryFilter filter, Keyset after, int limit, boolean reverse) {
+        CriteriaBuilder cb = currentSession().getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<T> root = query.from(typeOfT);
+        Path<String> gitUrl = root.get("gitUrl");
+        Path<Long> id = root.get("id");
+        Expression<String> sortKey = utf8Bytes(cb, gitUrl);
+        List<Predicate> predicates = publishedPredicates(cb, root, filter);
+        ParameterExpression<String> afterUrl = cb.parameter(String.class);
+        if (after != null) {
+            Expression<String> afterKey = utf8Bytes(cb, afterUrl);
+            // the bound on the sort key alone lets the published keys index start the scan at the position
+            if (reverse) {
+                predicates.add(cb.lessThanOrEqualTo(sortKey, afterKey));
+                predicates.add(cb.or(cb.lessThan(sortKey, afterKey), cb.and(cb.equal(gitUrl, afterUrl), cb.lessThan(id, after.getId()))));
+            } else {
+                predicates.add(cb.greaterThanOrEqualTo(sortKey, afterKey));
+                predicates.add(cb.or(cb.greaterThan(sortKey, afterKey),
+                        cb.and(cb.equal(gitUrl, afterUrl), cb.greaterThan(id, after.getId()))));
+            }
+        }
+        query.multiselect(id, gitUrl).where(predicates.toArray(new Predicate[predicates.size()]));
+        query.orderBy(reverse ? cb.desc(sortKey) : cb.asc(sortKey), reverse ? cb.desc(id) : cb.asc(id));
+        Query<Tuple> keys = currentSession().createQuery(query).setMaxResults(limit).setHint(QueryHints.HINT_CACHEABLE, true);
+        if (after != null) {
+            keys.setParameter(afterUrl, after.getGitUrl());
+        }
+        return keys.getResultList().stream().map(tuple -> new Keyset(tuple.get(1, String.class), tuple.get(0, Long.class)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Count the published entries that {@link #findPublishedKeys} pages through
+     *
+     * @param filter filters to apply to the published entries
+     * @return the number of matching entries
+     */
+    public long countPublishedKeys(PublishedEntryFilter filter) {
+        CriteriaBuilder cb = currentSession().getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<T> root = query.from(typeOfT);
+        List<Predicate> predicates = publishedPredicates(cb, root, filter);
+        query.select(cb.count(root)).where(predicates.toArray(new Predicate[predicates.size()]));
+        return currentSession().createQuery(query).setHint(QueryHints.HINT_CACHEABLE, true).getSingleResult();
+    }
+
+    /**
+     * Text sorts by the collation of the database, which Java cannot reproduce. Its UTF-8 bytes sort the same way everywhere,
+     * which is by code point like {@link Keyset#ORDER}. The database function wraps convert_to so that the published keys
+     * indexes of migrations.xml can be built on it, it takes no other argument so that the expression matches them.
+     *
+     * @return the text as UTF-8 bytes, typed as text so that it can be compared
+     */
+    private static Expression<String> utf8Bytes(CriteriaBuilder cb, Expression<String> text) {
+        return cb.function("utf8_sort_key", String.class, text);
+    }
+
+    /**
+     * Build the predicates for a filtered listing of published entries, subclasses add the filters specific to their type
+     */
+    protected List<Predicate> publishedPredicates(CriteriaBuilder cb, Root<T> root, PublishedEntryFilter filter) {
+        List<Predicate> predicates = new ArrayList<>();
+        predicates.add(cb.isTrue(root.get("isPublished")));
+        predicates.add(cb.isNotNull(root.get("gitUrl")));
+        addContainsPredicate(cb, root.get("description"), filter.getDescription(), predicates);
+        addContainsPredicate(cb, root.get("author"), filter.getAuthor(), predicates);
+        return predicates;
+    }
+
+    /**
+     * Matches rows where the field is null or contains the value, the value is matched literally
+     */
+    protected static void addContainsPredicate(CriteriaBuilder cb, Expression<String> field, String value, List<Predicate> predicates) {
+        if (value == null) {
+            return;
+        }
+        String escaped = value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        predicates.add(cb.or(cb.isNull(field), cb.like(field, '%' + escaped + '%', '\\')));
+    }
+
+    /**
+     * @param rows rows of git url and id
+     * @return the rows as keys
+     */
+    protected static List<Keyset> toKeysets(List<Object[]> rows) {
+        return rows.stream().map(row -> new Keyset((String)row[0], (Long)row[1])).collect(Collectors.toList());
+    }
+
+    /**
+     * A position in the listing of published entries
+     */
+    public static final class Keyset {
+        /**
+         * The order of {@link #findPublishedKeys}, git urls by code point and then ids
+         */
+        public static final Comparator<Keyset> ORDER = ((Comparator<Keyset>)(a, b) -> compareCodePoints(a.gitUrl, b.gitUrl))
+                .thenComparingLong(Keyset::getId);
+        private final String gitUrl;
+        private final long id;
+
+        public Keyset(String gitUrl, long id) {
+            this.gitUrl = gitUrl;
+            this.id = id;
+        }
+
+        public String getGitUrl() {
+            return gitUrl;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Unlike {@link String#compareTo}, which compares UTF-16 units, this orders characters outside the basic plane last
+         */
+        static int compareCodePoints(String a, String b) {
+            int i = 0;
+            int j = 0;
+            while (i < a.length() && j < b.length()) {
+                int x = a.codePointAt(i);
+                int y = b.codePointAt(j);
+                if (x != y) {
+                    return Integer.compare(x, y);
+                }
+                i += Character.charCount(x);
+                j += Character.charCount(y);
+            }
+            return Integer.compare(a.length() - i, b.length() - j);
+        }
+    }
+
+    /**
+     * An entry that changed in the database
+     */
+    public static final class EntryChange {
+        private final long id;
+        private final boolean published;
+        private final Date updated;
+
+        EntryChange(long id, boolean published, Date updated) {
+            this.id = id;
+            this.published = published;
+            this.updated = updated;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public boolean isPublished() {
+            return published;
+        }
+
+        public Date getUpdated() {
+            return updated;
+        }
     }
 }
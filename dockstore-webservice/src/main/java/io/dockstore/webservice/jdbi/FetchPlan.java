@@ -0,0 +1,56 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.jdbi;
+
+import io.dockstore.webservice.core.Entry;
+
+/**
+ * How much of an entry an endpoint needs, each plan maps to a named entity graph declared on Tool and Workflow.
+ * Collections outside of the plan stay lazy.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public enum FetchPlan {
+    /**
+     * Only the entry itself, labels and stars are batch loaded if they are used
+     */
+    SUMMARY("summary"),
+    /**
+     * The entry, its labels and stars and its versions, but not the files of each version. Used for listings, which leave the files
+     * out.
+     */
+    WITH_VERSIONS("with-versions"),
+    /**
+     * The entry, its labels and stars, its versions and their files
+     */
+    WITH_FILES("with-files");
+
+    /**
+     * Loads the attributes of the graph eagerly and leaves the rest of the entity to its mapping
+     */
+    public static final String LOAD_GRAPH_HINT = "javax.persistence.loadgraph";
+
+    private final String graph;
+
+    FetchPlan(String graph) {
+        this.graph = graph;
+    }
+
+    public String getGraphName(Class<? extends Entry> entryClass) {
+        return entryClass.getSimpleName() + "." + graph;
+    }
+}
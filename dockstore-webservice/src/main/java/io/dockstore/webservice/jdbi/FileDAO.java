@@ -16,9 +16,15 @@
 
 package io.dockstore.webservice.jdbi;
 
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import io.dockstore.webservice.core.FileContent;
 import io.dockstore.webservice.core.SourceFile;
 import io.dropwizard.hibernate.AbstractDAO;
 import org.hibernate.SessionFactory;
+import org.hibernate.query.Query;
 
 /**
  * @author xliu
@@ -35,4 +41,240 @@ public class FileDAO extends AbstractDAO<SourceFile> {
     public long create(SourceFile file) {
         return persist(file).getId();
     }
+
+    /**
+     * Delete content that no source file refers to anymore and that was not written for a file during a grace period. The cached
+     * content and the queries cached on it are evicted once the transaction completes.
+     * The age is checked on the deleted row itself too, so that a row written while the delete waits on its lock is kept.
+     *
+     * @param limit        the most rows to delete
+     * @param graceSeconds how long ago, by the clock of the database, a row was last written for it to be deleted
+     * @return the number of rows deleted
+     */
+    public int deleteUnreferencedContent(int limit, long graceSeconds) {
+        return currentSession().createNativeQuery("DELETE FROM filecontent WHERE dbupdatedate < now() - :grace * interval '1 second' "
+                + "AND digest IN (SELECT fc.digest FROM filecontent fc WHERE fc.dbupdatedate < now() - :grace * interval '1 second' "
+                + "AND NOT EXISTS (SELECT 1 FROM sourcefile sf WHERE sf.contentdigest = fc.digest) LIMIT :limit)")
+                .setParameter("grace", graceSeconds).setParameter("limit", limit).addSynchronizedEntityClass(FileContent.class)
+                .executeUpdate();
+    }
+
+    /**
+     * Find the files of one version of a published tool or workflow without loading the entry or its other versions
+     *
+     * @param tool     true for a tool, false for a workflow
+     * @param path     the path of the tool (without toolname) or the full path of the workflow
+     * @param name     the toolname or workflow name, empty if there is none
+     * @param version  the name of the version, matched case-insensitively
+     * @param type     the type of file
+     * @param filePath the path of the file, matched case-insensitively and with or without a leading slash, or null
+     * @param primary  only return the primary descriptor (or Dockerfile) of the version
+     * @return the matching files ordered by path
+     */
+    public List<VersionFile> findPublishedVersionFiles(boolean tool, String path, String name, String version, SourceFile.FileType type,
+            String filePath, boolean primary) {
+        Query<Object[]> query = versionFilesQuery("sf", " LEFT JOIN FETCH sf.fileContent", tool, path, name, version, type, filePath,
+                primary);
+        return query.getResultList().stream()
+                .map(row -> new VersionFile((SourceFile)row[0], (String)row[1], (String)row[2], (String)row[3]))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Find what the files returned by {@link #findPublishedVersionFiles} depend on, without loading their content.
+     * Used to answer conditional requests for files.
+     *
+     * @return the digests and locations of the matching files ordered by path
+     */
+    public List<FileStamp> findPublishedVersionFileStamps(boolean tool, String path, String name, String version, SourceFile.FileType type,
+            String filePath, boolean primary) {
+        Query<Object[]> query = versionFilesQuery("sf.contentDigest, sf.path, e.dbUpdateDate", "", tool, path, name, version, type,
+                filePath, primary);
+        return query.getResultList().stream()
+                .map(row -> new FileStamp((String)row[0], (String)row[1], (Date)row[2], (String)row[3], (String)row[4], (String)row[5]))
+                .collect(Collectors.toList());
+    }
+
+    private Query<Object[]> versionFilesQuery(String file, String fetch, boolean tool, String path, String name, String version,
+            SourceFile.FileType type, String filePath, boolean primary) {
+        String primaryPath = "v." + primaryPathField(tool, type);
+        StringBuilder hql = new StringBuilder("SELECT ").append(file).append(", e.gitUrl, v.reference, ").append(primaryPath).append(' ');
+        appendVersion(hql, tool, name);
+        hql.append(" JOIN v.sourceFiles sf").append(fetch).append(" WHERE ").append(versionConditions(tool, name));
+        if (type != null) {
+            hql.append(" AND sf.type = :type");
+        }
+        if (filePath != null) {
+            // relative paths in urls come without the leading slash that primary files are stored with
+            hql.append(" AND (lower(sf.path) = lower(:filePath) OR lower(sf.path) = lower(:otherFilePath))");
+        }
+        if (primary) {
+            hql.append(" AND lower(sf.path) = lower(").append(primaryPath).append(')');
+        }
+        hql.append(" ORDER BY sf.path");
+        Query<Object[]> query = currentSession().createQuery(hql.toString(), Object[].class);
+        setVersionParameters(query, tool, path, name, version);
+        if (type != null) {
+            query.setParameter("type", type);
+        }
+        if (filePath != null) {
+            query.setParameter("filePath", filePath)
+                    .setParameter("otherFilePath", filePath.startsWith("/") ? filePath.substring(1) : "/" + filePath);
+        }
+        return query;
+    }
+
+    /**
+     * @return true if the version exists and is visible on a published tool or workflow
+     */
+    public boolean publishedVersionExists(boolean tool, String path, String name, String version) {
+        StringBuilder hql = new StringBuilder("SELECT count(v) ");
+        appendVersion(hql, tool, name);
+        hql.append(" WHERE ").append(versionConditions(tool, name));
+        Query<Long> query = currentSession().createQuery(hql.toString(), Long.class);
+        setVersionParameters(query, tool, path, name, version);
+        return query.getSingleResult() > 0;
+    }
+
+    /**
+     * Files of entries that exist but are not published are refused rather than not found
+     *
+     * @return true if the tool or workflow exists and is not published
+     */
+    public boolean unpublishedEntryExists(boolean tool, String path, String name) {
+        String hql = "SELECT count(e) FROM " + (tool ? "Tool" : "Workflow") + " e WHERE e.path = :path AND e.isPublished = false"
+                + nameCondition(tool, name);
+        Query<Long> query = currentSession().createQuery(hql, Long.class).setParameter("path", path);
+        if (!name.isEmpty()) {
+            query.setParameter("name", name);
+        }
+        return query.getSingleResult() > 0;
+    }
+
+    private static void appendVersion(StringBuilder hql, boolean tool, String name) {
+        hql.append(tool ? "FROM Tool e JOIN e.tags v" : "FROM Workflow e JOIN e.workflowVersions v");
+    }
+
+    private static String versionConditions(boolean tool, String name) {
+        String conditions = "e.path = :path AND e.isPublished = true AND v.hidden = false AND lower(v.name) = lower(:version)";
+        // tags without images are not shown through GA4GH
+        return conditions + nameCondition(tool, name) + (tool ? " AND v.imageId IS NOT NULL" : "");
+    }
+
+    /**
+     * Tools without a toolname store an empty one and workflows without a name store null, older rows may have either
+     */
+    private static String nameCondition(boolean tool, String name) {
+        String field = tool ? "e.toolname" : "e.workflowName";
+        return name.isEmpty() ? " AND (" + field + " IS NULL OR " + field + " = '')" : " AND " + field + " = :name";
+    }
+
+    private static void setVersionParameters(Query<?> query, boolean tool, String path, String name, String version) {
+        query.setParameter("path", path).setParameter("version", version);
+        if (!name.isEmpty()) {
+            query.setParameter("name", name);
+        }
+    }
+
+    /**
+     * Tools keep a separate path for each kind of primary file, workflows have only one
+     */
+    private static String primaryPathField(boolean tool, SourceFile.FileType type) {
+        if (!tool) {
+            return "workflowPath";
+        }
+        switch (type == null ? SourceFile.FileType.DOCKSTORE_CWL : type) {
+        case DOCKERFILE:
+            return "dockerfilePath";
+        case DOCKSTORE_WDL:
+        case WDL_TEST_JSON:
+            return "wdlPath";
+        default:
+            return "cwlPath";
+        }
+    }
+
+    /**
+     * What a file in a response depends on, its content is identified by its digest
+     */
+    public static final class FileStamp {
+        private final String contentDigest;
+        private final String path;
+        private final Date updated;
+        private final String gitUrl;
+        private final String reference;
+        private final String primaryPath;
+
+        FileStamp(String contentDigest, String path, Date updated, String gitUrl, String reference, String primaryPath) {
+            this.contentDigest = contentDigest;
+            this.path = path;
+            this.updated = updated;
+            this.gitUrl = gitUrl;
+            this.reference = reference;
+            this.primaryPath = primaryPath;
+        }
+
+        public String getContentDigest() {
+            return contentDigest;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return when the entry of the file last changed
+         */
+        public Date getUpdated() {
+            return updated;
+        }
+
+        public String getGitUrl() {
+            return gitUrl;
+        }
+
+        public String getReference() {
+            return reference;
+        }
+
+        public String getPrimaryPath() {
+            return primaryPath;
+        }
+    }
+
+    /**
+     * A file along with what is needed to build its remote url
+     */
+    public static final class VersionFile {
+        private final SourceFile sourceFile;
+        private final String gitUrl;
+        private final String reference;
+        private final String primaryPath;
+
+        VersionFile(SourceFile sourceFile, String gitUrl, String reference, String primaryPath) {
+            this.sourceFile = sourceFile;
+            this.gitUrl = gitUrl;
+            this.reference = reference;
+            this.primaryPath = primaryPath;
+        }
+
+        public SourceFile getSourceFile() {
+            return sourceFile;
+        }
+
+        public String getGitUrl() {
+            return gitUrl;
+        }
+
+        public String getReference() {
+            return reference;
+        }
+
+        /**
+         * @return the path of the primary descriptor (or Dockerfile) of the version
+         */
+        public String getPrimaryPath() {
+            return primaryPath;
+        }
+    }
 }
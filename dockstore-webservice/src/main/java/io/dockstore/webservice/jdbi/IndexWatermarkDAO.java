@@ -0,0 +1,54 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.jdbi;
+
+import java.util.Date;
+
+import io.dockstore.webservice.core.IndexWatermark;
+import io.dropwizard.hibernate.AbstractDAO;
+import org.hibernate.SessionFactory;
+
+/**
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class IndexWatermarkDAO extends AbstractDAO<IndexWatermark> {
+    public IndexWatermarkDAO(SessionFactory sessionFactory) {
+        super(sessionFactory);
+    }
+
+    /**
+     * @param name the name of the index
+     * @return the watermark of the index, null if it has none yet
+     */
+    public Date findWatermark(String name) {
+        IndexWatermark watermark = get(name);
+        return watermark == null ? null : watermark.getWatermark();
+    }
+
+    /**
+     * @param name      the name of the index
+     * @param watermark the new watermark of the index
+     */
+    public void saveWatermark(String name, Date watermark) {
+        IndexWatermark existing = get(name);
+        if (existing == null) {
+            persist(new IndexWatermark(name, watermark));
+        } else {
+            existing.setWatermark(watermark);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.jdbi;
+
+/**
+ * The filters accepted when listing published entries through the GA4GH tools endpoint.
+ * A null filter matches everything. Filters match entries whose field contains the filter value, entries without the field are not
+ * filtered out.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class PublishedEntryFilter {
+    private String registryId;
+    private String registry;
+    private String organization;
+    private String name;
+    private String toolname;
+    private String description;
+    private String author;
+
+    public String getRegistryId() {
+        return registryId;
+    }
+
+    public PublishedEntryFilter setRegistryId(String registryId) {
+        this.registryId = registryId;
+        return this;
+    }
+
+    public String getRegistry() {
+        return registry;
+    }
+
+    public PublishedEntryFilter setRegistry(String registry) {
+        this.registry = registry;
+        return this;
+    }
+
+    public String getOrganization() {
+        return organization;
+    }
+
+    public PublishedEntryFilter setOrganization(String organization) {
+        this.organization = organization;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public PublishedEntryFilter setName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public String getToolname() {
+        return toolname;
+    }
+
+    public PublishedEntryFilter setToolname(String toolname) {
+        this.toolname = toolname;
+        return this;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public PublishedEntryFilter setDescription(String description) {
+        this.description = description;
+        return this;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public PublishedEntryFilter setAuthor(String author) {
+        this.author = author;
+        return this;
+    }
+
+    /**
+     * Workflows have no registry, organization, image name or toolname so any of these filters excludes all workflows
+     *
+     * @return true if a filter that only applies to tools is set
+     */
+    public boolean hasToolOnlyFilter() {
+        return registryId != null || registry != null || organization != null || name != null || toolname != null;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.jdbi;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import io.dockstore.webservice.core.RefreshJob;
+import io.dropwizard.hibernate.AbstractDAO;
+import org.hibernate.SessionFactory;
+
+/**
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class RefreshJobDAO extends AbstractDAO<RefreshJob> {
+    public RefreshJobDAO(SessionFactory sessionFactory) {
+        super(sessionFactory);
+    }
+
+    public RefreshJob findById(long id) {
+        return get(id);
+    }
+
+    public long create(RefreshJob job) {
+        return persist(job).getId();
+    }
+
+    /**
+     * @param failure       why the jobs failed
+     * @param failureStatus the http status of the failure
+     * @return the number of queued or running jobs marked as failed
+     */
+    public int failUnfinished(String failure, int failureStatus) {
+        return namedQuery("io.dockstore.webservice.core.RefreshJob.failUnfinished").setParameter("failed", RefreshJob.Status.FAILED)
+                .setParameter("finished", new Date()).setParameter("failure", failure).setParameter("failureStatus", failureStatus)
+                .setParameterList("unfinished", Arrays.asList(RefreshJob.Status.QUEUED, RefreshJob.Status.RUNNING)).executeUpdate();
+    }
+}
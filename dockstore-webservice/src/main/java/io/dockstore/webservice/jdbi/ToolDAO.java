@@ -16,17 +16,35 @@
 
 package io.dockstore.webservice.jdbi;
 
+import io.dockstore.common.Registry;
+import io.dockstore.webservice.core.SourceFile;
 import io.dockstore.webservice.core.Tool;
 import io.dockstore.webservice.core.ToolMode;
 import io.dockstore.webservice.helpers.JsonLdRetriever;
 import org.hibernate.SessionFactory;
 
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * @author xliu
  */
 public class ToolDAO extends EntryDAO<Tool> {
+    private static final String SEARCH_VECTOR = weightedVector('A', "path", "namespace", "name", "toolname", "registry") + " || "
+            + weightedVector('B', "author") + " || " + weightedVector('C', "description");
+
     public ToolDAO(SessionFactory factory) {
         super(factory);
     }
@@ -56,7 +74,46 @@ public class ToolDAO extends EntryDAO<Tool> {
     public List<Tool> findPublishedByNamespace(String namespace) {
         return list(namedQuery("io.dockstore.webservice.core.Tool.findPublishedByNamespace").setParameter("namespace", namespace));
     }
+
+    public List<Tool> findPublishedByNamespace(String namespace, FetchPlan plan) {
+        return list(namedQuery("io.dockstore.webservice.core.Tool.findPublishedByNamespace").setParameter("namespace", namespace), plan);
+    }
+
+    /**
+     * @param namespace a namespace, matched ignoring case
+     * @return the keys of the published tools in the namespace
+     */
+    public List<Keyset> findPublishedKeysByNamespace(String namespace) {
+        return toKeysets(currentSession().getNamedQuery("io.dockstore.webservice.core.Tool.findPublishedKeysByNamespace")
+                .setParameter("namespace", namespace).list());
+    }
+
+    /**
+     * @return the distinct lower case namespaces of published tools
+     */
+    public List<String> findPublishedNamespaces() {
+        return currentSession().getNamedQuery("io.dockstore.webservice.core.Tool.findPublishedNamespaces").list();
+    }
   
+    /**
+     * Find which descriptor languages the visible versions of tools have, without loading their files
+     *
+     * @param ids the ids of the tools
+     * @return the types of descriptor files (cwl or wdl) of each tool that has any
+     */
+    public Map<Long, Set<SourceFile.FileType>> findDescriptorTypes(Collection<Long> ids) {
+        Map<Long, Set<SourceFile.FileType>> descriptorTypes = new HashMap<>();
+        if (ids.isEmpty()) {
+            return descriptorTypes;
+        }
+        List<Object[]> rows = currentSession().getNamedQuery("io.dockstore.webservice.core.Tool.findDescriptorTypes")
+                .setParameterList("ids", ids)
+                .setParameterList("types", Arrays.asList(SourceFile.FileType.DOCKSTORE_CWL, SourceFile.FileType.DOCKSTORE_WDL)).list();
+        rows.forEach(row -> descriptorTypes.computeIfAbsent((Long)row[0], id -> EnumSet.noneOf(SourceFile.FileType.class))
+                .add((SourceFile.FileType)row[1]));
+        return descriptorTypes;
+    }
+
     /**
      * Return map containing schema.org info retrieved from the specified tool's descriptor cwl
      * @param id of specified tool
@@ -66,4 +123,33 @@ public class ToolDAO extends EntryDAO<Tool> {
         Tool tool = findPublishedById(id);
         return JsonLdRetriever.getSchema(tool);
     }
+
+    @Override
+    protected String searchVector() {
+        return SEARCH_VECTOR;
+    }
+
+    @Override
+    protected List<Predicate> publishedPredicates(CriteriaBuilder cb, Root<Tool> root, PublishedEntryFilter filter) {
+        List<Predicate> predicates = super.publishedPredicates(cb, root, filter);
+        if (filter.getRegistryId() != null) {
+            // the tool path (path plus the optional toolname) must be part of the requested id
+            Path<String> path = root.get("path");
+            Path<String> toolname = root.get("toolname");
+            Expression<String> toolPath = cb.<String>selectCase().when(cb.isNull(toolname), path).when(cb.equal(toolname, ""), path)
+                    .otherwise(cb.concat(cb.concat(path, "/"), toolname));
+            predicates.add(cb.gt(cb.locate(cb.literal(filter.getRegistryId()), toolPath), 0));
+        }
+        if (filter.getRegistry() != null) {
+            // registries are stored by enum name but filtered on by their docker path
+            List<Registry> registries = Arrays.stream(Registry.values())
+                    .filter(registry -> registry.toString() != null && registry.toString().contains(filter.getRegistry()))
+                    .collect(Collectors.toList());
+            predicates.add(registries.isEmpty() ? cb.disjunction() : root.get("registry").in(registries));
+        }
+        addContainsPredicate(cb, root.get("namespace"), filter.getOrganization(), predicates);
+        addContainsPredicate(cb, root.get("name"), filter.getName(), predicates);
+        addContainsPredicate(cb, root.get("toolname"), filter.getToolname(), predicates);
+        return predicates;
+    }
 }
@@ -25,6 +25,9 @@ import java.util.List;
  * @author dyuen
  */
 public class WorkflowDAO extends EntryDAO<Workflow> {
+    private static final String SEARCH_VECTOR = weightedVector('A', "path", "workflowname", "defaultworkflowpath") + " || "
+            + weightedVector('B', "author") + " || " + weightedVector('C', "description");
+
     public WorkflowDAO(SessionFactory factory) {
         super(factory);
     }
@@ -54,4 +57,30 @@ public class WorkflowDAO extends EntryDAO<Workflow> {
     public List<Workflow> findPublishedByOrganization(String organization) {
         return list(namedQuery("io.dockstore.webservice.core.Workflow.findPublishedByOrganization").setParameter("organization", organization));
     }
+
+    public List<Workflow> findPublishedByOrganization(String organization, FetchPlan plan) {
+        return list(namedQuery("io.dockstore.webservice.core.Workflow.findPublishedByOrganization").setParameter("organization", organization),
+                plan);
+    }
+
+    /**
+     * @param organization an organization, matched ignoring case
+     * @return the keys of the published workflows in the organization
+     */
+    public List<Keyset> findPublishedKeysByOrganization(String organization) {
+        return toKeysets(currentSession().getNamedQuery("io.dockstore.webservice.core.Workflow.findPublishedKeysByOrganization")
+                .setParameter("organization", organization).list());
+    }
+
+    /**
+     * @return the distinct lower case organizations of published workflows
+     */
+    public List<String> findPublishedOrganizations() {
+        return currentSession().getNamedQuery("io.dockstore.webservice.core.Workflow.findPublishedOrganizations").list();
+    }
+
+    @Override
+    protected String searchVector() {
+        return SEARCH_VECTOR;
+    }
 }
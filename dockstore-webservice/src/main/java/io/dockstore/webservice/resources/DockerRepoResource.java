@@ -16,7 +16,9 @@
 
 package io.dockstore.webservice.resources;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -32,7 +34,10 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 
 import com.codahale.metrics.annotation.Timed;
@@ -46,6 +51,7 @@ import io.dockstore.webservice.CustomWebApplicationException;
 import io.dockstore.webservice.api.PublishRequest;
 import io.dockstore.webservice.api.StarRequest;
 import io.dockstore.webservice.core.Label;
+import io.dockstore.webservice.core.RefreshJob;
 import io.dockstore.webservice.core.SourceFile;
 import io.dockstore.webservice.core.SourceFile.FileType;
 import io.dockstore.webservice.core.Tag;
@@ -54,11 +60,16 @@ import io.dockstore.webservice.core.TokenType;
 import io.dockstore.webservice.core.Tool;
 import io.dockstore.webservice.core.ToolMode;
 import io.dockstore.webservice.core.User;
+import io.dockstore.webservice.helpers.ConditionalResponses;
 import io.dockstore.webservice.helpers.ElasticManager;
 import io.dockstore.webservice.helpers.ElasticMode;
+import io.dockstore.webservice.helpers.EmbeddedSearchIndex;
 import io.dockstore.webservice.helpers.EntryLabelHelper;
 import io.dockstore.webservice.helpers.EntryVersionHelper;
 import io.dockstore.webservice.helpers.Helper;
+import io.dockstore.webservice.helpers.JsonStreamer;
+import io.dockstore.webservice.helpers.RefreshJobs;
+import io.dockstore.webservice.jdbi.FetchPlan;
 import io.dockstore.webservice.jdbi.FileDAO;
 import io.dockstore.webservice.jdbi.LabelDAO;
 import io.dockstore.webservice.jdbi.TagDAO;
@@ -93,6 +104,7 @@ public class DockerRepoResource {
 
     private static final String TARGET_URL = "https://quay.io/api/v1/";
     private static final Logger LOG = LoggerFactory.getLogger(DockerRepoResource.class);
+    private static final int SEARCH_LIMIT = 1000;
 
     private final UserDAO userDAO;
     private final TokenDAO tokenDAO;
@@ -106,11 +118,18 @@ public class DockerRepoResource {
     private final EntryVersionHelper<Tool> entryVersionHelper;
     private final ObjectMapper objectMapper;
     private final ElasticManager elasticManager;
+    private final JsonStreamer jsonStreamer;
+    private final EmbeddedSearchIndex searchIndex;
+    private final RefreshJobs refreshJobs;
 
     @SuppressWarnings("checkstyle:parameternumber")
     public DockerRepoResource(ObjectMapper mapper, HttpClient client, UserDAO userDAO, TokenDAO tokenDAO, ToolDAO toolDAO, TagDAO tagDAO,
-            LabelDAO labelDAO, FileDAO fileDAO, String bitbucketClientID, String bitbucketClientSecret) {
+            LabelDAO labelDAO, FileDAO fileDAO, JsonStreamer jsonStreamer, EmbeddedSearchIndex searchIndex, RefreshJobs refreshJobs,
+            String bitbucketClientID, String bitbucketClientSecret) {
         objectMapper = mapper;
+        this.jsonStreamer = jsonStreamer;
+        this.searchIndex = searchIndex;
+        this.refreshJobs = refreshJobs;
         this.userDAO = userDAO;
         this.tokenDAO = tokenDAO;
         this.tagDAO = tagDAO;
@@ -132,15 +151,11 @@ public class DockerRepoResource {
     @UnitOfWork
     @RolesAllowed("admin")
     @ApiOperation(value = "Refresh all repos", authorizations = { @Authorization(value = JWT_SECURITY_DEFINITION_NAME) }, notes = "Updates some metadata. ADMIN ONLY", response = Tool.class, responseContainer = "List")
+    @ApiResponses(@ApiResponse(code = HttpStatus.SC_ACCEPTED, message = "The refresh did not finish in time, poll the job returned",
+            response = RefreshJob.class))
     public List<Tool> refreshAll(@ApiParam(hidden = true) @Auth User authUser) {
-        List<Tool> tools;
-        List<User> users = userDAO.findAll();
-        for (User user : users) {
-            refreshToolsForUser(user.getId(), null);
-        }
-        tools = toolDAO.findAll();
-
-        return tools;
+        refreshJobs.runAndWait(RefreshJob.Kind.TOOLS, null, null);
+        return toolDAO.findAll();
     }
 
     List<Tool> refreshToolsForUser(Long userId, String organization) {
@@ -322,10 +337,19 @@ public class DockerRepoResource {
     @UnitOfWork
     @Path("/published/{containerId}")
     @ApiOperation(value = "Get a published container", notes = "NO authentication", response = Tool.class)
-    public Tool getPublishedContainer(@ApiParam(value = "Tool ID", required = true) @PathParam("containerId") Long containerId) {
-        Tool c = toolDAO.findPublishedById(containerId);
+    public Response getPublishedContainer(@ApiParam(value = "Tool ID", required = true) @PathParam("containerId") Long containerId,
+            @Context Request request) {
+        // clients poll this, answer from the update date alone if their copy is current
+        Date updated = toolDAO.findPublishedUpdateDate(containerId);
+        EntityTag tag = updated == null ? null : ConditionalResponses.tag("tool", containerId, updated.getTime());
+        Response notModified = tag == null ? null : ConditionalResponses.evaluate(request, tag, updated);
+        if (notModified != null) {
+            return notModified;
+        }
+        Tool c = toolDAO.findPublishedById(containerId, FetchPlan.WITH_FILES);
         Helper.checkEntry(c);
-        return entryVersionHelper.filterContainersForHiddenTags(c);
+        Response.ResponseBuilder builder = Response.ok(entryVersionHelper.filterContainersForHiddenTags(c));
+        return (tag == null ? builder : ConditionalResponses.validators(builder, tag, updated)).build();
     }
 
     @GET
@@ -335,7 +359,7 @@ public class DockerRepoResource {
     @ApiOperation(value = "List all published containers belonging to the specified namespace", notes = "NO authentication", response = Tool.class, responseContainer = "List")
     public List<Tool> getPublishedContainersByNamespace(
             @ApiParam(value = "namespace", required = true) @PathParam("namespace") String namespace) {
-        List<Tool> tools = toolDAO.findPublishedByNamespace(namespace);
+        List<Tool> tools = toolDAO.findPublishedByNamespace(namespace, FetchPlan.WITH_VERSIONS);
         entryVersionHelper.filterContainersForHiddenTags(tools);
         return tools;
     }
@@ -495,10 +519,11 @@ public class DockerRepoResource {
     @Path("published")
     @ApiOperation(value = "List all published containers.", tags = {
             "containers" }, notes = "NO authentication", response = Tool.class, responseContainer = "List")
-    public List<Tool> allPublishedContainers() {
-        List<Tool> tools = toolDAO.findAllPublished();
-        entryVersionHelper.filterContainersForHiddenTags(tools);
-        return tools;
+    public Response allPublishedContainers() {
+        List<Long> ids = toolDAO.findAllPublishedIds();
+        return Response.ok(jsonStreamer.stream(ids,
+                batch -> entryVersionHelper.filterContainersForHiddenTags(toolDAO.findPublishedByIds(batch, FetchPlan.WITH_VERSIONS))))
+                .build();
     }
 
     @GET
@@ -509,6 +534,7 @@ public class DockerRepoResource {
     public List<Tool> getPublishedContainerByPath(
             @ApiParam(value = "repository path", required = true) @PathParam("repository") String path) {
         List<Tool> containers = toolDAO.findPublishedByPath(path);
+        containers.forEach(container -> toolDAO.fetch(container, FetchPlan.WITH_FILES));
         entryVersionHelper.filterContainersForHiddenTags(containers);
         Helper.checkEntry(containers);
         return containers;
@@ -649,8 +675,22 @@ public class DockerRepoResource {
     @Path("/search")
     @ApiOperation(value = "Search for matching registered containers.", notes = "Search on the name (full path name) and description. NO authentication", response = Tool.class, responseContainer = "List", tags = {
             "containers" })
-    public List<Tool> search(@QueryParam("pattern") String word) {
-        return toolDAO.searchPattern(word);
+    public List<Tool> search(@QueryParam("pattern") String word,
+            @ApiParam(value = "The number of results to skip") @QueryParam("offset") Integer offset,
+            @ApiParam(value = "The maximum number of results, 1000 by default") @QueryParam("limit") Integer limit) {
+        int start = offset == null ? 0 : offset;
+        int size = limit == null ? SEARCH_LIMIT : limit;
+        if (start < 0 || size < 0) {
+            throw new CustomWebApplicationException("Offset and limit cannot be negative.", HttpStatus.SC_BAD_REQUEST);
+        }
+        if (searchIndex.isEnabled() && searchIndex.isReady()) {
+            try {
+                return toolDAO.findPublishedByIds(searchIndex.searchIds("tool", word, start, size), FetchPlan.WITH_VERSIONS);
+            } catch (IOException e) {
+                LOG.error("Could not search the search index, scanning the tools instead", e);
+            }
+        }
+        return toolDAO.searchPattern(word, start, size);
     }
 
     @GET
@@ -34,6 +34,7 @@ import io.dockstore.webservice.DockstoreWebserviceConfiguration;
 import io.dockstore.webservice.core.Entry;
 import io.dockstore.webservice.core.Tool;
 import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.jdbi.FetchPlan;
 import io.dockstore.webservice.jdbi.ToolDAO;
 import io.dockstore.webservice.jdbi.WorkflowDAO;
 import io.dockstore.webservice.resources.rss.RSSEntry;
@@ -73,8 +74,8 @@ public class MetadataResource {
     @Path("sitemap")
     @ApiOperation(value = "List all workflow and tool paths.", notes = "NO authentication")
     public String sitemap() {
-        List<Tool> tools = toolDAO.findAllPublished();
-        List<Workflow> workflows = workflowDAO.findAllPublished();
+        List<Tool> tools = toolDAO.findAllPublished(FetchPlan.SUMMARY);
+        List<Workflow> workflows = workflowDAO.findAllPublished(FetchPlan.SUMMARY);
         StringBuilder builder = new StringBuilder();
         for (Tool tool : tools) {
             builder.append(createToolURL(tool));
@@ -105,8 +106,8 @@ public class MetadataResource {
     @ApiOperation(value = "List all tools and workflows in creation order", notes = "NO authentication")
     public String rssFeed() {
 
-        List<Tool> tools = toolDAO.findAllPublished();
-        List<Workflow> workflows = workflowDAO.findAllPublished();
+        List<Tool> tools = toolDAO.findAllPublished(FetchPlan.SUMMARY);
+        List<Workflow> workflows = workflowDAO.findAllPublished(FetchPlan.SUMMARY);
         List<Entry> dbEntries =  new ArrayList<>();
         dbEntries.addAll(tools);
         dbEntries.addAll(workflows);
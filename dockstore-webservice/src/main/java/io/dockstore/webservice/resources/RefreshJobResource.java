@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.dockstore.webservice.resources;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.codahale.metrics.annotation.Timed;
+import io.dockstore.webservice.CustomWebApplicationException;
+import io.dockstore.webservice.core.RefreshJob;
+import io.dockstore.webservice.core.User;
+import io.dockstore.webservice.helpers.Helper;
+import io.dockstore.webservice.helpers.RefreshJobs;
+import io.dropwizard.auth.Auth;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import io.swagger.annotations.Authorization;
+import org.apache.http.HttpStatus;
+
+import static io.dockstore.webservice.Constants.JWT_SECURITY_DEFINITION_NAME;
+
+/**
+ * Refreshes in the background, the refresh endpoints of users, containers and workflows wait for the same jobs.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+@Path("/refreshjobs")
+@Api("/refreshjobs")
+@Produces(MediaType.APPLICATION_JSON)
+public class RefreshJobResource {
+
+    private final RefreshJobs refreshJobs;
+
+    public RefreshJobResource(RefreshJobs refreshJobs) {
+        this.refreshJobs = refreshJobs;
+    }
+
+    @POST
+    @Timed
+    @ApiOperation(value = "Start a refresh in the background", authorizations = { @Authorization(value = JWT_SECURITY_DEFINITION_NAME) }, notes = "Refreshes the containers or workflows of a user, or of every user for admins. Poll the job returned to follow it.", response = RefreshJob.class)
+    @ApiResponses({ @ApiResponse(code = HttpStatus.SC_ACCEPTED, message = "The job was queued", response = RefreshJob.class),
+            @ApiResponse(code = HttpStatus.SC_BAD_REQUEST, message = "Unknown type"),
+            @ApiResponse(code = HttpStatus.SC_SERVICE_UNAVAILABLE, message = "Too many refreshes are waiting") })
+    public Response submit(@ApiParam(hidden = true) @Auth User authUser,
+            @ApiParam(value = "What to refresh, containers or workflows", required = true) @QueryParam("type") String type,
+            @ApiParam(value = "User ID, every user if not set (admin only)") @QueryParam("userId") Long userId,
+            @ApiParam(value = "Organization, every organization if not set") @QueryParam("organization") String organization) {
+        final RefreshJob.Kind kind;
+        if ("containers".equals(type)) {
+            kind = RefreshJob.Kind.TOOLS;
+        } else if ("workflows".equals(type)) {
+            kind = RefreshJob.Kind.WORKFLOWS;
+        } else {
+            throw new CustomWebApplicationException("The type must be containers or workflows.", HttpStatus.SC_BAD_REQUEST);
+        }
+        if (userId == null && !authUser.getIsAdmin()) {
+            throw new CustomWebApplicationException("Forbidden: only admins can refresh every user.", HttpStatus.SC_FORBIDDEN);
+        }
+        if (userId != null) {
+            Helper.checkUser(authUser, userId);
+        }
+        return Response.status(HttpStatus.SC_ACCEPTED).entity(refreshJobs.submit(kind, userId, organization)).build();
+    }
+
+    @GET
+    @Timed
+    @Path("/{jobId}")
+    @ApiOperation(value = "Get a refresh job", authorizations = { @Authorization(value = JWT_SECURITY_DEFINITION_NAME) }, notes = "Where the job is at, with the repositories refreshed so far and the ones that could not be.", response = RefreshJob.class)
+    public RefreshJob getJob(@ApiParam(hidden = true) @Auth User authUser,
+            @ApiParam(value = "Job ID", required = true) @PathParam("jobId") Long jobId) {
+        final RefreshJob job = refreshJobs.find(jobId);
+        // the jobs of others are not found rather than forbidden
+        if (job == null || !authUser.getIsAdmin() && (job.getUserId() == null || job.getUserId() != authUser.getId())) {
+            throw new CustomWebApplicationException("Refresh job not found.", HttpStatus.SC_NOT_FOUND);
+        }
+        return job;
+    }
+}
@@ -17,6 +17,7 @@
 package io.dockstore.webservice.resources;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -42,12 +43,15 @@ import com.google.common.collect.Lists;
 import io.dockstore.webservice.CustomWebApplicationException;
 import io.dockstore.webservice.core.Entry;
 import io.dockstore.webservice.core.Group;
+import io.dockstore.webservice.core.RefreshJob;
 import io.dockstore.webservice.core.Token;
 import io.dockstore.webservice.core.Tool;
 import io.dockstore.webservice.core.User;
 import io.dockstore.webservice.core.Workflow;
 import io.dockstore.webservice.helpers.ElasticManager;
 import io.dockstore.webservice.helpers.Helper;
+import io.dockstore.webservice.helpers.RefreshJobs;
+import io.dockstore.webservice.helpers.RefreshProgress;
 import io.dockstore.webservice.jdbi.GroupDAO;
 import io.dockstore.webservice.jdbi.TokenDAO;
 import io.dockstore.webservice.jdbi.UserDAO;
@@ -82,15 +86,17 @@ public class UserResource {
 
     private final WorkflowResource workflowResource;
     private final DockerRepoResource dockerRepoResource;
+    private final RefreshJobs refreshJobs;
 
     public UserResource(HttpClient client, TokenDAO tokenDAO, UserDAO userDAO, GroupDAO groupDAO, WorkflowResource workflowResource,
-            DockerRepoResource dockerRepoResource) {
+            DockerRepoResource dockerRepoResource, RefreshJobs refreshJobs) {
         this.client = client;
         this.userDAO = userDAO;
         this.groupDAO = groupDAO;
         this.tokenDAO = tokenDAO;
         this.workflowResource = workflowResource;
         this.dockerRepoResource = dockerRepoResource;
+        this.refreshJobs = refreshJobs;
         elasticManager = new ElasticManager();
     }
 
@@ -381,22 +387,69 @@ public class UserResource {
     @UnitOfWork
     @Path("/{userId}/containers/{organization}/refresh")
     @ApiOperation(value = "Refresh repos owned by the logged-in user with specified organization", authorizations = { @Authorization(value = JWT_SECURITY_DEFINITION_NAME) }, notes = "Refresh all tools in an organization", response = Tool.class, responseContainer = "List")
+    @ApiResponses(@ApiResponse(code = HttpStatus.SC_ACCEPTED, message = "The refresh did not finish in time, poll the job returned",
+            response = RefreshJob.class))
     public List<Tool> refreshToolsByOrganization(@ApiParam(hidden = true) @Auth User authUser,
             @ApiParam(value = "User ID", required = true) @PathParam("userId") Long userId,
             @ApiParam(value = "Organization", required = true) @PathParam("organization") String organization) {
 
         Helper.checkUser(authUser, userId);
+        refreshJobs.runAndWait(RefreshJob.Kind.TOOLS, userId, organization);
+        return getTools(userDAO.findById(userId));
+    }
+
+    /**
+     * Refreshes the tools of a job, a user at a time
+     *
+     * @param job      what to refresh
+     * @param progress told about every user
+     */
+    public void refreshToolsJob(RefreshJob job, RefreshProgress progress) {
+        final List<User> users = findUsers(job);
+        progress.found(users.size());
+        for (User user : users) {
+            dockerRepoResource.refreshToolsForUser(user.getId(), job.getOrganization());
+            progress.refreshed(user.getUsername());
+        }
+        if (job.getUserId() != null) {
+            userDAO.clearCache();
+            bulkUpsertTools(userDAO.findById(job.getUserId()));
+        }
+    }
 
-        // Update user data
-        Helper.updateUserHelper(authUser, userDAO, tokenDAO);
-        List<Tool> tools = dockerRepoResource.refreshToolsForUser(userId, organization);
+    /**
+     * Refreshes the workflows of a job
+     *
+     * @param job      what to refresh
+     * @param progress told about every repository
+     */
+    public void refreshWorkflowsJob(RefreshJob job, RefreshProgress progress) {
+        for (User user : findUsers(job)) {
+            // Refresh all workflows, including full workflows
+            workflowResource.refreshStubWorkflowsForUser(user, job.getOrganization(), progress);
+        }
+        if (job.getUserId() != null) {
+            userDAO.clearCache();
+            bulkUpsertWorkflows(userDAO.findById(job.getUserId()));
+        }
+    }
 
-        userDAO.clearCache();
-        authUser = userDAO.findById(authUser.getId());
-        bulkUpsertTools(authUser);
-        List<Tool> finalTools = authUser.getEntries().stream().filter(Tool.class::isInstance).map(Tool.class::cast)
-                .collect(Collectors.toList());
-        return finalTools;
+    /**
+     * The user of a job is the one of the path of the refresh endpoints, which the caller was checked against. Its data is updated
+     * and its entries are answered, for an admin refreshing someone else that is the other user rather than the admin.
+     *
+     * @return the user of a job with its data updated, every user if the job has none
+     */
+    private List<User> findUsers(RefreshJob job) {
+        if (job.getUserId() == null) {
+            return userDAO.findAll();
+        }
+        final User user = userDAO.findById(job.getUserId());
+        if (user == null) {
+            throw new CustomWebApplicationException("User not found.", HttpStatus.SC_NOT_FOUND);
+        }
+        // Update user data
+        return Collections.singletonList(Helper.updateUserHelper(user, userDAO, tokenDAO));
     }
 
     // TODO: Only update the ones that have changed
@@ -424,19 +477,14 @@ public class UserResource {
     @UnitOfWork
     @Path("/{userId}/containers/refresh")
     @ApiOperation(value = "Refresh repos owned by the logged-in user", authorizations = { @Authorization(value = JWT_SECURITY_DEFINITION_NAME) }, notes = "Updates some metadata", response = Tool.class, responseContainer = "List")
+    @ApiResponses(@ApiResponse(code = HttpStatus.SC_ACCEPTED, message = "The refresh did not finish in time, poll the job returned",
+            response = RefreshJob.class))
     public List<Tool> refresh(@ApiParam(hidden = true) @Auth User authUser,
             @ApiParam(value = "User ID", required = true) @PathParam("userId") Long userId) {
 
         Helper.checkUser(authUser, userId);
-
-        // Update user data
-        Helper.updateUserHelper(authUser, userDAO, tokenDAO);
-        List<Tool> tools = dockerRepoResource.refreshToolsForUser(userId, null);
-
-        // TODO: Only update the ones that have changed
-        authUser = userDAO.findById(authUser.getId());
-        bulkUpsertTools(authUser);
-        return tools;
+        refreshJobs.runAndWait(RefreshJob.Kind.TOOLS, userId, null);
+        return getTools(userDAO.findById(userId));
     }
 
     @GET
@@ -444,23 +492,15 @@ public class UserResource {
     @UnitOfWork
     @Path("/{userId}/workflows/{organization}/refresh")
     @ApiOperation(value = "Refresh workflows owned by the logged-in user with specified organization", authorizations = { @Authorization(value = JWT_SECURITY_DEFINITION_NAME) }, notes = "Refresh all workflows in an organization", response = Workflow.class, responseContainer = "List")
+    @ApiResponses(@ApiResponse(code = HttpStatus.SC_ACCEPTED, message = "The refresh did not finish in time, poll the job returned",
+            response = RefreshJob.class))
     public List<Workflow> refreshWorkflowsByOrganization(@ApiParam(hidden = true) @Auth User authUser,
             @ApiParam(value = "User ID", required = true) @PathParam("userId") Long userId,
             @ApiParam(value = "Organization", required = true) @PathParam("organization") String organization) {
 
         Helper.checkUser(authUser, userId);
-
-        // Update user data
-        Helper.updateUserHelper(authUser, userDAO, tokenDAO);
-
-        // Refresh all workflows, including full workflows
-        workflowResource.refreshStubWorkflowsForUser(authUser, organization);
-        userDAO.clearCache();
-        // Refresh the user
-        authUser = userDAO.findById(authUser.getId());
-        List<Workflow> finalWorkflows = getWorkflows(authUser);
-        bulkUpsertWorkflows(authUser);
-        return finalWorkflows;
+        refreshJobs.runAndWait(RefreshJob.Kind.WORKFLOWS, userId, organization);
+        return getWorkflows(userDAO.findById(userId));
     }
 
     @GET
@@ -468,21 +508,14 @@ public class UserResource {
     @UnitOfWork
     @Path("/{userId}/workflows/refresh")
     @ApiOperation(value = "Refresh workflows owned by the logged-in user", authorizations = { @Authorization(value = JWT_SECURITY_DEFINITION_NAME) }, notes = "Updates some metadata", response = Workflow.class, responseContainer = "List")
+    @ApiResponses(@ApiResponse(code = HttpStatus.SC_ACCEPTED, message = "The refresh did not finish in time, poll the job returned",
+            response = RefreshJob.class))
     public List<Workflow> refreshWorkflows(@ApiParam(hidden = true) @Auth User authUser,
             @ApiParam(value = "User ID", required = true) @PathParam("userId") Long userId) {
 
         Helper.checkUser(authUser, userId);
-
-        // Update user data
-        Helper.updateUserHelper(authUser, userDAO, tokenDAO);
-
-        // Refresh all workflows, including full workflows
-        workflowResource.refreshStubWorkflowsForUser(authUser, null);
-        // Refresh the user
-        authUser = userDAO.findById(authUser.getId());
-        List<Workflow> finalWorkflows = getWorkflows(authUser);
-        bulkUpsertWorkflows(authUser);
-        return finalWorkflows;
+        refreshJobs.runAndWait(RefreshJob.Kind.WORKFLOWS, userId, null);
+        return getWorkflows(userDAO.findById(userId));
     }
 
     @GET
@@ -498,6 +531,10 @@ public class UserResource {
         return getWorkflows(authUser);
     }
 
+    private List<Tool> getTools(User user) {
+        return user.getEntries().stream().filter(Tool.class::isInstance).map(Tool.class::cast).collect(Collectors.toList());
+    }
+
     private List<Workflow> getWorkflows(User user) {
         return user.getEntries().stream().filter(Workflow.class::isInstance).map(Workflow.class::cast).collect(Collectors.toList());
     }
@@ -20,13 +20,16 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.stream.Collectors;
 
 import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.DELETE;
@@ -38,7 +41,11 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
 import com.codahale.metrics.annotation.Timed;
 import com.google.common.base.Optional;
@@ -50,6 +57,7 @@ import io.dockstore.webservice.api.PublishRequest;
 import io.dockstore.webservice.api.StarRequest;
 import io.dockstore.webservice.api.VerifyRequest;
 import io.dockstore.webservice.core.Label;
+import io.dockstore.webservice.core.RefreshJob;
 import io.dockstore.webservice.core.SourceFile;
 import io.dockstore.webservice.core.SourceFile.FileType;
 import io.dockstore.webservice.core.Token;
@@ -59,16 +67,23 @@ import io.dockstore.webservice.core.Workflow;
 import io.dockstore.webservice.core.WorkflowMode;
 import io.dockstore.webservice.core.WorkflowVersion;
 import io.dockstore.webservice.helpers.BitBucketSourceCodeRepo;
+import io.dockstore.webservice.helpers.ConditionalResponses;
 import io.dockstore.webservice.helpers.DAGHelper;
 import io.dockstore.webservice.helpers.ElasticManager;
 import io.dockstore.webservice.helpers.ElasticMode;
+import io.dockstore.webservice.helpers.EmbeddedSearchIndex;
 import io.dockstore.webservice.helpers.EntryLabelHelper;
 import io.dockstore.webservice.helpers.EntryVersionHelper;
 import io.dockstore.webservice.helpers.GitHubSourceCodeRepo;
 import io.dockstore.webservice.helpers.GitLabSourceCodeRepo;
 import io.dockstore.webservice.helpers.Helper;
+import io.dockstore.webservice.helpers.JsonStreamer;
+import io.dockstore.webservice.helpers.RefreshJobs;
+import io.dockstore.webservice.helpers.RefreshPipeline;
+import io.dockstore.webservice.helpers.RefreshProgress;
 import io.dockstore.webservice.helpers.SourceCodeRepoFactory;
 import io.dockstore.webservice.helpers.SourceCodeRepoInterface;
+import io.dockstore.webservice.jdbi.FetchPlan;
 import io.dockstore.webservice.jdbi.FileDAO;
 import io.dockstore.webservice.jdbi.LabelDAO;
 import io.dockstore.webservice.jdbi.TokenDAO;
@@ -81,8 +96,11 @@ import io.dropwizard.hibernate.UnitOfWork;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
 import io.swagger.annotations.Authorization;
 import io.swagger.model.ToolDescriptor;
+import org.apache.commons.lang3.tuple.Triple;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.json.JSONArray;
@@ -101,6 +119,7 @@ import static io.dockstore.webservice.Constants.JWT_SECURITY_DEFINITION_NAME;
 public class WorkflowResource {
 
     private static final Logger LOG = LoggerFactory.getLogger(WorkflowResource.class);
+    private static final int SEARCH_LIMIT = 1000;
     private final ElasticManager elasticManager;
     private final UserDAO userDAO;
     private final TokenDAO tokenDAO;
@@ -114,12 +133,21 @@ public class WorkflowResource {
     private final String bitbucketClientID;
     private final String bitbucketClientSecret;
     private final EntryVersionHelper<Workflow> entryVersionHelper;
+    private final JsonStreamer jsonStreamer;
+    private final EmbeddedSearchIndex searchIndex;
+    private final RefreshPipeline refreshPipeline;
+    private final RefreshJobs refreshJobs;
 
     @SuppressWarnings("checkstyle:parameternumber")
     public WorkflowResource(HttpClient client, UserDAO userDAO, TokenDAO tokenDAO, ToolDAO toolDAO, WorkflowDAO workflowDAO,
-            WorkflowVersionDAO workflowVersionDAO, LabelDAO labelDAO, FileDAO fileDAO, String bitbucketClientID,
+            WorkflowVersionDAO workflowVersionDAO, LabelDAO labelDAO, FileDAO fileDAO, JsonStreamer jsonStreamer,
+            EmbeddedSearchIndex searchIndex, RefreshPipeline refreshPipeline, RefreshJobs refreshJobs, String bitbucketClientID,
             String bitbucketClientSecret) {
         this.userDAO = userDAO;
+        this.refreshPipeline = refreshPipeline;
+        this.refreshJobs = refreshJobs;
+        this.jsonStreamer = jsonStreamer;
+        this.searchIndex = searchIndex;
         this.tokenDAO = tokenDAO;
         this.workflowVersionDAO = workflowVersionDAO;
         this.toolDAO = toolDAO;
@@ -141,9 +169,10 @@ public class WorkflowResource {
     @UnitOfWork
     @RolesAllowed("admin")
     @ApiOperation(value = "Refresh all workflows", authorizations = { @Authorization(value = JWT_SECURITY_DEFINITION_NAME) }, notes = "Updates some metadata. ADMIN ONLY", response = Workflow.class, responseContainer = "List")
+    @ApiResponses(@ApiResponse(code = HttpStatus.SC_ACCEPTED, message = "The refresh did not finish in time, poll the job returned",
+            response = RefreshJob.class))
     public List<Workflow> refreshAll(@ApiParam(hidden = true) @Auth User authUser) {
-        List<User> users = userDAO.findAll();
-        users.forEach(user -> refreshStubWorkflowsForUser(user, null));
+        refreshJobs.runAndWait(RefreshJob.Kind.WORKFLOWS, null, null);
         return workflowDAO.findAll();
     }
 
@@ -195,9 +224,10 @@ public class WorkflowResource {
     /**
      * For each valid token for a git hosting service, refresh all workflows
      *
-     * @param user a user to refresh workflows for
+     * @param user     a user to refresh workflows for
+     * @param progress told about every repository
      */
-    public void refreshStubWorkflowsForUser(User user, String organization) {
+    public void refreshStubWorkflowsForUser(User user, String organization, RefreshProgress progress) {
         try {
             List<Token> tokens = checkOnBitbucketToken(user);
 
@@ -209,8 +239,10 @@ public class WorkflowResource {
             // Update bitbucket workflows if token exists
             if (bitbucketToken != null && bitbucketToken.getContent() != null) {
                 // get workflows from bitbucket for a user and updates db
-                refreshHelper(new BitBucketSourceCodeRepo(bitbucketToken.getUsername(), client, bitbucketToken.getContent(), null), user,
-                        organization);
+                SourceCodeRepoInterface bitbucketRepo = new BitBucketSourceCodeRepo(bitbucketToken.getUsername(), client,
+                        bitbucketToken.getContent(), null);
+                refreshHelper(SourceCodeRepoFactory.mirrored(bitbucketRepo, "bitbucket.org", bitbucketToken.getContent(), null), user,
+                        organization, progress);
             }
 
             // Refresh Github
@@ -219,7 +251,9 @@ public class WorkflowResource {
             // Update github workflows if token exists
             if (githubToken != null && githubToken.getContent() != null) {
                 // get workflows from github for a user and updates db
-                refreshHelper(new GitHubSourceCodeRepo(user.getUsername(), githubToken.getContent(), null), user, organization);
+                SourceCodeRepoInterface githubRepo = new GitHubSourceCodeRepo(user.getUsername(), githubToken.getContent(), null);
+                refreshHelper(SourceCodeRepoFactory.mirrored(githubRepo, "github.com", githubToken.getContent(), null), user, organization,
+                        progress);
             }
 
             // Refresh Gitlab
@@ -228,12 +262,15 @@ public class WorkflowResource {
             // Update gitlab workflows if token exists
             if (gitlabToken != null && gitlabToken.getContent() != null) {
                 // get workflows from gitlab for a user and updates db
-                refreshHelper(new GitLabSourceCodeRepo(user.getUsername(), client, gitlabToken.getContent(), null), user, organization);
+                SourceCodeRepoInterface gitlabRepo = new GitLabSourceCodeRepo(user.getUsername(), client, gitlabToken.getContent(), null);
+                refreshHelper(SourceCodeRepoFactory.mirrored(gitlabRepo, "gitlab.com", gitlabToken.getContent(), null), user, organization,
+                        progress);
             }
 
             // when 3) no data is found for a workflow in the db, we may want to create a warning, note, or label
         } catch (WebApplicationException ex) {
             LOG.info(user.getUsername() + ": " + "Failed to refresh user {}", user.getId());
+            progress.failed(user.getUsername(), RefreshPipeline.failureMessage(ex));
         }
     }
 
@@ -243,35 +280,43 @@ public class WorkflowResource {
      * @param sourceCodeRepoInterface
      * @param user
      * @param organization            if specified, only refresh if workflow belongs to the organization
+     * @param progress                told about every repository
      */
-    private void refreshHelper(final SourceCodeRepoInterface sourceCodeRepoInterface, User user, String organization) {
+    private void refreshHelper(final SourceCodeRepoInterface sourceCodeRepoInterface, User user, String organization,
+            RefreshProgress progress) {
         // Mapping of git url to repository name (owner/repo)
         final Map<String, String> workflowGitUrl2Name = sourceCodeRepoInterface.getWorkflowGitUrl2RepositoryId();
         LOG.error(Arrays.toString(workflowGitUrl2Name.entrySet().toArray()));
         if (organization != null) {
             workflowGitUrl2Name.entrySet().removeIf(thing -> !(thing.getValue().split("/"))[0].equals(organization));
         }
-        // For each entry found of the associated git hosting service
+        if (workflowGitUrl2Name.isEmpty()) {
+            return;
+        }
+        // For each entry found of the associated git hosting service, get all workflows with the same giturl
+        // Source control is asked about detached copies on other threads, the workflows themselves are only touched here
+        final List<Triple<String, List<Workflow>, List<Workflow>>> repositories = new ArrayList<>();
         for (Map.Entry<String, String> entry : workflowGitUrl2Name.entrySet()) {
-            // Get all workflows with the same giturl)
             final List<Workflow> byGitUrl = workflowDAO.findByGitUrl(entry.getKey());
-            if (byGitUrl.size() > 0) {
-                // Workflows exist with the given git url
-                for (Workflow workflow : byGitUrl) {
-                    // Update existing workflows with new information from the repository
-                    // Note we pass the existing workflow as a base for the updated version of the workflow
-                    final Workflow newWorkflow = sourceCodeRepoInterface.getWorkflow(entry.getValue(), Optional.of(workflow));
-
-                    // Take ownership of these workflows
-                    workflow.getUsers().add(user);
-
-                    // Update the existing matching workflows based off of the new information
-                    updateDBWorkflowWithSourceControlWorkflow(workflow, newWorkflow);
-                }
+            final List<Workflow> copies = byGitUrl.stream().map(WorkflowResource::detachedCopy).collect(Collectors.toList());
+            repositories.add(Triple.of(entry.getValue(), byGitUrl, copies));
+        }
+        final String host = RefreshPipeline.host(workflowGitUrl2Name.keySet().iterator().next());
+        refreshPipeline.run(host, repositories, Triple::getLeft, repository -> {
+            final List<Workflow> newWorkflows = new ArrayList<>();
+            if (repository.getRight().isEmpty()) {
+                // Workflows are not registered for the given git url, get a stub
+                newWorkflows.add(sourceCodeRepoInterface.getWorkflow(repository.getLeft(), Optional.absent()));
             } else {
-                // Workflows are not registered for the given git url, add one
-                final Workflow newWorkflow = sourceCodeRepoInterface.getWorkflow(entry.getValue(), Optional.absent());
-
+                // Note we pass the existing workflow as a base for the updated version of the workflow
+                for (Workflow workflow : repository.getRight()) {
+                    newWorkflows.add(sourceCodeRepoInterface.getWorkflow(repository.getLeft(), Optional.of(workflow)));
+                }
+            }
+            return newWorkflows;
+        }, (repository, newWorkflows) -> {
+            if (repository.getMiddle().isEmpty()) {
+                final Workflow newWorkflow = newWorkflows.get(0);
                 // The workflow was successfully created
                 if (newWorkflow != null) {
                     final long workflowID = workflowDAO.create(newWorkflow);
@@ -283,8 +328,60 @@ public class WorkflowResource {
                     // Update newly created template workflow (workflowFromDB) with found data from the repository
                     updateDBWorkflowWithSourceControlWorkflow(workflowFromDB, newWorkflow);
                 }
+            } else {
+                for (int i = 0; i < newWorkflows.size(); i++) {
+                    final Workflow workflow = repository.getMiddle().get(i);
+                    // Take ownership of these workflows
+                    workflow.getUsers().add(user);
+
+                    // Update the existing matching workflows based off of the new information
+                    updateDBWorkflowWithSourceControlWorkflow(workflow, newWorkflows.get(i));
+                }
+            }
+        }, progress);
+    }
+
+    /**
+     * Copies what source control is asked with about an existing workflow, so that it can be read without the session
+     *
+     * @param workflow a workflow of the session, its versions and their files are loaded
+     * @return a copy of the workflow, its versions and the paths and types of their files, attached to nothing
+     */
+    static Workflow detachedCopy(Workflow workflow) {
+        Workflow copy = new Workflow();
+        copy.setId(workflow.getId());
+        copy.setMode(workflow.getMode());
+        copy.setPath(workflow.getPath());
+        copy.setIsPublished(workflow.getIsPublished());
+        copy.setWorkflowName(workflow.getWorkflowName());
+        copy.setAuthor(workflow.getAuthor());
+        copy.setEmail(workflow.getEmail());
+        copy.setDescription(workflow.getDescription());
+        copy.setLastModified(workflow.getLastModified());
+        copy.setOrganization(workflow.getOrganization());
+        copy.setRepository(workflow.getRepository());
+        copy.setGitUrl(workflow.getGitUrl());
+        copy.setDescriptorType(workflow.getDescriptorType());
+        copy.setDefaultVersion(workflow.getDefaultVersion());
+        copy.setDefaultWorkflowPath(workflow.getDefaultWorkflowPath());
+        for (WorkflowVersion version : workflow.getWorkflowVersions()) {
+            WorkflowVersion versionCopy = new WorkflowVersion();
+            versionCopy.clone(version);
+            versionCopy.setWorkflowPath(version.getWorkflowPath());
+            versionCopy.setDirtyBit(version.isDirtyBit());
+            versionCopy.setCommitID(version.getCommitID());
+            versionCopy.setValid(version.isValid());
+            versionCopy.setHidden(version.isHidden());
+            for (SourceFile file : version.getSourceFiles()) {
+                SourceFile fileCopy = new SourceFile();
+                fileCopy.setId(file.getId());
+                fileCopy.setType(file.getType());
+                fileCopy.setPath(file.getPath());
+                versionCopy.addSourceFile(fileCopy);
             }
+            copy.addWorkflowVersion(versionCopy);
         }
+        return copy;
     }
 
     private List<Token> checkOnBitbucketToken(User user) {
@@ -350,7 +447,12 @@ public class WorkflowResource {
         for (WorkflowVersion version : newWorkflow.getVersions()) {
             WorkflowVersion workflowVersionFromDB = existingVersionMap.get(version.getName());
             if (existingVersionMap.containsKey(version.getName())) {
+                // versions still at the same commit were not fetched again, their files are kept as they are
+                boolean unchanged = version.isUnchangedFrom(workflowVersionFromDB);
                 workflowVersionFromDB.update(version);
+                if (unchanged) {
+                    continue;
+                }
             } else {
                 // create a new one and replace the old one
                 final long workflowVersionId = workflowVersionDAO.create(version);
@@ -362,8 +464,12 @@ public class WorkflowResource {
             Map<String, SourceFile> existingFileMap = new HashMap<>();
             workflowVersionFromDB.getSourceFiles().forEach(file -> existingFileMap.put(file.getType().toString() + file.getPath(), file));
             for (SourceFile file : version.getSourceFiles()) {
-                if (existingFileMap.containsKey(file.getType().toString() + file.getPath())) {
-                    existingFileMap.get(file.getType().toString() + file.getPath()).setContent(file.getContent());
+                SourceFile existingFile = existingFileMap.get(file.getType().toString() + file.getPath());
+                if (existingFile != null) {
+                    // unchanged files keep their row and their already stored content
+                    if (!Objects.equals(existingFile.getContentDigest(), file.getContentDigest())) {
+                        existingFile.setContent(file.getContent());
+                    }
                 } else {
                     final long fileID = fileDAO.create(file);
                     final SourceFile fileFromDB = fileDAO.findById(fileID);
@@ -553,10 +659,19 @@ public class WorkflowResource {
     @UnitOfWork
     @Path("/published/{workflowId}")
     @ApiOperation(value = "Get a published workflow", notes = "NO authentication", response = Workflow.class)
-    public Workflow getPublishedWorkflow(@ApiParam(value = "Workflow ID", required = true) @PathParam("workflowId") Long workflowId) {
-        Workflow workflow = workflowDAO.findPublishedById(workflowId);
+    public Response getPublishedWorkflow(@ApiParam(value = "Workflow ID", required = true) @PathParam("workflowId") Long workflowId,
+            @Context Request request) {
+        // clients poll this, answer from the update date alone if their copy is current
+        Date updated = workflowDAO.findPublishedUpdateDate(workflowId);
+        EntityTag tag = updated == null ? null : ConditionalResponses.tag("workflow", workflowId, updated.getTime());
+        Response notModified = tag == null ? null : ConditionalResponses.evaluate(request, tag, updated);
+        if (notModified != null) {
+            return notModified;
+        }
+        Workflow workflow = workflowDAO.findPublishedById(workflowId, FetchPlan.WITH_FILES);
         Helper.checkEntry(workflow);
-        return entryVersionHelper.filterContainersForHiddenTags(workflow);
+        Response.ResponseBuilder builder = Response.ok(entryVersionHelper.filterContainersForHiddenTags(workflow));
+        return (tag == null ? builder : ConditionalResponses.validators(builder, tag, updated)).build();
     }
 
     @GET
@@ -566,7 +681,7 @@ public class WorkflowResource {
     @ApiOperation(value = "List all published workflows belonging to the specified namespace", notes = "NO authentication", response = Workflow.class, responseContainer = "List")
     public List<Workflow> getPublishedWorkflowsByOrganization(
             @ApiParam(value = "organization", required = true) @PathParam("organization") String organization) {
-        List<Workflow> workflows = workflowDAO.findPublishedByOrganization(organization);
+        List<Workflow> workflows = workflowDAO.findPublishedByOrganization(organization, FetchPlan.WITH_VERSIONS);
         entryVersionHelper.filterContainersForHiddenTags(workflows);
         return workflows;
     }
@@ -619,10 +734,11 @@ public class WorkflowResource {
     @Path("published")
     @ApiOperation(value = "List all published workflows.", tags = {
             "workflows" }, notes = "NO authentication", response = Workflow.class, responseContainer = "List")
-    public List<Workflow> allPublishedWorkflows() {
-        List<Workflow> tools = workflowDAO.findAllPublished();
-        entryVersionHelper.filterContainersForHiddenTags(tools);
-        return tools;
+    public Response allPublishedWorkflows() {
+        List<Long> ids = workflowDAO.findAllPublishedIds();
+        return Response.ok(jsonStreamer.stream(ids,
+                batch -> entryVersionHelper.filterContainersForHiddenTags(workflowDAO.findPublishedByIds(batch, FetchPlan.WITH_VERSIONS))))
+                .build();
     }
 
     @GET
@@ -656,8 +772,22 @@ public class WorkflowResource {
     @Path("/search")
     @ApiOperation(value = "Search for matching published workflows.", notes = "Search on the name (full path name) and description. NO authentication", response = Workflow.class, responseContainer = "List", tags = {
             "workflows" })
-    public List<Workflow> search(@QueryParam("pattern") String word) {
-        return workflowDAO.searchPattern(word);
+    public List<Workflow> search(@QueryParam("pattern") String word,
+            @ApiParam(value = "The number of results to skip") @QueryParam("offset") Integer offset,
+            @ApiParam(value = "The maximum number of results, 1000 by default") @QueryParam("limit") Integer limit) {
+        int start = offset == null ? 0 : offset;
+        int size = limit == null ? SEARCH_LIMIT : limit;
+        if (start < 0 || size < 0) {
+            throw new CustomWebApplicationException("Offset and limit cannot be negative.", HttpStatus.SC_BAD_REQUEST);
+        }
+        if (searchIndex.isEnabled() && searchIndex.isReady()) {
+            try {
+                return workflowDAO.findPublishedByIds(searchIndex.searchIds("workflow", word, start, size), FetchPlan.WITH_VERSIONS);
+            } catch (IOException e) {
+                LOG.error("Could not search the search index, scanning the workflows instead", e);
+            }
+        }
+        return workflowDAO.searchPattern(word, start, size);
     }
 
     @GET
@@ -0,0 +1,129 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.resources.proposedGA4GH;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.helpers.ElasticManager;
+import io.dockstore.webservice.helpers.ElasticMode;
+import io.dockstore.webservice.helpers.StateListenerInterface;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dockstore.webservice.jdbi.WorkflowDAO;
+
+/**
+ * The lower case organizations (tool namespaces and workflow organizations) that have at least one published entry.
+ * The set is loaded with two distinct queries on first use and kept up to date from publish and unpublish notifications, once the
+ * change they report is committed. Publishing only ever adds an organization, so it is added in place. Unpublishing may remove the
+ * last entry of an organization, which can only be known from the database, so the set is dropped and loaded again on the next
+ * request. A set loaded while a change was committed is used for that request but not kept.
+ * Changes made by other webservices on the same database are not reported, so a loaded set is only trusted for a limited time.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class PublishedOrganizations implements StateListenerInterface {
+
+    private static final long MAX_AGE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final ToolDAO toolDAO;
+    private final WorkflowDAO workflowDAO;
+    /**
+     * Counts the committed changes, a set loaded across one may have missed it
+     */
+    private final AtomicLong changes = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    public PublishedOrganizations(ToolDAO toolDAO, WorkflowDAO workflowDAO) {
+        this.toolDAO = toolDAO;
+        this.workflowDAO = workflowDAO;
+    }
+
+    /**
+     * Must be called inside a unit of work since the organizations may need to be loaded.
+     *
+     * @return the sorted lower case organizations with published entries
+     */
+    public SortedSet<String> getOrganizations() {
+        Snapshot current = snapshot;
+        if (current == null || System.nanoTime() - current.loaded > MAX_AGE_NANOS) {
+            long before = changes.get();
+            current = new Snapshot(load());
+            synchronized (this) {
+                if (changes.get() == before) {
+                    snapshot = current;
+                }
+            }
+        }
+        return Collections.unmodifiableSortedSet(current.organizations);
+    }
+
+    private SortedSet<String> load() {
+        SortedSet<String> organizations = new ConcurrentSkipListSet<>();
+        organizations.addAll(toolDAO.findPublishedNamespaces());
+        organizations.addAll(workflowDAO.findPublishedOrganizations());
+        return organizations;
+    }
+
+    private static String organization(Entry entry) {
+        String organization = entry instanceof Workflow ? ((Workflow)entry).getOrganization() : ((Tool)entry).getNamespace();
+        return organization == null ? null : organization.toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void handleIndexUpdate(Entry entry, ElasticMode command) {
+        String organization = organization(entry);
+        boolean published = command == ElasticMode.UPDATE && entry.getIsPublished();
+        ElasticManager.afterCommit(() -> changed(organization, published));
+    }
+
+    private synchronized void changed(String organization, boolean published) {
+        changes.incrementAndGet();
+        Snapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        if (published) {
+            if (organization != null) {
+                current.organizations.add(organization);
+            }
+        } else {
+            snapshot = null;
+        }
+    }
+
+    @Override
+    public void bulkUpsert(List<Entry> updated) {
+        updated.forEach(entry -> handleIndexUpdate(entry, ElasticMode.UPDATE));
+    }
+
+    private static final class Snapshot {
+        private final SortedSet<String> organizations;
+        private final long loaded = System.nanoTime();
+
+        Snapshot(SortedSet<String> organizations) {
+            this.organizations = organizations;
+        }
+    }
+}
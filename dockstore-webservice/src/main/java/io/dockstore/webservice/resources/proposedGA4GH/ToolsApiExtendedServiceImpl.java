@@ -17,36 +17,45 @@
 package io.dockstore.webservice.resources.proposedGA4GH;
 
 import java.io.IOException;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
 
-import com.google.common.io.Resources;
 import io.dockstore.webservice.CustomWebApplicationException;
 import io.dockstore.webservice.DockstoreWebserviceConfiguration;
 import io.dockstore.webservice.core.Entry;
 import io.dockstore.webservice.core.Tool;
 import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.helpers.ElasticIndexer;
 import io.dockstore.webservice.helpers.ElasticManager;
+import io.dockstore.webservice.helpers.EmbeddedSearchIndex;
+import io.dockstore.webservice.helpers.EntryReindexer;
+import io.dockstore.webservice.helpers.EntryVersionHelper;
+import io.dockstore.webservice.helpers.FacetIndex;
+import io.dockstore.webservice.helpers.JsonStreamer;
+import io.dockstore.webservice.helpers.SearchResultCache;
+import io.dockstore.webservice.helpers.SuggestIndex;
+import io.dockstore.webservice.jdbi.EntryDAO;
+import io.dockstore.webservice.jdbi.FetchPlan;
 import io.dockstore.webservice.jdbi.ToolDAO;
 import io.dockstore.webservice.jdbi.WorkflowDAO;
 import io.swagger.api.NotFoundException;
 import io.swagger.api.impl.ToolsImplCommon;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
 import org.apache.http.HttpStatus;
 import org.apache.http.entity.ContentType;
 import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.util.EntityUtils;
 import org.elasticsearch.client.RestClient;
 
 /**
@@ -56,54 +65,100 @@ import org.elasticsearch.client.RestClient;
  */
 public class ToolsApiExtendedServiceImpl extends ToolsExtendedApiService {
 
+    private static final int DEFAULT_FACETED_PAGE_SIZE = 100;
+    private static final int MAX_FACETED_PAGE_SIZE = 1000;
+    private static final int DEFAULT_SUGGESTIONS = 10;
+    private static final int MAX_SUGGESTIONS = 100;
+    private static final Comparator<String> GIT_URL_ORDER = Comparator.nullsLast(Comparator.naturalOrder());
+
     private static ToolDAO toolDAO = null;
     private static WorkflowDAO workflowDAO = null;
     private static DockstoreWebserviceConfiguration config = null;
+    private static PublishedOrganizations publishedOrganizations = null;
+    private static JsonStreamer jsonStreamer = null;
+    private static ElasticIndexer elasticIndexer = null;
+    private static EntryReindexer entryReindexer = null;
+    private static EmbeddedSearchIndex embeddedSearchIndex = null;
+    private static SearchResultCache searchResultCache = null;
+    private static SuggestIndex suggestIndex = null;
+    private static FacetIndex facetIndex = null;
+    private static EntryVersionHelper<Tool> toolVersionHelper = null;
+    private static EntryVersionHelper<Workflow> workflowVersionHelper = null;
 
     public static void setToolDAO(ToolDAO toolDAO) {
         ToolsApiExtendedServiceImpl.toolDAO = toolDAO;
+        ToolsApiExtendedServiceImpl.toolVersionHelper = new EntryVersionHelper<>(toolDAO);
     }
 
     public static void setWorkflowDAO(WorkflowDAO workflowDAO) {
         ToolsApiExtendedServiceImpl.workflowDAO = workflowDAO;
+        ToolsApiExtendedServiceImpl.workflowVersionHelper = new EntryVersionHelper<>(workflowDAO);
+    }
+
+    public static void setJsonStreamer(JsonStreamer jsonStreamer) {
+        ToolsApiExtendedServiceImpl.jsonStreamer = jsonStreamer;
+    }
+
+    public static void setElasticIndexer(ElasticIndexer elasticIndexer) {
+        ToolsApiExtendedServiceImpl.elasticIndexer = elasticIndexer;
+    }
+
+    public static void setEntryReindexer(EntryReindexer entryReindexer) {
+        ToolsApiExtendedServiceImpl.entryReindexer = entryReindexer;
+    }
+
+    public static void setEmbeddedSearchIndex(EmbeddedSearchIndex embeddedSearchIndex) {
+        ToolsApiExtendedServiceImpl.embeddedSearchIndex = embeddedSearchIndex;
+    }
+
+    public static void setSearchResultCache(SearchResultCache searchResultCache) {
+        ToolsApiExtendedServiceImpl.searchResultCache = searchResultCache;
+    }
+
+    public static void setSuggestIndex(SuggestIndex suggestIndex) {
+        ToolsApiExtendedServiceImpl.suggestIndex = suggestIndex;
+    }
+
+    public static void setFacetIndex(FacetIndex facetIndex) {
+        ToolsApiExtendedServiceImpl.facetIndex = facetIndex;
+    }
+
+    public static void setPublishedOrganizations(PublishedOrganizations publishedOrganizations) {
+        ToolsApiExtendedServiceImpl.publishedOrganizations = publishedOrganizations;
     }
 
     public static void setConfig(DockstoreWebserviceConfiguration config) {
         ToolsApiExtendedServiceImpl.config = config;
     }
 
-    /**
-     * Avoid using this one, this is quite slow
-     *
-     * @return
-     */
-    private List<Entry> getPublished() {
-        final List<Entry> published = new ArrayList<>();
-        published.addAll(toolDAO.findAllPublished());
-        published.addAll(workflowDAO.findAllPublished());
-        published.sort(Comparator.comparing(Entry::getGitUrl));
-        return published;
+    @Override
+    public Response toolsOrgGet(String organization, SecurityContext securityContext) throws NotFoundException {
+        // only the keys are loaded here, the entries are loaded batch by batch while the response is written
+        final List<Pair<EntryDAO.Keyset, Boolean>> keys = new ArrayList<>();
+        workflowDAO.findPublishedKeysByOrganization(organization).forEach(key -> keys.add(Pair.of(key, true)));
+        toolDAO.findPublishedKeysByNamespace(organization).forEach(key -> keys.add(Pair.of(key, false)));
+        keys.sort(Comparator.comparing(key -> key.getLeft().getGitUrl(), GIT_URL_ORDER));
+        return Response.ok(jsonStreamer.stream(keys, this::getPublishedByKeys)).build();
     }
 
     /**
-     * More optimized
+     * Load a batch of published entries, ordered by git url like the keys
      *
-     * @param organization
-     * @return
+     * @param keys the keys of the entries, true for workflows
+     * @return the entries, detached with their versions loaded
      */
-    private List<Entry> getPublishedByOrganization(String organization) {
+    private List<Entry> getPublishedByKeys(List<Pair<EntryDAO.Keyset, Boolean>> keys) {
+        final Map<Boolean, List<Long>> ids = keys.stream()
+                .collect(Collectors.partitioningBy(Pair::getRight, Collectors.mapping(key -> key.getLeft().getId(), Collectors.toList())));
         final List<Entry> published = new ArrayList<>();
-        published.addAll(workflowDAO.findPublishedByOrganization(organization));
-        published.addAll(toolDAO.findPublishedByNamespace(organization));
-        published.sort(Comparator.comparing(Entry::getGitUrl));
+        published.addAll(workflowVersionHelper
+                .filterContainersForHiddenTags(workflowDAO.findPublishedByIds(ids.get(true), FetchPlan.WITH_VERSIONS)));
+        published.addAll(toolVersionHelper
+                .filterContainersForHiddenTags(toolDAO.findPublishedByIds(ids.get(false), FetchPlan.WITH_VERSIONS)));
+        published.sort(Comparator.comparing(Entry::getGitUrl, GIT_URL_ORDER));
         return published;
     }
 
-    @Override
-    public Response toolsOrgGet(String organization, SecurityContext securityContext) throws NotFoundException {
-        return Response.ok().entity(getPublishedByOrganization(organization)).build();
-    }
-
     private List<io.swagger.model.Tool> workflowOrgGetList(String organization) {
         List<Workflow> published = workflowDAO.findPublishedByOrganization(organization);
         return published.stream().map(c -> ToolsImplCommon.convertContainer2Tool(c, config).getLeft()).collect(Collectors.toList());
@@ -126,63 +181,43 @@ public class ToolsApiExtendedServiceImpl extends ToolsExtendedApiService {
 
     @Override
     public Response organizationsGet(SecurityContext securityContext) {
-        List<String> organizations = new ArrayList<>();
-        for (Entry c : getPublished()) {
-            String org;
-            if (c instanceof Workflow) {
-                org = ((Workflow)c).getOrganization().toLowerCase();
-            } else {
-                org = ((Tool)c).getNamespace().toLowerCase();
-            }
-            if (!organizations.contains(org)) {
-                organizations.add(org);
-            }
-        }
-        return Response.ok(organizations).build();
+        return Response.ok(new ArrayList<>(publishedOrganizations.getOrganizations())).build();
     }
 
     @Override
     public Response toolsIndexGet(SecurityContext securityContext) throws NotFoundException {
-        List<Entry> published = getPublished();
-        if (!config.getEsConfiguration().getHostname().isEmpty() && !published.isEmpty()) {
-
-            try (RestClient restClient = RestClient
-                    .builder(new HttpHost(config.getEsConfiguration().getHostname(), config.getEsConfiguration().getPort(), "http"))
-                    .build()) {
-
-                // Delete index
-                try {
-                    restClient.performRequest("DELETE", "/entry");
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-
-                // Get index mapping
-                URL url = Resources.getResource("queries/mapping.json");
-                String text = Resources.toString(url, StandardCharsets.UTF_8);
-                HttpEntity mappingEntity = new NStringEntity(text, ContentType.APPLICATION_JSON);
-
-                // Create index
-                restClient.performRequest("PUT", "/entry", Collections.emptyMap(), mappingEntity);
-
-                // Populate index
-
-                ElasticManager elasticManager = new ElasticManager();
-                elasticManager.bulkUpsert(published);
-            } catch (IOException e) {
-                throw new CustomWebApplicationException(e.getMessage(), HttpStatus.SC_INTERNAL_SERVER_ERROR);
-            }
-            return Response.ok().entity(published.size()).build();
+        if (elasticIndexer.isEnabled()) {
+            // searches keep using the current index until the new one is complete, the progress is polled with a GET
+            EntryReindexer.Progress progress = entryReindexer.reindex();
+            return Response.accepted().entity(progress.getIndex()).build();
+        }
+        if (embeddedSearchIndex.isEnabled()) {
+            return Response.ok().entity(embeddedSearchIndex.rebuild()).build();
         }
         return Response.ok().entity(0).build();
     }
 
+    @Override
+    public Response toolsIndexStatusGet(SecurityContext securityContext) {
+        EntryReindexer.Progress progress = entryReindexer.getProgress();
+        if (progress == null) {
+            throw new CustomWebApplicationException("No reindex has run", HttpStatus.SC_NOT_FOUND);
+        }
+        return Response.ok().entity(progress).build();
+    }
+
     @Override
     public Response toolsIndexSearch(String query, MultivaluedMap<String, String> queryParameters, SecurityContext securityContext) {
-        if (!config.getEsConfiguration().getHostname().isEmpty()) {
-            try (RestClient restClient = RestClient
-                    .builder(new HttpHost(config.getEsConfiguration().getHostname(), config.getEsConfiguration().getPort(), "http"))
-                    .build()) {
+        if (elasticIndexer.isEnabled()) {
+            RestClient restClient = elasticIndexer.getClient();
+            // read before searching, a change to the index made during the search makes the response stale
+            long generation = ElasticManager.getGeneration();
+            String cacheKey = searchResultCache.isEnabled() ? searchResultCache.key(query, queryParameters) : null;
+            byte[] cached = cacheKey == null ? null : searchResultCache.get(cacheKey, generation);
+            if (cached != null) {
+                return Response.ok().entity(cached).build();
+            }
+            try {
                 HttpEntity entity = query == null ? null : new NStringEntity(query, ContentType.APPLICATION_JSON);
                 Map<String, String> parameters = new HashMap<>();
                 // TODO: note that this is lossy if there are repeated parameters
@@ -193,11 +228,62 @@ public class ToolsApiExtendedServiceImpl extends ToolsExtendedApiService {
                     throw new CustomWebApplicationException("Could not submit index to elastic search",
                             HttpStatus.SC_INTERNAL_SERVER_ERROR);
                 }
-                return Response.ok().entity(get.getEntity().getContent()).build();
+                if (cacheKey == null) {
+                    return Response.ok().entity(get.getEntity().getContent()).build();
+                }
+                byte[] content = EntityUtils.toByteArray(get.getEntity());
+                searchResultCache.put(cacheKey, generation, content);
+                return Response.ok().entity(content).build();
             } catch (IOException e) {
                 throw new CustomWebApplicationException(e.getMessage(), HttpStatus.SC_INTERNAL_SERVER_ERROR);
             }
         }
+        if (embeddedSearchIndex.isEnabled() && embeddedSearchIndex.isReady()) {
+            Map<String, String> parameters = new HashMap<>();
+            queryParameters.forEach((key, value) -> parameters.put(key, value.get(0)));
+            try {
+                return Response.ok().entity(embeddedSearchIndex.search(query, parameters)).build();
+            } catch (IOException e) {
+                throw new CustomWebApplicationException(e.getMessage(), HttpStatus.SC_BAD_REQUEST);
+            }
+        }
         return Response.ok().entity(0).build();
     }
+
+    @Override
+    public Response entriesFacetedGet(Map<String, List<String>> filters, Integer offset, Integer limit, SecurityContext securityContext) {
+        int skip = offset == null ? 0 : offset;
+        int max = limit == null ? DEFAULT_FACETED_PAGE_SIZE : limit;
+        if (skip < 0 || max < 0 || max > MAX_FACETED_PAGE_SIZE) {
+            throw new CustomWebApplicationException("The offset must not be negative and the limit must be between 0 and "
+                    + MAX_FACETED_PAGE_SIZE, HttpStatus.SC_BAD_REQUEST);
+        }
+        FacetIndex.Page page = facetIndex.filter(filters, skip, max);
+        // the index only knows the ids, the entries of the page are read in one query per type
+        List<Long> toolIds = page.getKeys().stream().filter(key -> !key.getLeft()).map(Pair::getRight).collect(Collectors.toList());
+        List<Long> workflowIds = page.getKeys().stream().filter(Pair::getLeft).map(Pair::getRight).collect(Collectors.toList());
+        Map<Pair<Boolean, Long>, Entry> entries = new HashMap<>();
+        toolDAO.findPublishedByIds(toolIds, FetchPlan.SUMMARY).forEach(tool -> entries.put(Pair.of(false, tool.getId()), tool));
+        workflowDAO.findPublishedByIds(workflowIds, FetchPlan.SUMMARY)
+                .forEach(workflow -> entries.put(Pair.of(true, workflow.getId()), workflow));
+        // entries unpublished since the page was taken are left out
+        page.setEntries(page.getKeys().stream().map(entries::get).filter(Objects::nonNull).collect(Collectors.toList()));
+        return Response.ok(page).build();
+    }
+
+    @Override
+    public Response suggestGet(String prefix, String type, Integer limit, SecurityContext securityContext) {
+        if (prefix == null || prefix.isEmpty()) {
+            throw new CustomWebApplicationException("Nothing to complete", HttpStatus.SC_BAD_REQUEST);
+        }
+        if (type != null && !Arrays.asList(SuggestIndex.TOOL, SuggestIndex.WORKFLOW, SuggestIndex.ORGANIZATION, SuggestIndex.LABEL)
+                .contains(type)) {
+            throw new CustomWebApplicationException("Unknown type " + type, HttpStatus.SC_BAD_REQUEST);
+        }
+        int max = limit == null ? DEFAULT_SUGGESTIONS : limit;
+        if (max < 0 || max > MAX_SUGGESTIONS) {
+            throw new CustomWebApplicationException("The limit must be between 0 and " + MAX_SUGGESTIONS, HttpStatus.SC_BAD_REQUEST);
+        }
+        return Response.ok(suggestIndex.suggest(prefix, type, max)).build();
+    }
 }
@@ -15,17 +15,25 @@
  */
 package io.dockstore.webservice.resources.proposedGA4GH;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
 import javax.ws.rs.core.UriInfo;
 
 import io.dockstore.webservice.DockstoreWebserviceApplication;
+import io.dockstore.webservice.helpers.EntryReindexer;
+import io.dockstore.webservice.helpers.FacetIndex;
+import io.dockstore.webservice.helpers.SuggestIndex;
 import io.dropwizard.hibernate.UnitOfWork;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
@@ -73,12 +81,24 @@ public class ToolsExtendedApi {
     @Path("/tools/index")
     @UnitOfWork
     @Produces({ "text/plain" })
-    @ApiOperation(value = "Update the index of tools", notes = "This endpoint updates the index for all published tools and workflows. ", response = Integer.class)
-    @ApiResponses(value = { @ApiResponse(code = HttpStatus.SC_OK, message = "An array of Tools of the input organization.") })
+    @ApiOperation(value = "Update the index of tools", notes = "This endpoint updates the index for all published tools and workflows. With elastic search the index is rebuilt in the background, its progress is shown by a GET. ", response = String.class)
+    @ApiResponses(value = { @ApiResponse(code = HttpStatus.SC_OK, message = "The number of entries indexed."),
+            @ApiResponse(code = HttpStatus.SC_ACCEPTED, message = "The name of the index being built."),
+            @ApiResponse(code = HttpStatus.SC_CONFLICT, message = "The index is already being updated.") })
     public Response toolsIndexGet(@Context SecurityContext securityContext) throws NotFoundException {
         return delegate.toolsIndexGet(securityContext);
     }
 
+    @GET
+    @Path("/tools/index")
+    @Produces({ "application/json" })
+    @ApiOperation(value = "Progress of the index update", notes = "This endpoint shows how far along the running (or last) update of the index is. ", response = EntryReindexer.Progress.class)
+    @ApiResponses(value = { @ApiResponse(code = HttpStatus.SC_OK, message = "The progress of the index update.", response = EntryReindexer.Progress.class),
+            @ApiResponse(code = HttpStatus.SC_NOT_FOUND, message = "The index has not been updated since the webservice started.") })
+    public Response toolsIndexStatusGet(@Context SecurityContext securityContext) {
+        return delegate.toolsIndexStatusGet(securityContext);
+    }
+
     @GET
     @Path("/workflows/{organization}")
     @UnitOfWork
@@ -116,4 +136,42 @@ public class ToolsExtendedApi {
             @Context SecurityContext securityContext) {
         return delegate.organizationsGet(securityContext);
     }
+
+    @GET
+    @Path("/entries")
+    @UnitOfWork
+    @Produces({ "application/json" })
+    @ApiOperation(value = "Filter published entries by facets", notes = "This endpoint returns a page of the published tools and workflows that have one of the values given for every facet, with the number of entries each facet value would match. ", response = FacetIndex.Page.class)
+    @ApiResponses(value = { @ApiResponse(code = HttpStatus.SC_OK, message = "A page of entries with the counts of the facet values.", response = FacetIndex.Page.class) })
+    public Response entriesFacetedGet(@ApiParam(value = "tool or workflow") @QueryParam("type") List<String> type,
+            @ApiParam(value = "A registry, for example `quay.io` or `github.com`") @QueryParam("registry") List<String> registry,
+            @ApiParam(value = "An organization, for example `cancercollaboratory`") @QueryParam("organization") List<String> organization,
+            @ApiParam(value = "cwl or wdl") @QueryParam("descriptorType") List<String> descriptorType,
+            @ApiParam(value = "true or false") @QueryParam("verified") List<String> verified,
+            @ApiParam(value = "A label") @QueryParam("label") List<String> label,
+            @ApiParam(value = "The number of entries to skip") @QueryParam("offset") Integer offset,
+            @ApiParam(value = "The maximum number of entries, 100 by default") @QueryParam("limit") Integer limit,
+            @Context SecurityContext securityContext) {
+        Map<String, List<String>> filters = new LinkedHashMap<>();
+        filters.put(FacetIndex.TYPE, type);
+        filters.put(FacetIndex.REGISTRY, registry);
+        filters.put(FacetIndex.ORGANIZATION, organization);
+        filters.put(FacetIndex.DESCRIPTOR_TYPE, descriptorType);
+        filters.put(FacetIndex.VERIFIED, verified);
+        filters.put(FacetIndex.LABEL, label);
+        return delegate.entriesFacetedGet(filters, offset, limit, securityContext);
+    }
+
+    @GET
+    @Path("/suggest")
+    @Produces({ "application/json" })
+    @ApiOperation(value = "Suggest completions", notes = "This endpoint completes the start of tool paths, organizations, workflow paths and labels of published entries. ", response = SuggestIndex.Suggestion.class, responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = HttpStatus.SC_OK, message = "The completions, most used first.", response = SuggestIndex.Suggestion.class, responseContainer = "List") })
+    public Response suggestGet(@ApiParam(value = "The start of what is typed", required = true) @QueryParam("q") String prefix,
+            @ApiParam(value = "Only complete this type: tool, workflow, organization or label") @QueryParam("type") String type,
+            @ApiParam(value = "The maximum number of completions, 10 by default") @QueryParam("limit") Integer limit,
+            @Context SecurityContext securityContext) {
+        return delegate.suggestGet(prefix, type, limit, securityContext);
+    }
 }
@@ -17,6 +17,9 @@ package io.dockstore.webservice.resources.proposedGA4GH;
 
 import io.swagger.api.NotFoundException;
 
+import java.util.List;
+import java.util.Map;
+
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
@@ -34,5 +37,12 @@ public abstract class ToolsExtendedApiService {
 
     public abstract Response toolsIndexGet(SecurityContext securityContext) throws NotFoundException;
 
+    public abstract Response toolsIndexStatusGet(SecurityContext securityContext);
+
     public abstract Response toolsIndexSearch(String query, MultivaluedMap<String, String> queryParameters, SecurityContext securityContext);
+
+    public abstract Response entriesFacetedGet(Map<String, List<String>> filters, Integer offset, Integer limit,
+            SecurityContext securityContext);
+
+    public abstract Response suggestGet(String prefix, String type, Integer limit, SecurityContext securityContext);
 }
@@ -0,0 +1,309 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.swagger.api.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.ws.rs.WebApplicationException;
+
+import com.google.common.base.Splitter;
+import io.dockstore.webservice.jdbi.EntryDAO;
+import io.dockstore.webservice.jdbi.PublishedEntryFilter;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
+
+/**
+ * Pages through the published tools and workflows as one listing in the order of {@link EntryDAO.Keyset#ORDER}.
+ * The tables are walked separately by keyset and merged, the offset of a page is an opaque cursor holding a position in each
+ * table. The database sorts with the same order as the merge, independent of its collation, so that no entry is skipped or
+ * repeated at a page boundary.
+ * <p>
+ * Offsets used to be page numbers, those still work by walking the keys from the start {@link #SKIPPED_PER_WALK} at a time, which
+ * gets slower the deeper the page. The links handed out are cursors. The last page is the one page numbers would reach last, so
+ * that it holds the same entries whether it is reached by a page number, by following cursors, or by its own link.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+class ListingPager {
+    /**
+     * How many keys a page number skips with one query
+     */
+    static final int SKIPPED_PER_WALK = 10000;
+
+    private static final String LAST = "last";
+
+    private final KeySource tools;
+    private final KeySource workflows;
+
+    /**
+     * @param tools     the keys of the matching tools
+     * @param workflows the keys of the matching workflows, null if none can match
+     */
+    ListingPager(KeySource tools, KeySource workflows) {
+        this.tools = tools;
+        this.workflows = workflows;
+    }
+
+    /**
+     * @return the offset of the page holding the last entries, it is resolved when it is requested so that no request counts
+     */
+    static String lastOffset() {
+        return encode(LAST);
+    }
+
+    /**
+     * @param offset a cursor handed out earlier, a page number, or null for the first page
+     * @param limit  the size of the page
+     * @return the page
+     */
+    Page page(String offset, int limit) {
+        if (offset == null) {
+            return walk(Cursor.START, 0, limit);
+        }
+        if (StringUtils.isNumeric(offset)) {
+            long skip;
+            try {
+                skip = Math.multiplyExact(Long.parseLong(offset), limit);
+            } catch (ArithmeticException | NumberFormatException e) {
+                throw new WebApplicationException("Could not parse offset " + offset, HttpStatus.SC_BAD_REQUEST);
+            }
+            return skipAndWalk(skip, limit);
+        }
+        String raw = decode(offset);
+        return LAST.equals(raw) ? last(limit) : walk(Cursor.parse(raw, offset), 0, limit);
+    }
+
+    /**
+     * Skip the entries of the pages before a page number, only the keys of one walk at a time are held
+     */
+    private Page skipAndWalk(long skip, int limit) {
+        Cursor cursor = Cursor.START;
+        long remaining = skip;
+        while (remaining > SKIPPED_PER_WALK) {
+            List<Item> skipped = merge(tools.find(cursor.tool, SKIPPED_PER_WALK, false),
+                    find(workflows, cursor.workflow, SKIPPED_PER_WALK, false), EntryDAO.Keyset.ORDER, SKIPPED_PER_WALK);
+            if (skipped.size() < SKIPPED_PER_WALK) {
+                return new Page(new ArrayList<>(), null);
+            }
+            cursor = cursor.after(skipped);
+            remaining -= SKIPPED_PER_WALK;
+        }
+        return walk(cursor, (int)remaining, limit);
+    }
+
+    private Page walk(Cursor cursor, int skip, int limit) {
+        int size = skip + limit + 1;
+        List<Item> walked = merge(tools.find(cursor.tool, size, false), find(workflows, cursor.workflow, size, false),
+                EntryDAO.Keyset.ORDER, size);
+        List<Item> items = walked.subList(Math.min(skip, walked.size()), Math.min(skip + limit, walked.size()));
+        String next = walked.size() > skip + limit ? encode(cursor.after(walked.subList(0, skip + limit)).format()) : null;
+        return new Page(new ArrayList<>(items), next);
+    }
+
+    /**
+     * The page boundaries are counted from the start, the last page holds what is left after the full pages
+     */
+    private Page last(int limit) {
+        long total = tools.count() + (workflows == null ? 0 : workflows.count());
+        int size = total == 0 ? 0 : (int)((total - 1) % limit) + 1;
+        List<Item> items = merge(find(tools, null, size, true), find(workflows, null, size, true),
+                EntryDAO.Keyset.ORDER.reversed(), size);
+        Collections.reverse(items);
+        return new Page(items, null);
+    }
+
+    private static List<EntryDAO.Keyset> find(KeySource source, EntryDAO.Keyset after, int limit, boolean reverse) {
+        return source == null || limit == 0 ? new ArrayList<>() : source.find(after, limit, reverse);
+    }
+
+    /**
+     * Interleave the keys walked in each table, each list is consumed from its start so that a cursor stays a position per table
+     */
+    private static List<Item> merge(List<EntryDAO.Keyset> tools, List<EntryDAO.Keyset> workflows, Comparator<EntryDAO.Keyset> order,
+            int size) {
+        List<Item> merged = new ArrayList<>();
+        int toolIndex = 0;
+        int workflowIndex = 0;
+        while (merged.size() < size && (toolIndex < tools.size() || workflowIndex < workflows.size())) {
+            if (workflowIndex >= workflows.size() || (toolIndex < tools.size()
+                    && order.compare(tools.get(toolIndex), workflows.get(workflowIndex)) <= 0)) {
+                merged.add(new Item(tools.get(toolIndex++), false));
+            } else {
+                merged.add(new Item(workflows.get(workflowIndex++), true));
+            }
+        }
+        return merged;
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String offset) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(offset), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException("Could not parse offset " + offset, HttpStatus.SC_BAD_REQUEST);
+        }
+    }
+
+    /**
+     * @param dao    the table to walk
+     * @param filter filters to apply to the published entries
+     * @return the keys of the published entries of the table that match the filter
+     */
+    static KeySource published(EntryDAO<?> dao, PublishedEntryFilter filter) {
+        return new KeySource() {
+            @Override
+            public List<EntryDAO.Keyset> find(EntryDAO.Keyset after, int limit, boolean reverse) {
+                return dao.findPublishedKeys(filter, after, limit, reverse);
+            }
+
+            @Override
+            public long count() {
+                return dao.countPublishedKeys(filter);
+            }
+        };
+    }
+
+    /**
+     * Walks the keys of one table in the order of {@link EntryDAO.Keyset#ORDER}
+     */
+    interface KeySource {
+        /**
+         * @param after   the last key already seen, null to start from the beginning (or end)
+         * @param limit   the maximum number of keys to return
+         * @param reverse walk backwards from the end
+         * @return the keys in walking order
+         */
+        List<EntryDAO.Keyset> find(EntryDAO.Keyset after, int limit, boolean reverse);
+
+        /**
+         * @return the number of keys that can be walked
+         */
+        long count();
+    }
+
+    /**
+     * The keys of a page and the offset of the page after it
+     */
+    static final class Page {
+        private final List<Item> items;
+        private final String next;
+
+        Page(List<Item> items, String next) {
+            this.items = items;
+            this.next = next;
+        }
+
+        List<Item> getItems() {
+            return items;
+        }
+
+        /**
+         * @return the offset of the next page, null if this is the last one
+         */
+        String getNext() {
+            return next;
+        }
+    }
+
+    static final class Item {
+        private final EntryDAO.Keyset key;
+        private final boolean workflow;
+
+        Item(EntryDAO.Keyset key, boolean workflow) {
+            this.key = key;
+            this.workflow = workflow;
+        }
+
+        EntryDAO.Keyset getKey() {
+            return key;
+        }
+
+        boolean isWorkflow() {
+            return workflow;
+        }
+    }
+
+    /**
+     * A position in the listing, kept separately for tools and workflows so that each table can be paged by its own index
+     */
+    private static final class Cursor {
+        static final Cursor START = new Cursor(null, null);
+        private final EntryDAO.Keyset tool;
+        private final EntryDAO.Keyset workflow;
+
+        Cursor(EntryDAO.Keyset tool, EntryDAO.Keyset workflow) {
+            this.tool = tool;
+            this.workflow = workflow;
+        }
+
+        /**
+         * @param seen entries already returned, in order
+         * @return the position after all of the seen entries
+         */
+        Cursor after(List<Item> seen) {
+            EntryDAO.Keyset lastTool = tool;
+            EntryDAO.Keyset lastWorkflow = workflow;
+            for (Item item : seen) {
+                if (item.workflow) {
+                    lastWorkflow = item.key;
+                } else {
+                    lastTool = item.key;
+                }
+            }
+            return new Cursor(lastTool, lastWorkflow);
+        }
+
+        String format() {
+            return formatKey(tool) + '\n' + formatKey(workflow);
+        }
+
+        private static String formatKey(EntryDAO.Keyset key) {
+            return key == null ? "" : key.getId() + "\t" + key.getGitUrl();
+        }
+
+        static Cursor parse(String raw, String offset) {
+            try {
+                List<String> keys = Splitter.on('\n').splitToList(raw);
+                if (keys.size() != 2) {
+                    throw new IllegalArgumentException(offset);
+                }
+                return new Cursor(parseKey(keys.get(0)), parseKey(keys.get(1)));
+            } catch (IllegalArgumentException e) {
+                throw new WebApplicationException("Could not parse offset " + offset, HttpStatus.SC_BAD_REQUEST);
+            }
+        }
+
+        private static EntryDAO.Keyset parseKey(String key) {
+            if (key.isEmpty()) {
+                return null;
+            }
+            int separator = key.indexOf('\t');
+            if (separator < 0) {
+                throw new IllegalArgumentException(key);
+            }
+            return new EntryDAO.Keyset(key.substring(separator + 1), Long.parseLong(key.substring(0, separator)));
+        }
+    }
+}
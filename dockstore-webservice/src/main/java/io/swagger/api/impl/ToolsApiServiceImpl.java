@@ -18,31 +18,31 @@ package io.swagger.api.impl;
 
 import avro.shaded.com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Table;
 import io.dockstore.webservice.DockstoreWebserviceConfiguration;
+import io.dockstore.webservice.core.CompressedText;
 import io.dockstore.webservice.core.Entry;
 import io.dockstore.webservice.core.SourceFile;
-import io.dockstore.webservice.core.Tool;
-import io.dockstore.webservice.core.Version;
-import io.dockstore.webservice.core.Workflow;
-import io.dockstore.webservice.helpers.EntryVersionHelper;
+import io.dockstore.webservice.helpers.ConditionalResponses;
+import io.dockstore.webservice.helpers.JsonStreamer;
+import io.dockstore.webservice.jdbi.FileDAO;
+import io.dockstore.webservice.jdbi.PublishedEntryFilter;
 import io.dockstore.webservice.jdbi.ToolDAO;
 import io.dockstore.webservice.jdbi.WorkflowDAO;
 import io.swagger.api.NotFoundException;
 import io.swagger.api.ToolsApiService;
 import io.swagger.model.ToolDescriptor;
 import io.swagger.model.ToolDockerfile;
-import io.swagger.model.ToolVersion;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
 
@@ -53,11 +53,10 @@ import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 import static io.dockstore.webservice.core.SourceFile.FileType.CWL_TEST_JSON;
@@ -74,6 +73,9 @@ public class ToolsApiServiceImpl extends ToolsApiService {
     private static ToolDAO toolDAO = null;
     private static WorkflowDAO workflowDAO = null;
     private static DockstoreWebserviceConfiguration config = null;
+    private static ToolsCatalog toolsCatalog = null;
+    private static FileDAO fileDAO = null;
+    private static JsonStreamer jsonStreamer = null;
 
     public static void setToolDAO(ToolDAO toolDAO) {
         ToolsApiServiceImpl.toolDAO = toolDAO;
@@ -86,6 +88,18 @@ public class ToolsApiServiceImpl extends ToolsApiService {
         ToolsApiServiceImpl.config = config;
     }
 
+    public static void setFileDAO(FileDAO fileDAO) {
+        ToolsApiServiceImpl.fileDAO = fileDAO;
+    }
+
+    public static void setJsonStreamer(JsonStreamer jsonStreamer) {
+        ToolsApiServiceImpl.jsonStreamer = jsonStreamer;
+    }
+
+    public static void setToolsCatalog(ToolsCatalog toolsCatalog) {
+        ToolsApiServiceImpl.toolsCatalog = toolsCatalog;
+    }
+
     @Override
     public Response toolsIdGet(String id, SecurityContext securityContext, ContainerRequestContext value) throws NotFoundException {
         ParsedRegistryID parsedID = new ParsedRegistryID(id);
@@ -166,7 +180,8 @@ public class ToolsApiServiceImpl extends ToolsApiService {
         if (fileType == null) {
             return Response.status(Response.Status.NOT_FOUND).build();
         }
-        return getFileByToolVersionID(id, versionId, fileType, null, value.getAcceptableMediaTypes().contains(MediaType.TEXT_PLAIN_TYPE) || StringUtils.containsIgnoreCase(type, "plain"));
+        return getFileByToolVersionID(id, versionId, fileType, null, value.getAcceptableMediaTypes().contains(MediaType.TEXT_PLAIN_TYPE) || StringUtils.containsIgnoreCase(type, "plain"),
+                acceptsGzip(value), value.getRequest());
     }
 
     @Override
@@ -180,7 +195,8 @@ public class ToolsApiServiceImpl extends ToolsApiService {
             return Response.status(Response.Status.NOT_FOUND).build();
         }
 
-        return getFileByToolVersionID(id, versionId, fileType, relativePath, value.getAcceptableMediaTypes().contains(MediaType.TEXT_PLAIN_TYPE) || StringUtils.containsIgnoreCase(type, "plain"));
+        return getFileByToolVersionID(id, versionId, fileType, relativePath, value.getAcceptableMediaTypes().contains(MediaType.TEXT_PLAIN_TYPE) || StringUtils.containsIgnoreCase(type, "plain"),
+                acceptsGzip(value), value.getRequest());
     }
 
 
@@ -203,11 +219,11 @@ public class ToolsApiServiceImpl extends ToolsApiService {
         case CWL_TEST_JSON:
         case DOCKSTORE_CWL:
             return getFileByToolVersionID(id, versionId, CWL_TEST_JSON, null,
-                    plainTextResponse);
+                    plainTextResponse, false, value.getRequest());
         case WDL_TEST_JSON:
         case DOCKSTORE_WDL:
             return getFileByToolVersionID(id, versionId, WDL_TEST_JSON, null,
-                    plainTextResponse);
+                    plainTextResponse, false, value.getRequest());
         case DOCKERFILE:
             return Response.status(Response.Status.BAD_REQUEST).build();
 
@@ -235,84 +251,29 @@ public class ToolsApiServiceImpl extends ToolsApiService {
     @Override
     public Response toolsIdVersionsVersionIdDockerfileGet(String id, String versionId, SecurityContext securityContext, ContainerRequestContext value)
             throws NotFoundException {
-        return getFileByToolVersionID(id, versionId, DOCKERFILE, null, value.getAcceptableMediaTypes().contains(MediaType.TEXT_PLAIN_TYPE));
+        return getFileByToolVersionID(id, versionId, DOCKERFILE, null, value.getAcceptableMediaTypes().contains(MediaType.TEXT_PLAIN_TYPE),
+                acceptsGzip(value), value.getRequest());
     }
 
     @SuppressWarnings("CheckStyle")
     @Override
     public Response toolsGet(String registryId, String registry, String organization, String name, String toolname, String description,
             String author, String offset, Integer limit, SecurityContext securityContext, ContainerRequestContext value) throws NotFoundException {
-        final List<Entry> all = new ArrayList<>();
-        all.addAll(toolDAO.findAllPublished());
-        all.addAll(workflowDAO.findAllPublished());
-        all.sort(Comparator.comparing(Entry::getGitUrl));
-
-        List<io.swagger.model.Tool> results = new ArrayList<>();
-        for (Entry c : all) {
-            if (c instanceof Workflow && (registryId != null || registry != null || organization != null || name != null || toolname != null)) {
-                continue;
-            }
-
-            if (c instanceof Tool) {
-                Tool tool = (Tool)c;
-                // check each criteria. This sucks. Can we do this better with reflection? Or should we pre-convert?
-                if (registryId != null) {
-                    if (!registryId.contains(tool.getToolPath())) {
-                        continue;
-                    }
-                }
-                if (registry != null && tool.getRegistry() != null) {
-                    if (!tool.getRegistry().toString().contains(registry)) {
-                        continue;
-                    }
-                }
-                if (organization != null && tool.getNamespace() != null) {
-                    if (!tool.getNamespace().contains(organization)) {
-                        continue;
-                    }
-                }
-                if (name != null && tool.getName() != null) {
-                    if (!tool.getName().contains(name)) {
-                        continue;
-                    }
-                }
-                if (toolname != null && tool.getToolname() != null) {
-                    if (!tool.getToolname().contains(toolname)) {
-                        continue;
-                    }
-                }
-            }
-            if (description != null && c.getDescription() != null) {
-                if (!c.getDescription().contains(description)) {
-                    continue;
-                }
-            }
-            if (author != null && c.getAuthor() != null) {
-                if (!c.getAuthor().contains(author)) {
-                    continue;
-                }
-            }
-            // if passing, for each container that matches the criteria, convert to standardised format and return
-            io.swagger.model.Tool tool = ToolsImplCommon.convertContainer2Tool(c, config).getLeft();
-            if (tool != null) {
-                results.add(tool);
-            }
-        }
-
         if (limit == null) {
             limit = DEFAULT_PAGE_SIZE;
         }
-        List<List<io.swagger.model.Tool>> pagedResults = Lists.partition(results, limit);
-        int offsetInteger = 0;
-        if (offset != null) {
-            offsetInteger = Integer.parseInt(offset);
-        }
-        if (offsetInteger >= pagedResults.size()) {
-            results = new ArrayList<>();
-        } else {
-            results = pagedResults.get(offsetInteger);
+        if (limit < 1) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
         }
-        final Response.ResponseBuilder responseBuilder = Response.ok(results);
+        final PublishedEntryFilter filter = new PublishedEntryFilter().setRegistryId(registryId).setRegistry(registry)
+                .setOrganization(organization).setName(name).setToolname(toolname).setDescription(description).setAuthor(author);
+
+        final ListingPager.Page page = new ListingPager(ListingPager.published(toolDAO, filter),
+                filter.hasToolOnlyFilter() ? null : ListingPager.published(workflowDAO, filter)).page(offset, limit);
+        // tools are converted while the response is written, a large limit does not mean holding the whole page at once
+        final Response.ResponseBuilder responseBuilder = Response.ok(jsonStreamer.stream(page.getItems(),
+                batch -> batch.stream().map(item -> toolsCatalog.getTool(item.getKey().getId(), item.isWorkflow())).filter(Objects::nonNull)
+                        .collect(Collectors.toList())));
         responseBuilder.header("current-offset", offset);
         responseBuilder.header("current-limit", limit);
         // construct links to other pages
@@ -327,13 +288,13 @@ public class ToolsApiServiceImpl extends ToolsApiService {
             handleParameter(registry, "registry", filters);
             handleParameter(limit.toString(), "limit", filters);
 
-            if (offsetInteger + 1 < pagedResults.size()) {
+            if (page.getNext() != null) {
                 URI nextPageURI = new URI(config.getScheme(), null, config.getHostname(), Integer.parseInt(config.getPort()),
-                        "/api/ga4gh/v1/tools", Joiner.on('&').join(filters) + "&offset=" + (offsetInteger + 1), null);
+                        "/api/ga4gh/v1/tools", Joiner.on('&').join(filters) + "&offset=" + page.getNext(), null);
                 responseBuilder.header("next-page", nextPageURI.toURL().toString());
             }
             URI lastPageURI = new URI(config.getScheme(), null, config.getHostname(), Integer.parseInt(config.getPort()),
-                    "/api/ga4gh/v1/tools", Joiner.on('&').join(filters) + "&offset=" + (pagedResults.size() - 1), null);
+                    "/api/ga4gh/v1/tools", Joiner.on('&').join(filters) + "&offset=" + ListingPager.lastOffset(), null);
             responseBuilder.header("last-page", lastPageURI.toURL().toString());
 
         } catch (URISyntaxException | MalformedURLException e) {
@@ -355,10 +316,12 @@ public class ToolsApiServiceImpl extends ToolsApiService {
      * @param type         type of file
      * @param relativePath if null, return the primary descriptor, if not null, return a specific file
      * @param unwrap       unwrap the file and present the descriptor sans wrapper model
+     * @param acceptsGzip  the client accepts a gzip content encoding, so a single compressed file can be sent as stored
+     * @param request      the request, with its conditional headers
      * @return a specific file wrapped in a response
      */
     private Response getFileByToolVersionID(String registryId, String versionId, SourceFile.FileType type, String relativePath,
-            boolean unwrap) {
+            boolean unwrap, boolean acceptsGzip, Request request) {
         // if a version is provided, get that version, otherwise return the newest
         ParsedRegistryID parsedID = new ParsedRegistryID(registryId);
         try {
@@ -366,76 +329,172 @@ public class ToolsApiServiceImpl extends ToolsApiService {
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException(e);
         }
-        Entry entry = getEntry(parsedID);
-        // check whether this is registered
-        if (!entry.getIsPublished()) {
-            return Response.status(Response.Status.UNAUTHORIZED).build();
+        // go straight to the files of the requested version rather than converting the whole entry
+        final boolean isTool = parsedID.isTool();
+        final String name = parsedID.getToolName();
+        final String path = isTool || name.isEmpty() ? parsedID.getPath() : parsedID.getPath() + "/" + name;
+        final String mediaType = unwrap ? MediaType.TEXT_PLAIN : MediaType.APPLICATION_JSON;
+
+        // engines poll descriptors, answer from the digests of the files if their copy is current
+        final boolean testFiles = type == CWL_TEST_JSON || type == WDL_TEST_JSON;
+        final List<FileDAO.FileStamp> stamps = !isTool && type == DOCKERFILE ? new ArrayList<>()
+                : fileDAO.findPublishedVersionFileStamps(isTool, path, name, versionId, relativePath == null || testFiles ? type : null,
+                        testFiles ? null : relativePath, !testFiles && relativePath == null);
+        if (stamps.isEmpty()) {
+            return getFile(isTool, path, name, versionId, type, relativePath, unwrap, acceptsGzip, mediaType);
+        }
+        final EntityTag tag = fileTag(stamps, unwrap, acceptsGzip);
+        final Date updated = stamps.get(0).getUpdated();
+        final Response notModified = ConditionalResponses.evaluate(request, tag, updated);
+        if (notModified != null) {
+            return notModified;
+        }
+        final Response response = getFile(isTool, path, name, versionId, type, relativePath, unwrap, acceptsGzip, mediaType);
+        if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+            return response;
         }
+        // the tag depends on whether gzip is accepted, the validators say so
+        return ConditionalResponses.validators(Response.fromResponse(response), tag, updated).build();
+    }
 
-        final Pair<io.swagger.model.Tool, Table<String, SourceFile.FileType, Object>> toolTablePair = ToolsImplCommon.convertContainer2Tool(entry, config);
+    /**
+     * The tag of a response made of files, the response depends on the content and location of the files and on how it is encoded.
+     * The update date of the entry is part of it too, like it is the Last-Modified of the response, so that any change to the entry
+     * makes clients load the files again.
+     */
+    private static EntityTag fileTag(List<FileDAO.FileStamp> stamps, boolean unwrap, boolean acceptsGzip) {
+        List<Object> parts = new ArrayList<>();
+        parts.add(unwrap);
+        parts.add(acceptsGzip);
+        final Date updated = stamps.get(0).getUpdated();
+        parts.add(updated == null ? null : updated.getTime());
+        for (FileDAO.FileStamp stamp : stamps) {
+            Collections.addAll(parts, stamp.getContentDigest(), stamp.getPath(), stamp.getGitUrl(), stamp.getReference(),
+                    stamp.getPrimaryPath());
+        }
+        return ConditionalResponses.tag(parts.toArray());
+    }
 
-        String finalVersionId = versionId;
-        if (toolTablePair == null || toolTablePair.getKey().getVersions() == null) {
-            return Response.status(Response.Status.NOT_FOUND).build();
+    /**
+     * @return 401 if the entry exists but is not published, 404 otherwise
+     */
+    private Response notFound(boolean isTool, String path, String name) {
+        final boolean unpublished = fileDAO.unpublishedEntryExists(isTool, path, name);
+        return Response.status(unpublished ? Response.Status.UNAUTHORIZED : Response.Status.NOT_FOUND).build();
+    }
+
+    private Response getFile(boolean isTool, String path, String name, String versionId, SourceFile.FileType type, String relativePath,
+            boolean unwrap, boolean acceptsGzip, String mediaType) {
+        switch (type) {
+        case WDL_TEST_JSON:
+        case CWL_TEST_JSON:
+            List<SourceFile> sourceFiles = fileDAO.findPublishedVersionFiles(isTool, path, name, versionId, type, null, false).stream()
+                    .map(FileDAO.VersionFile::getSourceFile).collect(Collectors.toList());
+            if (sourceFiles.isEmpty() && !fileDAO.publishedVersionExists(isTool, path, name, versionId)) {
+                return notFound(isTool, path, name);
+            }
+            return Response.status(Response.Status.OK).type(mediaType)
+                    .entity(unwrap ? sourceFiles.stream().map(SourceFile::getContent).filter(Objects::nonNull).collect(Collectors.joining("\n")) : sourceFiles).build();
+        case DOCKERFILE:
+            if (!isTool) {
+                return notFound(isTool, path, name);
+            }
+            final FileDAO.VersionFile dockerfileRow = findFirstFile(isTool, path, name, versionId, type, null, true);
+            if (dockerfileRow == null) {
+                return notFound(isTool, path, name);
+            }
+            if (unwrap && acceptsGzip && dockerfileRow.getSourceFile().getCompressedContent() != null) {
+                return compressedResponse(dockerfileRow.getSourceFile().getCompressedContent());
+            }
+            final ToolDockerfile dockerfile = new ToolDockerfile();
+            dockerfile.setDockerfile(dockerfileRow.getSourceFile().getContent());
+            dockerfile.setUrl(ToolsImplCommon.getRawUrlPrefix(dockerfileRow.getGitUrl(), dockerfileRow.getReference()) + dockerfileRow.getPrimaryPath());
+            return Response.status(Response.Status.OK).type(mediaType).entity(unwrap ? dockerfile.getDockerfile() : dockerfile).build();
+        default:
+            if (relativePath == null) {
+                final FileDAO.VersionFile descriptorRow = findFirstFile(isTool, path, name, versionId, type, null, true);
+                if (descriptorRow == null) {
+                    return notFound(isTool, path, name);
+                }
+                if (unwrap && acceptsGzip && descriptorRow.getSourceFile().getCompressedContent() != null) {
+                    return compressedResponse(descriptorRow.getSourceFile().getCompressedContent());
+                }
+                final ToolDescriptor descriptor = ToolsImplCommon.buildSourceFile(
+                        ToolsImplCommon.getRawUrlPrefix(descriptorRow.getGitUrl(), descriptorRow.getReference()) + descriptorRow.getPrimaryPath(),
+                        descriptorRow.getSourceFile());
+                return Response.status(Response.Status.OK).type(mediaType).entity(unwrap ? descriptor.getDescriptor() : descriptor).build();
+            } else {
+                // secondary files may be of any type
+                final FileDAO.VersionFile fileRow = findFirstFile(isTool, path, name, versionId, null, relativePath, false);
+                if (fileRow == null) {
+                    return notFound(isTool, path, name);
+                }
+                final SourceFile entity = fileRow.getSourceFile();
+                if (unwrap && acceptsGzip && entity.getCompressedContent() != null) {
+                    return compressedResponse(entity.getCompressedContent());
+                }
+                return Response.status(Response.Status.OK).type(mediaType).entity(unwrap ? entity.getContent() : entity).build();
+            }
         }
-        io.swagger.model.Tool convertedTool = toolTablePair.getKey();
-        final Optional<ToolVersion> first = convertedTool.getVersions().stream()
-                .filter(toolVersion -> toolVersion.getName().equalsIgnoreCase(finalVersionId)).findFirst();
-
-        Optional<? extends Version> oldFirst;
-        if (entry instanceof Tool) {
-            Tool toolEntry = (Tool)entry;
-            oldFirst = toolEntry.getVersions().stream().filter(toolVersion -> toolVersion.getName().equalsIgnoreCase(finalVersionId))
-                    .findFirst();
-        } else {
-            Workflow workflowEntry = (Workflow)entry;
-            oldFirst = workflowEntry.getVersions().stream().filter(toolVersion -> toolVersion.getName().equalsIgnoreCase(finalVersionId))
-                    .findFirst();
+    }
+
+    private static boolean acceptsGzip(ContainerRequestContext request) {
+        return acceptsGzip(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    /**
+     * @param acceptEncoding the Accept-Encoding header of a request, null if there is none
+     * @return true if gzip is listed, or covered by *, with a quality above zero
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
         }
+        Double gzip = null;
+        Double wildcard = null;
+        for (String encoding : Splitter.on(',').trimResults().omitEmptyStrings().split(acceptEncoding)) {
+            List<String> parts = Splitter.on(';').trimResults().splitToList(encoding);
+            String coding = parts.get(0);
+            if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+                gzip = quality(parts);
+            } else if ("*".equals(coding)) {
+                wildcard = quality(parts);
+            }
+        }
+        // an encoding that is listed by name is not covered by *
+        Double quality = gzip != null ? gzip : wildcard;
+        return quality != null && quality > 0;
+    }
 
-        final Table<String, SourceFile.FileType, Object> table = toolTablePair.getValue();
-        if (first.isPresent() && oldFirst.isPresent()) {
-            final ToolVersion toolVersion = first.get();
-            final String toolVersionName = toolVersion.getName();
-            switch (type) {
-            case WDL_TEST_JSON:
-            case CWL_TEST_JSON:
-                final EntryVersionHelper<Tool> entryVersionHelper = new EntryVersionHelper<>(toolDAO);
-                List<SourceFile> sourceFile = entryVersionHelper.getAllSourceFiles(entry.getId(), versionId, type);
-                return Response.status(Response.Status.OK).type(unwrap ? MediaType.TEXT_PLAIN : MediaType.APPLICATION_JSON)
-                        .entity(unwrap ? sourceFile.stream().map(SourceFile::getContent).filter(Objects::nonNull).collect(Collectors.joining("\n")) : sourceFile).build();
-            case DOCKERFILE:
-                final ToolDockerfile dockerfile = (ToolDockerfile)table.get(toolVersionName, SourceFile.FileType.DOCKERFILE);
-                return Response.status(Response.Status.OK).type(unwrap ? MediaType.TEXT_PLAIN : MediaType.APPLICATION_JSON)
-                        .entity(unwrap ? dockerfile.getDockerfile() : dockerfile).build();
-            default:
-                if (relativePath == null) {
-                    if ((type == DOCKSTORE_WDL) && (
-                            ((ToolDescriptor)table.get(toolVersionName, SourceFile.FileType.DOCKSTORE_WDL)).getType()
-                                    == ToolDescriptor.TypeEnum.WDL)) {
-                        final ToolDescriptor descriptor = (ToolDescriptor)table.get(toolVersionName, SourceFile.FileType.DOCKSTORE_WDL);
-                        return Response.status(Response.Status.OK).entity(unwrap ? descriptor.getDescriptor() : descriptor).build();
-                    } else if (type == DOCKSTORE_CWL && (
-                            ((ToolDescriptor)table.get(toolVersionName, SourceFile.FileType.DOCKSTORE_CWL)).getType()
-                                    == ToolDescriptor.TypeEnum.CWL)) {
-                        final ToolDescriptor descriptor = (ToolDescriptor)table.get(toolVersionName, SourceFile.FileType.DOCKSTORE_CWL);
-                        return Response.status(Response.Status.OK).type(unwrap ? MediaType.TEXT_PLAIN : MediaType.APPLICATION_JSON)
-                                .entity(unwrap ? descriptor.getDescriptor() : descriptor).build();
-                    }
-                    return Response.status(Response.Status.NOT_FOUND).build();
-                } else {
-                    final Set<SourceFile> sourceFiles = oldFirst.get().getSourceFiles();
-                    final Optional<SourceFile> first1 = sourceFiles.stream().filter(file -> file.getPath().equalsIgnoreCase(relativePath))
-                            .findFirst();
-                    if (first1.isPresent()) {
-                        final SourceFile entity = first1.get();
-                        return Response.status(Response.Status.OK).type(unwrap ? MediaType.TEXT_PLAIN : MediaType.APPLICATION_JSON)
-                                .entity(unwrap ? entity.getContent() : entity).build();
-                    }
+    /**
+     * @return the q parameter of an encoding, 1 if it has none and 0 if it cannot be read
+     */
+    private static double quality(List<String> parts) {
+        for (String parameter : parts.subList(1, parts.size())) {
+            List<String> pair = Splitter.on('=').limit(2).trimResults().splitToList(parameter);
+            if (pair.size() == 2 && pair.get(0).equalsIgnoreCase("q")) {
+                try {
+                    return Double.parseDouble(pair.get(1));
+                } catch (NumberFormatException e) {
+                    return 0;
                 }
             }
         }
-        return Response.status(Response.Status.NOT_FOUND).build();
+        return 1;
+    }
+
+    /**
+     * Send a plain text file as it is stored, the client decompresses it
+     */
+    private static Response compressedResponse(CompressedText content) {
+        return Response.status(Response.Status.OK).type(MediaType.TEXT_PLAIN).entity(content.getBytes())
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip").header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
+    }
+
+    private FileDAO.VersionFile findFirstFile(boolean isTool, String path, String name, String versionId, SourceFile.FileType type,
+            String relativePath, boolean primary) {
+        List<FileDAO.VersionFile> files = fileDAO.findPublishedVersionFiles(isTool, path, name, versionId, type, relativePath, primary);
+        return files.isEmpty() ? null : files.get(0);
     }
 
     /**
@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.swagger.api.impl;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.CacheBuilder;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration;
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.helpers.ElasticManager;
+import io.dockstore.webservice.helpers.ElasticMode;
+import io.dockstore.webservice.helpers.StateListenerInterface;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dockstore.webservice.jdbi.WorkflowDAO;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * An in-memory catalog of published entries already converted to the GA4GH tool format.
+ * Listing tools pages through the database by key, so the catalog only needs to hand back the converted tool for each key.
+ * Entries are converted on first use and then maintained incrementally from publish, unpublish and refresh notifications,
+ * which are applied once their transaction has committed. The catalog holds at most {@link #MAXIMUM_SIZE} tools, the least recently
+ * used are converted again when they are next listed.
+ * <p>
+ * An entry loaded on first use may have been read before a change that commits while it is converted. Every change moves the
+ * generation of the catalog, and a converted entry is only kept if the generation did not move since it was loaded.
+ *
+ * @author dyuen
+ * @since 1.3.0
+ */
+public class ToolsCatalog implements StateListenerInterface {
+    /**
+     * How many converted tools are kept
+     */
+    static final long MAXIMUM_SIZE = 10000;
+
+    private final ToolDAO toolDAO;
+    private final WorkflowDAO workflowDAO;
+    private final DockstoreWebserviceConfiguration config;
+    private final ConcurrentMap<String, io.swagger.model.Tool> tools;
+    private final AtomicLong generation = new AtomicLong();
+
+    public ToolsCatalog(ToolDAO toolDAO, WorkflowDAO workflowDAO, DockstoreWebserviceConfiguration config) {
+        this(toolDAO, workflowDAO, config, MAXIMUM_SIZE);
+    }
+
+    ToolsCatalog(ToolDAO toolDAO, WorkflowDAO workflowDAO, DockstoreWebserviceConfiguration config, long maximumSize) {
+        this.toolDAO = toolDAO;
+        this.workflowDAO = workflowDAO;
+        this.config = config;
+        this.tools = CacheBuilder.newBuilder().maximumSize(maximumSize).<String, io.swagger.model.Tool>build().asMap();
+    }
+
+    /**
+     * Get a published entry in the GA4GH tool format.
+     * Must be called inside a unit of work since the entry may need to be loaded.
+     *
+     * @param id       the id of the tool or workflow
+     * @param workflow true if the id is for a workflow
+     * @return the converted tool, null if the entry is not published or cannot be converted
+     */
+    public io.swagger.model.Tool getTool(long id, boolean workflow) {
+        String key = key(id, workflow);
+        io.swagger.model.Tool cached = tools.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long loadedAt = generation.get();
+        Entry entry = workflow ? workflowDAO.findPublishedById(id) : toolDAO.findPublishedById(id);
+        io.swagger.model.Tool tool = entry == null ? null : convert(entry);
+        if (tool != null) {
+            // checked under the lock of the key, a change either moved the generation first or replaces the tool afterwards
+            tools.compute(key, (k, existing) -> existing != null || generation.get() != loadedAt ? existing : tool);
+        }
+        return tool;
+    }
+
+    io.swagger.model.Tool convert(Entry entry) {
+        Pair<io.swagger.model.Tool, ?> pair = ToolsImplCommon.convertContainer2Tool(entry, config);
+        return pair == null ? null : pair.getLeft();
+    }
+
+    private static String key(long id, boolean workflow) {
+        return (workflow ? "workflow/" : "tool/") + id;
+    }
+
+    @Override
+    public void handleIndexUpdate(Entry entry, ElasticMode command) {
+        String key = key(entry.getId(), entry instanceof Workflow);
+        // converted while the entry can still be loaded, stored once the change is committed
+        io.swagger.model.Tool tool = command == ElasticMode.UPDATE && entry.getIsPublished() ? convert(entry) : null;
+        ElasticManager.afterCommit(() -> {
+            generation.incrementAndGet();
+            tools.compute(key, (k, existing) -> tool);
+        });
+    }
+
+    @Override
+    public void bulkUpsert(List<Entry> updated) {
+        updated.forEach(entry -> handleIndexUpdate(entry, ElasticMode.UPDATE));
+    }
+}
@@ -103,6 +103,23 @@ public final class ToolsImplCommon {
         return urlBuilder.toString();
     }
 
+    /**
+     * @param gitUrl    The git formatted url for the repo
+     * @param reference the git tag or branch
+     * @return the prefix to access files of this reference over http, null if the repo is not on github or bitbucket
+     */
+    public static String getRawUrlPrefix(String gitUrl, String reference) {
+        final String githubPrefix = "git@github.com:";
+        final String bitbucketPrefix = "git@bitbucket.org:";
+        if (gitUrl.startsWith(githubPrefix)) {
+            return extractHTTPPrefix(gitUrl, reference, githubPrefix, "https://raw.githubusercontent.com/");
+        } else if (gitUrl.startsWith(bitbucketPrefix)) {
+            return extractHTTPPrefix(gitUrl, reference, bitbucketPrefix, "https://bitbucket.org/");
+        }
+        LOG.error("Found a git url neither from bitbucket or github " + gitUrl);
+        return null;
+    }
+
     /**
      * Convert our Tool object to a standard Tool format
      *
@@ -211,18 +228,7 @@ public final class ToolsImplCommon {
             version.setVerifiedSource(Strings.nullToEmpty(inputVersion.getVerifiedSource()));
             version.setDockerfile(false);
 
-            String urlBuilt;
-            final String githubPrefix = "git@github.com:";
-            final String bitbucketPrefix = "git@bitbucket.org:";
-            if (container.getGitUrl().startsWith(githubPrefix)) {
-                urlBuilt = extractHTTPPrefix(container.getGitUrl(), inputVersion.getReference(), githubPrefix,
-                        "https://raw.githubusercontent.com/");
-            } else if (container.getGitUrl().startsWith(bitbucketPrefix)) {
-                urlBuilt = extractHTTPPrefix(container.getGitUrl(), inputVersion.getReference(), bitbucketPrefix, "https://bitbucket.org/");
-            } else {
-                LOG.error("Found a git url neither from bitbucket or github " + container.getGitUrl());
-                urlBuilt = null;
-            }
+            String urlBuilt = getRawUrlPrefix(container.getGitUrl(), inputVersion.getReference());
 
             final Set<SourceFile> sourceFiles = inputVersion.getSourceFiles();
             for (SourceFile file : sourceFiles) {
@@ -0,0 +1,181 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.Cache;
+import javax.persistence.Entity;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.CacheRegionConfig;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.HibernateCacheConfig;
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.Version;
+import io.dockstore.webservice.core.Workflow;
+import io.dropwizard.util.Duration;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.cache.internal.CacheDataDescriptionImpl;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.cfg.AvailableSettings;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Regions are built from the properties made out of the cache configuration, like hibernate does when the session factory starts.
+ *
+ * @author dyuen
+ */
+public class CaffeineRegionFactoryTest {
+
+    private static final String ENTRY = "io.dockstore.webservice.core.Entry";
+    private static final String LABELS = "io.dockstore.webservice.core.Entry.labels";
+
+    private final CaffeineRegionFactory factory = new CaffeineRegionFactory();
+    private Properties properties;
+
+    @Before
+    public void setUp() {
+        HibernateCacheConfig cacheConfig = new HibernateCacheConfig();
+        cacheConfig.setEnabled(true);
+        cacheConfig.setMaximumSize(500);
+        cacheConfig.setExpireAfterWrite(Duration.minutes(5));
+        CacheRegionConfig entries = new CacheRegionConfig();
+        entries.setMaximumSize(2000L);
+        cacheConfig.getRegions().put(ENTRY, entries);
+        CacheRegionConfig labels = new CacheRegionConfig();
+        labels.setExpireAfterWrite(Duration.seconds(30));
+        cacheConfig.getRegions().put(LABELS, labels);
+        properties = new Properties();
+        properties.putAll(CaffeineRegionFactory.toHibernateProperties(cacheConfig));
+        factory.start(null, properties);
+    }
+
+    @After
+    public void tearDown() {
+        // the cache manager is shared by the whole vm until it is closed
+        factory.stop();
+    }
+
+    private CaffeineConfiguration<?, ?> configuration(String regionName) {
+        Cache<Object, Object> cache = factory.createCache(regionName, properties, null);
+        @SuppressWarnings("unchecked")
+        CaffeineConfiguration<?, ?> configuration = cache.getConfiguration(CaffeineConfiguration.class);
+        return configuration;
+    }
+
+    @Test
+    public void cachesAreOnlyTurnedOnWhenEnabled() {
+        Assert.assertEquals("true", properties.getProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE));
+        Assert.assertEquals("true", properties.getProperty(AvailableSettings.USE_QUERY_CACHE));
+        Assert.assertEquals(CaffeineRegionFactory.class.getName(), properties.getProperty(AvailableSettings.CACHE_REGION_FACTORY));
+
+        HibernateCacheConfig disabled = new HibernateCacheConfig();
+        Assert.assertEquals("false", CaffeineRegionFactory.toHibernateProperties(disabled).get(AvailableSettings.USE_SECOND_LEVEL_CACHE));
+        Assert.assertEquals("false", CaffeineRegionFactory.toHibernateProperties(disabled).get(AvailableSettings.USE_QUERY_CACHE));
+        Assert.assertNull(CaffeineRegionFactory.toHibernateProperties(disabled).get(AvailableSettings.CACHE_REGION_FACTORY));
+    }
+
+    @Test
+    public void regionsAreSizedFromTheConfiguration() {
+        CaffeineConfiguration<?, ?> entries = configuration(ENTRY);
+        Assert.assertEquals(OptionalLong.of(2000), entries.getMaximumSize());
+        Assert.assertEquals("the default expiry", OptionalLong.of(TimeUnit.MINUTES.toNanos(5)), entries.getExpireAfterWrite());
+
+        CaffeineConfiguration<?, ?> labels = configuration(LABELS);
+        Assert.assertEquals("the default size", OptionalLong.of(500), labels.getMaximumSize());
+        Assert.assertEquals(OptionalLong.of(TimeUnit.SECONDS.toNanos(30)), labels.getExpireAfterWrite());
+
+        CaffeineConfiguration<?, ?> sourceFiles = configuration("io.dockstore.webservice.core.SourceFile");
+        Assert.assertEquals(OptionalLong.of(500), sourceFiles.getMaximumSize());
+        Assert.assertEquals(OptionalLong.of(TimeUnit.MINUTES.toNanos(5)), sourceFiles.getExpireAfterWrite());
+        Assert.assertFalse("hibernate already copies what it caches", sourceFiles.isStoreByValue());
+    }
+
+    @Test
+    public void timestampsAreNeverEvicted() {
+        CaffeineConfiguration<?, ?> timestamps = configuration(UpdateTimestampsCache.REGION_NAME);
+        Assert.assertFalse(timestamps.getMaximumSize().isPresent());
+        Assert.assertFalse(timestamps.getExpireAfterWrite().isPresent());
+    }
+
+    @Test
+    public void writtenCollectionsAreReadAgain() {
+        CollectionRegion region = factory.buildCollectionRegion(LABELS, properties, new CacheDataDescriptionImpl(true, false, null, null));
+        CollectionRegionAccessStrategy labels = region.buildAccessStrategy(AccessType.READ_WRITE);
+        Object key = LABELS + "#1";
+        List<String> loaded = Collections.singletonList("genomics");
+        Assert.assertTrue(labels.putFromLoad(null, key, loaded, factory.nextTimestamp(), null));
+        Assert.assertEquals(loaded, labels.get(null, key, factory.nextTimestamp()));
+
+        // what a transaction that changes the labels does, before and after it commits
+        SoftLock lock = labels.lockItem(null, key, null);
+        Assert.assertNull("read from the database while it changes", labels.get(null, key, factory.nextTimestamp()));
+        labels.unlockItem(null, key, lock);
+        Assert.assertNull("the stale labels are gone", labels.get(null, key, factory.nextTimestamp()));
+
+        List<String> changed = Arrays.asList("genomics", "variant-calling");
+        Assert.assertTrue(labels.putFromLoad(null, key, changed, factory.nextTimestamp(), null));
+        Assert.assertEquals(changed, labels.get(null, key, factory.nextTimestamp()));
+    }
+
+    @Test
+    public void evictedCollectionsAreReadAgain() {
+        CollectionRegion region = factory.buildCollectionRegion(LABELS, properties, new CacheDataDescriptionImpl(true, false, null, null));
+        CollectionRegionAccessStrategy labels = region.buildAccessStrategy(AccessType.READ_WRITE);
+        Object key = LABELS + "#1";
+        labels.putFromLoad(null, key, Collections.singletonList("genomics"), factory.nextTimestamp(), null);
+        labels.evict(key);
+        Assert.assertNull(labels.get(null, key, factory.nextTimestamp()));
+    }
+
+    @Test
+    public void cachedCollectionsHoldCachedEntities() {
+        int collections = 0;
+        for (Class<?> entity : Arrays.asList(Entry.class, Tool.class, Workflow.class, Version.class)) {
+            for (Field field : entity.getDeclaredFields()) {
+                if (!field.isAnnotationPresent(org.hibernate.annotations.Cache.class)) {
+                    continue;
+                }
+                collections++;
+                Assert.assertTrue(field.getName() + " is loaded for a batch of owners", field.isAnnotationPresent(BatchSize.class));
+                // a cached collection only holds ids, the entities it points to are looked up one by one if they are not cached
+                Type element = ((ParameterizedType)field.getGenericType()).getActualTypeArguments()[0];
+                Class<?> root = (Class<?>)element;
+                while (root.getSuperclass().isAnnotationPresent(Entity.class)) {
+                    root = root.getSuperclass();
+                }
+                Assert.assertTrue(field.getName(), root.isAnnotationPresent(org.hibernate.annotations.Cache.class));
+            }
+        }
+        Assert.assertEquals("labels, tags, workflow versions and source files", 4, collections);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpServer;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.ElasticSearchConfig;
+import io.dropwizard.util.Duration;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends index updates to a local server that answers with a scripted status for each request.
+ *
+ * @author dyuen
+ */
+public class ElasticIndexerTest {
+
+    private static final long BACKOFF_MILLIS = 50;
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final LinkedList<Integer> statuses = new LinkedList<>();
+    private final List<Long> arrivals = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private HttpServer server;
+    private ElasticIndexer indexer;
+    private volatile boolean block;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            arrivals.add(System.nanoTime());
+            if (block) {
+                try {
+                    blocked.await(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Integer status;
+            synchronized (statuses) {
+                status = statuses.isEmpty() ? 200 : statuses.removeFirst();
+            }
+            byte[] body = "{\"acknowledged\":true}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        blocked.countDown();
+        if (indexer != null) {
+            indexer.stop();
+        }
+        server.stop(0);
+    }
+
+    private void start(int threads, int queueCapacity) {
+        ElasticSearchConfig config = new DockstoreWebserviceConfiguration().getEsConfiguration();
+        config.setHostname("localhost");
+        config.setPort(server.getAddress().getPort());
+        config.setIndexThreads(threads);
+        config.setIndexQueueCapacity(queueCapacity);
+        config.setIndexRetries(2);
+        config.setIndexRetryBackoff(Duration.milliseconds(BACKOFF_MILLIS));
+        indexer = new ElasticIndexer(config, metrics);
+        indexer.start();
+    }
+
+    private void script(Integer... responses) {
+        synchronized (statuses) {
+            statuses.addAll(Arrays.asList(responses));
+        }
+    }
+
+    /**
+     * Wait until the indexer counted the given outcome
+     */
+    private void await(String meter, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (metrics.meter(meter).getCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(meter, count, metrics.meter(meter).getCount());
+    }
+
+    @Test
+    public void acceptedUpdateIsHandled() throws Exception {
+        start(1, 10);
+        CountDownLatch handled = new CountDownLatch(1);
+        List<String> bodies = new ArrayList<>();
+        Assert.assertTrue(indexer.submit("PUT", "/entry/tool/1", "{}", response -> {
+            bodies.add(EntityUtils.toString(response.getEntity()));
+            handled.countDown();
+        }));
+        Assert.assertTrue(handled.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Collections.singletonList("{\"acknowledged\":true}"), bodies);
+        Assert.assertEquals(1, metrics.timer("elastic.index.latency").getCount());
+        Assert.assertEquals(0, metrics.meter("elastic.index.retries").getCount());
+    }
+
+    @Test
+    public void unavailableIsRetriedWithBackoff() throws Exception {
+        start(1, 10);
+        script(503, 429);
+        CountDownLatch handled = new CountDownLatch(1);
+        indexer.submit("PUT", "/entry/tool/1", "{}", response -> handled.countDown());
+        Assert.assertTrue(handled.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, metrics.meter("elastic.index.retries").getCount());
+        Assert.assertEquals(0, metrics.meter("elastic.index.failures").getCount());
+        Assert.assertEquals(3, arrivals.size());
+        // the backoff doubles with each attempt
+        Assert.assertTrue(arrivals.get(1) - arrivals.get(0) >= TimeUnit.MILLISECONDS.toNanos(BACKOFF_MILLIS));
+        Assert.assertTrue(arrivals.get(2) - arrivals.get(1) >= TimeUnit.MILLISECONDS.toNanos(BACKOFF_MILLIS * 2));
+    }
+
+    @Test
+    public void retriesRunOut() throws Exception {
+        start(1, 10);
+        script(500, 500, 500, 200);
+        indexer.submit("PUT", "/entry/tool/1", "{}");
+        await("elastic.index.failures", 1);
+        Assert.assertEquals(2, metrics.meter("elastic.index.retries").getCount());
+        Assert.assertEquals(3, arrivals.size());
+    }
+
+    @Test
+    public void rejectedUpdateIsNotRetried() throws Exception {
+        start(1, 10);
+        script(400);
+        indexer.submit("PUT", "/entry/tool/1", "{}");
+        await("elastic.index.failures", 1);
+        Assert.assertEquals(0, metrics.meter("elastic.index.retries").getCount());
+        Assert.assertEquals(1, arrivals.size());
+    }
+
+    @Test
+    public void deletingWhatIsNotThereIsFine() throws Exception {
+        start(1, 10);
+        script(404);
+        indexer.submit("DELETE", "/entry/tool/1", null);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (metrics.timer("elastic.index.latency").getCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(1, metrics.timer("elastic.index.latency").getCount());
+        Assert.assertEquals(0, metrics.meter("elastic.index.failures").getCount());
+    }
+
+    @Test
+    public void updatesPastTheQueueAreDropped() throws Exception {
+        block = true;
+        start(1, 1);
+        // one update is sent and held by the server, one waits in the queue, the rest do not fit
+        Assert.assertTrue(indexer.submit("PUT", "/entry/tool/1", "{}"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (arrivals.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertTrue(indexer.submit("PUT", "/entry/tool/2", "{}"));
+        Assert.assertFalse(indexer.submit("PUT", "/entry/tool/3", "{}"));
+        Assert.assertFalse(indexer.submit("PUT", "/entry/tool/4", "{}"));
+        Assert.assertEquals(2, metrics.meter("elastic.index.dropped").getCount());
+        Assert.assertEquals(1, metrics.getGauges().get("elastic.index.queueDepth").getValue());
+    }
+
+    @Test
+    public void nothingIsSentWithoutAHost() {
+        ElasticIndexer disabled = new ElasticIndexer(new DockstoreWebserviceConfiguration().getEsConfiguration(), metrics);
+        disabled.start();
+        Assert.assertFalse(disabled.isEnabled());
+        Assert.assertFalse(disabled.submit("PUT", "/entry/tool/1", "{}"));
+    }
+}
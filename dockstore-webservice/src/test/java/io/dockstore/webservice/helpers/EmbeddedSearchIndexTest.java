@@ -0,0 +1,288 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dockstore.common.Registry;
+import io.dockstore.webservice.CustomWebApplicationException;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration;
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.Label;
+import io.dockstore.webservice.core.SourceFile;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.User;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.jdbi.FetchPlan;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dockstore.webservice.jdbi.WorkflowDAO;
+import io.dropwizard.jackson.Jackson;
+import org.apache.http.HttpStatus;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The index is kept in memory and built from published entries held by the test. Changes are made in a unit of work, so they
+ * only reach the index when it commits.
+ *
+ * @author dyuen
+ */
+public class EmbeddedSearchIndexTest {
+
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    private final Map<Long, Tool> tools = new LinkedHashMap<>();
+    private final Map<Long, Workflow> workflows = new LinkedHashMap<>();
+    private UnitOfWorkStub unitOfWork;
+    private EmbeddedSearchIndex index;
+
+    private static <T extends Entry> List<T> published(Map<Long, T> entries, Collection<Long> ids) {
+        return ids.stream().map(entries::get).filter(Objects::nonNull).filter(Entry::getIsPublished).collect(Collectors.toList());
+    }
+
+    private static SortedSet<Label> labels(String... values) {
+        SortedSet<Label> labels = new TreeSet<>();
+        for (String value : values) {
+            Label label = new Label();
+            label.setValue(value);
+            labels.add(label);
+        }
+        return labels;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        unitOfWork = new UnitOfWorkStub();
+        ToolDAO toolDAO = new ToolDAO(unitOfWork.getSessionFactory()) {
+            @Override
+            public List<Object> findPublishedStamp() {
+                return Arrays.asList(findAllPublishedIds().size(), null);
+            }
+
+            @Override
+            public List<Long> findAllPublishedIds() {
+                return published(tools, tools.keySet()).stream().map(Tool::getId).collect(Collectors.toList());
+            }
+
+            @Override
+            public List<Tool> findPublishedByIds(List<Long> ids, FetchPlan plan) {
+                return published(tools, ids);
+            }
+
+            @Override
+            public Map<Long, Set<SourceFile.FileType>> findDescriptorTypes(Collection<Long> ids) {
+                return new HashMap<>();
+            }
+        };
+        WorkflowDAO workflowDAO = new WorkflowDAO(unitOfWork.getSessionFactory()) {
+            @Override
+            public List<Object> findPublishedStamp() {
+                return Arrays.asList(findAllPublishedIds().size(), null);
+            }
+
+            @Override
+            public List<Long> findAllPublishedIds() {
+                return published(workflows, workflows.keySet()).stream().map(Workflow::getId).collect(Collectors.toList());
+            }
+
+            @Override
+            public List<Workflow> findPublishedByIds(List<Long> ids, FetchPlan plan) {
+                return published(workflows, ids);
+            }
+        };
+        index = new EmbeddedSearchIndex(new DockstoreWebserviceConfiguration().getEsConfiguration(), unitOfWork.getSessionFactory(),
+                new SearchDocumentWriter(toolDAO), toolDAO, workflowDAO);
+        index.open(new RAMDirectory());
+
+        tool(1, "dockstore-tool-bamstats", "Reports statistics of BAM files", "Denis Yuen", "genomics");
+        Tool md5sum = tool(2, "dockstore-tool-md5sum", "Computes the md5sum of a file", "Andy Chen", "checksum");
+        md5sum.addStarredUser(new User());
+        Workflow workflow = new Workflow();
+        workflow.setId(3);
+        workflow.setOrganization("ga4gh");
+        workflow.setRepository("hello-bamstats");
+        workflow.setDescription("A workflow reporting BAM statistics");
+        workflow.setAuthor("Denis Yuen");
+        workflow.setLabels(labels("genomics"));
+        workflow.setIsPublished(true);
+        workflows.put(3L, workflow);
+
+        Assert.assertEquals(3, index.rebuild());
+        // rebuilding rolled back the transaction of the unit of work, changes go in a new one
+        unitOfWork.getSessionFactory().getCurrentSession().beginTransaction();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        unitOfWork.close();
+        index.stop();
+    }
+
+    private Tool tool(long id, String name, String description, String author, String... labels) {
+        Tool tool = new Tool();
+        tool.setId(id);
+        tool.setRegistry(Registry.QUAY_IO);
+        tool.setNamespace("ga4gh");
+        tool.setName(name);
+        tool.setDescription(description);
+        tool.setAuthor(author);
+        tool.setLabels(labels(labels));
+        tool.setIsPublished(true);
+        tools.put(id, tool);
+        return tool;
+    }
+
+    private JsonNode search(String body) throws IOException {
+        return search(body, Collections.emptyMap());
+    }
+
+    private JsonNode search(String body, Map<String, String> parameters) throws IOException {
+        return MAPPER.readTree(index.search(body, parameters));
+    }
+
+    private static List<String> ids(JsonNode response) {
+        List<String> ids = new ArrayList<>();
+        response.path("hits").path("hits").forEach(hit -> ids.add(hit.path("_id").asText()));
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @Test
+    public void publishedEntriesAreIndexed() throws IOException {
+        Assert.assertTrue(index.isReady());
+        Assert.assertEquals(Collections.singletonList(1L), index.searchIds("tool", "bam", 0, 10));
+        Assert.assertEquals(Collections.singletonList(3L), index.searchIds("workflow", "bam", 0, 10));
+        Assert.assertEquals(Collections.singletonList(2L), index.searchIds("tool", "md5sum", 0, 10));
+
+        JsonNode hit = search("{\"query\":{\"term\":{\"_type\":\"workflow\"}}}").path("hits").path("hits").get(0);
+        Assert.assertEquals("3", hit.path("_id").asText());
+        Assert.assertEquals("ga4gh/hello-bamstats", hit.path("_source").path("path").asText());
+    }
+
+    @Test
+    public void rebuildDropsEntriesThatAreNoLongerPublished() throws IOException {
+        tools.get(1L).setIsPublished(false);
+        Assert.assertEquals(2, index.rebuild());
+        Assert.assertTrue(index.searchIds("tool", "bam", 0, 10).isEmpty());
+        Assert.assertEquals(Collections.singletonList(3L), index.searchIds("workflow", "bam", 0, 10));
+    }
+
+    @Test
+    public void changesAreAppliedOnceCommitted() throws IOException {
+        Tool fastqc = tool(4, "dockstore-tool-fastqc", "Quality control of sequencing reads", "Denis Yuen");
+        index.handleIndexUpdate(fastqc, ElasticMode.UPDATE);
+        Assert.assertTrue("not committed yet", index.searchIds("tool", "fastqc", 0, 10).isEmpty());
+        unitOfWork.commit();
+        Assert.assertEquals(Collections.singletonList(4L), index.searchIds("tool", "fastqc", 0, 10));
+
+        unitOfWork.getSessionFactory().getCurrentSession().beginTransaction();
+        Tool bamstats = tools.get(1L);
+        bamstats.setIsPublished(false);
+        index.handleIndexUpdate(bamstats, ElasticMode.UPDATE);
+        Assert.assertEquals(Collections.singletonList(1L), index.searchIds("tool", "bam", 0, 10));
+        unitOfWork.commit();
+        Assert.assertTrue("unpublished", index.searchIds("tool", "bam", 0, 10).isEmpty());
+
+        unitOfWork.getSessionFactory().getCurrentSession().beginTransaction();
+        index.handleIndexUpdate(tools.get(2L), ElasticMode.DELETE);
+        unitOfWork.rollback();
+        Assert.assertEquals("rolled back", Collections.singletonList(2L), index.searchIds("tool", "md5sum", 0, 10));
+    }
+
+    @Test
+    public void refreshedEntriesReplaceTheirDocuments() throws IOException {
+        Tool bamstats = tools.get(1L);
+        bamstats.setDescription("Counts the reads of alignments");
+        index.bulkUpsert(Collections.singletonList(bamstats));
+        Assert.assertTrue(index.searchIds("tool", "counts", 0, 10).isEmpty());
+        unitOfWork.commit();
+        Assert.assertEquals(Collections.singletonList(1L), index.searchIds("tool", "counts", 0, 10));
+        Assert.assertTrue("the old document is gone", index.searchIds("tool", "statistics", 0, 10).isEmpty());
+        Assert.assertEquals(3, search(null).path("hits").path("total").asInt());
+    }
+
+    @Test
+    public void queriesAreTranslated() throws IOException {
+        Assert.assertEquals(Arrays.asList("1", "3"), ids(search("{\"query\":{\"match\":{\"author\":\"Denis Yuen\"}}}")));
+        Assert.assertEquals(Collections.singletonList("1"), ids(search("{\"query\":{\"bool\":{"
+                + "\"must\":{\"match\":{\"description\":\"bam\"}},\"must_not\":[{\"term\":{\"_type\":\"workflow\"}}]}}}")));
+        Assert.assertEquals("only exclusions", Arrays.asList("1", "2"),
+                ids(search("{\"query\":{\"bool\":{\"must_not\":{\"term\":{\"_type\":\"workflow\"}}}}}")));
+        Assert.assertEquals(Arrays.asList("1", "3"), ids(search("{\"query\":{\"prefix\":{\"labels\":\"gen\"}}}")));
+        Assert.assertEquals(Arrays.asList("1", "2", "3"), ids(search("{\"query\":{\"terms\":{\"labels\":[\"checksum\",\"genomics\"]}}}")));
+        Assert.assertEquals(Collections.singletonList("2"), ids(search("{\"query\":{\"query_string\":{\"query\":\"md5*\"}}}")));
+        Assert.assertEquals(Arrays.asList("1", "3"),
+                ids(search("{\"query\":{\"multi_match\":{\"query\":\"statistics\",\"fields\":[\"description^2\",\"path\"]}}}")));
+
+        JsonNode aggregated = search("{\"size\":0,\"aggs\":{\"authors\":{\"terms\":{\"field\":\"author.keyword\"}}}}");
+        Assert.assertEquals(3, aggregated.path("hits").path("total").asInt());
+        Assert.assertEquals("only the aggregations were asked for", 0, aggregated.path("hits").path("hits").size());
+        JsonNode buckets = aggregated.path("aggregations").path("authors").path("buckets");
+        Assert.assertEquals("Denis Yuen", buckets.get(0).path("key").asText());
+        Assert.assertEquals(2, buckets.get(0).path("doc_count").asInt());
+        Assert.assertEquals("Andy Chen", buckets.get(1).path("key").asText());
+        Assert.assertEquals(1, buckets.get(1).path("doc_count").asInt());
+    }
+
+    @Test
+    public void unsupportedQueriesAreRejected() throws IOException {
+        for (String body : Arrays.asList("{\"query\":{\"fuzzy\":{\"description\":\"bam\"}}}",
+                "{\"query\":{\"query_string\":{\"query\":\"(bam\"}}}", "{\"aggs\":{\"stars\":{\"avg\":{\"field\":\"stars\"}}}}")) {
+            try {
+                index.search(body, Collections.emptyMap());
+                Assert.fail(body);
+            } catch (CustomWebApplicationException e) {
+                Assert.assertEquals(HttpStatus.SC_BAD_REQUEST, e.getResponse().getStatus());
+            }
+        }
+    }
+
+    @Test
+    public void resultsArePaged() throws IOException {
+        // nothing was typed, tools are ranked by their stars
+        Assert.assertEquals(Arrays.asList(2L, 1L), index.searchIds("tool", "", 0, 10));
+        Assert.assertEquals(Collections.singletonList(2L), index.searchIds("tool", "", 0, 1));
+        Assert.assertEquals(Collections.singletonList(1L), index.searchIds("tool", "", 1, 10));
+        Assert.assertTrue(index.searchIds("tool", "", 2, 10).isEmpty());
+
+        JsonNode page = search("{\"from\":1,\"size\":1,\"query\":{\"match_all\":{}}}");
+        Assert.assertEquals(3, page.path("hits").path("total").asInt());
+        Assert.assertEquals(1, page.path("hits").path("hits").size());
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("from", "2");
+        parameters.put("size", "5");
+        Assert.assertEquals("the parameters win over the body", 1,
+                search("{\"from\":0,\"size\":1}", parameters).path("hits").path("hits").size());
+    }
+}
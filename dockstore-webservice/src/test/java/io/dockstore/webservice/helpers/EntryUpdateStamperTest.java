@@ -0,0 +1,75 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.Workflow;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Entries are stamped in a unit of work whose session holds them.
+ *
+ * @author dyuen
+ */
+public class EntryUpdateStamperTest {
+
+    private static final Date BEFORE = new Date(1500000000000L);
+
+    private static Tool tool() {
+        Tool tool = new Tool();
+        tool.setId(1);
+        tool.setDbUpdateDate(BEFORE);
+        return tool;
+    }
+
+    @Test
+    public void refreshedEntriesAreStamped() {
+        Tool tool = tool();
+        Workflow workflow = new Workflow();
+        workflow.setId(2);
+        workflow.setDbUpdateDate(BEFORE);
+        try (UnitOfWorkStub unitOfWork = new UnitOfWorkStub()) {
+            new EntryUpdateStamper(unitOfWork.getSessionFactory()).bulkUpsert(Arrays.asList(tool, workflow));
+        }
+        Assert.assertTrue(tool.getDbUpdateDate().after(BEFORE));
+        Assert.assertEquals("stamped with one date", tool.getDbUpdateDate(), workflow.getDbUpdateDate());
+    }
+
+    @Test
+    public void changedEntryIsStamped() {
+        Tool tool = tool();
+        try (UnitOfWorkStub unitOfWork = new UnitOfWorkStub()) {
+            new EntryUpdateStamper(unitOfWork.getSessionFactory()).handleIndexUpdate(tool, ElasticMode.UPDATE);
+        }
+        Assert.assertTrue(tool.getDbUpdateDate().after(BEFORE));
+    }
+
+    @Test
+    public void nothingIsStampedOutsideOfAUnitOfWork() {
+        Tool tool = tool();
+        try (UnitOfWorkStub unitOfWork = new UnitOfWorkStub()) {
+            EntryUpdateStamper stamper = new EntryUpdateStamper(unitOfWork.getSessionFactory());
+            unitOfWork.close();
+            stamper.bulkUpsert(Collections.singletonList(tool));
+        }
+        Assert.assertEquals(BEFORE, tool.getDbUpdateDate());
+    }
+}
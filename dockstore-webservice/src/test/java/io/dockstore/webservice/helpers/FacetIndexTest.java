@@ -0,0 +1,167 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import io.dockstore.common.Registry;
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.Label;
+import io.dockstore.webservice.core.SourceFile;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.jdbi.DAOStubs;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Filters and pages entries notified to the index, the descriptor types of tools are answered from memory.
+ *
+ * @author dyuen
+ */
+public class FacetIndexTest {
+
+    private final Map<Long, Set<SourceFile.FileType>> descriptorTypes = new HashMap<>();
+    private FacetIndex index;
+
+    @Before
+    public void setUp() {
+        ToolDAO toolDAO = new ToolDAO(DAOStubs.sessionFactory()) {
+            @Override
+            public Map<Long, Set<SourceFile.FileType>> findDescriptorTypes(Collection<Long> ids) {
+                return descriptorTypes;
+            }
+        };
+        index = new FacetIndex(null, toolDAO, null);
+        descriptorTypes.put(1L, Collections.singleton(SourceFile.FileType.DOCKSTORE_CWL));
+        index.bulkUpsert(Arrays.asList(tool(1, Registry.QUAY_IO, "ga4gh", "dockstore", "genomics"),
+                tool(2, Registry.DOCKER_HUB, "ga4gh", "bwa"), tool(3, Registry.QUAY_IO, "oicr", "aligner", "genomics"),
+                workflow(4, "ga4gh", "wdl-workflow", "wdl"),
+                workflow(5, "oicr", "cwl-workflow", "cwl")));
+    }
+
+    private static Tool tool(long id, Registry registry, String namespace, String name, String... labels) {
+        Tool tool = new Tool();
+        tool.setId(id);
+        tool.setRegistry(registry);
+        tool.setNamespace(namespace);
+        tool.setName(name);
+        tool.setIsPublished(true);
+        tool.setLabels(labels(labels));
+        return tool;
+    }
+
+    private static Workflow workflow(long id, String organization, String repository, String descriptorType) {
+        Workflow workflow = new Workflow();
+        workflow.setId(id);
+        workflow.setPath("github.com/" + organization + "/" + repository);
+        workflow.setOrganization(organization);
+        workflow.setDescriptorType(descriptorType);
+        workflow.setIsPublished(true);
+        return workflow;
+    }
+
+    private static TreeSet<Label> labels(String... values) {
+        TreeSet<Label> labels = new TreeSet<>();
+        for (String value : values) {
+            Label label = new Label();
+            label.setValue(value);
+            labels.add(label);
+        }
+        return labels;
+    }
+
+    private static List<Long> ids(FacetIndex.Page page) {
+        return page.getKeys().stream().map(Pair::getRight).collect(Collectors.toList());
+    }
+
+    private FacetIndex.Page filter(String facet, String... values) {
+        return index.filter(Collections.singletonMap(facet, Arrays.asList(values)), 0, 10);
+    }
+
+    @Test
+    public void everythingIsListedByPath() {
+        FacetIndex.Page page = index.filter(Collections.emptyMap(), 0, 10);
+        Assert.assertEquals(5, page.getCount());
+        // github.com/ga4gh, github.com/oicr, quay.io/ga4gh, quay.io/oicr, registry.hub.docker.com
+        Assert.assertEquals(Arrays.asList(4L, 5L, 1L, 3L, 2L), ids(page));
+        Assert.assertEquals(Integer.valueOf(3), page.getFacets().get(FacetIndex.TYPE).get("tool"));
+        Assert.assertEquals(Integer.valueOf(2), page.getFacets().get(FacetIndex.LABEL).get("genomics"));
+    }
+
+    @Test
+    public void valuesOfAFacetAreOredAndFacetsAreAnded() {
+        Map<String, List<String>> filters = new HashMap<>();
+        filters.put(FacetIndex.ORGANIZATION, Arrays.asList("GA4GH", "oicr"));
+        filters.put(FacetIndex.DESCRIPTOR_TYPE, Collections.singletonList("cwl"));
+        FacetIndex.Page page = index.filter(filters, 0, 10);
+        Assert.assertEquals(Arrays.asList(5L, 1L), ids(page));
+        // the counts of a facet ignore its own filter but not the others
+        Assert.assertEquals(Integer.valueOf(1), page.getFacets().get(FacetIndex.DESCRIPTOR_TYPE).get("wdl"));
+        Assert.assertEquals(Integer.valueOf(1), page.getFacets().get(FacetIndex.ORGANIZATION).get("ga4gh"));
+        Assert.assertTrue(filter(FacetIndex.LABEL, "nothing").getKeys().isEmpty());
+    }
+
+    @Test
+    public void pagesWalkThePathOrder() {
+        Assert.assertEquals(Arrays.asList(4L, 5L), ids(index.filter(Collections.emptyMap(), 0, 2)));
+        Assert.assertEquals(Arrays.asList(1L, 3L), ids(index.filter(Collections.emptyMap(), 2, 2)));
+        Assert.assertEquals(Collections.singletonList(2L), ids(index.filter(Collections.emptyMap(), 4, 2)));
+        Assert.assertTrue(ids(index.filter(Collections.emptyMap(), 5, 2)).isEmpty());
+        FacetIndex.Page quay = index.filter(Collections.singletonMap(FacetIndex.REGISTRY, Collections.singletonList("quay.io")), 1, 1);
+        Assert.assertEquals(2, quay.getCount());
+        Assert.assertEquals(Collections.singletonList(3L), ids(quay));
+    }
+
+    @Test
+    public void changesKeepThePathOrder() {
+        // the freed ordinal goes to an entry that sorts elsewhere
+        index.handleIndexUpdate(tool(1, Registry.QUAY_IO, "ga4gh", "dockstore"), ElasticMode.DELETE);
+        index.handleIndexUpdate(workflow(6, "zzz", "last", "cwl"), ElasticMode.UPDATE);
+        Workflow renamed = workflow(4, "aaa", "first", "wdl");
+        index.bulkUpsert(Collections.singletonList(renamed));
+        Assert.assertEquals(Arrays.asList(4L, 5L, 6L, 3L, 2L), ids(index.filter(Collections.emptyMap(), 0, 10)));
+        Assert.assertEquals(Collections.singletonList(3L), ids(filter(FacetIndex.LABEL, "genomics")));
+    }
+
+    @Test
+    public void rolledBackChangesAreNotApplied() {
+        try (UnitOfWorkStub unitOfWork = new UnitOfWorkStub()) {
+            index.handleIndexUpdate(tool(2, Registry.DOCKER_HUB, "ga4gh", "bwa"), ElasticMode.DELETE);
+            Entry unpublished = workflow(5, "oicr", "cwl-workflow", "cwl");
+            unpublished.setIsPublished(false);
+            index.bulkUpsert(Collections.singletonList(unpublished));
+            unitOfWork.rollback();
+        }
+        try (UnitOfWorkStub unitOfWork = new UnitOfWorkStub()) {
+            index.handleIndexUpdate(tool(3, Registry.QUAY_IO, "oicr", "aligner"), ElasticMode.DELETE);
+            Assert.assertEquals(5, index.filter(Collections.emptyMap(), 0, 10).getCount());
+            unitOfWork.commit();
+        }
+        Assert.assertEquals(Arrays.asList(4L, 5L, 1L, 2L), ids(index.filter(Collections.emptyMap(), 0, 10)));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.FileContentConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Sweeps with batches answered from memory rather than the database.
+ *
+ * @author dyuen
+ */
+public class FileContentSweeperTest {
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final List<Integer> requested = new ArrayList<>();
+
+    /**
+     * @param batches what each batch deletes in turn, null for a batch that fails
+     */
+    private FileContentSweeper sweeper(Integer... batches) {
+        FileContentConfig config = new FileContentConfig();
+        config.setSweepBatchSize(10);
+        LinkedList<Integer> remaining = new LinkedList<>(Arrays.asList(batches));
+        return new FileContentSweeper(config, null, metrics) {
+            @Override
+            int sweepBatch(int size) {
+                requested.add(size);
+                Integer deleted = remaining.removeFirst();
+                if (deleted == null) {
+                    throw new IllegalStateException("foreign key violated");
+                }
+                return deleted;
+            }
+        };
+    }
+
+    @Test
+    public void sweepsUntilABatchComesUpShort() {
+        Assert.assertEquals(23, sweeper(10, 10, 3, 10).sweep());
+        Assert.assertEquals(Arrays.asList(10, 10, 10), requested);
+        Assert.assertEquals(23, metrics.meter("fileContent.swept").getCount());
+        Assert.assertEquals(0, metrics.meter("fileContent.sweepFailures").getCount());
+    }
+
+    @Test
+    public void nothingToSweep() {
+        Assert.assertEquals(0, sweeper(0).sweep());
+        Assert.assertEquals(1, requested.size());
+    }
+
+    @Test
+    public void aFailedBatchEndsTheSweep() {
+        Assert.assertEquals(10, sweeper(10, null, 10).sweep());
+        Assert.assertEquals(2, requested.size());
+        Assert.assertEquals(10, metrics.meter("fileContent.swept").getCount());
+        Assert.assertEquals(1, metrics.meter("fileContent.sweepFailures").getCount());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.nio.charset.StandardCharsets;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.FileContentConfig;
+import io.dockstore.webservice.core.CompressedText;
+import io.dockstore.webservice.core.FileContent;
+import io.dockstore.webservice.core.SourceFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * How content is keyed and when it is stored compressed.
+ *
+ * @author dyuen
+ */
+public class FileContentWriterTest {
+
+    private static FileContentWriter writer(boolean compress) {
+        FileContentConfig config = new FileContentConfig();
+        config.setCompress(compress);
+        config.setCompressionThreshold(90);
+        return new FileContentWriter(config, new MetricRegistry());
+    }
+
+    private static CompressedText compress(FileContentWriter writer, String content) {
+        return writer.compress(content, content.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void digestMatchesTheMigration() {
+        // encode(digest(convert_to('abc', 'UTF8'), 'sha256'), 'hex') in postgres
+        Assert.assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", FileContent.digest("abc"));
+        SourceFile file = new SourceFile();
+        file.setContent("abc");
+        Assert.assertEquals(FileContent.digest("abc"), file.getUnsavedContent().getDigest());
+    }
+
+    @Test
+    public void largeContentIsCompressed() {
+        String content = Strings.repeat("cwlVersion: v1.0\n", 100);
+        CompressedText compressed = compress(writer(true), content);
+        Assert.assertNotNull(compressed);
+        Assert.assertEquals(content, compressed.decompress());
+    }
+
+    @Test
+    public void smallContentIsStoredAsText() {
+        Assert.assertNull(compress(writer(true), "cwlVersion: v1.0"));
+    }
+
+    @Test
+    public void contentThatDoesNotShrinkIsStoredAsText() {
+        // nothing repeats, the gzip header and trailer are not made up for
+        StringBuilder distinct = new StringBuilder();
+        for (char c = '!'; c <= '~'; c++) {
+            distinct.append(c);
+        }
+        Assert.assertNull(compress(writer(true), distinct.toString()));
+    }
+
+    @Test
+    public void compressionTurnedOff() {
+        Assert.assertNull(compress(writer(false), Strings.repeat("cwlVersion: v1.0\n", 100)));
+    }
+}
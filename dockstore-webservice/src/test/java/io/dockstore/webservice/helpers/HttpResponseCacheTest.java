@@ -0,0 +1,124 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpServer;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.HttpCacheConfig;
+import io.dropwizard.client.HttpClientConfiguration;
+import io.dropwizard.client.proxy.ProxyConfiguration;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * GET requests of a wrapped client go through the cache, the host answers with the credentials it was sent and lets the
+ * answer be kept for a minute.
+ *
+ * @author dyuen
+ */
+public class HttpResponseCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Headers> received = Collections.synchronizedList(new ArrayList<>());
+    private HttpServer server;
+    private HttpResponseCache cache;
+    private CloseableHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            received.add(exchange.getRequestHeaders());
+            String authorization = exchange.getRequestHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+            byte[] body = (authorization == null ? "anonymous" : authorization).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add(HttpHeaders.CACHE_CONTROL, "max-age=60");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        HttpCacheConfig config = new HttpCacheConfig();
+        config.setDirectory(folder.newFolder().getAbsolutePath());
+        config.setSizeInMB(1);
+        cache = new HttpResponseCache(config, new MetricRegistry());
+        client = cache.wrap(HttpClients.createDefault(), new HttpClientConfiguration(), "dockstore-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        cache.stop();
+        server.stop(0);
+    }
+
+    private String get(String authorization) throws IOException {
+        HttpGet get = new HttpGet("http://localhost:" + server.getAddress().getPort() + "/repositories/ga4gh/dockstore");
+        if (authorization != null) {
+            get.addHeader(HttpHeaders.AUTHORIZATION, authorization);
+        }
+        return EntityUtils.toString(client.execute(get).getEntity(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void responsesAreKeptPerCredentials() throws IOException {
+        Assert.assertEquals("Bearer alice", get("Bearer alice"));
+        Assert.assertEquals("Bearer alice", get("Bearer alice"));
+        Assert.assertEquals("answered from the cache", 1, received.size());
+
+        Assert.assertEquals("Bearer bob", get("Bearer bob"));
+        Assert.assertEquals("anonymous", get(null));
+        Assert.assertEquals("Bearer alice", get("Bearer alice"));
+        Assert.assertEquals(4, received.size());
+        Assert.assertEquals("anonymous", get(null));
+    }
+
+    @Test
+    public void digestIsNotSent() throws IOException {
+        get("Bearer alice");
+        Headers headers = received.get(0);
+        Assert.assertEquals("Bearer alice", headers.getFirst(HttpHeaders.AUTHORIZATION));
+        Assert.assertFalse(headers.containsKey(HttpResponseCache.CREDENTIALS_DIGEST));
+        Assert.assertEquals("dockstore-test", headers.getFirst(HttpHeaders.USER_AGENT));
+    }
+
+    @Test
+    public void clientsBehindAProxyAreLeftAlone() throws IOException {
+        HttpClientConfiguration configuration = new HttpClientConfiguration();
+        configuration.setProxyConfiguration(new ProxyConfiguration("proxy.example.com", 3128));
+        try (CloseableHttpClient proxied = HttpClients.createDefault()) {
+            Assert.assertSame(proxied, cache.wrap(proxied, configuration, "dockstore-test"));
+        }
+    }
+}
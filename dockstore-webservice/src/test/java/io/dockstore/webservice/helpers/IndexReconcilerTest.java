@@ -0,0 +1,315 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpServer;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.ElasticSearchConfig;
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.jdbi.DAOStubs;
+import io.dockstore.webservice.jdbi.EntryDAO;
+import io.dockstore.webservice.jdbi.FetchPlan;
+import io.dockstore.webservice.jdbi.IndexWatermarkDAO;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dockstore.webservice.jdbi.WorkflowDAO;
+import io.dropwizard.util.Duration;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reconciles changes answered from memory with a local server that answers bulk requests as scripted.
+ *
+ * @author dyuen
+ */
+public class IndexReconcilerTest {
+
+    private static final String ACCEPTED = "{\"errors\":false,\"items\":[]}";
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final LinkedList<String> responses = new LinkedList<>();
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+    private final List<EntryDAO.EntryChange> toolChanges = new ArrayList<>();
+    private final List<EntryDAO.EntryChange> workflowChanges = new ArrayList<>();
+    private final List<String> transactions = new ArrayList<>();
+    private HttpServer server;
+    private ElasticIndexer indexer;
+    private Date watermark;
+    private IndexReconciler reconciler;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+                    body.write(buffer, 0, read);
+                }
+                bodies.add(new String(body.toByteArray(), StandardCharsets.UTF_8));
+            }
+            String response;
+            synchronized (responses) {
+                response = responses.isEmpty() ? ACCEPTED : responses.removeFirst();
+            }
+            byte[] content = response.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, content.length);
+            exchange.getResponseBody().write(content);
+            exchange.close();
+        });
+        server.start();
+        ElasticSearchConfig config = new DockstoreWebserviceConfiguration().getEsConfiguration();
+        config.setHostname("localhost");
+        config.setPort(server.getAddress().getPort());
+        config.setBulkSize(2);
+        config.setReconcileOverlap(Duration.milliseconds(0));
+        indexer = new ElasticIndexer(config, metrics);
+        indexer.start();
+
+        SessionFactory sessionFactory = sessionFactory();
+        ToolDAO toolDAO = new ToolDAO(sessionFactory) {
+            @Override
+            public List<EntryDAO.EntryChange> findChangedSince(Date since, EntryDAO.EntryChange after, int limit) {
+                return page(toolChanges, since, after, limit);
+            }
+
+            @Override
+            public List<Tool> findPublishedByIds(List<Long> ids, FetchPlan plan) {
+                return published(toolChanges, ids, id -> {
+                    Tool tool = new Tool();
+                    tool.setId(id);
+                    return tool;
+                });
+            }
+        };
+        WorkflowDAO workflowDAO = new WorkflowDAO(sessionFactory) {
+            @Override
+            public List<EntryDAO.EntryChange> findChangedSince(Date since, EntryDAO.EntryChange after, int limit) {
+                return page(workflowChanges, since, after, limit);
+            }
+
+            @Override
+            public List<Workflow> findPublishedByIds(List<Long> ids, FetchPlan plan) {
+                return published(workflowChanges, ids, id -> {
+                    Workflow workflow = new Workflow();
+                    workflow.setId(id);
+                    return workflow;
+                });
+            }
+        };
+        IndexWatermarkDAO watermarkDAO = new IndexWatermarkDAO(sessionFactory) {
+            @Override
+            public Date findWatermark(String name) {
+                return watermark;
+            }
+
+            @Override
+            public void saveWatermark(String name, Date newWatermark) {
+                watermark = newWatermark;
+            }
+        };
+        SearchDocumentWriter documentWriter = new SearchDocumentWriter(toolDAO) {
+            @Override
+            public List<String> toJson(List<Entry> entries) {
+                return entries.stream().map(entry -> "{\"id\":" + entry.getId() + "}").collect(Collectors.toList());
+            }
+        };
+        EntryReindexer reindexer = new EntryReindexer(config, indexer, null, sessionFactory, Collections.emptyList());
+        reconciler = new IndexReconciler(config, indexer, reindexer, sessionFactory, documentWriter, watermarkDAO, toolDAO, workflowDAO,
+                metrics);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        indexer.stop();
+        server.stop(0);
+    }
+
+    /**
+     * Walks the changes like findChangedSince does, they are added in the order of their update dates
+     */
+    private static List<EntryDAO.EntryChange> page(List<EntryDAO.EntryChange> changes, Date since, EntryDAO.EntryChange after,
+            int limit) {
+        int start = after == null ? 0 : changes.indexOf(after) + 1;
+        return changes.subList(start, changes.size()).stream().filter(change -> !change.getUpdated().before(since)).limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    private static <T extends Entry> List<T> published(List<EntryDAO.EntryChange> changes, List<Long> ids, Function<Long, T> entry) {
+        return changes.stream().filter(change -> change.isPublished() && ids.contains(change.getId()))
+                .map(change -> entry.apply(change.getId())).collect(Collectors.toList());
+    }
+
+    /**
+     * Sessions whose transactions note how they ended
+     */
+    private SessionFactory sessionFactory() {
+        SessionFactory[] factory = new SessionFactory[1];
+        factory[0] = (SessionFactory)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {SessionFactory.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "openSession":
+                        return session(factory[0]);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return factory[0];
+    }
+
+    private Session session(SessionFactory factory) {
+        boolean[] active = new boolean[1];
+        Transaction transaction = (Transaction)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Transaction.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "isActive":
+                        return active[0];
+                    case "commit":
+                    case "rollback":
+                        active[0] = false;
+                        transactions.add(method.getName());
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return (Session)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Session.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "getSessionFactory":
+                return factory;
+            case "beginTransaction":
+                active[0] = true;
+                return transaction;
+            case "clear":
+            case "close":
+                return null;
+            default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private void script(String... bulkResponses) {
+        synchronized (responses) {
+            responses.addAll(Arrays.asList(bulkResponses));
+        }
+    }
+
+    private static Date at(long millis) {
+        return new Date(millis);
+    }
+
+    @Test
+    public void watermarkMovesToTheLatestChangeOnceEverythingIsAccepted() {
+        watermark = at(1000);
+        toolChanges.addAll(Arrays.asList(DAOStubs.change(1, true, at(1100)), DAOStubs.change(2, false, at(1200)),
+                DAOStubs.change(3, true, at(1300))));
+        workflowChanges.add(DAOStubs.change(4, true, at(1250)));
+
+        Assert.assertEquals(4, reconciler.reconcile());
+        Assert.assertEquals(at(1300), watermark);
+        Assert.assertEquals(Collections.singletonList("commit"), transactions);
+        // two chunks of tools and one of workflows
+        Assert.assertEquals(3, bodies.size());
+        Assert.assertEquals("{\"index\":{\"_type\":\"tool\",\"_id\":\"1\"}}\n{\"id\":1}\n"
+                + "{\"delete\":{\"_type\":\"tool\",\"_id\":\"2\"}}\n", bodies.get(0));
+        Assert.assertEquals(3, metrics.meter("elastic.reconcile.upserts").getCount());
+        Assert.assertEquals(1, metrics.meter("elastic.reconcile.deletes").getCount());
+    }
+
+    @Test
+    public void watermarkStaysWhenALaterChunkIsRejected() {
+        watermark = at(1000);
+        toolChanges.addAll(Arrays.asList(DAOStubs.change(1, true, at(1100)), DAOStubs.change(2, true, at(1200))));
+        workflowChanges.add(DAOStubs.change(3, true, at(1300)));
+        script(ACCEPTED, "{\"errors\":true,\"items\":[{\"index\":{\"_type\":\"workflow\",\"_id\":\"3\",\"status\":429,"
+                + "\"error\":{\"type\":\"es_rejected_execution_exception\"}}}]}");
+
+        Assert.assertEquals(-1, reconciler.reconcile());
+        // not even to the tools that were accepted, the next run sends them again
+        Assert.assertEquals(at(1000), watermark);
+        Assert.assertEquals(Collections.singletonList("rollback"), transactions);
+        Assert.assertEquals(1, metrics.meter("elastic.reconcile.failures").getCount());
+
+        bodies.clear();
+        Assert.assertEquals(3, reconciler.reconcile());
+        Assert.assertEquals(at(1300), watermark);
+        Assert.assertEquals(2, bodies.size());
+    }
+
+    @Test
+    public void deletingWhatIsNotIndexedIsAccepted() {
+        watermark = at(1000);
+        toolChanges.add(DAOStubs.change(1, false, at(1100)));
+        script("{\"errors\":true,\"items\":[{\"delete\":{\"_type\":\"tool\",\"_id\":\"1\",\"status\":404,\"result\":\"not_found\"}}]}");
+
+        Assert.assertEquals(1, reconciler.reconcile());
+        Assert.assertEquals(at(1100), watermark);
+        Assert.assertEquals(0, metrics.meter("elastic.reconcile.failures").getCount());
+    }
+
+    @Test
+    public void nothingChangedKeepsTheWatermark() {
+        watermark = at(1000);
+        toolChanges.add(DAOStubs.change(1, true, at(900)));
+
+        Assert.assertEquals(0, reconciler.reconcile());
+        Assert.assertEquals(at(1000), watermark);
+        Assert.assertTrue(bodies.isEmpty());
+    }
+
+    @Test
+    public void firstRunOnlyStartsTheWatermark() {
+        toolChanges.add(DAOStubs.change(1, true, at(1100)));
+        long before = System.currentTimeMillis();
+
+        Assert.assertEquals(0, reconciler.reconcile());
+        Assert.assertFalse(watermark.before(at(before)));
+        Assert.assertTrue(bodies.isEmpty());
+        Assert.assertEquals(Collections.singletonList("commit"), transactions);
+    }
+}
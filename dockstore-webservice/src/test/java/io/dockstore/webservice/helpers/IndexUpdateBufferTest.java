@@ -0,0 +1,164 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpServer;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.ElasticSearchConfig;
+import io.dropwizard.util.Duration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The actions of bulk requests, and the updates recorded for an index that is being built, sent to a local server that accepts every
+ * request.
+ *
+ * @author dyuen
+ */
+public class IndexUpdateBufferTest {
+
+    private final List<String> paths = Collections.synchronizedList(new ArrayList<>());
+    private HttpServer server;
+    private ElasticIndexer indexer;
+    private IndexUpdateBuffer buffer;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            paths.add(exchange.getRequestURI().getPath());
+            byte[] body = "{\"errors\":false,\"items\":[]}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        ElasticSearchConfig config = new DockstoreWebserviceConfiguration().getEsConfiguration();
+        config.setHostname("localhost");
+        config.setPort(server.getAddress().getPort());
+        // only flushed by the tests
+        config.setBulkFlushInterval(Duration.hours(1));
+        config.setBulkSize(2);
+        MetricRegistry metrics = new MetricRegistry();
+        indexer = new ElasticIndexer(config, metrics);
+        indexer.start();
+        buffer = new IndexUpdateBuffer(config, indexer, metrics);
+        buffer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        buffer.stop();
+        indexer.stop();
+        server.stop(0);
+    }
+
+    /**
+     * The bodies closing the shadow index sends, in order, followed by "switched" once the switch over ran
+     */
+    private List<String> closeShadow() throws IOException {
+        List<String> sent = new ArrayList<>();
+        buffer.closeShadow(sent::add, () -> sent.add("switched"));
+        return sent;
+    }
+
+    @Test
+    public void latestUpdatesAreSentBeforeTheSwitchOver() throws Exception {
+        buffer.setShadowIndex("entry_new");
+        buffer.upsert("tool", 1, "{\"name\":\"old\"}");
+        buffer.flush();
+        buffer.upsert("tool", 1, "{\"name\":\"new\"}");
+        buffer.delete("workflow", 2);
+        buffer.flush();
+
+        List<String> sent = closeShadow();
+        Assert.assertEquals(2, sent.size());
+        Assert.assertEquals("switched", sent.get(1));
+        List<String> lines = Arrays.asList(sent.get(0).split("\n"));
+        Assert.assertEquals(3, lines.size());
+        Assert.assertTrue(lines.contains("{\"name\":\"new\"}"));
+        Assert.assertTrue(lines.contains("{\"delete\":{\"_type\":\"workflow\",\"_id\":\"2\"}}"));
+        // while it was built, nothing went to the new index directly
+        synchronized (paths) {
+            paths.forEach(path -> Assert.assertEquals("/" + EntryReindexer.ALIAS + "/_bulk", path));
+        }
+    }
+
+    @Test
+    public void recordedUpdatesAreSentInBulkRequestsOfTheConfiguredSize() throws Exception {
+        buffer.setShadowIndex("entry_new");
+        for (long id = 1; id <= 3; id++) {
+            buffer.upsert("tool", id, "{}");
+        }
+        buffer.flush();
+        Assert.assertEquals(Arrays.asList(4, 2), closeShadow().stream().filter(body -> !body.equals("switched"))
+                .map(body -> body.split("\n").length).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void nothingIsRecordedOnceTheShadowIsClosed() throws Exception {
+        buffer.setShadowIndex("entry_new");
+        buffer.upsert("tool", 1, "{}");
+        buffer.flush();
+        try {
+            buffer.closeShadow(body -> {
+                throw new IOException("unreachable");
+            }, () -> Assert.fail("no switch over after a failed request"));
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("unreachable", e.getMessage());
+        }
+        buffer.upsert("tool", 2, "{}");
+        buffer.flush();
+        Assert.assertEquals(Collections.singletonList("switched"), closeShadow());
+    }
+
+    @Test
+    public void aNewShadowStartsEmpty() throws Exception {
+        buffer.setShadowIndex("entry_failed");
+        buffer.upsert("tool", 1, "{}");
+        buffer.flush();
+        buffer.setShadowIndex("entry_new");
+        Assert.assertEquals(Collections.singletonList("switched"), closeShadow());
+    }
+
+    @Test
+    public void upsertReplacesTheWholeDocument() {
+        StringBuilder body = new StringBuilder();
+        IndexUpdateBuffer.appendAction(body, "tool", 3, "{\"name\":\"dockstore\"}");
+        Assert.assertEquals("{\"index\":{\"_type\":\"tool\",\"_id\":\"3\"}}\n{\"name\":\"dockstore\"}\n", body.toString());
+    }
+
+    @Test
+    public void delete() {
+        StringBuilder body = new StringBuilder();
+        IndexUpdateBuffer.appendAction(body, "workflow", 4, null);
+        Assert.assertEquals("{\"delete\":{\"_type\":\"workflow\",\"_id\":\"4\"}}\n", body.toString());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Streams through sessions that do nothing, the loaders answer from memory.
+ *
+ * @author dyuen
+ */
+public class JsonStreamerTest {
+
+    private final ObjectMapper mapper = Jackson.newObjectMapper();
+    private final SessionFactory sessionFactory = stub(SessionFactory.class, null);
+    private final JsonStreamer streamer = new JsonStreamer(sessionFactory, mapper);
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    /**
+     * @return an implementation of the interface whose methods return null, false or zero, and the factory for sessions
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T stub(Class<T> type, SessionFactory factory) {
+        return (T)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "openSession":
+                return stub(Session.class, (SessionFactory)proxy);
+            case "getSessionFactory":
+                return factory;
+            case "beginTransaction":
+                return stub(Transaction.class, null);
+            default:
+                return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+            }
+        });
+    }
+
+    @After
+    public void unbind() {
+        ManagedSessionContext.unbind(sessionFactory);
+    }
+
+    private static List<Integer> keys(int count) {
+        return IntStream.range(0, count).boxed().collect(Collectors.toList());
+    }
+
+    @Test
+    public void valuesAreWrittenAsOneArray() throws Exception {
+        streamer.stream(keys(JsonStreamer.BATCH_SIZE * 2 + 1), batch -> batch).write(output);
+        JsonNode json = mapper.readTree(output.toByteArray());
+        Assert.assertEquals(JsonStreamer.BATCH_SIZE * 2 + 1, json.size());
+        Assert.assertEquals(JsonStreamer.BATCH_SIZE * 2, json.get(JsonStreamer.BATCH_SIZE * 2).asInt());
+    }
+
+    @Test
+    public void nothingToList() throws Exception {
+        streamer.stream(keys(0), batch -> batch).write(output);
+        Assert.assertEquals("[]", new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void theSessionBoundBeforeIsBoundAgain() throws Exception {
+        Session requestSession = stub(Session.class, sessionFactory);
+        ManagedSessionContext.bind(requestSession);
+        streamer.stream(keys(3), batch -> {
+            Assert.assertNotSame(requestSession, ManagedSessionContext.unbind(sessionFactory));
+            return batch;
+        }).write(output);
+        Assert.assertSame(requestSession, ManagedSessionContext.unbind(sessionFactory));
+    }
+
+    @Test
+    public void aFailedFirstBatchWritesNothing() throws Exception {
+        try {
+            streamer.stream(keys(3), batch -> {
+                throw new IllegalStateException("database went away");
+            }).write(output);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(0, output.size());
+            Assert.assertFalse(ManagedSessionContext.hasBind(sessionFactory));
+        }
+    }
+
+    @Test
+    public void aFailedLaterBatchIsNotClosedAsComplete() throws Exception {
+        try {
+            streamer.stream(keys(JsonStreamer.BATCH_SIZE * 2), batch -> {
+                if (batch.get(0) > 0) {
+                    throw new IllegalStateException("database went away");
+                }
+                return batch;
+            }).write(output);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            String written = new String(output.toByteArray(), StandardCharsets.UTF_8);
+            Assert.assertTrue(written.startsWith("[0,1,"));
+            Assert.assertFalse(written.endsWith("]"));
+        }
+    }
+}
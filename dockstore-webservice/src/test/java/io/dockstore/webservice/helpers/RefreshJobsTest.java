@@ -0,0 +1,351 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import javax.ws.rs.WebApplicationException;
+
+import io.dockstore.webservice.CustomWebApplicationException;
+import io.dockstore.webservice.core.RefreshJob;
+import io.dockstore.webservice.jdbi.RefreshJobDAO;
+import io.dropwizard.util.Duration;
+import org.apache.http.HttpStatus;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Jobs are kept in memory rather than the database, every session opened for them reads and writes the same jobs.
+ *
+ * @author dyuen
+ */
+public class RefreshJobsTest {
+
+    private final Map<Long, RefreshJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+    private final SessionFactory sessionFactory;
+    private final Session callerSession;
+    private final boolean[] callerActive = {true};
+    private boolean callerDirty;
+    private int callerCommits;
+    private int callerCleared;
+
+    public RefreshJobsTest() {
+        SessionFactory[] factory = new SessionFactory[1];
+        Transaction callerTransaction = proxy(Transaction.class, (name, args) -> {
+            switch (name) {
+            case "isActive":
+                return callerActive[0];
+            case "commit":
+                callerCommits++;
+                callerActive[0] = false;
+                return null;
+            default:
+                throw new UnsupportedOperationException(name);
+            }
+        });
+        callerSession = proxy(Session.class, (name, args) -> {
+            switch (name) {
+            case "getTransaction":
+                return callerTransaction;
+            case "beginTransaction":
+                callerActive[0] = true;
+                return callerTransaction;
+            case "isDirty":
+                return callerDirty;
+            case "clear":
+                callerCleared++;
+                return null;
+            default:
+                throw new UnsupportedOperationException(name);
+            }
+        });
+        factory[0] = proxy(SessionFactory.class, (name, args) -> {
+            switch (name) {
+            case "getCurrentSession":
+                return callerSession;
+            case "openSession":
+                return jobSession(factory[0]);
+            default:
+                throw new UnsupportedOperationException(name);
+            }
+        });
+        sessionFactory = factory[0];
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static <T> T proxy(Class<T> type, BiFunction<String, Object[], Object> answer) {
+        return type.cast(Proxy.newProxyInstance(RefreshJobsTest.class.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return type.getSimpleName();
+            default:
+                return answer.apply(method.getName(), args);
+            }
+        }));
+    }
+
+    /**
+     * @return a session of its own that reads the jobs kept in memory
+     */
+    private Session jobSession(SessionFactory factory) {
+        boolean[] active = {false};
+        Transaction transaction = proxy(Transaction.class, (name, args) -> {
+            switch (name) {
+            case "isActive":
+                return active[0];
+            case "commit":
+            case "rollback":
+                active[0] = false;
+                return null;
+            default:
+                throw new UnsupportedOperationException(name);
+            }
+        });
+        return proxy(Session.class, (name, args) -> {
+            switch (name) {
+            case "getSessionFactory":
+                return factory;
+            case "beginTransaction":
+                active[0] = true;
+                return transaction;
+            case "getTransaction":
+                return transaction;
+            case "get":
+                return jobs.get((Long)args[1]);
+            case "close":
+                return null;
+            default:
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    private RefreshJobs refreshJobs() {
+        return new RefreshJobs(sessionFactory, executor, Duration.milliseconds(500), new RefreshJobDAO(sessionFactory) {
+            @Override
+            public RefreshJob findById(long id) {
+                return jobs.get(id);
+            }
+
+            @Override
+            public long create(RefreshJob job) {
+                try {
+                    Field id = RefreshJob.class.getDeclaredField("id");
+                    id.setAccessible(true);
+                    id.setLong(job, ids.incrementAndGet());
+                } catch (ReflectiveOperationException e) {
+                    throw new AssertionError(e);
+                }
+                jobs.put(job.getId(), job);
+                return job.getId();
+            }
+
+            @Override
+            public int failUnfinished(String failure, int failureStatus) {
+                int failed = 0;
+                for (RefreshJob job : jobs.values()) {
+                    if (Arrays.asList(RefreshJob.Status.QUEUED, RefreshJob.Status.RUNNING).contains(job.getStatus())) {
+                        job.setStatus(RefreshJob.Status.FAILED);
+                        job.setFinished(new Date());
+                        job.setFailure(failure);
+                        job.setFailureStatus(failureStatus);
+                        failed++;
+                    }
+                }
+                return failed;
+            }
+        });
+    }
+
+    private RefreshJob await(RefreshJobs refreshJobs, long id, RefreshJob.Status status) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            RefreshJob job = refreshJobs.find(id);
+            if (job.getStatus() == status) {
+                return job;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("job " + id + " is not " + status);
+    }
+
+    @Test
+    public void progressCanBePolledWhileTheJobRuns() throws InterruptedException {
+        RefreshJobs refreshJobs = refreshJobs();
+        CountDownLatch reported = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        refreshJobs.register(RefreshJob.Kind.WORKFLOWS, (job, progress) -> {
+            progress.found(3);
+            progress.refreshed("ga4gh/dockstore");
+            progress.failed("ga4gh/gone", "not found");
+            reported.countDown();
+            try {
+                finish.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        RefreshJob submitted = refreshJobs.submit(RefreshJob.Kind.WORKFLOWS, 2L, "ga4gh");
+        Assert.assertTrue(reported.await(5, TimeUnit.SECONDS));
+
+        RefreshJob running = refreshJobs.find(submitted.getId());
+        Assert.assertEquals(RefreshJob.Status.RUNNING, running.getStatus());
+        Assert.assertEquals(3, running.getFound());
+        Assert.assertEquals(1, running.getRefreshed());
+        Assert.assertEquals("ga4gh/gone", running.getErrors().get(0).getRepository());
+        Assert.assertEquals("ga4gh", running.getOrganization());
+
+        finish.countDown();
+        Assert.assertNotNull(await(refreshJobs, submitted.getId(), RefreshJob.Status.SUCCEEDED).getFinished());
+    }
+
+    @Test
+    public void waitingAnswersTheFailureOfTheJob() {
+        RefreshJobs refreshJobs = refreshJobs();
+        refreshJobs.register(RefreshJob.Kind.TOOLS, (job, progress) -> {
+            throw new CustomWebApplicationException("The GitHub token is not valid", HttpStatus.SC_BAD_REQUEST);
+        });
+        try {
+            refreshJobs.runAndWait(RefreshJob.Kind.TOOLS, 2L, null);
+            Assert.fail("the job failed");
+        } catch (CustomWebApplicationException e) {
+            Assert.assertEquals(HttpStatus.SC_BAD_REQUEST, e.getResponse().getStatus());
+            Assert.assertEquals("The GitHub token is not valid", e.getResponse().getEntity());
+        }
+        Assert.assertEquals("the caller's transaction is left to its unit of work", 0, callerCommits);
+        Assert.assertTrue(callerActive[0]);
+    }
+
+    @Test
+    public void waitingReadsWhatTheJobChangedFresh() {
+        RefreshJobs refreshJobs = refreshJobs();
+        refreshJobs.register(RefreshJob.Kind.WORKFLOWS, (job, progress) -> progress.found(1));
+        RefreshJob done = refreshJobs.runAndWait(RefreshJob.Kind.WORKFLOWS, 2L, "ga4gh");
+        Assert.assertEquals(RefreshJob.Status.SUCCEEDED, done.getStatus());
+        Assert.assertEquals(1, done.getFound());
+        Assert.assertEquals(1, callerCleared);
+        Assert.assertEquals(0, callerCommits);
+        Assert.assertTrue(callerActive[0]);
+    }
+
+    @Test
+    public void jobsThatTakeTooLongAreAnsweredToBePolled() throws InterruptedException {
+        RefreshJobs refreshJobs = refreshJobs();
+        CountDownLatch finish = new CountDownLatch(1);
+        refreshJobs.register(RefreshJob.Kind.TOOLS, (job, progress) -> {
+            try {
+                finish.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        RefreshJob running;
+        try {
+            refreshJobs.runAndWait(RefreshJob.Kind.TOOLS, 2L, null);
+            Assert.fail("the job is still running");
+            return;
+        } catch (WebApplicationException e) {
+            Assert.assertEquals(HttpStatus.SC_ACCEPTED, e.getResponse().getStatus());
+            running = (RefreshJob)e.getResponse().getEntity();
+        }
+        Assert.assertEquals(RefreshJob.Status.RUNNING, running.getStatus());
+        Assert.assertEquals(0, callerCommits);
+        finish.countDown();
+        await(refreshJobs, running.getId(), RefreshJob.Status.SUCCEEDED);
+    }
+
+    @Test
+    public void waitingWithChangesIsRefused() {
+        RefreshJobs refreshJobs = refreshJobs();
+        callerDirty = true;
+        try {
+            refreshJobs.runAndWait(RefreshJob.Kind.TOOLS, 2L, null);
+            Assert.fail("the changes would have been committed");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(0, callerCommits);
+            Assert.assertTrue(jobs.isEmpty());
+        }
+    }
+
+    @Test
+    public void jobsTurnedDownAreFailed() throws InterruptedException {
+        RefreshJobs refreshJobs = refreshJobs();
+        CountDownLatch finish = new CountDownLatch(1);
+        refreshJobs.register(RefreshJob.Kind.TOOLS, (job, progress) -> {
+            try {
+                finish.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        RefreshJob first = refreshJobs.submit(RefreshJob.Kind.TOOLS, 1L, null);
+        await(refreshJobs, first.getId(), RefreshJob.Status.RUNNING);
+        RefreshJob queued = refreshJobs.submit(RefreshJob.Kind.TOOLS, 2L, null);
+        try {
+            refreshJobs.submit(RefreshJob.Kind.TOOLS, 3L, null);
+            Assert.fail("the queue is full");
+        } catch (CustomWebApplicationException e) {
+            Assert.assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, e.getResponse().getStatus());
+        }
+        RefreshJob turnedDown = jobs.values().stream().filter(job -> job.getUserId() == 3L).findFirst().get();
+        Assert.assertEquals(RefreshJob.Status.FAILED, turnedDown.getStatus());
+        Assert.assertEquals(RefreshJob.Status.QUEUED, refreshJobs.find(queued.getId()).getStatus());
+        finish.countDown();
+        await(refreshJobs, queued.getId(), RefreshJob.Status.SUCCEEDED);
+    }
+
+    @Test
+    public void unfinishedJobsFailOnStart() {
+        RefreshJobs refreshJobs = refreshJobs();
+        // left over from the last run
+        RefreshJob running = new RefreshJob(RefreshJob.Kind.TOOLS, 1L, null);
+        running.setStatus(RefreshJob.Status.RUNNING);
+        RefreshJob succeeded = new RefreshJob(RefreshJob.Kind.WORKFLOWS, 1L, null);
+        succeeded.setStatus(RefreshJob.Status.SUCCEEDED);
+        Arrays.asList(running, succeeded, new RefreshJob(RefreshJob.Kind.TOOLS, 2L, null))
+                .forEach(job -> jobs.put(ids.incrementAndGet(), job));
+
+        refreshJobs.start();
+        Assert.assertEquals(RefreshJob.Status.FAILED, running.getStatus());
+        Assert.assertEquals(Integer.valueOf(HttpStatus.SC_SERVICE_UNAVAILABLE), running.getFailureStatus());
+        Assert.assertEquals(RefreshJob.Status.SUCCEEDED, succeeded.getStatus());
+        Assert.assertEquals(2, jobs.values().stream().filter(job -> job.getStatus() == RefreshJob.Status.FAILED).count());
+    }
+}
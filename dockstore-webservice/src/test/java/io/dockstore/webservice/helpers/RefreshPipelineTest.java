@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import io.dockstore.webservice.CustomWebApplicationException;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.RefreshConfig;
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Repositories are fetched on a pool and written one at a time on the calling thread, the session is a stub.
+ *
+ * @author dyuen
+ */
+public class RefreshPipelineTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final Set<String> written = new HashSet<>();
+    private final Map<String, String> failed = new ConcurrentHashMap<>();
+    private final RefreshProgress progress = new RefreshProgress() {
+        @Override
+        public void found(int repositories) {
+        }
+
+        @Override
+        public void refreshed(String repository) {
+        }
+
+        @Override
+        public void failed(String repository, String message) {
+            failed.put(repository, message);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static RefreshPipeline pipeline(ExecutorService executor, UnitOfWorkStub unitOfWork, int concurrency) {
+        RefreshConfig config = new RefreshConfig();
+        config.setConcurrencyPerHost(concurrency);
+        return new RefreshPipeline(executor, config, unitOfWork.getSessionFactory());
+    }
+
+    private Function<String, String> fetch(String failing) {
+        return repository -> {
+            if (repository.equals(failing)) {
+                throw new CustomWebApplicationException("no such repository", HttpStatus.SC_NOT_FOUND);
+            }
+            return repository.toUpperCase();
+        };
+    }
+
+    @Test
+    public void repositoriesThatCannotBeFetchedAreSkipped() {
+        List<String> repositories = Arrays.asList("ga4gh/dockstore", "ga4gh/gone", "oicr/aligner");
+        try (UnitOfWorkStub unitOfWork = new UnitOfWorkStub()) {
+            pipeline(executor, unitOfWork, 2).run("github.com", repositories, Function.identity(), fetch("ga4gh/gone"),
+                    (repository, answer) -> {
+                        Assert.assertTrue("written inside a transaction", unitOfWork.isActive());
+                        Assert.assertEquals(repository.toUpperCase(), answer);
+                        written.add(repository);
+                    }, progress);
+            Assert.assertEquals(new HashSet<>(Arrays.asList("ga4gh/dockstore", "oicr/aligner")), written);
+            Assert.assertEquals(Collections.singletonMap("ga4gh/gone", "no such repository"), failed);
+            Assert.assertTrue("the caller's unit of work goes on", unitOfWork.isActive());
+            Assert.assertEquals(0, unitOfWork.getCleared());
+        }
+    }
+
+    @Test
+    public void failedWriteClearsTheSession() {
+        List<String> repositories = Arrays.asList("ga4gh/dockstore", "oicr/aligner");
+        try (UnitOfWorkStub unitOfWork = new UnitOfWorkStub()) {
+            try {
+                pipeline(executor, unitOfWork, 1).run("github.com", repositories, Function.identity(), fetch(null),
+                        (repository, answer) -> {
+                            written.add(repository);
+                            throw new IllegalStateException("constraint violated");
+                        }, progress);
+                Assert.fail("the write failed");
+            } catch (IllegalStateException e) {
+                Assert.assertEquals("constraint violated", e.getMessage());
+            }
+            Assert.assertEquals(1, unitOfWork.getCleared());
+            Assert.assertEquals("nothing is written after a failed write", 1, written.size());
+            Assert.assertTrue(unitOfWork.isActive());
+        }
+    }
+}
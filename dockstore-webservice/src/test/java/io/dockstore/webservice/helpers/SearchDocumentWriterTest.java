@@ -0,0 +1,179 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dockstore.common.Registry;
+import io.dockstore.webservice.core.Label;
+import io.dockstore.webservice.core.SourceFile;
+import io.dockstore.webservice.core.Tag;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.User;
+import io.dockstore.webservice.core.Version;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.core.WorkflowVersion;
+import io.dockstore.webservice.jdbi.DAOStubs;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dropwizard.jackson.Jackson;
+import org.hibernate.collection.internal.PersistentSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Documents are written from entries as a listing loads them: the files of the versions and the owners of the entries were not
+ * loaded, and reading them would fail without a session.
+ *
+ * @author dyuen
+ */
+public class SearchDocumentWriterTest {
+
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+    private static final Date MODIFIED = new Date(1500000000000L);
+
+    private final List<Collection<Long>> askedForDescriptorTypes = new ArrayList<>();
+    private final SearchDocumentWriter writer = new SearchDocumentWriter(new ToolDAO(DAOStubs.sessionFactory()) {
+        @Override
+        public Map<Long, Set<SourceFile.FileType>> findDescriptorTypes(Collection<Long> ids) {
+            askedForDescriptorTypes.add(new ArrayList<>(ids));
+            return Collections.singletonMap(1L, EnumSet.of(SourceFile.FileType.DOCKSTORE_WDL, SourceFile.FileType.DOCKSTORE_CWL));
+        }
+    });
+
+    private static <T extends Version> T version(T version, String name, boolean hidden) throws ReflectiveOperationException {
+        version.setName(name);
+        version.setReference(name);
+        version.setHidden(hidden);
+        version.setValid(true);
+        version.setLastModified(MODIFIED);
+        // what a version found through a listing's fetch plan holds
+        Field sourceFiles = Version.class.getDeclaredField("sourceFiles");
+        sourceFiles.setAccessible(true);
+        sourceFiles.set(version, new PersistentSet());
+        return version;
+    }
+
+    private static Tool tool() throws ReflectiveOperationException {
+        Tool tool = new Tool();
+        tool.setId(1);
+        tool.setRegistry(Registry.QUAY_IO);
+        tool.setNamespace("ga4gh");
+        tool.setName("dockstore-tool-bamstats");
+        tool.setAuthor("Denis Yuen");
+        tool.setGitUrl("git@github.com:ga4gh/dockstore-tool-bamstats.git");
+        tool.setIsPublished(true);
+        tool.setToolname("bamstats");
+        tool.setDefaultCwlPath("/Dockstore.cwl");
+        // null fields are left out of the document
+        tool.setDefaultDockerfilePath(null);
+        tool.setDefaultWdlPath(null);
+        tool.setToolMaintainerEmail(null);
+        SortedSet<Label> labels = new TreeSet<>();
+        Label label = new Label();
+        label.setValue("genomics");
+        labels.add(label);
+        tool.setLabels(labels);
+        tool.addStarredUser(new User());
+        tool.setUsers(new PersistentSet());
+        Tag released = version(new Tag(), "1.0", false);
+        released.setVerified(true);
+        released.setVerifiedSource("Phase 1 GA4GH Tool Execution Challenge");
+        tool.addTag(released);
+        tool.addTag(version(new Tag(), "develop", true));
+        return tool;
+    }
+
+    private static Workflow workflow() throws ReflectiveOperationException {
+        Workflow workflow = new Workflow();
+        workflow.setId(1);
+        workflow.setOrganization("ga4gh");
+        workflow.setRepository("hello-bamstats");
+        workflow.setDescription("A workflow reporting BAM statistics");
+        workflow.setDescriptorType("cwl");
+        workflow.setDefaultWorkflowPath("/Dockstore.cwl");
+        workflow.setIsPublished(true);
+        workflow.setUsers(new PersistentSet());
+        workflow.addWorkflowVersion(version(new WorkflowVersion(), "master", false));
+        return workflow;
+    }
+
+    private static List<String> names(JsonNode document) {
+        List<String> names = new ArrayList<>();
+        document.fieldNames().forEachRemaining(names::add);
+        Collections.sort(names);
+        return names;
+    }
+
+    @Test
+    public void toolDocument() throws Exception {
+        JsonNode document = MAPPER.readTree(writer.toJson(tool()));
+        Assert.assertEquals(Arrays.asList("author", "default_cwl_path", "descriptorType", "gitUrl", "id", "is_published", "labels", "mode",
+                "name", "namespace", "path", "private_access", "registry", "starredUsers", "stars", "tags", "tool_path", "toolname"),
+                names(document));
+        Assert.assertEquals("quay.io/ga4gh/dockstore-tool-bamstats", document.get("path").asText());
+        Assert.assertEquals("quay.io/ga4gh/dockstore-tool-bamstats/bamstats", document.get("tool_path").asText());
+        Assert.assertEquals("QUAY_IO", document.get("registry").asText());
+        Assert.assertEquals("[\"cwl\",\"wdl\"]", document.get("descriptorType").toString());
+        Assert.assertEquals("genomics", document.get("labels").get(0).get("value").asText());
+        Assert.assertEquals(1, document.get("stars").asInt());
+        Assert.assertEquals("only the id of who starred it", Collections.singletonList("id"), names(document.get("starredUsers").get(0)));
+
+        JsonNode tags = document.get("tags");
+        Assert.assertEquals("hidden versions are left out", 1, tags.size());
+        Assert.assertEquals(Arrays.asList("last_modified", "name", "reference", "valid", "verified", "verifiedSource"), names(tags.get(0)));
+        Assert.assertEquals("1.0", tags.get(0).get("name").asText());
+        Assert.assertEquals(MODIFIED.getTime(), tags.get(0).get("last_modified").asLong());
+    }
+
+    @Test
+    public void workflowDocument() throws Exception {
+        JsonNode document = MAPPER.readTree(writer.toJson(workflow()));
+        Assert.assertEquals(Arrays.asList("description", "descriptorType", "gitUrl", "id", "is_published", "labels", "mode", "organization",
+                "path", "repository", "starredUsers", "stars", "workflowVersions", "workflow_path"), names(document));
+        Assert.assertEquals("ga4gh/hello-bamstats", document.get("path").asText());
+        Assert.assertEquals("/Dockstore.cwl", document.get("workflow_path").asText());
+        Assert.assertEquals("cwl", document.get("descriptorType").asText());
+        Assert.assertEquals(0, document.get("stars").asInt());
+        Assert.assertEquals(0, document.get("labels").size());
+        Assert.assertEquals(Arrays.asList("last_modified", "name", "reference", "valid", "verified"),
+                names(document.get("workflowVersions").get(0)));
+        Assert.assertEquals("tools are not asked about", Collections.singletonList(Collections.emptyList()), askedForDescriptorTypes);
+    }
+
+    @Test
+    public void batchesAskForTheDescriptorTypesOnce() throws Exception {
+        Workflow workflow = workflow();
+        workflow.setId(2);
+        List<String> documents = writer.toJson(Arrays.asList(tool(), workflow));
+        Assert.assertEquals(2, documents.size());
+        Assert.assertEquals("1", MAPPER.readTree(documents.get(0)).get("id").asText());
+        Assert.assertEquals("2", MAPPER.readTree(documents.get(1)).get("id").asText());
+        Assert.assertEquals(Collections.singletonList(Collections.singletonList(1L)), askedForDescriptorTypes);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration;
+import io.dockstore.webservice.DockstoreWebserviceConfiguration.ElasticSearchConfig;
+import io.dockstore.webservice.core.Tool;
+import io.dropwizard.util.Size;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Responses are only returned for the index generation they were asked for under, and the generation only moves once a change
+ * committed.
+ *
+ * @author dyuen
+ */
+public class SearchResultCacheTest {
+
+    private static final Map<String, List<String>> NO_PARAMETERS = Collections.emptyMap();
+    private static final byte[] RESPONSE = "{\"hits\":{\"total\":1}}".getBytes(StandardCharsets.UTF_8);
+
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    private SearchResultCache cache(Size size) {
+        return cache(size, metrics);
+    }
+
+    private static SearchResultCache cache(Size size, MetricRegistry registry) {
+        ElasticSearchConfig config = new DockstoreWebserviceConfiguration().getEsConfiguration();
+        config.setSearchCacheSize(size);
+        return new SearchResultCache(config, registry);
+    }
+
+    @Test
+    public void sameGenerationIsAnswered() {
+        SearchResultCache cache = cache(Size.kilobytes(64));
+        String key = cache.key("{\"query\":{\"match_all\":{}}}", NO_PARAMETERS);
+        Assert.assertNull(cache.get(key, 3));
+        cache.put(key, 3, RESPONSE);
+        Assert.assertArrayEquals(RESPONSE, cache.get(key, 3));
+        Assert.assertEquals(1, metrics.meter("elastic.search.cache.hits").getCount());
+        Assert.assertEquals(1, metrics.meter("elastic.search.cache.misses").getCount());
+    }
+
+    @Test
+    public void otherGenerationIsDropped() {
+        SearchResultCache cache = cache(Size.kilobytes(64));
+        String key = cache.key(null, NO_PARAMETERS);
+        cache.put(key, 3, RESPONSE);
+        Assert.assertNull(cache.get(key, 4));
+        // dropped rather than kept for a search still running under the old generation
+        Assert.assertNull(cache.get(key, 3));
+        Assert.assertEquals(0L, metrics.getGauges().get("elastic.search.cache.bytes").getValue());
+    }
+
+    @Test
+    public void equivalentSearchesShareAKey() {
+        SearchResultCache cache = cache(Size.kilobytes(64));
+        Map<String, List<String>> parameters = Collections.singletonMap("size", Collections.singletonList("10"));
+        Assert.assertEquals(cache.key("{\"size\": 10, \"query\": {\"match_all\": {}}}", parameters),
+                cache.key("{\"query\":{\"match_all\":{}},\"size\":10}", parameters));
+        Assert.assertNotEquals(cache.key("{}", parameters), cache.key("{}", NO_PARAMETERS));
+        Assert.assertNotEquals(cache.key("{}", Collections.singletonMap("a", Arrays.asList("b", "c"))),
+                cache.key("{}", Collections.singletonMap("a", Collections.singletonList("bc"))));
+    }
+
+    @Test
+    public void largeResponsesAreNotKept() {
+        SearchResultCache cache = cache(Size.bytes(RESPONSE.length * 8));
+        String key = cache.key(null, NO_PARAMETERS);
+        cache.put(key, 1, RESPONSE);
+        Assert.assertNull(cache.get(key, 1));
+        Assert.assertFalse(cache(Size.bytes(0), new MetricRegistry()).isEnabled());
+    }
+
+    @Test
+    public void generationMovesOnceTheChangeCommits() {
+        Tool tool = new Tool();
+        try (UnitOfWorkStub unitOfWork = new UnitOfWorkStub()) {
+            long before = ElasticManager.getGeneration();
+            new ElasticManager().handleIndexUpdate(tool, ElasticMode.DELETE);
+            Assert.assertEquals("a search now would still see the entry", before, ElasticManager.getGeneration());
+            unitOfWork.commit();
+            Assert.assertEquals(before + 1, ElasticManager.getGeneration());
+        }
+    }
+
+    @Test
+    public void generationStaysWhenTheChangeRollsBack() {
+        Tool tool = new Tool();
+        try (UnitOfWorkStub unitOfWork = new UnitOfWorkStub()) {
+            long before = ElasticManager.getGeneration();
+            new ElasticManager().bulkUpsert(Collections.singletonList(tool));
+            unitOfWork.rollback();
+            Assert.assertEquals(before, ElasticManager.getGeneration());
+        }
+    }
+}
@@ -44,4 +44,13 @@ public class SourceCodeRepoFactoryTest {
         Assert.assertTrue("should be null", stringStringMap3 == null);
     }
 
+    @Test
+    public void cloneUrl() throws Exception {
+        Assert.assertEquals("https://github.com/ga4gh/dockstore-ui.git",
+                SourceCodeRepoFactory.cloneUrl("git@github.com:ga4gh/dockstore-ui.git"));
+        Assert.assertEquals("https://github.com/denis-yuen/dockstore-whalesay.git",
+                SourceCodeRepoFactory.cloneUrl("git://github.com/denis-yuen/dockstore-whalesay.git"));
+        Assert.assertNull(SourceCodeRepoFactory.cloneUrl("mostly harmless"));
+    }
+
 }
\ No newline at end of file
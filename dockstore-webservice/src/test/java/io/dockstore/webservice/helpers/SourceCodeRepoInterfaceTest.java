@@ -0,0 +1,138 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import com.google.common.base.Optional;
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.core.WorkflowVersion;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Versions still at the commit and path their files were fetched from are not fetched again, source control is never asked.
+ *
+ * @author dyuen
+ */
+public class SourceCodeRepoInterfaceTest {
+
+    private static final String COMMIT = "9fceb02d0ae598e95dc970b74767f19372d61af8";
+
+    private final SourceCodeRepoInterface sourceCodeRepo = new SourceCodeRepoInterface() {
+        @Override
+        public String readFile(String fileName, String reference) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getOrganizationEmail() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, String> getWorkflowGitUrl2RepositoryId() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, String> getReferenceCommitIDs(String repositoryId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Workflow initializeWorkflow(String repositoryId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Workflow setupWorkflowVersions(String repositoryId, Workflow workflow, Optional<Workflow> existingWorkflow,
+                Map<String, WorkflowVersion> existingDefaults) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getRepositoryId(Entry entry) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getMainBranch(Entry entry, String repositoryId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getFileContents(String filePath, String branch, String repositoryId) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private static WorkflowVersion version(String commitID, String workflowPath) {
+        WorkflowVersion version = new WorkflowVersion();
+        version.setName("master");
+        version.setReference("master");
+        version.setCommitID(commitID);
+        version.setWorkflowPath(workflowPath);
+        return version;
+    }
+
+    private static Map<String, WorkflowVersion> refreshed(String commitID, String workflowPath) {
+        WorkflowVersion existing = version(commitID, workflowPath);
+        existing.setValid(true);
+        existing.setLastModified(new Date(1500000000000L));
+        return Collections.singletonMap("master", existing);
+    }
+
+    @Test
+    public void unchangedVersionIsKept() {
+        WorkflowVersion version = version(null, "/Dockstore.cwl");
+        Assert.assertTrue(sourceCodeRepo.keepUnchangedVersion(version, COMMIT, refreshed(COMMIT, "/Dockstore.cwl")));
+        Assert.assertEquals(COMMIT, version.getCommitID());
+        Assert.assertTrue(version.isValid());
+        Assert.assertEquals(new Date(1500000000000L), version.getLastModified());
+    }
+
+    @Test
+    public void movedReferenceIsFetched() {
+        WorkflowVersion version = version(null, "/Dockstore.cwl");
+        Assert.assertFalse(sourceCodeRepo.keepUnchangedVersion(version, "0d1d7fc32e5a947fbd92ee598033d85bfc445a50",
+                refreshed(COMMIT, "/Dockstore.cwl")));
+        Assert.assertNull("only set once the files came back", version.getCommitID());
+        Assert.assertFalse(version.isValid());
+    }
+
+    @Test
+    public void otherPathIsFetched() {
+        WorkflowVersion version = version(null, "/workflow.cwl");
+        Assert.assertFalse(sourceCodeRepo.keepUnchangedVersion(version, COMMIT, refreshed(COMMIT, "/Dockstore.cwl")));
+        Assert.assertNull(version.getCommitID());
+    }
+
+    @Test
+    public void versionsWithoutACommitAreFetched() {
+        // a version whose last fetch failed was left without a commit
+        Assert.assertFalse(sourceCodeRepo.keepUnchangedVersion(version(null, "/Dockstore.cwl"), COMMIT,
+                refreshed(null, "/Dockstore.cwl")));
+        // the host did not say where the reference is
+        Assert.assertFalse(sourceCodeRepo.keepUnchangedVersion(version(null, "/Dockstore.cwl"), null,
+                refreshed(COMMIT, "/Dockstore.cwl")));
+        // new versions
+        Assert.assertFalse(sourceCodeRepo.keepUnchangedVersion(version(null, "/Dockstore.cwl"), COMMIT, Collections.emptyMap()));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.lang.reflect.Field;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.hibernate5.Hibernate5Module;
+import io.dockstore.webservice.core.SourceFile;
+import io.dockstore.webservice.core.Tag;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.Version;
+import io.dropwizard.jackson.Jackson;
+import org.hibernate.collection.internal.PersistentSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The payload of listed entries, serialized like the webservice does (the hibernate bundle registers the hibernate module).
+ *
+ * @author dyuen
+ */
+public class SourceFilesSerializerTest {
+
+    private final ObjectMapper mapper = Jackson.newObjectMapper().registerModule(new Hibernate5Module());
+
+    private JsonNode listedTag(Tag tag) throws Exception {
+        Tool tool = new Tool();
+        tool.setPath("quay.io/ga4gh/dockstore");
+        tool.addTag(tag);
+        JsonNode json = mapper.readTree(mapper.writeValueAsString(tool));
+        Assert.assertTrue("labels are shown with the entry", json.get("labels").isArray());
+        Assert.assertTrue("stars are shown with the entry", json.get("starredUsers").isArray());
+        return json.get("tags").get(0);
+    }
+
+    @Test
+    public void filesThatWereNotLoadedAreLeftOut() throws Exception {
+        Tag tag = new Tag();
+        tag.setName("1.0");
+        // what a version found through a listing's fetch plan holds
+        Field sourceFiles = Version.class.getDeclaredField("sourceFiles");
+        sourceFiles.setAccessible(true);
+        sourceFiles.set(tag, new PersistentSet());
+
+        JsonNode json = listedTag(tag);
+        Assert.assertEquals("1.0", json.get("name").asText());
+        Assert.assertFalse(json.has("sourceFiles"));
+    }
+
+    @Test
+    public void loadedFilesAreWritten() throws Exception {
+        Tag tag = new Tag();
+        SourceFile file = new SourceFile();
+        file.setPath("/Dockstore.cwl");
+        file.setType(SourceFile.FileType.DOCKSTORE_CWL);
+        file.setContent("cwlVersion: v1.0");
+        tag.addSourceFile(file);
+
+        JsonNode files = listedTag(tag).get("sourceFiles");
+        Assert.assertEquals(1, files.size());
+        Assert.assertEquals("cwlVersion: v1.0", files.get(0).get("content").asText());
+    }
+
+    @Test
+    public void loadedEmptyFilesAreWritten() throws Exception {
+        JsonNode files = listedTag(new Tag()).get("sourceFiles");
+        Assert.assertTrue(files.isArray());
+        Assert.assertEquals(0, files.size());
+    }
+}
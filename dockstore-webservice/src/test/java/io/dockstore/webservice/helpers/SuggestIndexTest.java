@@ -0,0 +1,69 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import io.dockstore.webservice.core.Tool;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Notified changes only show in the suggestions once they commit.
+ *
+ * @author dyuen
+ */
+public class SuggestIndexTest {
+
+    private final SuggestIndex index = new SuggestIndex(null, null, null);
+
+    private static Tool tool(long id, String path) {
+        Tool tool = new Tool();
+        tool.setId(id);
+        tool.setPath(path);
+        tool.setNamespace(path.split("/")[1]);
+        tool.setIsPublished(true);
+        return tool;
+    }
+
+    private List<String> suggest(String prefix) {
+        return index.suggest(prefix, SuggestIndex.TOOL, 10).stream().map(SuggestIndex.Suggestion::getText).collect(Collectors.toList());
+    }
+
+    @Test
+    public void committedChangesAreSuggested() {
+        try (UnitOfWorkStub unitOfWork = new UnitOfWorkStub()) {
+            index.handleIndexUpdate(tool(1, "quay.io/test_org/test6"), ElasticMode.UPDATE);
+            Assert.assertTrue(suggest("test6").isEmpty());
+            unitOfWork.commit();
+        }
+        Assert.assertEquals(Collections.singletonList("quay.io/test_org/test6"), suggest("test6"));
+        Assert.assertEquals(Collections.singletonList("quay.io/test_org/test6"), suggest("QUAY.IO/test"));
+    }
+
+    @Test
+    public void rolledBackChangesAreNot() {
+        index.handleIndexUpdate(tool(1, "quay.io/test_org/test6"), ElasticMode.UPDATE);
+        try (UnitOfWorkStub unitOfWork = new UnitOfWorkStub()) {
+            index.bulkUpsert(Collections.singletonList(tool(2, "quay.io/test_org/test7")));
+            index.handleIndexUpdate(tool(1, "quay.io/test_org/test6"), ElasticMode.DELETE);
+            unitOfWork.rollback();
+        }
+        Assert.assertEquals(Collections.singletonList("quay.io/test_org/test6"), suggest("test"));
+    }
+}
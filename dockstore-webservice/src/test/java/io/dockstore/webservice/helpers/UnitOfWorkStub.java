@@ -0,0 +1,149 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ManagedSessionContext;
+
+/**
+ * A unit of work bound like the one of a request, its transaction commits or rolls back when the test or the code under test says
+ * so, and new ones can be begun on its session.
+ * Changes registered with {@link ElasticManager#afterCommit(Runnable)} wait for it.
+ *
+ * @author dyuen
+ */
+public final class UnitOfWorkStub implements AutoCloseable {
+
+    private final List<Synchronization> synchronizations = new ArrayList<>();
+    private final SessionFactory sessionFactory;
+    private boolean active = true;
+    private int cleared;
+
+    public UnitOfWorkStub() {
+        Transaction transaction = proxy(Transaction.class, (name, args) -> {
+            switch (name) {
+            case "isActive":
+                return active;
+            case "registerSynchronization":
+                synchronizations.add((Synchronization)args[0]);
+                return null;
+            case "commit":
+                commit();
+                return null;
+            case "rollback":
+                rollback();
+                return null;
+            default:
+                throw new UnsupportedOperationException(name);
+            }
+        });
+        Session[] session = new Session[1];
+        sessionFactory = proxy(SessionFactory.class, (name, args) -> {
+            if ("getCurrentSession".equals(name) || "openSession".equals(name)) {
+                return session[0];
+            }
+            throw new UnsupportedOperationException(name);
+        });
+        session[0] = proxy(Session.class, (name, args) -> {
+            switch (name) {
+            case "getSessionFactory":
+                return sessionFactory;
+            case "getTransaction":
+                return transaction;
+            case "beginTransaction":
+                active = true;
+                return transaction;
+            case "clear":
+                cleared++;
+                return null;
+            case "setDefaultReadOnly":
+            case "close":
+                // sessions opened by the code under test are this one, it stays open
+                return null;
+            case "contains":
+                // the entities of a test are the ones in the session
+                return true;
+            default:
+                throw new UnsupportedOperationException(name);
+            }
+        });
+        ElasticManager.setSessionFactory(sessionFactory);
+        ManagedSessionContext.bind(session[0]);
+    }
+
+    private static <T> T proxy(Class<T> type, BiFunction<String, Object[], Object> answer) {
+        return type.cast(Proxy.newProxyInstance(UnitOfWorkStub.class.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return type.getSimpleName();
+            default:
+                return answer.apply(method.getName(), args);
+            }
+        }));
+    }
+
+    public SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * @return true while the transaction last begun is neither committed nor rolled back
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return how many times the session was cleared
+     */
+    public int getCleared() {
+        return cleared;
+    }
+
+    public void commit() {
+        finish(Status.STATUS_COMMITTED);
+    }
+
+    public void rollback() {
+        finish(Status.STATUS_ROLLEDBACK);
+    }
+
+    private void finish(int status) {
+        active = false;
+        synchronizations.forEach(synchronization -> synchronization.afterCompletion(status));
+        synchronizations.clear();
+    }
+
+    @Override
+    public void close() {
+        ManagedSessionContext.unbind(sessionFactory);
+        ElasticManager.setSessionFactory(null);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.jdbi;
+
+import java.lang.reflect.Proxy;
+import java.util.Date;
+
+import io.dockstore.webservice.core.SourceFile;
+import org.hibernate.SessionFactory;
+
+/**
+ * What the DAOs need to be built and subclassed in tests that answer from memory rather than the database.
+ *
+ * @author dyuen
+ */
+public final class DAOStubs {
+
+    private DAOStubs() {
+        // hide the constructor for utility classes
+    }
+
+    /**
+     * @return a session factory that is never asked for a session
+     */
+    public static SessionFactory sessionFactory() {
+        return (SessionFactory)Proxy.newProxyInstance(DAOStubs.class.getClassLoader(), new Class<?>[] {SessionFactory.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    public static FileDAO.FileStamp stamp(String contentDigest, String path, Date updated) {
+        return new FileDAO.FileStamp(contentDigest, path, updated, "git@github.com:ga4gh/dockstore.git", "master", "/Dockstore.cwl");
+    }
+
+    public static EntryDAO.EntryChange change(long id, boolean published, Date updated) {
+        return new EntryDAO.EntryChange(id, published, updated);
+    }
+
+    public static FileDAO.VersionFile file(SourceFile sourceFile) {
+        return new FileDAO.VersionFile(sourceFile, "git@github.com:ga4gh/dockstore.git", "master", "/Dockstore.cwl");
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.jdbi;
+
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import io.dockstore.webservice.core.Tool;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.NativeQuery;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * How what the user typed in a search box becomes a ranked text search, the database answers with ids that are kept in memory.
+ *
+ * @author dyuen
+ */
+public class EntryDAOTest {
+
+    private final List<String> sql = new ArrayList<>();
+    private final Map<String, Object> parameters = new HashMap<>();
+    private final List<Long> loadedIds = new ArrayList<>();
+
+    private final ToolDAO toolDAO = new ToolDAO(sessionFactory()) {
+        @Override
+        public List<Tool> findPublishedByIds(List<Long> ids, FetchPlan plan) {
+            Assert.assertEquals(FetchPlan.WITH_VERSIONS, plan);
+            loadedIds.addAll(ids);
+            return ids.stream().map(id -> {
+                Tool tool = new Tool();
+                tool.setId(id);
+                return tool;
+            }).collect(Collectors.toList());
+        }
+    };
+
+    /**
+     * Sessions whose native queries note what they were asked and answer with ids in the order the database ranked them
+     */
+    private SessionFactory sessionFactory() {
+        NativeQuery<?> query = (NativeQuery<?>)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {NativeQuery.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "setParameter":
+                        parameters.put((String)args[0], args[1]);
+                        return proxy;
+                    case "list":
+                        return Arrays.asList(BigInteger.valueOf(7), BigInteger.valueOf(3));
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        Session session = (Session)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Session.class},
+                (proxy, method, args) -> {
+                    if ("createNativeQuery".equals(method.getName()) && args.length == 1) {
+                        sql.add((String)args[0]);
+                        return query;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        return (SessionFactory)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {SessionFactory.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "getCurrentSession":
+                        return session;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Test
+    public void everyWordMatchesTheStartOfAWord() {
+        Assert.assertEquals("bamstats:*", EntryDAO.toPrefixQuery("BAMstats"));
+        Assert.assertEquals("paths are split like the indexed text", "quay:* & io:* & test:* & org:* & test6:*",
+                EntryDAO.toPrefixQuery("quay.io/test_org/test6"));
+        Assert.assertEquals("café:* & 2017:*", EntryDAO.toPrefixQuery("  Café 2017 "));
+    }
+
+    @Test
+    public void operatorsAreNotPassedOn() {
+        Assert.assertEquals("a:* & b:* & c:*", EntryDAO.toPrefixQuery("a' | !b & (c:*)"));
+        Assert.assertEquals("drop:* & table:* & tool:*", EntryDAO.toPrefixQuery("'); DROP TABLE tool; --"));
+    }
+
+    @Test
+    public void patternsWithoutWordsHaveNoQuery() {
+        Assert.assertNull(EntryDAO.toPrefixQuery(null));
+        Assert.assertNull(EntryDAO.toPrefixQuery(""));
+        Assert.assertNull(EntryDAO.toPrefixQuery(" /-_ "));
+    }
+
+    @Test
+    public void matchesAreRankedAndPaged() {
+        List<Tool> tools = toolDAO.searchPattern("ga4gh bamstats", 20, 10);
+        Assert.assertEquals(1, sql.size());
+        String search = sql.get(0);
+        Assert.assertTrue(search, search.contains("ts_rank("));
+        Assert.assertTrue("labels are searched too", search.contains("entry_label"));
+        Assert.assertTrue(search, search.contains("ORDER BY sum(m.rank) DESC, m.id LIMIT :limit OFFSET :offset"));
+        Assert.assertTrue("the expression of the search index is searched", search.contains(toolDAO.searchVector() + " @@ to_tsquery"));
+        Assert.assertEquals("ga4gh:* & bamstats:*", parameters.get("query"));
+        Assert.assertEquals(20, parameters.get("offset"));
+        Assert.assertEquals(10, parameters.get("limit"));
+        Assert.assertEquals("in the order of their rank", Arrays.asList(7L, 3L), loadedIds);
+        Assert.assertEquals(7L, tools.get(0).getId());
+    }
+
+    @Test
+    public void patternsWithoutWordsListEntriesById() {
+        toolDAO.searchPattern(" ", 0, 100);
+        Assert.assertEquals(Collections.singletonList("SELECT id FROM tool WHERE ispublished ORDER BY id LIMIT :limit OFFSET :offset"),
+                sql);
+        Assert.assertFalse(parameters.containsKey("query"));
+        Assert.assertEquals(Arrays.asList(7L, 3L), loadedIds);
+    }
+
+    @Test
+    public void pathsWeighMostAndDescriptionsLeast() {
+        String vector = toolDAO.searchVector();
+        Assert.assertTrue(vector, vector.indexOf("coalesce(path, '')") < vector.indexOf("'A')"));
+        Assert.assertTrue(vector, vector.indexOf("'A')") < vector.indexOf("coalesce(author, '')"));
+        Assert.assertTrue(vector, vector.indexOf("coalesce(author, '')") < vector.indexOf("'B')"));
+        Assert.assertTrue(vector, vector.indexOf("'B')") < vector.indexOf("coalesce(description, '')"));
+        Assert.assertTrue(vector, vector.endsWith("'C')"));
+        Assert.assertEquals("setweight(to_tsvector('simple', regexp_replace(coalesce(author, ''), '[^[:alnum:]]+', ' ', 'g')), 'B')",
+                EntryDAO.weightedVector('B', "author"));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.resources;
+
+import java.net.URI;
+import java.util.Date;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.jdbi.DAOStubs;
+import io.dockstore.webservice.jdbi.FetchPlan;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dockstore.webservice.jdbi.WorkflowDAO;
+import io.dropwizard.jackson.Jackson;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Published tools and workflows answered with a 304 when the client's copy is current, the entries are kept in memory.
+ *
+ * @author dyuen
+ */
+public class PublishedEntryConditionalTest {
+
+    private static final long ID = 7;
+
+    private Date updated = new Date(1500000000000L);
+    private int loads;
+
+    private final ToolDAO toolDAO = new ToolDAO(DAOStubs.sessionFactory()) {
+        @Override
+        public Date findPublishedUpdateDate(long id) {
+            return id == ID ? updated : null;
+        }
+
+        @Override
+        public Tool findPublishedById(long id, FetchPlan plan) {
+            loads++;
+            Tool tool = new Tool();
+            tool.setId(id);
+            return tool;
+        }
+
+        @Override
+        public void evict(Tool entry) {
+            // nothing is attached
+        }
+    };
+
+    private final WorkflowDAO workflowDAO = new WorkflowDAO(DAOStubs.sessionFactory()) {
+        @Override
+        public Date findPublishedUpdateDate(long id) {
+            return id == ID ? updated : null;
+        }
+
+        @Override
+        public Workflow findPublishedById(long id, FetchPlan plan) {
+            loads++;
+            Workflow workflow = new Workflow();
+            workflow.setId(id);
+            return workflow;
+        }
+
+        @Override
+        public void evict(Workflow entry) {
+            // nothing is attached
+        }
+    };
+
+    private final DockerRepoResource tools = new DockerRepoResource(Jackson.newObjectMapper(), null, null, null, toolDAO, null, null,
+            null, null, null, null, null, null);
+    private final WorkflowResource workflows = new WorkflowResource(null, null, null, toolDAO, workflowDAO, null, null, null, null,
+            null, null, null, null, null);
+
+    private static ContainerRequest request(EntityTag ifNoneMatch) {
+        ContainerRequest request = new ContainerRequest(URI.create("http://localhost/"), URI.create("http://localhost/published"), "GET",
+                null, new MapPropertiesDelegate());
+        if (ifNoneMatch != null) {
+            request.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch.toString());
+        }
+        return request;
+    }
+
+    private static void assertVaries(Response response) {
+        Assert.assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeaderString(HttpHeaders.VARY));
+    }
+
+    @Test
+    public void currentToolIsNotSentAgain() {
+        Response first = tools.getPublishedContainer(ID, request(null));
+        Assert.assertEquals(200, first.getStatus());
+        assertVaries(first);
+        Assert.assertNotNull(first.getEntityTag());
+
+        Response second = tools.getPublishedContainer(ID, request(first.getEntityTag()));
+        Assert.assertEquals(304, second.getStatus());
+        Assert.assertEquals(first.getEntityTag(), second.getEntityTag());
+        assertVaries(second);
+        Assert.assertEquals("the tool is only loaded for the first request", 1, loads);
+    }
+
+    @Test
+    public void changedToolIsSentAgain() {
+        EntityTag tag = tools.getPublishedContainer(ID, request(null)).getEntityTag();
+        updated = new Date(updated.getTime() + 1);
+
+        Response changed = tools.getPublishedContainer(ID, request(tag));
+        Assert.assertEquals(200, changed.getStatus());
+        Assert.assertNotEquals(tag, changed.getEntityTag());
+        assertVaries(changed);
+        Assert.assertEquals(2, loads);
+    }
+
+    @Test
+    public void currentWorkflowIsNotSentAgain() {
+        Response first = workflows.getPublishedWorkflow(ID, request(null));
+        Assert.assertEquals(200, first.getStatus());
+        assertVaries(first);
+
+        Response second = workflows.getPublishedWorkflow(ID, request(first.getEntityTag()));
+        Assert.assertEquals(304, second.getStatus());
+        assertVaries(second);
+        Assert.assertEquals(1, loads);
+    }
+
+    @Test
+    public void changedWorkflowIsSentAgain() {
+        EntityTag tag = workflows.getPublishedWorkflow(ID, request(null)).getEntityTag();
+        updated = new Date(updated.getTime() + 1);
+
+        Response changed = workflows.getPublishedWorkflow(ID, request(tag));
+        Assert.assertEquals(200, changed.getStatus());
+        Assert.assertNotEquals(tag, changed.getEntityTag());
+        Assert.assertEquals(2, loads);
+    }
+
+    @Test
+    public void toolAndWorkflowTagsDiffer() {
+        Assert.assertNotEquals(tools.getPublishedContainer(ID, request(null)).getEntityTag(),
+                workflows.getPublishedWorkflow(ID, request(null)).getEntityTag());
+    }
+}
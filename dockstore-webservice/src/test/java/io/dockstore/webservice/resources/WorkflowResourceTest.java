@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.resources;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.stream.Collectors;
+
+import io.dockstore.webservice.core.SourceFile;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.core.WorkflowMode;
+import io.dockstore.webservice.core.WorkflowVersion;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Source control is asked about copies of the workflows that hold everything a refresh reads.
+ *
+ * @author dyuen
+ */
+public class WorkflowResourceTest {
+
+    private static SourceFile file(long id, SourceFile.FileType type, String path) {
+        SourceFile file = new SourceFile();
+        file.setId(id);
+        file.setType(type);
+        file.setPath(path);
+        file.setContent("{}");
+        return file;
+    }
+
+    @Test
+    public void copiesHoldWhatTheRefreshReads() {
+        Workflow workflow = new Workflow();
+        workflow.setId(3);
+        workflow.setMode(WorkflowMode.FULL);
+        workflow.setOrganization("ga4gh");
+        workflow.setRepository("dockstore");
+        workflow.setGitUrl("git@github.com:ga4gh/dockstore.git");
+        workflow.setDescriptorType("cwl");
+        workflow.setDefaultWorkflowPath("/Dockstore.cwl");
+        WorkflowVersion version = new WorkflowVersion();
+        version.setName("master");
+        version.setReference("master");
+        version.setWorkflowPath("/workflow.cwl");
+        version.setDirtyBit(true);
+        version.setCommitID("2f3f0a1");
+        version.addSourceFile(file(1, SourceFile.FileType.DOCKSTORE_CWL, "/workflow.cwl"));
+        version.addSourceFile(file(2, SourceFile.FileType.CWL_TEST_JSON, "/test.json"));
+        version.addSourceFile(file(3, SourceFile.FileType.CWL_TEST_JSON, "/other.json"));
+        workflow.addWorkflowVersion(version);
+
+        Workflow copy = WorkflowResource.detachedCopy(workflow);
+        Assert.assertEquals(WorkflowMode.FULL, copy.getMode());
+        Assert.assertEquals("git@github.com:ga4gh/dockstore.git", copy.getGitUrl());
+        Assert.assertEquals("/Dockstore.cwl", copy.getDefaultWorkflowPath());
+        WorkflowVersion versionCopy = copy.getWorkflowVersions().iterator().next();
+        Assert.assertNotSame(version, versionCopy);
+        Assert.assertEquals("master", versionCopy.getReference());
+        Assert.assertEquals("/workflow.cwl", versionCopy.getWorkflowPath());
+        Assert.assertTrue(versionCopy.isDirtyBit());
+        Assert.assertTrue(versionCopy.isUnchangedFrom(version));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("/workflow.cwl", "/test.json", "/other.json")),
+                versionCopy.getSourceFiles().stream().map(SourceFile::getPath).collect(Collectors.toSet()));
+
+        // what source control adds to the copy stays out of the workflow
+        versionCopy.addSourceFile(file(4, SourceFile.FileType.CWL_TEST_JSON, "/new.json"));
+        Assert.assertEquals(3, version.getSourceFiles().size());
+    }
+}
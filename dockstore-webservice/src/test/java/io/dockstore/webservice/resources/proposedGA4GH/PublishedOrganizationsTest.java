@@ -0,0 +1,153 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.dockstore.webservice.resources.proposedGA4GH;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.core.Workflow;
+import io.dockstore.webservice.helpers.ElasticMode;
+import io.dockstore.webservice.helpers.UnitOfWorkStub;
+import io.dockstore.webservice.jdbi.DAOStubs;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import io.dockstore.webservice.jdbi.WorkflowDAO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The database holds lower case organizations like the distinct queries return them. Publishing and unpublishing happen in a unit of
+ * work, so the set only changes when it commits.
+ *
+ * @author dyuen
+ */
+public class PublishedOrganizationsTest {
+
+    private final List<String> namespaces = new ArrayList<>(Arrays.asList("ga4gh", "collaboratory"));
+    private final List<String> organizations = new ArrayList<>(Arrays.asList("ga4gh", "dockstore"));
+    private final UnitOfWorkStub unitOfWork = new UnitOfWorkStub();
+    private Runnable duringLoad = () -> { };
+    private int loads;
+
+    private final PublishedOrganizations publishedOrganizations = new PublishedOrganizations(new ToolDAO(DAOStubs.sessionFactory()) {
+        @Override
+        public List<String> findPublishedNamespaces() {
+            loads++;
+            List<String> loaded = new ArrayList<>(namespaces);
+            duringLoad.run();
+            return loaded;
+        }
+    }, new WorkflowDAO(DAOStubs.sessionFactory()) {
+        @Override
+        public List<String> findPublishedOrganizations() {
+            return new ArrayList<>(organizations);
+        }
+    });
+
+    @After
+    public void tearDown() {
+        unitOfWork.close();
+    }
+
+    private static Tool tool(String namespace, boolean published) {
+        Tool tool = new Tool();
+        tool.setNamespace(namespace);
+        tool.setIsPublished(published);
+        return tool;
+    }
+
+    private static Workflow workflow(String organization, boolean published) {
+        Workflow workflow = new Workflow();
+        workflow.setOrganization(organization);
+        workflow.setIsPublished(published);
+        return workflow;
+    }
+
+    private void beginTransaction() {
+        unitOfWork.getSessionFactory().getCurrentSession().beginTransaction();
+    }
+
+    @Test
+    public void organizationsAreLoadedOnce() {
+        Assert.assertEquals(Arrays.asList("collaboratory", "dockstore", "ga4gh"),
+                new ArrayList<>(publishedOrganizations.getOrganizations()));
+        publishedOrganizations.getOrganizations();
+        Assert.assertEquals(1, loads);
+    }
+
+    @Test
+    public void publishedOrganizationsAreAddedOnceCommitted() {
+        publishedOrganizations.getOrganizations();
+        publishedOrganizations.handleIndexUpdate(tool("BD2K", true), ElasticMode.UPDATE);
+        Assert.assertFalse(publishedOrganizations.getOrganizations().contains("bd2k"));
+        unitOfWork.commit();
+        Assert.assertTrue("kept lower case", publishedOrganizations.getOrganizations().contains("bd2k"));
+
+        beginTransaction();
+        publishedOrganizations.bulkUpsert(Arrays.asList(workflow("GA4GH", true), workflow("Ga4gh", true)));
+        unitOfWork.commit();
+        Assert.assertEquals("organizations differing only in case are one", Arrays.asList("bd2k", "collaboratory", "dockstore", "ga4gh"),
+                new ArrayList<>(publishedOrganizations.getOrganizations()));
+        Assert.assertEquals("publishing never needs the database", 1, loads);
+    }
+
+    @Test
+    public void unpublishedOrganizationsAreLoadedAgainOnceCommitted() {
+        publishedOrganizations.getOrganizations();
+        namespaces.remove("collaboratory");
+        publishedOrganizations.handleIndexUpdate(tool("Collaboratory", false), ElasticMode.UPDATE);
+        Assert.assertTrue(publishedOrganizations.getOrganizations().contains("collaboratory"));
+        Assert.assertEquals(1, loads);
+        unitOfWork.commit();
+        Assert.assertFalse(publishedOrganizations.getOrganizations().contains("collaboratory"));
+        Assert.assertEquals(2, loads);
+
+        beginTransaction();
+        organizations.remove("dockstore");
+        publishedOrganizations.handleIndexUpdate(workflow("dockstore", true), ElasticMode.DELETE);
+        unitOfWork.commit();
+        Assert.assertEquals(Collections.singletonList("ga4gh"), new ArrayList<>(publishedOrganizations.getOrganizations()));
+        Assert.assertEquals(3, loads);
+    }
+
+    @Test
+    public void rolledBackChangesAreIgnored() {
+        publishedOrganizations.getOrganizations();
+        publishedOrganizations.handleIndexUpdate(tool("bd2k", true), ElasticMode.UPDATE);
+        publishedOrganizations.handleIndexUpdate(tool("ga4gh", false), ElasticMode.UPDATE);
+        unitOfWork.rollback();
+        Assert.assertFalse(publishedOrganizations.getOrganizations().contains("bd2k"));
+        Assert.assertEquals(1, loads);
+    }
+
+    @Test
+    public void organizationsLoadedDuringAChangeAreNotKept() {
+        // the last tool of the namespace is unpublished after the namespaces were read
+        duringLoad = () -> {
+            duringLoad = () -> { };
+            namespaces.remove("collaboratory");
+            // by another request, whose change is already committed
+            unitOfWork.close();
+            publishedOrganizations.handleIndexUpdate(tool("collaboratory", false), ElasticMode.UPDATE);
+        };
+        Assert.assertTrue("the request that read it still answers it", publishedOrganizations.getOrganizations().contains("collaboratory"));
+        Assert.assertFalse(publishedOrganizations.getOrganizations().contains("collaboratory"));
+        Assert.assertEquals(2, loads);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.swagger.api.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import javax.ws.rs.WebApplicationException;
+
+import com.google.common.primitives.UnsignedBytes;
+import io.dockstore.webservice.jdbi.EntryDAO;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Pages through tables held in memory, sorted like the database sorts them.
+ *
+ * @author dyuen
+ */
+public class ListingPagerTest {
+
+    private static final String SAME = "git@github.com:ga4gh/same.git";
+
+    private final List<EntryDAO.Keyset> tools = sorted(key("git@github.com:a/tool.git", 4), key(SAME, 2), key(SAME, 7),
+            key("git@github.com:z/tool.git", 1), key("git@github.com:\uD83D\uDE00/tool.git", 9));
+    private final List<EntryDAO.Keyset> workflows = sorted(key("git@github.com:b/workflow.git", 3), key(SAME, 5), key(SAME, 8),
+            key("git@github.com:\uFFFD/workflow.git", 6));
+
+    private static EntryDAO.Keyset key(String gitUrl, long id) {
+        return new EntryDAO.Keyset(gitUrl, id);
+    }
+
+    private static List<EntryDAO.Keyset> sorted(EntryDAO.Keyset... keys) {
+        return Arrays.stream(keys).sorted(EntryDAO.Keyset.ORDER).collect(Collectors.toList());
+    }
+
+    /**
+     * Walks a sorted table like findPublishedKeys does
+     */
+    private static ListingPager.KeySource table(List<EntryDAO.Keyset> keys) {
+        return new ListingPager.KeySource() {
+            @Override
+            public List<EntryDAO.Keyset> find(EntryDAO.Keyset after, int limit, boolean reverse) {
+                List<EntryDAO.Keyset> walked = new ArrayList<>(keys);
+                if (reverse) {
+                    Collections.reverse(walked);
+                }
+                return walked.stream().filter(key -> after == null || (reverse ? EntryDAO.Keyset.ORDER.compare(key, after) < 0
+                        : EntryDAO.Keyset.ORDER.compare(key, after) > 0)).limit(limit).collect(Collectors.toList());
+            }
+
+            @Override
+            public long count() {
+                return keys.size();
+            }
+        };
+    }
+
+    private static List<Long> ids(ListingPager.Page page) {
+        return page.getItems().stream().map(item -> item.getKey().getId()).collect(Collectors.toList());
+    }
+
+    @Test
+    public void orderIsByCodePoint() {
+        List<EntryDAO.Keyset> keys = sorted(key("b", 1), key("\uD83D\uDE00", 2), key("\uFFFD", 3), key("a", 5), key("a", 4),
+                key("ab", 6));
+        Assert.assertEquals(Arrays.asList(4L, 5L, 6L, 1L, 3L, 2L), keys.stream().map(EntryDAO.Keyset::getId).collect(Collectors.toList()));
+        // the database compares the UTF-8 bytes
+        for (int i = 1; i < keys.size(); i++) {
+            Assert.assertTrue(UnsignedBytes.lexicographicalComparator().compare(keys.get(i - 1).getGitUrl().getBytes(StandardCharsets.UTF_8),
+                    keys.get(i).getGitUrl().getBytes(StandardCharsets.UTF_8)) <= 0);
+        }
+    }
+
+    @Test
+    public void everyPageSizeSeesEveryEntryOnce() {
+        List<EntryDAO.Keyset> all = new ArrayList<>(tools);
+        all.addAll(workflows);
+        List<Long> expected = all.stream().sorted(EntryDAO.Keyset.ORDER).map(EntryDAO.Keyset::getId).collect(Collectors.toList());
+        ListingPager pager = new ListingPager(table(tools), table(workflows));
+        for (int limit = 1; limit <= all.size() + 1; limit++) {
+            List<Long> seen = new ArrayList<>();
+            String offset = null;
+            int pages = 0;
+            do {
+                ListingPager.Page page = pager.page(offset, limit);
+                Assert.assertTrue(page.getItems().size() <= limit);
+                seen.addAll(ids(page));
+                offset = page.getNext();
+                pages++;
+            } while (offset != null);
+            Assert.assertEquals("limit " + limit, expected, seen);
+            Assert.assertEquals((all.size() + limit - 1) / limit, pages);
+        }
+    }
+
+    @Test
+    public void tiesAcrossTablesStayInOrder() {
+        ListingPager pager = new ListingPager(table(tools), table(workflows));
+        // the tool and workflow keys that share a git url are ordered by id, a page boundary falls in the middle of them
+        ListingPager.Page first = pager.page(null, 4);
+        Assert.assertEquals(Arrays.asList(4L, 3L, 2L, 5L), ids(first));
+        Assert.assertEquals(Arrays.asList(7L, 8L, 1L, 6L), ids(pager.page(first.getNext(), 4)));
+    }
+
+    @Test
+    public void pageNumbers() {
+        ListingPager pager = new ListingPager(table(tools), table(workflows));
+        Assert.assertEquals(Arrays.asList(2L, 5L), ids(pager.page("1", 2)));
+        Assert.assertEquals(Arrays.asList(9L), ids(pager.page("4", 2)));
+        Assert.assertNull(pager.page("4", 2).getNext());
+        Assert.assertTrue(pager.page("5", 2).getItems().isEmpty());
+        try {
+            pager.page(String.valueOf(Long.MAX_VALUE), 2);
+            Assert.fail("the offset overflows");
+        } catch (WebApplicationException e) {
+            Assert.assertEquals(400, e.getResponse().getStatus());
+        }
+    }
+
+    @Test
+    public void deepPageNumbersAreWalkedInSteps() {
+        int size = ListingPager.SKIPPED_PER_WALK * 2 + 5;
+        List<EntryDAO.Keyset> many = sorted(LongStream.range(0, size).mapToObj(id -> key(SAME, id)).toArray(EntryDAO.Keyset[]::new));
+        ListingPager pager = new ListingPager(table(many), table(new ArrayList<>()));
+        int pageNumber = ListingPager.SKIPPED_PER_WALK * 2 / 10;
+        ListingPager.Page deep = pager.page(String.valueOf(pageNumber), 10);
+        Assert.assertEquals(LongStream.range(pageNumber * 10L, size).boxed().collect(Collectors.toList()), ids(deep));
+        Assert.assertNull(deep.getNext());
+        Assert.assertTrue(pager.page(String.valueOf(pageNumber + 1), 10).getItems().isEmpty());
+        Assert.assertTrue(pager.page(String.valueOf(pageNumber * 5), 10).getItems().isEmpty());
+    }
+
+    @Test
+    public void lastPageIsAlignedWithPageNumbers() {
+        ListingPager pager = new ListingPager(table(tools), table(workflows));
+        for (int limit = 1; limit <= 10; limit++) {
+            ListingPager.Page last = pager.page(ListingPager.lastOffset(), limit);
+            Assert.assertEquals("limit " + limit, ids(pager.page(String.valueOf((9 - 1) / limit), limit)), ids(last));
+            Assert.assertNull(last.getNext());
+        }
+        Assert.assertEquals(Arrays.asList(9L), ids(pager.page(ListingPager.lastOffset(), 4)));
+        Assert.assertEquals(Arrays.asList(1L, 6L, 9L), ids(pager.page(ListingPager.lastOffset(), 3)));
+        Assert.assertTrue(new ListingPager(table(new ArrayList<>()), null).page(ListingPager.lastOffset(), 3).getItems().isEmpty());
+    }
+
+    @Test
+    public void toolsOnly() {
+        ListingPager pager = new ListingPager(table(tools), null);
+        ListingPager.Page first = pager.page(null, 3);
+        Assert.assertEquals(Arrays.asList(4L, 2L, 7L), ids(first));
+        Assert.assertEquals(Arrays.asList(1L, 9L), ids(pager.page(first.getNext(), 3)));
+    }
+
+    @Test(expected = WebApplicationException.class)
+    public void garbageOffset() {
+        new ListingPager(table(tools), table(workflows)).page("bm9wZQ", 3);
+    }
+}
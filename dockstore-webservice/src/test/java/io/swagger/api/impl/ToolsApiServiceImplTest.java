@@ -0,0 +1,231 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.swagger.api.impl;
+
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import io.dockstore.webservice.core.CompressedText;
+import io.dockstore.webservice.core.FileContent;
+import io.dockstore.webservice.core.SourceFile;
+import io.dockstore.webservice.jdbi.DAOStubs;
+import io.dockstore.webservice.jdbi.FileDAO;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Which Accept-Encoding headers let a compressed file be sent as stored, and descriptors answered with a 304 when the client's copy
+ * is current. The files are kept in memory.
+ *
+ * @author dyuen
+ */
+public class ToolsApiServiceImplTest {
+
+    private static final String TOOL = "quay.io/ga4gh/dockstore";
+    private static final String DESCRIPTOR = "cwlVersion: v1.0";
+
+    private final ToolsApiServiceImpl service = new ToolsApiServiceImpl();
+    private SourceFile file;
+    private Date updated = new Date(1500000000000L);
+    private boolean published = true;
+    private int loads;
+
+    @Before
+    public void setUp() {
+        file = new SourceFile();
+        file.setPath("/Dockstore.cwl");
+        file.setType(SourceFile.FileType.DOCKSTORE_CWL);
+        file.setContent(DESCRIPTOR);
+        ToolsApiServiceImpl.setFileDAO(new FileDAO(DAOStubs.sessionFactory()) {
+            @Override
+            public List<FileStamp> findPublishedVersionFileStamps(boolean tool, String path, String name, String version,
+                    SourceFile.FileType type, String filePath, boolean primary) {
+                return files(filePath).isEmpty() ? Collections.emptyList()
+                        : Collections.singletonList(DAOStubs.stamp(file.getContentDigest(), file.getPath(), updated));
+            }
+
+            @Override
+            public List<VersionFile> findPublishedVersionFiles(boolean tool, String path, String name, String version,
+                    SourceFile.FileType type, String filePath, boolean primary) {
+                loads++;
+                return files(filePath).isEmpty() ? Collections.emptyList() : Collections.singletonList(DAOStubs.file(file));
+            }
+
+            @Override
+            public boolean publishedVersionExists(boolean tool, String path, String name, String version) {
+                return published;
+            }
+
+            @Override
+            public boolean unpublishedEntryExists(boolean tool, String path, String name) {
+                return !published;
+            }
+        });
+    }
+
+    /**
+     * @return the files of the version that the database would find, the path is matched like the file's path is stored
+     */
+    private List<SourceFile> files(String filePath) {
+        return published && (filePath == null || filePath.equalsIgnoreCase(file.getPath())) ? Collections.singletonList(file)
+                : Collections.emptyList();
+    }
+
+    private static ContainerRequest request(EntityTag ifNoneMatch, String acceptEncoding) {
+        ContainerRequest request = new ContainerRequest(URI.create("http://localhost/"), URI.create("http://localhost/descriptor"), "GET",
+                null, new MapPropertiesDelegate());
+        if (ifNoneMatch != null) {
+            request.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch.toString());
+        }
+        if (acceptEncoding != null) {
+            request.header(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        }
+        return request;
+    }
+
+    private Response descriptor(EntityTag ifNoneMatch, String acceptEncoding) throws Exception {
+        return service.toolsIdVersionsVersionIdTypeDescriptorGet("PLAIN_CWL", TOOL, "master", null, request(ifNoneMatch, acceptEncoding));
+    }
+
+    private Response secondaryFile(String relativePath) throws Exception {
+        return service.toolsIdVersionsVersionIdTypeDescriptorRelativePathGet("PLAIN_CWL", TOOL, "master", relativePath, null,
+                request(null, null));
+    }
+
+    private static void assertVaries(Response response) {
+        Assert.assertEquals(Collections.singletonList(HttpHeaders.ACCEPT_ENCODING), response.getHeaders().get(HttpHeaders.VARY));
+    }
+
+    /**
+     * Make the file look like it was loaded with content that is stored compressed
+     */
+    private void storeCompressed() throws Exception {
+        FileContent content = new FileContent(DESCRIPTOR);
+        set(FileContent.class, content, "compressedContent", CompressedText.compress(DESCRIPTOR));
+        set(SourceFile.class, file, "fileContent", content);
+        set(SourceFile.class, file, "unsavedContent", null);
+    }
+
+    private static void set(Class<?> type, Object target, String name, Object value) throws Exception {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    @Test
+    public void currentDescriptorIsNotSentAgain() throws Exception {
+        Response first = descriptor(null, null);
+        Assert.assertEquals(200, first.getStatus());
+        Assert.assertEquals(DESCRIPTOR, first.getEntity());
+        assertVaries(first);
+
+        Response second = descriptor(first.getEntityTag(), null);
+        Assert.assertEquals(304, second.getStatus());
+        assertVaries(second);
+        Assert.assertEquals("the file is only loaded for the first request", 1, loads);
+    }
+
+    @Test
+    public void changedDescriptorIsSentAgain() throws Exception {
+        EntityTag tag = descriptor(null, null).getEntityTag();
+        file.setContent("cwlVersion: v1.1");
+
+        Response changed = descriptor(tag, null);
+        Assert.assertEquals(200, changed.getStatus());
+        Assert.assertEquals("cwlVersion: v1.1", changed.getEntity());
+        Assert.assertNotEquals(tag, changed.getEntityTag());
+    }
+
+    @Test
+    public void entryUpdateChangesTheTag() throws Exception {
+        EntityTag tag = descriptor(null, null).getEntityTag();
+        updated = new Date(updated.getTime() + 1);
+
+        Response changed = descriptor(tag, null);
+        Assert.assertEquals(200, changed.getStatus());
+        Assert.assertEquals(2, loads);
+    }
+
+    @Test
+    public void tagDependsOnTheEncoding() throws Exception {
+        storeCompressed();
+        Response compressed = descriptor(null, "gzip");
+        Assert.assertEquals("gzip", compressed.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        assertVaries(compressed);
+
+        Response plain = descriptor(compressed.getEntityTag(), "identity");
+        Assert.assertEquals(200, plain.getStatus());
+        Assert.assertEquals(DESCRIPTOR, plain.getEntity());
+        Assert.assertNotEquals(compressed.getEntityTag(), plain.getEntityTag());
+        Assert.assertEquals(304, descriptor(compressed.getEntityTag(), "gzip, deflate").getStatus());
+    }
+
+    @Test
+    public void missingFileIsNotFound() throws Exception {
+        Assert.assertEquals(DESCRIPTOR, secondaryFile("/Dockstore.cwl").getEntity());
+        Assert.assertEquals(404, secondaryFile("/Dockstore.wdl").getStatus());
+    }
+
+    @Test
+    public void filesOfUnpublishedEntriesAreRefused() throws Exception {
+        published = false;
+        Assert.assertEquals(401, descriptor(null, null).getStatus());
+        Assert.assertEquals(401, secondaryFile("/Dockstore.cwl").getStatus());
+        Assert.assertEquals(401, service.toolsIdVersionsVersionIdTypeTestsGet("CWL", TOOL, "master", null, request(null, null))
+                .getStatus());
+    }
+
+    @Test
+    public void gzipIsAccepted() {
+        Assert.assertTrue(ToolsApiServiceImpl.acceptsGzip("gzip"));
+        Assert.assertTrue(ToolsApiServiceImpl.acceptsGzip("gzip, deflate, br"));
+        Assert.assertTrue(ToolsApiServiceImpl.acceptsGzip("deflate;q=1.0, GZIP;q=0.5"));
+        Assert.assertTrue(ToolsApiServiceImpl.acceptsGzip("x-gzip"));
+        Assert.assertTrue(ToolsApiServiceImpl.acceptsGzip("*"));
+    }
+
+    @Test
+    public void zeroQualityRefusesGzip() {
+        Assert.assertFalse(ToolsApiServiceImpl.acceptsGzip("gzip;q=0"));
+        Assert.assertFalse(ToolsApiServiceImpl.acceptsGzip("gzip; q=0.0"));
+        Assert.assertFalse(ToolsApiServiceImpl.acceptsGzip("gzip;Q = 0.000, deflate"));
+        Assert.assertFalse(ToolsApiServiceImpl.acceptsGzip("*, gzip;q=0"));
+        Assert.assertFalse(ToolsApiServiceImpl.acceptsGzip("identity, *;q=0"));
+    }
+
+    @Test
+    public void unreadableQualityRefusesGzip() {
+        Assert.assertFalse(ToolsApiServiceImpl.acceptsGzip("gzip;q=high"));
+    }
+
+    @Test
+    public void gzipIsNotListed() {
+        Assert.assertFalse(ToolsApiServiceImpl.acceptsGzip(null));
+        Assert.assertFalse(ToolsApiServiceImpl.acceptsGzip(""));
+        Assert.assertFalse(ToolsApiServiceImpl.acceptsGzip("identity"));
+        Assert.assertFalse(ToolsApiServiceImpl.acceptsGzip("deflate, br;q=0.5"));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *    Copyright 2017 OICR
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.swagger.api.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.dockstore.webservice.core.Entry;
+import io.dockstore.webservice.core.Tool;
+import io.dockstore.webservice.helpers.ElasticMode;
+import io.dockstore.webservice.jdbi.DAOStubs;
+import io.dockstore.webservice.jdbi.ToolDAO;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tools are loaded from memory and converted to a tool that only holds the description of the entry. Changes are made outside of a
+ * transaction, so they apply at once.
+ *
+ * @author dyuen
+ */
+public class ToolsCatalogTest {
+
+    private final Map<Long, Tool> published = new HashMap<>();
+    private Runnable duringLoad = () -> { };
+    private int loads;
+
+    private ToolsCatalog catalog(long maximumSize) {
+        ToolDAO toolDAO = new ToolDAO(DAOStubs.sessionFactory()) {
+            @Override
+            public Tool findPublishedById(long id) {
+                loads++;
+                Tool tool = published.get(id);
+                duringLoad.run();
+                return tool;
+            }
+        };
+        return new ToolsCatalog(toolDAO, null, null, maximumSize) {
+            @Override
+            io.swagger.model.Tool convert(Entry entry) {
+                io.swagger.model.Tool tool = new io.swagger.model.Tool();
+                tool.setDescription(entry.getDescription());
+                return tool;
+            }
+        };
+    }
+
+    private Tool publish(long id, String description) {
+        Tool tool = new Tool();
+        tool.setId(id);
+        tool.setIsPublished(true);
+        tool.setDescription(description);
+        published.put(id, tool);
+        return tool;
+    }
+
+    @Test
+    public void toolsAreConvertedOnce() {
+        ToolsCatalog catalog = catalog(ToolsCatalog.MAXIMUM_SIZE);
+        publish(1, "aligner");
+        Assert.assertEquals("aligner", catalog.getTool(1, false).getDescription());
+        Assert.assertEquals("aligner", catalog.getTool(1, false).getDescription());
+        Assert.assertEquals(1, loads);
+        Assert.assertNull(catalog.getTool(2, false));
+    }
+
+    @Test
+    public void changesReplaceTheConvertedTool() {
+        ToolsCatalog catalog = catalog(ToolsCatalog.MAXIMUM_SIZE);
+        Tool tool = publish(1, "aligner");
+        catalog.getTool(1, false);
+        tool.setDescription("variant caller");
+        catalog.handleIndexUpdate(tool, ElasticMode.UPDATE);
+        Assert.assertEquals("variant caller", catalog.getTool(1, false).getDescription());
+
+        published.remove(1L);
+        tool.setIsPublished(false);
+        catalog.handleIndexUpdate(tool, ElasticMode.UPDATE);
+        Assert.assertNull(catalog.getTool(1, false));
+        Assert.assertEquals(2, loads);
+    }
+
+    @Test
+    public void toolLoadedBeforeAChangeIsNotKept() {
+        ToolsCatalog catalog = catalog(ToolsCatalog.MAXIMUM_SIZE);
+        Tool tool = publish(1, "aligner");
+        // the tool is unpublished after it was read and before it is stored
+        duringLoad = () -> {
+            duringLoad = () -> { };
+            published.remove(1L);
+            tool.setIsPublished(false);
+            catalog.handleIndexUpdate(tool, ElasticMode.DELETE);
+        };
+        Assert.assertEquals("the request that read it still answers it", "aligner", catalog.getTool(1, false).getDescription());
+        Assert.assertNull(catalog.getTool(1, false));
+        Assert.assertEquals(2, loads);
+    }
+
+    @Test
+    public void catalogIsBounded() {
+        ToolsCatalog catalog = catalog(10);
+        for (long id = 0; id < 100; id++) {
+            publish(id, "tool " + id);
+            catalog.getTool(id, false);
+        }
+        loads = 0;
+        for (long id = 0; id < 100; id++) {
+            Assert.assertEquals("tool " + id, catalog.getTool(id, false).getDescription());
+        }
+        Assert.assertTrue("most tools were converted again, " + loads, loads >= 90);
+    }
+}